@@ -21,6 +21,7 @@ import org.xtreemfs.babudb.api.Checkpointer;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
 import org.xtreemfs.babudb.api.dev.CheckpointerInternal;
@@ -83,6 +84,14 @@ public class BabuDBInterface {
         future.registerListener(listener);
     }
     
+    /**
+     * @return the minimum payload size of {@link LogEntry}s to be compressed when they are 
+     *         serialized, 0 if compression is disabled.
+     */
+    public int getLogCompressionThreshold() {
+        return dbs.getConfig().getLogCompressionThreshold();
+    }
+    
     /**
      * @return the {@link LSN} of the last inserted {@link LogEntry}.
      */ 
@@ -90,6 +99,13 @@ public class BabuDBInterface {
         return localTxnMan.getLatestOnDiskLSN();
     }
     
+    /**
+     * @return the {@link LogIndex} of the log files of the <b>local</b> {@link DiskLogger}.
+     */
+    public LogIndex getLogIndex() {
+        return localTxnMan.getLogIndex();
+    }
+    
     /**
      * @return the {@link Checkpointer} lock object.
      */
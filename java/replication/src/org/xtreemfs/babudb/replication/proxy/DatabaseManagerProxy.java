@@ -26,6 +26,7 @@ import org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.config.ReplicationConfig;
@@ -217,8 +218,21 @@ public class DatabaseManagerProxy implements DatabaseManagerInternal {
     @Override
     public DatabaseInternal createDatabase(String databaseName, int numIndices, 
             ByteRangeComparator[] comparators) throws BabuDBException {
+        return createDatabase(databaseName, numIndices, comparators, null);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.DatabaseManager#createDatabase(
+     *          java.lang.String, int, 
+     *          org.xtreemfs.babudb.api.index.ByteRangeComparator[], 
+     *          org.xtreemfs.babudb.config.IndexConfig[])
+     */
+    @Override
+    public DatabaseInternal createDatabase(String databaseName, int numIndices, 
+            ByteRangeComparator[] comparators, IndexConfig[] indexConfigs) throws BabuDBException {
         
-        DatabaseInternal result = localDBMan.createDatabase(databaseName, numIndices, comparators);
+        DatabaseInternal result = localDBMan.createDatabase(databaseName, numIndices, comparators, 
+                indexConfigs);
         if (result instanceof DatabaseProxy) {
             return result;
         } else {
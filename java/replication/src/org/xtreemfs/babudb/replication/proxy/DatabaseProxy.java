@@ -8,20 +8,29 @@
 package org.xtreemfs.babudb.replication.proxy;
 
 import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.EntryFilter;
+import org.xtreemfs.babudb.api.database.PartitionConsumer;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPublisher;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.lsmdb.BabuDBInsertGroup;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
+import org.xtreemfs.babudb.lsmdb.RangeScanPublisher;
 import org.xtreemfs.babudb.replication.policy.Policy;
+import org.xtreemfs.babudb.replication.service.clients.ClientResponseFuture.ClientResponseAvailableListener;
 import org.xtreemfs.babudb.replication.transmission.client.ReplicationClientAdapter.ErrorCodeException;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -122,6 +131,47 @@ public class DatabaseProxy implements DatabaseInternal {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#multiLookup(int, byte[][], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(final int indexId, final byte[][] keys, 
+            final Object context) {
+        
+        assert (keys != null);
+        
+        BabuDBRequestResultImpl<byte[][]> result = 
+            new BabuDBRequestResultImpl<byte[][]>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<byte[][]>(result, new RequestOperation<byte[][]>() {
+
+            @Override
+            public void execute(ListenerWrapper<byte[][]> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    
+                    if (master == null) {
+                        localDB.multiLookup(indexId, keys, context).registerListener(listener);
+                    } else {
+                        // TODO RPC: multiLookup; until then, the keys are
+                        // looked up at the master one by one
+                        MultiLookupListener multiListener = new MultiLookupListener(keys.length, listener);
+                        for (int i = 0; i < keys.length; i++) {
+                            dbMan.getClient().lookup(name, indexId, ReusableBuffer.wrap(keys[i]), master)
+                                    .registerListener(multiListener.getListener(i));
+                        }
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, 
      *          byte[], java.lang.Object)
@@ -353,6 +403,112 @@ public class DatabaseProxy implements DatabaseInternal {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#prefixScan(int, byte[], boolean)
+     */
+    @Override
+    public ScanPublisher prefixScan(int indexId, byte[] prefix, boolean ascending) {
+        return new RangeScanPublisher(this, indexId, prefix, ascending);
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#rangeScan(int, byte[], byte[], boolean)
+     */
+    @Override
+    public ScanPublisher rangeScan(int indexId, byte[] from, byte[] to, boolean ascending) {
+        return new RangeScanPublisher(this, indexId, from, to, ascending);
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#filteredRangeLookup(int, byte[], byte[], 
+     *          org.xtreemfs.babudb.api.database.EntryFilter, 
+     *          org.xtreemfs.babudb.api.database.ValueProjection, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> filteredRangeLookup(int indexId, 
+            byte[] from, byte[] to, EntryFilter filter, ValueProjection projection, Object context) {
+        
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, dbMan.getResponseManager());
+        
+        try {
+            if (getServerToPerformAt(0) == null) {
+                return localDB.filteredRangeLookup(indexId, from, to, filter, projection, context);
+            }
+            
+            // filters cannot be transferred to the master
+            result.failed(new BabuDBException(ErrorCode.REPLICATION_FAILURE, 
+                    "Filtered range lookups can only be performed at the master."));
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#parallelRangeLookup(int, byte[], byte[], int,
+     *          org.xtreemfs.babudb.api.database.PartitionConsumer, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Object> parallelRangeLookup(int indexId, byte[] from, byte[] to,
+            int parallelism, final PartitionConsumer consumer, Object context) {
+        
+        try {
+            if (getServerToPerformAt(0) == null) {
+                return localDB.parallelRangeLookup(indexId, from, to, parallelism, consumer, context);
+            }
+        } catch (BabuDBException e) {
+            /* ignored, the remote lookup will fail accordingly */
+        }
+        
+        // partitions cannot be scanned at the master, so the range is consumed
+        // as a single partition
+        final BabuDBRequestResultImpl<Object> result = 
+            new BabuDBRequestResultImpl<Object>(context, dbMan.getResponseManager());
+        rangeLookup(indexId, from, to, context).registerListener(
+                new DatabaseRequestListener<ResultSet<byte[], byte[]>>() {
+            
+            @Override
+            public void finished(ResultSet<byte[], byte[]> entries, Object context) {
+                try {
+                    consumer.consume(0, entries);
+                    result.finished(null);
+                } catch (BabuDBException e) {
+                    result.failed(e);
+                } finally {
+                    entries.free();
+                }
+            }
+            
+            @Override
+            public void failed(BabuDBException error, Object context) {
+                result.failed(error);
+            }
+        });
+        
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#parallelRangeLookup(int, byte[], byte[], int,
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> parallelRangeLookup(int indexId,
+            byte[] from, byte[] to, int parallelism, Object context) {
+        
+        try {
+            if (getServerToPerformAt(0) == null) {
+                return localDB.parallelRangeLookup(indexId, from, to, parallelism, context);
+            }
+        } catch (BabuDBException e) {
+            /* ignored, the remote lookup will fail accordingly */
+        }
+        
+        return rangeLookup(indexId, from, to, context);
+    }
+
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#userDefinedLookup(
      *          org.xtreemfs.babudb.api.database.UserDefinedLookup, 
@@ -378,6 +534,22 @@ public class DatabaseProxy implements DatabaseInternal {
                     listener.failed(e, context);
                 }
                 
+                @Override
+                public void registerListener(
+                        final DatabaseRequestListener<Object> listener, 
+                        Executor executor) {
+                    if (executor == null) {
+                        listener.failed(e, context);
+                    } else {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.failed(e, context);
+                            }
+                        });
+                    }
+                }
+                
                 @Override
                 public Object get() 
                         throws BabuDBException {
@@ -484,6 +656,24 @@ public class DatabaseProxy implements DatabaseInternal {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#bulkLoad(int, java.util.Iterator, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Object> bulkLoad(int indexId, 
+            Iterator<Entry<byte[], byte[]>> entries, Object context) {
+        
+        BabuDBRequestResultImpl<Object> result = 
+            new BabuDBRequestResultImpl<Object>(context, dbMan.getResponseManager());
+        
+        // bulk-loaded index files are not transferred to the other replicas
+        result.failed(new BabuDBException(ErrorCode.REPLICATION_FAILURE, 
+                "Bulk loads are not supported for replicated databases."));
+        
+        return result;
+    }
+
     /**
      * @param timeout - 0 means infinitly and < 0 non blocking.
      * 
@@ -757,4 +947,56 @@ public class DatabaseProxy implements DatabaseInternal {
                     + "'not master' server is not supported by the replication plugin.");
         }
     }
+    
+    /**
+     * Collects the results of the remote lookups a multi-lookup consists of,
+     * and passes them to the given listener once all of them are available.
+     */
+    private static final class MultiLookupListener {
+        
+        private final ListenerWrapper<byte[][]> listener;
+        private final byte[][]                  values;
+        private int                             outstanding;
+        private boolean                         failed = false;
+        
+        MultiLookupListener(int numKeys, ListenerWrapper<byte[][]> listener) {
+            this.listener = listener;
+            this.values = new byte[numKeys][];
+            this.outstanding = numKeys;
+            
+            if (numKeys == 0) {
+                listener.responseAvailable(values);
+            }
+        }
+        
+        ClientResponseAvailableListener<byte[]> getListener(final int pos) {
+            return new ClientResponseAvailableListener<byte[]>() {
+                
+                @Override
+                public void responseAvailable(byte[] r) {
+                    synchronized (MultiLookupListener.this) {
+                        if (failed) {
+                            return;
+                        }
+                        values[pos] = r;
+                        if (--outstanding > 0) {
+                            return;
+                        }
+                    }
+                    listener.responseAvailable(values);
+                }
+                
+                @Override
+                public void requestFailed(Exception e) {
+                    synchronized (MultiLookupListener.this) {
+                        if (failed) {
+                            return;
+                        }
+                        failed = true;
+                    }
+                    listener.requestFailed(e);
+                }
+            };
+        }
+    }
 }
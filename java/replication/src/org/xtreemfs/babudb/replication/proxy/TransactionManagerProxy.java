@@ -10,6 +10,7 @@ package org.xtreemfs.babudb.replication.proxy;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Map.Entry;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
@@ -21,6 +22,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.babudb.replication.ReplicationManager;
 import org.xtreemfs.babudb.replication.policy.Policy;
@@ -126,9 +128,11 @@ public class TransactionManagerProxy extends TransactionManagerInternal {
      * @return the requests result future.
      * @throws BabuDBException
      */
-    private void executeLocallyAndReplicate(TransactionInternal txn, final ReusableBuffer payload, 
-            final BabuDBRequestResultImpl<Object> future) throws BabuDBException {
+    private void executeLocallyAndReplicate(final TransactionInternal txn, 
+            final ReusableBuffer payload, final BabuDBRequestResultImpl<Object> future) 
+            throws BabuDBException {
         
+        final boolean validated = !txn.getReadSet().isEmpty();
         final BabuDBRequestResultImpl<Object> localFuture = 
             new BabuDBRequestResultImpl<Object>(babuDBProxy.getResponseManager());
         localTxnMan.makePersistent(txn, payload.createViewBuffer(), localFuture);
@@ -136,9 +140,24 @@ public class TransactionManagerProxy extends TransactionManagerInternal {
         
             @Override
             public void finished(Object result, Object context) {
-                                
+                
+                // the read set has been dropped after the local validation, and must not be 
+                // replicated either
+                ReusableBuffer replicated = payload;
+                if (validated) {
+                    BufferPool.free(payload);
+                    try {
+                        replicated = txn.serialize(BufferPool.allocate(txn.getSize()));
+                        replicated.flip();
+                    } catch (IOException ioe) {
+                        future.failed(new BabuDBException(ErrorCode.IO_ERROR, ioe.getMessage(), 
+                                ioe));
+                        return;
+                    }
+                }
+                
                 LSN assignedByDiskLogger = localFuture.getAssignedLSN();
-                LogEntry le = new LogEntry(payload, new ListenerWrapper<Object>(future, result), 
+                LogEntry le = new LogEntry(replicated, new ListenerWrapper<Object>(future, result), 
                         PAYLOAD_TYPE_TRANSACTION);
                 le.assignId(assignedByDiskLogger.getViewId(), assignedByDiskLogger.getSequenceNo());
                 
@@ -240,6 +259,15 @@ public class TransactionManagerProxy extends TransactionManagerInternal {
         localTxnMan.unlockService();
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getDatabaseLock(
+     *          java.lang.String)
+     */
+    @Override
+    public ReadWriteLock getDatabaseLock(String databaseName) {
+        return localTxnMan.getDatabaseLock(databaseName);
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.PersistenceManager#setLogger(org.xtreemfs.babudb.log.DiskLogger)
      */
@@ -256,6 +284,14 @@ public class TransactionManagerProxy extends TransactionManagerInternal {
     public LSN getLatestOnDiskLSN() {
         return localTxnMan.getLatestOnDiskLSN();
     }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getLogIndex()
+     */
+    @Override
+    public LogIndex getLogIndex() {
+        return localTxnMan.getLogIndex();
+    }
 
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.PersistenceManager#init(org.xtreemfs.babudb.lsmdb.LSN)
@@ -17,11 +17,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
 
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.config.ReplicationConfig;
+import org.xtreemfs.babudb.log.CRC32C;
 import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.SyncListener;
 import org.xtreemfs.babudb.lsmdb.LSN;
@@ -76,7 +76,7 @@ public class ServiceLayer extends Layer implements  ServiceToControlInterface, S
     private final TransmissionToServiceInterface transmissionInterface;
         
     /** thread safe checksum object for serialization of LogEntries to replicate */
-    private final AtomicReference<CRC32>         checksum = new AtomicReference<CRC32>(new CRC32());
+    private final AtomicReference<CRC32C>        checksum = new AtomicReference<CRC32C>(new CRC32C());
         
     private final ReplicationConfig              config;
     
@@ -179,9 +179,9 @@ public class ServiceLayer extends Layer implements  ServiceToControlInterface, S
             // serialize the LogEntry
             ReusableBuffer payload = null;
             synchronized(checksum) {
-                CRC32 csumAlgo = checksum.get();
+                CRC32C csumAlgo = checksum.get();
                 try {
-                    payload = le.serialize(csumAlgo);
+                    payload = le.serialize(csumAlgo, babuDB.getLogCompressionThreshold());
                 } finally {
                     csumAlgo.reset();
                 }
@@ -9,11 +9,11 @@ package org.xtreemfs.babudb.replication.service.logic;
 
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.log.CRC32C;
 import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.LogEntryException;
 import org.xtreemfs.babudb.lsmdb.LSN;
@@ -39,7 +39,7 @@ import org.xtreemfs.foundation.logging.Logging;
 public class RequestLogic extends Logic {
     
     /** checksum algorithm used to deserialize logEntries */
-    private final Checksum checksum = new CRC32();
+    private final Checksum checksum = new CRC32C();
 
     /**
      * @param babuDB
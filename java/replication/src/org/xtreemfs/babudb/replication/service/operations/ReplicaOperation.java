@@ -9,9 +9,9 @@ package org.xtreemfs.babudb.replication.service.operations;
 
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
+import org.xtreemfs.babudb.log.CRC32C;
 import org.xtreemfs.babudb.log.DiskLogIterator;
 import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.LogEntryException;
@@ -43,7 +43,7 @@ public class ReplicaOperation extends Operation {
 
     private final static int            MAX_LOGENTRIES_PER_REQUEST = 100;
             
-    private final Checksum              checksum = new CRC32();
+    private final Checksum              checksum = new CRC32C();
     
     private final AtomicReference<LSN>  lastOnView;
     
@@ -117,7 +117,7 @@ public class ReplicaOperation extends Operation {
                     
                     // incrementation of sequenceNumber is crucial, because of the DiskLogIterator filters files
                     // that contain LSNs less or equal the given one
-                    it = fileIO.getLogEntryIterator(firstEntryNeeded);
+                    it = fileIO.getLogEntryIterator(firstEntryNeeded, babuInterface.getLogIndex());
                 } catch (LogEntryException exc) {
                     Logging.logMessage(Logging.LEVEL_DEBUG, this, "Entry-log since LSN(%s) is unavailable.", 
                             firstEntryNeeded.toString()); 
@@ -146,7 +146,7 @@ public class ReplicaOperation extends Operation {
                           
                         // add the logEntry to result list
                         assert (le.getPayload().array().length > 0) : "Empty log-entries are not allowed!";
-                        ReusableBuffer buf = le.serialize(checksum);
+                        ReusableBuffer buf = le.serialize(checksum, babuInterface.getLogCompressionThreshold());
                         
                         result.addLogEntries(org.xtreemfs.babudb.pbrpc.GlobalTypes.LogEntry
                                 .newBuilder().setLength(buf.remaining()));
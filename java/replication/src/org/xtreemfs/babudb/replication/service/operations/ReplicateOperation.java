@@ -7,9 +7,9 @@
  */
 package org.xtreemfs.babudb.replication.service.operations;
 
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
+import org.xtreemfs.babudb.log.CRC32C;
 import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.LogEntryException;
 import org.xtreemfs.babudb.lsmdb.LSN;
@@ -37,7 +37,7 @@ import com.google.protobuf.Message;
 public class ReplicateOperation extends Operation {
 
     /** Object for generating check sums */
-    private final Checksum                      checksum = new CRC32();     
+    private final Checksum                      checksum = new CRC32C();     
         
     private final RequestManagement             rqMan;
                 
@@ -12,8 +12,10 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 
 import org.xtreemfs.babudb.config.ReplicationConfig;
+import org.xtreemfs.babudb.index.ValueLog;
 import org.xtreemfs.babudb.log.DiskLogIterator;
 import org.xtreemfs.babudb.log.LogEntryException;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase.DBFileMetaData;
 import org.xtreemfs.babudb.lsmdb.LSN;
@@ -95,6 +97,11 @@ public class FileIO implements FileIOInterface {
                          separatorChar +  pName + separator + fName);
             result.getParentFile().mkdirs();
             result.createNewFile();
+        } else if (fName.matches(ValueLog.SEGMENT_FILENAME_REGEXP)) {
+            // value segments are located in the db-name directory
+            result = new File(baseDir + pName + separatorChar + fName);
+            result.getParentFile().mkdirs();
+            result.createNewFile();
         } else {
             // create the file if necessary
             result = new File(baseDir + configuration.getBabuDBConfig().getDbCfgFile());
@@ -106,12 +113,12 @@ public class FileIO implements FileIOInterface {
     
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.replication.transmission.FileIOInterface#
-     * getLogEntryIterator(org.xtreemfs.babudb.lsmdb.LSN)
+     * getLogEntryIterator(org.xtreemfs.babudb.lsmdb.LSN, org.xtreemfs.babudb.log.LogIndex)
      */
     @Override
-    public DiskLogIterator getLogEntryIterator(LSN from) 
+    public DiskLogIterator getLogEntryIterator(LSN from, LogIndex index) 
             throws LogEntryException, IOException {        
-        return new DiskLogIterator(getLogFiles(), from);
+        return new DiskLogIterator(getLogFiles(), from, index);
     }
     
     /* (non-Javadoc)
@@ -39,6 +39,7 @@ import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.log.DiskLogIterator;
 import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.LogEntryException;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase.DBFileMetaData;
 import org.xtreemfs.babudb.lsmdb.LSN;
 
@@ -67,13 +68,14 @@ public interface FileIOInterface {
     
     /**
      * @param from - {@link LSN} of the first {@link LogEntry} of this iterator.
+     * @param index - the {@link LogIndex} of the local log files, used to seek into them.
      * 
      * @throws LogEntryException
      * @throws IOException
      * 
      * @return an iterator for all locally available {@link LogEntry}s.
      */
-    public DiskLogIterator getLogEntryIterator(LSN from) 
+    public DiskLogIterator getLogEntryIterator(LSN from, LogIndex index) 
             throws LogEntryException, IOException ;
 
     /**
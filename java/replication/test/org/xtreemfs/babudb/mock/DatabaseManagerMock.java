@@ -22,6 +22,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
 import org.xtreemfs.babudb.replication.proxy.DatabaseManagerProxy;
 import org.xtreemfs.foundation.logging.Logging;
@@ -202,6 +203,14 @@ public class DatabaseManagerMock extends DatabaseManagerProxy implements Databas
                 // TODO Auto-generated method stub
                 return null;
             }
+            
+            @Override
+            public DatabaseInternal createDatabase(String databaseName, int numIndices,
+                    ByteRangeComparator[] comparators, IndexConfig[] indexConfigs) 
+                    throws BabuDBException {
+                // TODO Auto-generated method stub
+                return null;
+            }
         }, null, null, null, null, null);
     }
     
@@ -225,6 +234,13 @@ public class DatabaseManagerMock extends DatabaseManagerProxy implements Databas
         return createDatabase(databaseName, numIndices, null);
     }
 
+    @Override
+    public DatabaseInternal createDatabase(String databaseName, int numIndices,
+            ByteRangeComparator[] comparators, IndexConfig[] indexConfigs) throws BabuDBException {
+        
+        return createDatabase(databaseName, numIndices, comparators);
+    }
+
     @Override
     public DatabaseInternal createDatabase(String databaseName, int numIndices,
             ByteRangeComparator[] comparators) throws BabuDBException {
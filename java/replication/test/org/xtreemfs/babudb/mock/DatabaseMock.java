@@ -9,11 +9,17 @@ package org.xtreemfs.babudb.mock;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map.Entry;
 
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.EntryFilter;
+import org.xtreemfs.babudb.api.database.PartitionConsumer;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPublisher;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
@@ -82,6 +88,13 @@ public class DatabaseMock implements DatabaseInternal {
         return null;
     }
 
+    @Override
+    public DatabaseRequestResult<Object> bulkLoad(int indexId,
+            Iterator<Entry<byte[], byte[]>> entries, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public DatabaseRequestResult<byte[]> lookup(int indexId, byte[] key,
             Object context) {
@@ -89,6 +102,13 @@ public class DatabaseMock implements DatabaseInternal {
         return null;
     }
 
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(int indexId, byte[][] keys,
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
             int indexId, byte[] key, Object context) {
@@ -122,6 +142,39 @@ public class DatabaseMock implements DatabaseInternal {
         // TODO Auto-generated method stub
     }
 
+    @Override
+    public ScanPublisher prefixScan(int indexId, byte[] prefix, boolean ascending) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public ScanPublisher rangeScan(int indexId, byte[] from, byte[] to, boolean ascending) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> filteredRangeLookup(int indexId,
+            byte[] from, byte[] to, EntryFilter filter, ValueProjection projection, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<Object> parallelRangeLookup(int indexId, byte[] from, byte[] to,
+            int parallelism, PartitionConsumer consumer, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> parallelRangeLookup(int indexId,
+            byte[] from, byte[] to, int parallelism, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public DatabaseRequestResult<Object> userDefinedLookup(
             UserDefinedLookup udl, Object context) {
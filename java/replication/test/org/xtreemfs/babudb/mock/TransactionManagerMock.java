@@ -9,6 +9,8 @@ package org.xtreemfs.babudb.mock;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
@@ -17,6 +19,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
@@ -42,12 +45,22 @@ public class TransactionManagerMock extends TransactionManagerInternal {
     public LSN getLatestOnDiskLSN() {
         return onDisk.get();
     }
+    
+    @Override
+    public LogIndex getLogIndex() {
+        return new LogIndex();
+    }
 
     @Override
     public void init(LSN initial) {
         onDisk.set(initial);
     }
 
+    @Override
+    public ReadWriteLock getDatabaseLock(String databaseName) {
+        return new ReentrantReadWriteLock();
+    }
+
     @Override
     public void lockService() throws InterruptedException {
 
@@ -23,7 +23,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.StaticInitialization;
@@ -35,6 +41,7 @@ import org.xtreemfs.babudb.api.dev.ResponseManagerInternal;
 import org.xtreemfs.babudb.api.dev.SnapshotManagerInternal;
 import org.xtreemfs.babudb.api.dev.transaction.InMemoryProcessing;
 import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
@@ -44,6 +51,7 @@ import org.xtreemfs.babudb.log.DiskLogIterator;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.PrefetchingLogIterator;
 import org.xtreemfs.babudb.lsmdb.CheckpointerImpl;
 import org.xtreemfs.babudb.lsmdb.DBConfig;
 import org.xtreemfs.babudb.lsmdb.DatabaseManagerImpl;
@@ -72,6 +80,12 @@ public class BabuDBImpl implements BabuDBInternal {
     
     private LSMDBWorker[]                 worker;
     
+    /**
+     * executes lookups that bypass the workers, null if lookups are queued at
+     * the workers
+     */
+    private Executor                      readExecutor;
+    
     /**
      * the disk logger is used to write InsertRecordGroups persistently to disk
      */
@@ -147,7 +161,8 @@ public class BabuDBImpl implements BabuDBInternal {
     BabuDBImpl(BabuDBConfig configuration) throws BabuDBException {
         
         this.configuration = configuration;
-        this.responseManager = new ResponseManagerImpl(configuration.getMaxQueueLength());
+        this.responseManager = new ResponseManagerImpl(configuration.getMaxQueueLength(), 
+                configuration.getNumResponseThreads());
         this.txnMan = new TransactionManagerImpl(configuration.getSyncMode().equals(SyncMode.ASYNC));
         this.databaseManager = new DatabaseManagerImpl(this);
         this.dbConfigFile = new DBConfig(this);
@@ -202,7 +217,8 @@ public class BabuDBImpl implements BabuDBInternal {
             try {
                 logger = new DiskLogger(configuration.getDbLogDir(), nextLSN, configuration.getSyncMode(),
                     configuration.getPseudoSyncWait(), configuration.getMaxQueueLength()
-                        * Math.max(1, configuration.getNumThreads()));
+                        * Math.max(1, configuration.getNumThreads()), 
+                    configuration.getLogCompressionThreshold());
                 logger.setLifeCycleListener(this);
                 logger.start();
                 logger.waitForStartup();
@@ -215,8 +231,10 @@ public class BabuDBImpl implements BabuDBInternal {
             if (configuration.getNumThreads() > 0) {
                 worker = new LSMDBWorker[configuration.getNumThreads()];
                 for (int i = 0; i < configuration.getNumThreads(); i++) {
-                    worker[i] = new LSMDBWorker(this, i, configuration.getMaxQueueLength());
-                    worker[i].start();
+                    worker[i] = new LSMDBWorker(this, i, configuration.getMaxQueueLength(), worker);
+                }
+                for (LSMDBWorker w : worker) {
+                    w.start();
                 }
             } else {
                 // number of workers is 0 => requests will be responded directly.
@@ -224,6 +242,7 @@ public class BabuDBImpl implements BabuDBInternal {
                 
                 worker = null;
             }
+            readExecutor = createReadExecutor();
             
             if (dbConfigFile.isConversionRequired())
                 AutoConverter.completeConversion(this);
@@ -285,6 +304,7 @@ public class BabuDBImpl implements BabuDBInternal {
                 if (worker != null)
                     for (LSMDBWorker w : worker)
                         w.waitForShutdown();
+                shutdownReadExecutor(true);
                 
             } catch (Exception ex) {
                 Logging.logMessage(Logging.LEVEL_ERROR, this, "BabuDB could"
@@ -344,7 +364,7 @@ public class BabuDBImpl implements BabuDBInternal {
             try {
                 logger = new DiskLogger(configuration.getDbLogDir(), nextLSN, configuration.getSyncMode(),
                     configuration.getPseudoSyncWait(), configuration.getMaxQueueLength()
-                        * configuration.getNumThreads());
+                        * configuration.getNumThreads(), configuration.getLogCompressionThreshold());
                 logger.setLifeCycleListener(this);
                 logger.start();
                 logger.waitForStartup();
@@ -358,8 +378,10 @@ public class BabuDBImpl implements BabuDBInternal {
             if (configuration.getNumThreads() > 0) {
                 worker = new LSMDBWorker[configuration.getNumThreads()];
                 for (int i = 0; i < configuration.getNumThreads(); i++) {
-                    worker[i] = new LSMDBWorker(this, i, configuration.getMaxQueueLength());
-                    worker[i].start();
+                    worker[i] = new LSMDBWorker(this, i, configuration.getMaxQueueLength(), worker);
+                }
+                for (LSMDBWorker w : worker) {
+                    w.start();
                 }
             } else {
                 // number of workers is 0 => requests will be responded
@@ -368,6 +390,7 @@ public class BabuDBImpl implements BabuDBInternal {
                 
                 worker = null;
             }
+            readExecutor = createReadExecutor();
             
             // restart the checkpointer
             this.dbCheckptr.init(logger, configuration.getCheckInterval(), configuration.getMaxLogfileSize());
@@ -448,6 +471,12 @@ public class BabuDBImpl implements BabuDBInternal {
                 worker.length);
         }
         
+        try {
+            shutdownReadExecutor(graceful);
+        } catch (InterruptedException e) {
+            Logging.logError(Logging.LEVEL_DEBUG, this, e);
+        }
+        
         try {
             responseManager.shutdown();
         } catch (Exception e) {
@@ -471,6 +500,7 @@ public class BabuDBImpl implements BabuDBInternal {
             if (worker != null)
                 for (LSMDBWorker w : worker)
                     w.stop();
+            shutdownReadExecutor(false);
             this.dbCheckptr.shutdown();
             this.databaseManager.shutdown();
             this.snapshotManager.shutdown();
@@ -550,6 +580,9 @@ public class BabuDBImpl implements BabuDBInternal {
 
         if (property.startsWith("diskLogger"))
             return logger.getRuntimeState(property);
+        
+        if (property.startsWith("responseManager"))
+            return responseManager.getRuntimeState(property);
 
         return null;
     }
@@ -566,6 +599,7 @@ public class BabuDBImpl implements BabuDBInternal {
         info.putAll(dbCheckptr.getRuntimeState());
         info.putAll(databaseManager.getRuntimeState());
         info.putAll(logger.getRuntimeState());
+        info.putAll(responseManager.getRuntimeState());
         
         return info;
     }
@@ -625,6 +659,79 @@ public class BabuDBImpl implements BabuDBInternal {
         return worker[dbId % worker.length];
     }
     
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.dev.BabuDBInternal#getReadExecutor()
+     */
+    @Override
+    public Executor getReadExecutor() {
+        return readExecutor;
+    }
+    
+    /**
+     * Creates the executor for lookups that bypass the workers according to
+     * the configured read mode.
+     * 
+     * @return the executor, or null, if lookups are to be queued at the
+     *         workers.
+     */
+    private Executor createReadExecutor() {
+        
+        if (worker == null)
+            return null;
+        
+        switch (configuration.getReadMode()) {
+        case POOL: {
+            int numThreads = configuration.getNumReadThreads() > 0 ? configuration.getNumReadThreads()
+                : Runtime.getRuntime().availableProcessors();
+            
+            return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                
+                private final AtomicInteger id = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "LSMDBReader#" + id.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        case CALLER:
+            return new Executor() {
+                
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        default:
+            return null;
+        }
+    }
+    
+    /**
+     * Shuts down the pool of read threads, if there is one, and waits for the
+     * termination of pending lookups.
+     * 
+     * @param graceful
+     *            - if false, pending lookups are discarded.
+     * @throws InterruptedException
+     */
+    private void shutdownReadExecutor(boolean graceful) throws InterruptedException {
+        
+        if (readExecutor instanceof ExecutorService) {
+            ExecutorService pool = (ExecutorService) readExecutor;
+            if (graceful) {
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } else {
+                pool.shutdownNow();
+            }
+        }
+    }
+    
     /**
      * Replays the database operations log.
      * 
@@ -637,6 +744,8 @@ public class BabuDBImpl implements BabuDBInternal {
      */
     private LSN replayLogs(LSN from) throws BabuDBException {
         
+        PrefetchingLogIterator it = null;
+        ParallelLogReplay replay = null;
         try {
             File f = new File(configuration.getDbLogDir());
             File[] logFiles = f.listFiles(new FilenameFilter() {
@@ -645,9 +754,15 @@ public class BabuDBImpl implements BabuDBInternal {
                 }
             });
             
-            DiskLogIterator it = new DiskLogIterator(logFiles, from);
+            // read and decode the log in the background while replaying it
+            it = new PrefetchingLogIterator(new DiskLogIterator(logFiles, from));
             LSN nextLSN = null;
             
+            // apply transactions with multiple threads, if configured
+            if (configuration.getLogReplayThreads() > 1) {
+                replay = new ParallelLogReplay(txnMan, configuration.getLogReplayThreads());
+            }
+            
             // apply log entries to databases ...
             while (it.hasNext()) {
                 LogEntry le = null;
@@ -661,7 +776,11 @@ public class BabuDBImpl implements BabuDBInternal {
                     
                     // in normal there are only transactions to be replayed
                     if (type == PAYLOAD_TYPE_TRANSACTION) {
-                        txnMan.replayTransaction(le);
+                        if (replay != null) {
+                            replay.replay(TransactionInternal.deserialize(le.getPayload()));
+                        } else {
+                            txnMan.replayTransaction(le);
+                        }
                         
                         // create, copy and delete are not replayed (this block
                         // is for backward
@@ -669,6 +788,10 @@ public class BabuDBImpl implements BabuDBInternal {
                     } else if (type != PAYLOAD_TYPE_CREATE && type != PAYLOAD_TYPE_COPY
                         && type != PAYLOAD_TYPE_DELETE) {
                         
+                        if (replay != null) {
+                            replay.barrier();
+                        }
+                        
                         // get the processing logic for the dedicated logEntry
                         // type
                         InMemoryProcessing processingLogic = txnMan.getProcessingLogic().get(type);
@@ -726,7 +849,9 @@ public class BabuDBImpl implements BabuDBInternal {
                 
             }
             
-            it.destroy();
+            if (replay != null) {
+                replay.barrier();
+            }
             
             if (nextLSN != null) {
                 return nextLSN;
@@ -743,6 +868,21 @@ public class BabuDBImpl implements BabuDBInternal {
             Logging.logError(Logging.LEVEL_ERROR, this, ex);
             throw new BabuDBException(ErrorCode.IO_ERROR, "corrupted/incomplete log entry in "
                 + "database operations log", ex);
+        } finally {
+            if (it != null) {
+                try {
+                    it.destroy();
+                } catch (InterruptedException ex) {
+                    Logging.logError(Logging.LEVEL_WARN, this, ex);
+                }
+            }
+            if (replay != null) {
+                try {
+                    replay.shutdown();
+                } catch (InterruptedException ex) {
+                    Logging.logError(Logging.LEVEL_WARN, this, ex);
+                }
+            }
         }
     }
     
@@ -10,6 +10,8 @@
  */
 package org.xtreemfs.babudb;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
@@ -32,6 +34,10 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
     private final ResponseManagerInternal       respMan;
     
     private DatabaseRequestListener<T>          listener; 
+    
+    private boolean                             bypassRespMan = false;
+    
+    private Executor                            executor;
 
     private T                                   result;
     
@@ -153,7 +159,9 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
         }
         
         // notify the asynchronous-listener
-        if (listener != null) {
+        if (listener != null && bypassRespMan) {
+            notifyListener(listener, executor);
+        } else if (listener != null) {
             try {
                 respMan.enqueueResponse(listener, error, result, context);
             } catch (InterruptedException e) {
@@ -184,6 +192,23 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRequestResult#registerListener(org.xtreemfs.babudb.api.database.DatabaseRequestListener, java.util.concurrent.Executor)
+     */
+    public void registerListener(DatabaseRequestListener<T> listener, Executor executor) {
+        synchronized (finished) {
+            assert (this.listener == null) : "There is already a listener registered!";
+            if (!finished.get()) {
+                this.listener = listener;
+                this.executor = executor;
+                this.bypassRespMan = true;
+                return;
+            }
+        }
+        
+        notifyListener(listener, executor);
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRequestResult#get()
      */
@@ -201,4 +226,37 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
         if (error != null) throw error;
         return result;
     }
+    
+    /**
+     * Notifies the given listener about the outcome of the request, either
+     * directly or through the given executor. If the executor rejects the
+     * notification, the listener is notified directly.
+     * 
+     * @param listener
+     * @param executor - may be null.
+     */
+    private void notifyListener(final DatabaseRequestListener<T> listener, Executor executor) {
+        
+        Runnable notification = new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    listener.finished(result, context);
+                } else {
+                    listener.failed(error, context);
+                }
+            }
+        };
+        
+        if (executor != null) {
+            try {
+                executor.execute(notification);
+                return;
+            } catch (RejectedExecutionException e) {
+                Logging.logError(Logging.LEVEL_WARN, this, e);
+            }
+        }
+        
+        notification.run();
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.api.transaction.Operation;
+import org.xtreemfs.babudb.lsmdb.BabuDBTransaction;
+
+/**
+ * Replays transactions from the database operations log with multiple
+ * threads.
+ *
+ * Insertions are dispatched to a fixed number of lanes by the name of the
+ * database they belong to. Each lane is drained by its own thread, so that all
+ * changes to a database, and therefore to each of its keys, are applied in log
+ * order. Transactions containing any other operation, such as the creation,
+ * deletion or copying of databases or snapshots, act as barriers: they are
+ * applied after all lanes have been drained, and no later transaction is
+ * dispatched before they have been applied.
+ */
+class ParallelLogReplay {
+    
+    /**
+     * maximum number of transactions waiting to be applied per lane
+     */
+    private static final int                 LANE_CAPACITY = 1024;
+    
+    private final TransactionManagerInternal txnMan;
+    
+    private final Lane[]                     lanes;
+    
+    /**
+     * number of dispatched transactions that have not been applied yet
+     */
+    private int                              pending;
+    
+    /**
+     * the first error that occurred in one of the lanes
+     */
+    private BabuDBException                  error;
+    
+    /**
+     * @param txnMan
+     *            - the transaction manager applying the transactions.
+     * @param numThreads
+     *            - the number of lanes.
+     */
+    ParallelLogReplay(TransactionManagerInternal txnMan, int numThreads) {
+        
+        this.txnMan = txnMan;
+        this.lanes = new Lane[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].start();
+        }
+    }
+    
+    /**
+     * Dispatches the given transaction to the lanes of the databases it
+     * modifies, or applies it directly once all previously dispatched
+     * transactions have been applied if it must not be replayed concurrently.
+     * 
+     * @param txn
+     * @throws BabuDBException
+     *             if the transaction, or any previously dispatched one, could
+     *             not be replayed.
+     */
+    void replay(TransactionInternal txn) throws BabuDBException {
+        
+        checkError();
+        
+        for (OperationInternal operation : txn) {
+            if (operation.getType() != Operation.TYPE_GROUP_INSERT || operation.getDatabaseName() == null) {
+                barrier();
+                txnMan.replayTransaction(txn);
+                return;
+            }
+        }
+        
+        // split the transaction up by lanes, preserving the order of its
+        // operations within each lane
+        TransactionInternal[] parts = new TransactionInternal[lanes.length];
+        for (OperationInternal operation : txn) {
+            int lane = (operation.getDatabaseName().hashCode() & Integer.MAX_VALUE) % lanes.length;
+            if (parts[lane] == null) {
+                parts[lane] = new BabuDBTransaction();
+            }
+            parts[lane].addOperation(operation);
+        }
+        
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] != null) {
+                lanes[i].dispatch(parts[i]);
+            }
+        }
+    }
+    
+    /**
+     * Waits until all dispatched transactions have been applied.
+     * 
+     * @throws BabuDBException
+     *             if any of them could not be replayed.
+     */
+    void barrier() throws BabuDBException {
+        
+        try {
+            synchronized (this) {
+                while (pending > 0 && error == null) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException exc) {
+            throw new BabuDBException(ErrorCode.INTERRUPTED, "log replay was interrupted", exc);
+        }
+        
+        checkError();
+    }
+    
+    /**
+     * Stops all lanes. Transactions that have not been applied yet are
+     * discarded.
+     * 
+     * @throws InterruptedException
+     */
+    void shutdown() throws InterruptedException {
+        
+        for (Lane lane : lanes) {
+            lane.interrupt();
+        }
+        for (Lane lane : lanes) {
+            lane.join();
+        }
+    }
+    
+    private synchronized void checkError() throws BabuDBException {
+        if (error != null) {
+            throw error;
+        }
+    }
+    
+    private synchronized void applied(BabuDBException exc) {
+        
+        if (exc != null && error == null) {
+            error = exc;
+        }
+        
+        if (--pending == 0 || error != null) {
+            notifyAll();
+        }
+    }
+    
+    /**
+     * A thread applying transactions in the order they were dispatched to it.
+     */
+    private final class Lane extends Thread {
+        
+        private final BlockingQueue<TransactionInternal> queue;
+        
+        Lane(int id) {
+            super("LogReplay-" + id);
+            setDaemon(true);
+            queue = new LinkedBlockingQueue<TransactionInternal>(LANE_CAPACITY);
+        }
+        
+        void dispatch(TransactionInternal txn) throws BabuDBException {
+            
+            synchronized (ParallelLogReplay.this) {
+                pending++;
+            }
+            
+            try {
+                queue.put(txn);
+            } catch (InterruptedException exc) {
+                applied(null);
+                throw new BabuDBException(ErrorCode.INTERRUPTED, "log replay was interrupted", exc);
+            }
+        }
+        
+        @Override
+        public void run() {
+            
+            try {
+                while (true) {
+                    TransactionInternal txn = queue.take();
+                    
+                    BabuDBException exc = null;
+                    synchronized (ParallelLogReplay.this) {
+                        exc = error;
+                    }
+                    
+                    // once an error occurred, the remaining transactions are
+                    // skipped, as replay will be aborted anyway
+                    if (exc == null) {
+                        try {
+                            txnMan.replayTransaction(txn);
+                        } catch (BabuDBException be) {
+                            exc = be;
+                        } catch (RuntimeException re) {
+                            exc = new BabuDBException(ErrorCode.INTERNAL_ERROR, "transaction could not be replayed: "
+                                + re.getMessage(), re);
+                        }
+                    }
+                    
+                    applied(exc);
+                }
+            } catch (InterruptedException exc) {
+                // shut down
+            }
+        }
+    }
+}
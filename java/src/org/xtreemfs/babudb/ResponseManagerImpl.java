@@ -7,38 +7,96 @@
  */
 package org.xtreemfs.babudb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.dev.ResponseManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.foundation.logging.Logging;
 
 /**
  * Thread to process response handles for BabuDB request futures. This is necessary to decouple internal BabuDB 
  * threads from user listeners. It does not prevent user listeners from deadlock by them selves.
  * 
+ * Responses may be processed by multiple lanes, each of which has its own queue and thread. Responses are assigned to
+ * lanes by their context, or by their listener if they do not have a context, so that responses with the same context
+ * are processed in the order they were enqueued. The first lane is processed by this thread.
+ * 
  * @author flangner
  * @since 05/29/2011
  */
 public class ResponseManagerImpl extends ResponseManagerInternal {
-
-    private final BlockingQueue<ResponseRecord<?>>      queue;
     
-    private boolean                                     quit = true;
+    private static final String                         RUNTIME_STATE_QUEUELENGTH   =
+        "responseManager.queueLength";
+    
+    private static final String                         RUNTIME_STATE_RESPONSECOUNT =
+        "responseManager.responseCount";
+    
+    private static final String                         RUNTIME_STATE_AVGLATENCY    =
+        "responseManager.avgLatencyMicros";
+    
+    private static final String                         RUNTIME_STATE_MAXLATENCY    =
+        "responseManager.maxLatencyMicros";
+    
+    private final List<BlockingQueue<ResponseRecord<?>>> queues;
+    
+    private final Lane[]                                lanes;
+    
+    private volatile boolean                            quit = true;
+    
+    /**
+     * number of responses processed so far
+     */
+    private final AtomicLong                            responseCount = new AtomicLong();
+    
+    /**
+     * total time in nanoseconds between enqueuing responses and returning from their listeners
+     */
+    private final AtomicLong                            totalLatency = new AtomicLong();
+    
+    /**
+     * maximum time in nanoseconds between enqueuing a response and returning from its listener
+     */
+    private final AtomicLong                            maxLatency = new AtomicLong();
     
     /**
      * @param max_Q - max length of the queue.
      */
     public ResponseManagerImpl(int max_Q) {
+        this(max_Q, 1);
+    }
+    
+    /**
+     * @param max_Q - max length of the queue of each lane.
+     * @param numLanes - number of lanes processing responses concurrently.
+     */
+    public ResponseManagerImpl(int max_Q, int numLanes) {
         super();
-        if (max_Q > 0) {
-            queue = new LinkedBlockingQueue<ResponseRecord<?>>(max_Q);
-        } else {
-            queue = new LinkedBlockingQueue<ResponseRecord<?>>();
+        
+        assert (numLanes > 0);
+        
+        queues = new ArrayList<BlockingQueue<ResponseRecord<?>>>(numLanes);
+        for (int i = 0; i < numLanes; i++) {
+            if (max_Q > 0) {
+                queues.add(new LinkedBlockingQueue<ResponseRecord<?>>(max_Q));
+            } else {
+                queues.add(new LinkedBlockingQueue<ResponseRecord<?>>());
+            }
+        }
+        
+        lanes = new Lane[numLanes - 1];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i + 1);
         }
     }
-
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.dev.ResponseManagerInternal#enqueueResponse(
      *          org.xtreemfs.babudb.api.database.DatabaseRequestListener, 
@@ -51,7 +109,40 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
         
         assert (result == null || error == null && result != error);
         
-        queue.put(new ResponseRecord<T>(listener, error, result, context));
+        int lane = 0;
+        if (queues.size() > 1) {
+            Object key = (context != null) ? context : listener;
+            lane = (key.hashCode() & Integer.MAX_VALUE) % queues.size();
+        }
+        
+        queues.get(lane).put(new ResponseRecord<T>(listener, error, result, context));
+    }
+    
+    /**
+     * @return the number of responses waiting to be processed.
+     */
+    public int getQueueLength() {
+        int length = 0;
+        for (BlockingQueue<ResponseRecord<?>> queue : queues) {
+            length += queue.size();
+        }
+        return length;
+    }
+    
+    public Object getRuntimeState(String property) {
+        return getRuntimeState().get(property);
+    }
+    
+    public Map<String, Object> getRuntimeState() {
+        
+        long count = responseCount.get();
+        
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(RUNTIME_STATE_QUEUELENGTH, getQueueLength());
+        map.put(RUNTIME_STATE_RESPONSECOUNT, count);
+        map.put(RUNTIME_STATE_AVGLATENCY, count == 0 ? 0L : totalLatency.get() / count / 1000);
+        map.put(RUNTIME_STATE_MAXLATENCY, maxLatency.get() / 1000);
+        return map;
     }
     
     /* (non-Javadoc)
@@ -60,6 +151,9 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
     @Override
     public synchronized void start() {
         quit = false;
+        for (Lane lane : lanes) {
+            lane.start();
+        }
         super.start();
     }
     
@@ -69,6 +163,9 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
     @Override
     public synchronized void shutdown() throws Exception {
         quit = true;
+        for (Lane lane : lanes) {
+            lane.interrupt();
+        }
         interrupt();
     }
     
@@ -76,31 +173,77 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
      * @see java.lang.Thread#run()
      */
     @Override
-    @SuppressWarnings("unchecked")
     public void run() {
         
-        ResponseRecord respRec = null;
         notifyStarted();
         
         while (!quit) {
             try {
-                respRec = queue.take();
-                
-                if (respRec.error == null) {
-                    respRec.listener.finished(respRec.result, respRec.context);
-                } else {
-                    respRec.listener.failed(respRec.error, respRec.context);
-                }
+                process(queues.get(0).take());
             } catch (InterruptedException e) {
                 if (!quit) {
                     notifyCrashed(e);
                 }
+            } catch (RuntimeException e) {
+                // a failing listener must not stop the delivery of responses
+                Logging.logError(Logging.LEVEL_ERROR, this, e);
             }
         }
         
         notifyStopped();
     }
     
+    /**
+     * Passes the response to its listener.
+     * 
+     * @param respRec
+     */
+    private <T> void process(ResponseRecord<T> respRec) {
+        
+        if (respRec.error == null) {
+            respRec.listener.finished(respRec.result, respRec.context);
+        } else {
+            respRec.listener.failed(respRec.error, respRec.context);
+        }
+        
+        long latency = System.nanoTime() - respRec.enqueued;
+        responseCount.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        
+        long max;
+        while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency));
+    }
+    
+    /**
+     * Thread processing the responses of one of the additional lanes.
+     */
+    private final class Lane extends Thread {
+        
+        private final BlockingQueue<ResponseRecord<?>> queue;
+        
+        private Lane(int id) {
+            super("RspMan-" + id);
+            setDaemon(true);
+            this.queue = queues.get(id);
+        }
+        
+        @Override
+        public void run() {
+            
+            while (!quit) {
+                try {
+                    process(queue.take());
+                } catch (InterruptedException e) {
+                    if (!quit) {
+                        Logging.logError(Logging.LEVEL_ERROR, this, e);
+                    }
+                } catch (RuntimeException e) {
+                    Logging.logError(Logging.LEVEL_ERROR, this, e);
+                }
+            }
+        }
+    }
+    
     /**
      * Data record for processing the listener.
      * 
@@ -113,6 +256,7 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
         private final BabuDBException                   error;
         private final Object                            context;
         private final T                                 result;
+        private final long                              enqueued;
         
         private ResponseRecord(DatabaseRequestListener<T> listener, BabuDBException error, T result,
                 Object context) {
@@ -121,6 +265,7 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
             this.error = error;
             this.result = result;
             this.context = context;
+            this.enqueued = System.nanoTime();
         }
     }
 }
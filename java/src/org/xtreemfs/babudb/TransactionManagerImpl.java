@@ -11,11 +11,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.xtreemfs.babudb.api.dev.transaction.InMemoryProcessing;
 import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal.ReadRecord;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
@@ -23,6 +31,7 @@ import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.log.SyncListener;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -33,6 +42,17 @@ import org.xtreemfs.foundation.logging.Logging;
  * Default implementation of the {@link TransactionManagerInternal} interface using
  * the {@link DiskLogger} to let operations become persistent.
  * 
+ * Transactions may be made persistent concurrently. While a transaction is applied
+ * in-memory and appended to the log, it holds a lock on each database it affects.
+ * The locks are acquired in the order of the database names, so that transactions
+ * affecting the same databases are applied in the same order in-memory and in the
+ * log without deadlocking, whereas transactions affecting disjoint sets of
+ * databases are processed in parallel. The read set of a transaction is
+ * validated while these locks are held, so that a transaction is only executed
+ * if none of the records it has read has changed in the meantime. Lookups
+ * bypassing the workers hold the read locks of the databases, so that they
+ * never observe a transaction partially.
+ * 
  * @author flangner
  * @since 11/03/2010
  */
@@ -49,6 +69,12 @@ class TransactionManagerImpl extends TransactionManagerInternal {
     
     private final boolean                     isAsync;
     
+    /**
+     * locks of the databases, by database name
+     */
+    private final ConcurrentMap<String, ReadWriteLock> databaseLocks = 
+        new ConcurrentHashMap<String, ReadWriteLock>();
+    
     public TransactionManagerImpl (boolean isAsync) {
         this.isAsync = isAsync;
     }
@@ -91,25 +117,113 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         Logging.logMessage(Logging.LEVEL_DEBUG, this, "Trying to perform transaction %s ...", 
                 txn.toString());
         
+        Object[] result;
         try {
-                    
-            Object[] result = inMemory(txn, payload);
-            LogEntry entry = generateLogEntry(txn, payload, future, result);
-                        
-            onDisk(txn, entry);
-                        
-            // notify listeners (async)
-            if (isAsync) {
-                future.finished(result, null);
-                
-                for (TransactionListener l : listeners) {
-                    l.transactionPerformed(txn);
+            
+            // wait for the workers of the affected databases before locking
+            // the databases, as the workers may need the locks to proceed
+            List<Lock> locks;
+            try {
+                SortedSet<String> databases = new TreeSet<String>();
+                for (String databaseName : txn.databasesAffected()) {
+                    if (databaseName != null) {
+                        txn.lockResponsibleWorker(databaseName);
+                        databases.add(databaseName);
+                    }
+                }
+                for (ReadRecord read : txn.getReadSet()) {
+                    databases.add(read.getDatabaseName());
                 }
+                
+                locks = lockDatabases(databases);
+            } catch (BabuDBException be) {
+                BufferPool.free(payload);
+                throw be;
             }
             
+            try {
+                
+                // abort the transaction if any record it has read has changed, or if any 
+                // condition of its operations is not met, before any operation is applied
+                try {
+                    if (readSetValidation != null) {
+                        readSetValidation.validate(txn);
+                    } else if (!txn.getReadSet().isEmpty()) {
+                        throw new BabuDBException(ErrorCode.INTERNAL_ERROR, 
+                                "Read sets cannot be validated.");
+                    }
+                } catch (BabuDBException be) {
+                    BufferPool.free(payload);
+                    throw be;
+                }
+                
+                result = inMemory(txn, payload);
+                payload = updatePayload(txn, payload);
+                LogEntry entry = generateLogEntry(txn, payload, future, result);
+                
+                onDisk(txn, entry);
+            } finally {
+                for (Lock lock : locks) {
+                    lock.unlock();
+                }
+            }
         } finally {
             txn.unlockWorkers();
         }
+        
+        // notify listeners (async)
+        if (isAsync) {
+            future.finished(result, null);
+            
+            for (TransactionListener l : listeners) {
+                l.transactionPerformed(txn);
+            }
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getDatabaseLock(
+     *          java.lang.String)
+     */
+    @Override
+    public ReadWriteLock getDatabaseLock(String databaseName) {
+        
+        ReadWriteLock lock = databaseLocks.get(databaseName);
+        if (lock == null) {
+            lock = new ReentrantReadWriteLock();
+            ReadWriteLock existing = databaseLocks.putIfAbsent(databaseName, lock);
+            if (existing != null) lock = existing;
+        }
+        return lock;
+    }
+    
+    /**
+     * Acquires the write locks of the given databases in the order of their names.
+     * 
+     * @param databases
+     * @throws BabuDBException if the thread was interrupted while waiting for a lock.
+     * 
+     * @return the locks acquired.
+     */
+    private List<Lock> lockDatabases(SortedSet<String> databases) throws BabuDBException {
+        
+        List<Lock> locks = new ArrayList<Lock>(databases.size());
+        try {
+            for (String databaseName : databases) {
+                
+                Lock lock = getDatabaseLock(databaseName).writeLock();
+                lock.lockInterruptibly();
+                locks.add(lock);
+            }
+        } catch (InterruptedException ie) {
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
+            throw new BabuDBException(ErrorCode.INTERRUPTED, "Transaction could not lock the " +
+                    "affected databases.", ie);
+        }
+        
+        return locks;
     }
     
     /**
@@ -220,7 +334,6 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         for (int i = 0; i < txn.size(); i++) {
             try {
                 OperationInternal operation = txn.get(i);
-                txn.lockResponsibleWorker(operation.getDatabaseName());
                 operationResults.add(
                         inMemoryProcessing.get(operation.getType()).process(operation));
                 
@@ -231,15 +344,7 @@ class TransactionManagerImpl extends TransactionManagerInternal {
                 
                     // trim the transaction
                     txn.cutOfAt(i, be);
-                    
-                    try {
-                        payload.shrink(txn.getSize());
-                        break;
-                    } catch (IOException ioe) {
-                        
-                        BufferPool.free(payload);
-                        throw new BabuDBException(ErrorCode.IO_ERROR, ioe.getMessage(), ioe);
-                    }
+                    break;
                 } else {
                     
                     // no operation could have been executed so far
@@ -252,6 +357,40 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         return operationResults.toArray();
     }
     
+    /**
+     * Serializes the transaction anew if operations have been dropped or rewritten while being 
+     * processed in-memory, e.g. if the conditions of conditional inserts have been resolved, so 
+     * that only the operations actually executed are logged. The read set, which has already 
+     * been validated at this point, is dropped as well.
+     * 
+     * @param txn
+     * @param payload - the payload of the transaction before processing.
+     * @throws BabuDBException
+     * 
+     * @return the payload to log, which replaces the given one.
+     */
+    private final ReusableBuffer updatePayload(TransactionInternal txn, ReusableBuffer payload) 
+            throws BabuDBException {
+        
+        boolean rewritten = txn.getIrregularities() != null || !txn.getReadSet().isEmpty();
+        for (int i = 0; !rewritten && i < txn.size(); i++) {
+            rewritten = txn.get(i).isRewritten();
+        }
+        if (!rewritten) {
+            return payload;
+        }
+        
+        txn.clearReadSet();
+        BufferPool.free(payload);
+        try {
+            ReusableBuffer buffer = txn.serialize(BufferPool.allocate(txn.getSize()));
+            buffer.flip();
+            return buffer;
+        } catch (IOException ioe) {
+            throw new BabuDBException(ErrorCode.IO_ERROR, ioe.getMessage(), ioe);
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#
      *          replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal)
@@ -283,7 +422,7 @@ class TransactionManagerImpl extends TransactionManagerInternal {
                             .getErrorCode() == ErrorCode.NO_SUCH_DB))
                      && !(type == Operation.TYPE_DELETE_SNAP && 
                             be.getErrorCode() == ErrorCode.NO_SUCH_SNAPSHOT)
-                     && !(type == Operation.TYPE_GROUP_INSERT &&
+                     && !((type == Operation.TYPE_GROUP_INSERT || type == Operation.TYPE_BULK_LOAD) &&
                             be.getErrorCode().equals(ErrorCode.NO_SUCH_DB))){
                         
                         throw be;
@@ -316,6 +455,19 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getLogIndex()
+     */
+    @Override
+    public LogIndex getLogIndex() {
+        DiskLogger logger = diskLogger.get();
+        if (logger != null) {
+            return logger.getLogIndex();
+        } else {
+            return new LogIndex();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getLatestOnDiskLSN()
      */
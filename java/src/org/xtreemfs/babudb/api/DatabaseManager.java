@@ -14,6 +14,7 @@ import java.util.Map;
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.lsmdb.BabuDBInsertGroup;
@@ -77,6 +78,28 @@ public interface DatabaseManager {
     public Database createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators)
         throws BabuDBException;
     
+    /**
+     * Creates a new database with index-specific storage settings.
+     * 
+     * @param databaseName
+     *            name, must be unique
+     * @param numIndices
+     *            the number of indices (cannot be changed afterwards)
+     * @param comparators
+     *            an array of ByteRangeComparators for each index (use only one
+     *            instance), or <code>null</code> for the default comparator
+     * @param indexConfigs
+     *            an array of storage settings for each index; indices without
+     *            settings as well as unset settings fall back to the global
+     *            configuration
+     * @return the newly created database
+     * @throws BabuDBException
+     *             if the database directory cannot be created or the config
+     *             cannot be saved
+     */
+    public Database createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators,
+        IndexConfig[] indexConfigs) throws BabuDBException;
+    
     /**
      * Deletes a database.
      * 
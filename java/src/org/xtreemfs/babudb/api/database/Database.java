@@ -8,6 +8,9 @@
 
 package org.xtreemfs.babudb.api.database;
 
+import java.util.Iterator;
+import java.util.Map.Entry;
+
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 
 /**
@@ -68,4 +71,154 @@ public interface Database extends DatabaseRO {
      */
     public DatabaseRequestResult<Object> insert(DatabaseInsertGroup irg, 
             Object context);
+    
+    /**
+     * Loads an empty index with a sequence of key value pairs. Instead of
+     * passing each pair through the log, the pairs are directly written to a
+     * new on-disk index, which atomically replaces the index once it is
+     * complete; the log only records a reference to the new on-disk index.
+     * The calling thread writes the on-disk index before the request is
+     * returned.
+     * 
+     * <p>
+     * The index must be empty and must not be modified while the bulk load is
+     * in progress. Merge operators and index derivations are not applied to
+     * bulk-loaded pairs. Unsorted pairs can be brought into order by means of
+     * an {@link org.xtreemfs.babudb.index.writer.ExternalSorter}.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param entries
+     *            the key value pairs in strictly ascending key order
+     * @param context
+     *            arbitrary context which is passed to the listener
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<Object> bulkLoad(int indexId, 
+            Iterator<Entry<byte[], byte[]>> entries, Object context);
+    
+    /**
+     * Creates a publisher for a prefix scan. Each subscriber receives the
+     * key/value pairs with a matching prefix, in the given order and as
+     * requested through its subscription.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param prefix
+     *            the prefix of the keys to scan
+     * @param ascending
+     *            if <code>true</code>, entries are delivered in ascending
+     *            order; otherwise, they are delivered in descending order
+     * @return a publisher for the scan.
+     */
+    public ScanPublisher prefixScan(int indexId, byte[] prefix, 
+            boolean ascending);
+    
+    /**
+     * Creates a publisher for a range scan. Each subscriber receives the
+     * key/value pairs in the given range, in the given order and as requested
+     * through its subscription.
+     * <p>
+     * As with range lookups, <code>from</code> needs to be smaller than or
+     * equal to <code>to</code> in ascending order, and greater than or equal
+     * to <code>to</code> in descending order.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the key to start the scan at (inclusively)
+     * @param to
+     *            the key to end the scan at (exclusively)
+     * @param ascending
+     *            if <code>true</code>, entries are delivered in ascending
+     *            order; otherwise, they are delivered in descending order
+     * @return a publisher for the scan.
+     */
+    public ScanPublisher rangeScan(int indexId, byte[] from, byte[] to, 
+            boolean ascending);
+    
+    /**
+     * Performs a range lookup that only returns entries accepted by the given
+     * filter. Entries of the on-disk index are passed to the filter before
+     * they are copied, so that entries which are not accepted are never
+     * materialized. If a projection is given, only the projected bytes of the
+     * values are returned.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param filter
+     *            the filter for entries, or <code>null</code> to accept all
+     *            entries
+     * @param projection
+     *            the projection of values, or <code>null</code> to return
+     *            entire values
+     * @param context
+     *            arbitrary context which is passed to the listener
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> filteredRangeLookup(
+            int indexId, byte[] from, byte[] to, EntryFilter filter,
+            ValueProjection projection, Object context);
+    
+    /**
+     * Performs a range lookup in parallel. The range is split into partitions
+     * at block boundaries of the on-disk index, which are scanned concurrently
+     * and passed to the given consumer. The lookup is finished once all
+     * partitions have been consumed.
+     * <p>
+     * Each partition reflects the state of the index at the time it is
+     * scanned, as with separate range lookups.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param parallelism
+     *            the maximum number of partitions
+     * @param consumer
+     *            the consumer of the partitions
+     * @param context
+     *            arbitrary context which is passed to the listener
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<Object> parallelRangeLookup(int indexId,
+            byte[] from, byte[] to, int parallelism, PartitionConsumer consumer,
+            Object context);
+    
+    /**
+     * Performs a range lookup in parallel. The range is split into partitions
+     * at block boundaries of the on-disk index, which are scanned concurrently
+     * and merged into a single result set in ascending key order. At most
+     * <code>parallelism</code> partitions are scanned ahead of the consumer of
+     * the result set.
+     * <p>
+     * Each partition reflects the state of the index at the time it is
+     * scanned, as with separate range lookups. The result set should be freed
+     * if it is not consumed completely, so as to stop any pending scans.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param parallelism
+     *            the maximum number of partitions scanned concurrently
+     * @param context
+     *            arbitrary context which is passed to the listener
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> parallelRangeLookup(
+            int indexId, byte[] from, byte[] to, int parallelism, Object context);
 }
+    
\ No newline at end of file
@@ -33,4 +33,66 @@ public interface DatabaseInsertGroup {
      * @param key - of the key-value pair to delete. 
      */
     public void addDelete(int indexId, byte[] key);
+    
+    /**
+     * Add a new merge operation to this group. The operand is combined with the current value of 
+     * the key by the merge operator of the index, without the need to look up the value first. Be 
+     * aware of unpredictable behavior if a key-value pair is manipulated twice within the same 
+     * insert group.
+     * 
+     * @param indexId - the index in which the key-value pair is located. Its comparator has to 
+     *                  implement {@link org.xtreemfs.babudb.api.index.MergeOperator}.
+     * @param key - the key.
+     * @param operand - the operand to combine the value of the key with.
+     */
+    public void addMerge(int indexId, byte[] key, byte[] operand);
+    
+    /**
+     * Add a new range delete to this group. All key-value pairs with keys between from 
+     * (inclusively) and to (exclusively) are deleted by means of a single range tombstone, without 
+     * the need to look up and delete each of them separately.
+     * 
+     * @param indexId - the index in which the key-value pairs are located.
+     * @param from - the first key of the range (inclusively), or null to start with the first key.
+     * @param to - the last key of the range (exclusively), or null to end with the last key.
+     */
+    public void addDeleteRange(int indexId, byte[] from, byte[] to);
+    
+    /**
+     * Add a new conditional insert to this group, which is only applied if the key does not exist 
+     * yet. The conditions of the group's operations are evaluated atomically and in order, each 
+     * against the state of the index that includes the effects of the preceding operations of the 
+     * group; if one of them is not met, none of the operations is applied, and the insert fails with 
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#CONDITION_FAILED}.
+     * 
+     * @param indexId - the index in which the key-value pair is inserted.
+     * @param key - the key.
+     * @param value - the value data.
+     */
+    public void addInsertIfAbsent(int indexId, byte[] key, byte[] value);
+    
+    /**
+     * Add a new conditional insert to this group, which replaces the value of a key only if the 
+     * key is currently mapped to the expected value.
+     * 
+     * @see #addInsertIfAbsent(int, byte[], byte[])
+     * 
+     * @param indexId - the index in which the key-value pair is located.
+     * @param key - the key.
+     * @param expected - the value the key is expected to be mapped to.
+     * @param value - the new value data.
+     */
+    public void addReplace(int indexId, byte[] key, byte[] expected, byte[] value);
+    
+    /**
+     * Add a new conditional delete to this group, which deletes a key only if it is currently 
+     * mapped to the expected value.
+     * 
+     * @see #addInsertIfAbsent(int, byte[], byte[])
+     * 
+     * @param indexId - the index in which the key-value pair is located.
+     * @param key - the key of the key-value pair to delete.
+     * @param expected - the value the key is expected to be mapped to.
+     */
+    public void addDeleteIfEquals(int indexId, byte[] key, byte[] expected);
 }
\ No newline at end of file
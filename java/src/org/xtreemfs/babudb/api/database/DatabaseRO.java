@@ -34,6 +34,27 @@ public interface DatabaseRO {
     public DatabaseRequestResult<byte[]> lookup(int indexId, byte[] key, 
             Object context);
     
+    /**
+     * Performs a lookup for multiple keys at once. The result object contains
+     * an array with the value of each key at the same position as the key, or
+     * <code>null</code> at positions of keys that could not be found.
+     * <p>
+     * Compared to separate lookups, all keys are looked up in a single request,
+     * and keys located in the same block of the on-disk index share a single
+     * read of the block.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param keys
+     *            the keys to look up
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<byte[][]> multiLookup(int indexId, 
+            byte[][] keys, Object context);
+    
     /**
      * Executes a prefix lookup. The result object contains an iterator to the
      * database starting at the first matching key and returning key/value pairs
@@ -36,6 +36,8 @@ POSSIBILITY OF SUCH DAMAGE.
  */
 package org.xtreemfs.babudb.api.database;
 
+import java.util.concurrent.Executor;
+
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 
@@ -54,6 +56,28 @@ public interface DatabaseRequestResult<T> {
      */
     public void registerListener(DatabaseRequestListener<T> listener);
     
+    /**
+     * Sets a listener to wait asynchronously for the result of the request.
+     * Unlike listeners registered with
+     * {@link #registerListener(DatabaseRequestListener)}, the listener is not
+     * notified through the response manager thread shared by all requests,
+     * but through the given executor. This allows results to be processed
+     * concurrently, and further requests to be chained without blocking a
+     * thread per outstanding request.
+     * <p>
+     * If no executor is given, the listener is notified directly by the thread
+     * completing the request, which is usually a worker thread or the disk
+     * logger, or by the registering thread if the request has already been
+     * completed. Such listeners must not block.
+     * </p>
+     * 
+     * @param listener
+     * @param executor
+     *            the executor to notify the listener through, or
+     *            <code>null</code> to notify it directly
+     */
+    public void registerListener(DatabaseRequestListener<T> listener, Executor executor);
+    
     /**
      * Waits synchronously for the request-result.
      * 
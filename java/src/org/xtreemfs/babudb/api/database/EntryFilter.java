@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.api.database;
+
+import org.xtreemfs.babudb.index.ByteRange;
+
+/**
+ * Selects the entries returned by a filtered range lookup.
+ * 
+ * <p>
+ * Entries of the on-disk index are passed to the filter as ranges of the
+ * underlying block buffers, before they are copied. Entries that are not
+ * accepted are skipped without being copied at all. Byte ranges are only valid
+ * while the filter is invoked and must not be retained.
+ * </p>
+ */
+public interface EntryFilter {
+    
+    /**
+     * Determines whether an entry is returned.
+     * 
+     * @param key
+     *            the key of the entry
+     * @param value
+     *            the value of the entry
+     * @return <code>true</code>, if the entry is returned
+     */
+    public boolean accept(ByteRange key, ByteRange value);
+    
+}
+    
\ No newline at end of file
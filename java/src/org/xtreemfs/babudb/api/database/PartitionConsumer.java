@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.api.database;
+
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+
+/**
+ * Consumes the partitions of a parallel range lookup.
+ * 
+ * <p>
+ * The consumer is invoked once per partition, by the thread that scans the
+ * partition. Different partitions are consumed concurrently, so that
+ * implementations need to be thread-safe.
+ * </p>
+ */
+public interface PartitionConsumer {
+    
+    /**
+     * Consumes the key-value pairs of a partition.
+     * 
+     * @param partition
+     *            the number of the partition; partitions are numbered in
+     *            ascending key order, starting at 0
+     * @param entries
+     *            the key-value pairs of the partition in ascending order,
+     *            which are freed once the method returns
+     * @throws BabuDBException
+     *             in case of an error, is passed to the listener of the
+     *             lookup
+     */
+    public void consume(int partition, ResultSet<byte[], byte[]> entries) throws BabuDBException;
+    
+}
+    
\ No newline at end of file
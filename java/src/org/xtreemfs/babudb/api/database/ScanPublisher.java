@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+/**
+ * A source of key-value pairs resulting from a prefix or range scan, which
+ * delivers them to subscribers as they request them.
+ * 
+ * <p>
+ * Unlike the <code>ResultSet</code> returned by a prefix or range lookup, a
+ * scan does not hold any buffers while the subscriber is busy. Entries are
+ * retrieved in batches no larger than the outstanding demand of the
+ * subscriber, and all resources bound to a batch are released before its
+ * entries are delivered. As a consequence, a scan is only weakly consistent:
+ * each batch reflects the state of the database at the time it was
+ * retrieved.
+ * </p>
+ */
+public interface ScanPublisher {
+    
+    /**
+     * Starts a new scan for the given subscriber. The subscriber is passed a
+     * {@link ScanSubscription} through which it requests entries.
+     * 
+     * @param subscriber
+     *            the subscriber to deliver the entries to
+     */
+    public void subscribe(ScanSubscriber subscriber);
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+
+/**
+ * Receives the key-value pairs of a scan from a {@link ScanPublisher}.
+ * 
+ * <p>
+ * Methods of a subscriber are never invoked concurrently. No entries are
+ * delivered before they have been requested through the subscription, and no
+ * more methods are invoked after <code>onComplete()</code> or
+ * <code>onError()</code>.
+ * </p>
+ */
+public interface ScanSubscriber {
+    
+    /**
+     * Invoked when the scan has been set up.
+     * 
+     * @param subscription
+     *            the subscription through which entries are requested
+     */
+    public void onSubscribe(ScanSubscription subscription);
+    
+    /**
+     * Invoked with the next key-value pair of the scan.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    public void onNext(byte[] key, byte[] value);
+    
+    /**
+     * Invoked if the scan failed.
+     * 
+     * @param error
+     *            cause for the failure
+     */
+    public void onError(BabuDBException error);
+    
+    /**
+     * Invoked after the last key-value pair of the scan has been delivered.
+     */
+    public void onComplete();
+}
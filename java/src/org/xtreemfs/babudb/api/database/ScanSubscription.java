@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+/**
+ * Links a {@link ScanSubscriber} to a scan. Both methods may be invoked from
+ * any thread, including from within the methods of the subscriber.
+ */
+public interface ScanSubscription {
+    
+    /**
+     * Requests the given number of additional entries. <code>Long.MAX_VALUE</code>
+     * requests all remaining entries.
+     * 
+     * @param n
+     *            the number of entries, must be positive
+     */
+    public void request(long n);
+    
+    /**
+     * Cancels the scan. No further entries are retrieved, although an entry
+     * that is concurrently being delivered may still arrive.
+     */
+    public void cancel();
+}
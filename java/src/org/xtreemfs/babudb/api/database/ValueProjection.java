@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.api.database;
+
+import java.nio.ByteBuffer;
+
+import org.xtreemfs.babudb.index.ByteRange;
+
+/**
+ * A range of bytes of a value that is returned by a filtered range lookup
+ * instead of the entire value. Only the projected bytes are copied out of the
+ * on-disk index. Values that are shorter than the projection are truncated.
+ */
+public final class ValueProjection {
+    
+    private final int offset;
+    
+    private final int length;
+    
+    /**
+     * Creates a projection.
+     * 
+     * @param offset
+     *            the offset of the first byte to return
+     * @param length
+     *            the maximum number of bytes to return, or -1 to return all
+     *            bytes up to the end of the value
+     */
+    public ValueProjection(int offset, int length) {
+        
+        if (offset < 0 || length < -1)
+            throw new IllegalArgumentException("invalid projection: offset=" + offset + ", length="
+                + length);
+        
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    /**
+     * Applies the projection to a value in a buffer.
+     * 
+     * @param value
+     *            the value
+     * @return the projected bytes of the value
+     */
+    public byte[] apply(ByteRange value) {
+        
+        byte[] result = new byte[getProjectedSize(value.getSize())];
+        
+        ByteBuffer buf = value.getBuf().duplicate();
+        buf.position(value.getStartOffset() + Math.min(offset, value.getSize()));
+        buf.get(result);
+        
+        return result;
+    }
+    
+    /**
+     * Applies the projection to a value.
+     * 
+     * @param value
+     *            the value
+     * @return the projected bytes of the value
+     */
+    public byte[] apply(byte[] value) {
+        
+        byte[] result = new byte[getProjectedSize(value.length)];
+        System.arraycopy(value, Math.min(offset, value.length), result, 0, result.length);
+        
+        return result;
+    }
+    
+    private int getProjectedSize(int size) {
+        
+        int remaining = Math.max(size - offset, 0);
+        return length == -1 ? remaining : Math.min(length, remaining);
+    }
+    
+}
+    
\ No newline at end of file
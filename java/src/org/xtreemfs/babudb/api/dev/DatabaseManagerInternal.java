@@ -16,6 +16,7 @@ import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.lsmdb.BabuDBInsertGroup;
 
 /**
@@ -87,6 +88,26 @@ public interface DatabaseManagerInternal extends DatabaseManager {
     public DatabaseInternal createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators)
             throws BabuDBException;
     
+    /**
+     * Creates a new database with index-specific storage settings.
+     * 
+     * @param databaseName
+     *            name, must be unique
+     * @param numIndices
+     *            the number of indices (cannot be changed afterwards)
+     * @param comparators
+     *            an array of ByteRangeComparators for each index (use only one
+     *            instance), or <code>null</code> for the default comparator
+     * @param indexConfigs
+     *            an array of storage settings for each index
+     * @return the newly created database
+     * @throws BabuDBException
+     *             if the database directory cannot be created or the config
+     *             cannot be saved
+     */
+    public DatabaseInternal createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators,
+            IndexConfig[] indexConfigs) throws BabuDBException;
+    
     /**
      * Returns the database with the given name.
      * 
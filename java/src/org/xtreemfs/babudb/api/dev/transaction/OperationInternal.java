@@ -61,6 +61,17 @@ public abstract class OperationInternal implements Operation {
      */
     public abstract void updateDatabaseName(String dbName);
     
+    /**
+     * Method to mark the operation as rewritten while processing, e.g. if the conditions of 
+     * conditional inserts have been resolved, so that it is serialized anew before being logged.
+     */
+    public abstract void markRewritten();
+    
+    /**
+     * @return true, if the operation has been rewritten while processing.
+     */
+    public abstract boolean isRewritten();
+    
     /**
      * Serializes an Operation to buffer.
      * 
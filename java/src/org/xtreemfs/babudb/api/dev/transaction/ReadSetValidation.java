@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.api.dev.transaction;
+
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+
+/**
+ * Validation of the read set and of the conditions of a transaction against the 
+ * current state of the databases. The validation is performed while the transaction 
+ * holds the locks of all databases it affects, right before its operations are 
+ * processed in-memory, so that a transaction is either rejected or applied as a whole.
+ * This class describes an algorithm and therefore may not be stateful.
+ */
+public abstract class ReadSetValidation {
+    
+    /**
+     * Validates the read set and the conditions of the given transaction.
+     * 
+     * @param txn
+     * 
+     * @throws BabuDBException with error code TRANSACTION_CONFLICT if a record of the read set has 
+     *                         changed, with error code CONDITION_FAILED if a condition is not met, 
+     *                         or if the transaction could not have been validated.
+     */
+    public abstract void validate(TransactionInternal txn) throws BabuDBException;
+}
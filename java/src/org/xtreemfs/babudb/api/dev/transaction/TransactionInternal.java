@@ -10,6 +10,7 @@ package org.xtreemfs.babudb.api.dev.transaction;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -18,6 +19,7 @@ import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
 import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.lsmdb.BabuDBTransaction;
@@ -67,6 +69,15 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
     public abstract TransactionInternal createDatabase(String databaseName, int numIndices, 
             ByteRangeComparator[] comparators);
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#createDatabase(java.lang.String, int, 
+     *          org.xtreemfs.babudb.api.index.ByteRangeComparator[], 
+     *          org.xtreemfs.babudb.config.IndexConfig[])
+     */
+    @Override
+    public abstract TransactionInternal createDatabase(String databaseName, int numIndices, 
+            ByteRangeComparator[] comparators, IndexConfig[] indexConfigs);
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.transaction.Transaction#copyDatabase(java.lang.String, 
      *          java.lang.String)
@@ -95,6 +106,54 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
     @Override
     public abstract TransactionInternal deleteRecord(String databaseName, int indexId, byte[] key);
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#mergeRecord(java.lang.String, int, 
+     *          byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal mergeRecord(String databaseName, int indexId, byte[] key, 
+            byte[] operand);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#deleteRange(java.lang.String, int, 
+     *          byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal deleteRange(String databaseName, int indexId, byte[] from, 
+            byte[] to);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#insertRecordIfAbsent(java.lang.String, 
+     *          int, byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal insertRecordIfAbsent(String databaseName, int indexId, 
+            byte[] key, byte[] value);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#replaceRecord(java.lang.String, int, 
+     *          byte[], byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal replaceRecord(String databaseName, int indexId, byte[] key, 
+            byte[] expected, byte[] value);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#deleteRecordIfEquals(java.lang.String, 
+     *          int, byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal deleteRecordIfEquals(String databaseName, int indexId, 
+            byte[] key, byte[] expected);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#expectRecord(java.lang.String, int, 
+     *          byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal expectRecord(String databaseName, int indexId, byte[] key, 
+            byte[] value);
+    
     /* (non-Javadoc)
      * @see java.util.AbstractCollection#toString()
      */
@@ -124,6 +183,17 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
         return result;
     }
     
+    /**
+     * @return the records the transaction expects to be unchanged when it is executed.
+     */
+    public abstract List<ReadRecord> getReadSet();
+    
+    /**
+     * Drops the read set of the transaction once it has been validated, so that it is neither 
+     * logged nor replicated.
+     */
+    public abstract void clearReadSet();
+    
     /**
      * @return a set of names of databases affected by this transaction. 
      */
@@ -248,8 +318,15 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
      * <li> all database names (4 bytes for the length + #chars)
      * <li> length of the list of operations (4 bytes)
      * <li> all operations (variable size)
+     * <li> length of the read set (4 bytes), only if the read set is not empty
+     * <li> all records of the read set (database name, index, key and value, each prefixed by 
+     *      4 bytes for its length; index without length; -1 as length of a missing value)
      * </ol>
      * 
+     * The read set is only needed to validate the transaction, possibly after it has been sent 
+     * to the replication master. It is cleared before the transaction is logged, thus log 
+     * entries never contain a read set.
+     * 
      * Resulting buffer needs to be flip()-ed before usage.
      * </p>
      * 
@@ -303,7 +380,112 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
             for (int i = 0; i < length; i++) {
                 txn.addOperation(OperationInternal.deserialize(dbNames, buffer));
             }
+            
+            // deserialize the read set of a transaction that has not been validated yet
+            if (buffer.remaining() >= Integer.SIZE / 8) {
+                length = buffer.getInt();
+                for (int i = 0; i < length; i++) {
+                    String dbName = new String(deserializeBytes(buffer));
+                    int indexId = buffer.getInt();
+                    byte[] key = deserializeBytes(buffer);
+                    txn.expectRecord(dbName, indexId, key, deserializeBytes(buffer));
+                }
+            }
         }
         return txn;
     }
+    
+    /**
+     * @param buffer
+     * @return a byte array prefixed by its length, or null if the length is negative.
+     */
+    private static byte[] deserializeBytes(ReusableBuffer buffer) {
+        
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * A record of the read set of a transaction.
+     */
+    public final static class ReadRecord {
+        
+        private final String databaseName;
+        
+        private final int    indexId;
+        
+        private final byte[] key;
+        
+        private final byte[] value;
+        
+        public ReadRecord(String databaseName, int indexId, byte[] key, byte[] value) {
+            this.databaseName = databaseName;
+            this.indexId = indexId;
+            this.key = key;
+            this.value = value;
+        }
+        
+        public String getDatabaseName() {
+            return databaseName;
+        }
+        
+        public int getIndexId() {
+            return indexId;
+        }
+        
+        public byte[] getKey() {
+            return key;
+        }
+        
+        /**
+         * @return the expected value, or null if the key is expected not to exist.
+         */
+        public byte[] getValue() {
+            return value;
+        }
+        
+        /**
+         * @return the size of this record in bytes if serialized.
+         */
+        public int getSize() {
+            return 4 * Integer.SIZE / 8 + databaseName.getBytes().length + key.length 
+                    + (value == null ? 0 : value.length);
+        }
+        
+        /**
+         * Serializes the record to a buffer.
+         * 
+         * @param buffer
+         */
+        public void serialize(ReusableBuffer buffer) {
+            
+            byte[] name = databaseName.getBytes();
+            buffer.putInt(name.length);
+            buffer.put(name);
+            buffer.putInt(indexId);
+            buffer.putInt(key.length);
+            buffer.put(key);
+            if (value == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(value.length);
+                buffer.put(value);
+            }
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "expect " + databaseName + "[" + indexId + "]: " + new String(key) + " = " 
+                    + (value == null ? null : new String(value));
+        }
+    }
 }
@@ -10,6 +10,7 @@ package org.xtreemfs.babudb.api.dev.transaction;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.BabuDB;
@@ -18,6 +19,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -37,10 +39,18 @@ public abstract class TransactionManagerInternal {
     protected final Map<Byte, InMemoryProcessing> inMemoryProcessing = 
         new HashMap<Byte, InMemoryProcessing>();
     
+    protected volatile ReadSetValidation         readSetValidation = null;
+    
     /**
      * @return the {@link LSN} of the latest {@link LogEntry} written by the {@link DiskLogger}.
      */
     public abstract LSN getLatestOnDiskLSN();
+    
+    /**
+     * @return the {@link LogIndex} of the log files written by the {@link DiskLogger}, or an empty 
+     *         index if no logger has been registered.
+     */
+    public abstract LogIndex getLogIndex();
         
     /**
      * Initially sets an LSN after starting the BabuDB.
@@ -68,6 +78,16 @@ public abstract class TransactionManagerInternal {
         inMemoryProcessing.put(type, processing);
     }
     
+    /**
+     * Method to extend the TransactionManagerInternal with the knowledge how to validate the read 
+     * sets of transactions.
+     * 
+     * @param validation
+     */
+    public final void registerReadSetValidation(ReadSetValidation validation) {
+        readSetValidation = validation;
+    }
+    
     /**
      * @return the registered handlers for the in-memory processing of the transaction manager.
      */
@@ -75,6 +95,16 @@ public abstract class TransactionManagerInternal {
         return inMemoryProcessing;
     }
     
+    /**
+     * Returns the lock of a database. Transactions hold its write lock while they are applied to the 
+     * database, so that lookups holding its read lock never observe a transaction partially.
+     * 
+     * @param databaseName
+     * 
+     * @return the lock of the database with the given name.
+     */
+    public abstract ReadWriteLock getDatabaseLock(String databaseName);
+    
     /**
      * Method let some operation become persistent. Every operation executed
      * on BabuDB has to pass this method first.
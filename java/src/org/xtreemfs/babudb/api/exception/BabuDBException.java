@@ -67,6 +67,22 @@ public class BabuDBException extends Exception {
          */
         BROKEN_PLUGIN,
         
+        /**
+         * A record in the read set of a transaction has been changed
+         */
+        TRANSACTION_CONFLICT,
+        
+        /**
+         * The condition of a conditional insert, replacement or deletion has
+         * not been met
+         */
+        CONDITION_FAILED,
+        
+        /**
+         * The index does not support the requested operation
+         */
+        UNSUPPORTED_OPERATION,
+        
         /**
          * Everything else that went wrong
          */
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+/**
+ * Creates and parses the keys of indices maintained by an
+ * {@link IndexDerivation}. The key of an entry consists of the derived key
+ * followed by the key of the source entry it has been derived from, encoded
+ * with a {@link KeyEncoder}. Thus, source entries sharing a derived key have
+ * separate entries in the derived index, which can be retrieved with a prefix
+ * lookup of <code>createPrefix(derivedKey)</code>. If the derived index uses
+ * the {@link org.xtreemfs.babudb.index.UnsignedByteRangeComparator}, entries
+ * are ordered by derived key first and by source key second.
+ *
+ */
+public final class DerivedKeys {
+    
+    private DerivedKeys() {
+    }
+    
+    /**
+     * Creates the key of an entry in a derived index.
+     * 
+     * @param derivedKey
+     *            the derived key
+     * @param sourceKey
+     *            the key of the source entry
+     * @return the key of the entry
+     */
+    public static byte[] createKey(byte[] derivedKey, byte[] sourceKey) {
+        return new KeyEncoder(derivedKey.length + sourceKey.length + 4).appendBytes(derivedKey).appendBytes(
+            sourceKey).toBytes();
+    }
+    
+    /**
+     * Creates the prefix of the keys of all entries in a derived index with
+     * the given derived key.
+     * 
+     * @param derivedKey
+     *            the derived key
+     * @return the prefix
+     */
+    public static byte[] createPrefix(byte[] derivedKey) {
+        return new KeyEncoder(derivedKey.length + 2).appendBytes(derivedKey).toBytes();
+    }
+    
+    /**
+     * Returns the derived key contained in the key of an entry in a derived
+     * index.
+     * 
+     * @param key
+     *            the key of the entry
+     * @return the derived key
+     */
+    public static byte[] getDerivedKey(byte[] key) {
+        return new KeyDecoder(key).readBytes();
+    }
+    
+    /**
+     * Returns the key of the source entry contained in the key of an entry in
+     * a derived index.
+     * 
+     * @param key
+     *            the key of the entry
+     * @return the key of the source entry
+     */
+    public static byte[] getSourceKey(byte[] key) {
+        KeyDecoder decoder = new KeyDecoder(key);
+        decoder.readBytes();
+        return decoder.readBytes();
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+/**
+ * Marks an index whose values carry an expiration time, which is useful for
+ * records like leases or cache entries that become obsolete after some time.
+ * <p>
+ * Expiring values are only supported by indices whose
+ * {@link ByteRangeComparator} implements this interface. Each value of such
+ * an index starts with a header containing its expiration time, as created by
+ * {@link ValueExpiration#createValue(long, byte[])}. Once expired, an entry is
+ * no longer returned by lookups, and it is dropped from the on-disk index by
+ * the next checkpoint, without the need to delete it explicitly.
+ * </p>
+ * 
+ */
+public interface ExpiringValues {
+    
+}
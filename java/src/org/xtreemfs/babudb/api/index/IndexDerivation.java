@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+/**
+ * A function deriving the entries of a secondary index from the key-value
+ * pairs of another index of the same database. For each key-value pair of the
+ * source index, the derived index contains an entry for each derived key,
+ * with the key of the pair as its value.
+ * <p>
+ * As several source keys may share a derived key, the derived index is keyed
+ * by the combination of both, as created by
+ * {@link DerivedKeys#createKey(byte[], byte[])}. All source keys with a given
+ * derived key are found by a prefix lookup of
+ * {@link DerivedKeys#createPrefix(byte[])} in the derived index; inserting,
+ * updating or deleting a source entry only affects the entries derived from
+ * its own key.
+ * </p>
+ * <p>
+ * Derived indices are maintained by the database: whenever a key-value pair
+ * of the source index is inserted, merged or deleted, the entries derived
+ * from its previous value are deleted and the entries derived from its new
+ * value are inserted, as part of the same insert. Derivations are only
+ * supported by source indices whose {@link ByteRangeComparator} implements
+ * this interface as well. Like the comparator itself, the derivation is
+ * recorded with the database and applied again when the database log is
+ * replayed. Any implementation therefore has to be deterministic and must not
+ * depend on any state other than its arguments.
+ * </p>
+ * <p>
+ * Modifications of the derived index itself are not derived any further.
+ * </p>
+ * 
+ */
+public interface IndexDerivation {
+    
+    /**
+     * Returns the ID of the index maintained by the derivation.
+     * 
+     * @return the ID of the derived index
+     */
+    public int getDerivedIndexId();
+    
+    /**
+     * Derives the keys of the derived index from a key-value pair of the
+     * source index. The source key is appended to each returned key by the
+     * database, as described above.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @return the derived keys, which may be empty
+     */
+    public byte[][] deriveKeys(byte[] key, byte[] value);
+    
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.api.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Decodes the components of a key that was encoded with a {@link KeyEncoder}.
+ * Components have to be read in the order in which they were appended.
+ */
+public final class KeyDecoder {
+    
+    private final byte[] key;
+    
+    private int          pos;
+    
+    public KeyDecoder(byte[] key) {
+        this.key = key;
+    }
+    
+    public boolean hasRemaining() {
+        return pos < key.length;
+    }
+    
+    public int readInt() {
+        
+        checkRemaining(4);
+        int value = 0;
+        for (int i = 0; i < 4; i++)
+            value = (value << 8) | (key[pos++] & 0xFF);
+        
+        return value ^ Integer.MIN_VALUE;
+    }
+    
+    public long readLong() {
+        
+        checkRemaining(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (key[pos++] & 0xFF);
+        
+        return value ^ Long.MIN_VALUE;
+    }
+    
+    public String readString() {
+        try {
+            return new String(readBytes(), "UTF-8");
+        } catch (UnsupportedEncodingException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+    
+    public byte[] readBytes() {
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (true) {
+            checkRemaining(1);
+            byte b = key[pos++];
+            if (b != KeyEncoder.ZERO) {
+                out.write(b);
+                continue;
+            }
+            
+            // a zero byte is either escaped or terminates the component
+            checkRemaining(1);
+            b = key[pos++];
+            if (b == KeyEncoder.TERMINATOR)
+                return out.toByteArray();
+            if (b != KeyEncoder.ESCAPE)
+                throw new IllegalArgumentException("malformed key: invalid escape sequence at offset "
+                    + (pos - 2));
+            out.write(KeyEncoder.ZERO);
+        }
+    }
+    
+    private void checkRemaining(int bytes) {
+        if (pos + bytes > key.length)
+            throw new IllegalArgumentException("malformed key: component at offset " + pos
+                + " exceeds key length " + key.length);
+    }
+    
+}
+    
\ No newline at end of file
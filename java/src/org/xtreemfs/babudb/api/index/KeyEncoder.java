@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.api.index;
+
+import java.io.UnsupportedEncodingException;
+
+import org.xtreemfs.babudb.index.UnsignedByteRangeComparator;
+
+/**
+ * Encodes typed key components into a byte array whose unsigned lexicographic
+ * order matches the natural order of the components, so that composite keys
+ * (e.g. a parent ID followed by a name) can be compared with the
+ * {@link UnsignedByteRangeComparator} rather than a comparator that decodes
+ * keys on each comparison.
+ * 
+ * <p>
+ * Components are ordered first by first component, then by second component,
+ * and so on. Integers are written as fixed-width big-endian values with a
+ * flipped sign bit. Strings and byte arrays are terminated by
+ * <code>0x00 0x01</code>, and zero bytes contained in them are escaped as
+ * <code>0x00 0xFF</code>, so that a terminated component sorts before all
+ * longer components regardless of the bytes that follow. Strings are compared by the code points of their
+ * characters. The encoding of a tuple is a prefix of the encodings of all
+ * longer tuples starting with the same components, which allows prefix lookups
+ * on leading components and keeps shared key prefixes long for prefix
+ * compression.
+ * </p>
+ * 
+ * @see KeyDecoder
+ */
+public final class KeyEncoder {
+    
+    static final byte ZERO       = 0x00;
+    
+    static final byte TERMINATOR = 0x01;
+    
+    static final byte ESCAPE     = (byte) 0xFF;
+    
+    private byte[]    buf;
+    
+    private int       size;
+    
+    public KeyEncoder() {
+        this(32);
+    }
+    
+    public KeyEncoder(int capacity) {
+        buf = new byte[Math.max(capacity, 8)];
+    }
+    
+    /**
+     * Encodes a tuple of components. Supported component types are
+     * <code>Integer</code>, <code>Long</code>, <code>String</code> and
+     * <code>byte[]</code>.
+     * 
+     * @param components
+     *            the components of the key
+     * @return the encoded key
+     * @throws IllegalArgumentException
+     *             if a component is <code>null</code> or has an unsupported
+     *             type
+     */
+    public static byte[] encode(Object... components) {
+        
+        KeyEncoder encoder = new KeyEncoder();
+        for (Object component : components) {
+            if (component instanceof Integer)
+                encoder.appendInt((Integer) component);
+            else if (component instanceof Long)
+                encoder.appendLong((Long) component);
+            else if (component instanceof String)
+                encoder.appendString((String) component);
+            else if (component instanceof byte[])
+                encoder.appendBytes((byte[]) component);
+            else
+                throw new IllegalArgumentException("unsupported key component: " + component);
+        }
+        
+        return encoder.toBytes();
+    }
+    
+    public KeyEncoder appendInt(int value) {
+        
+        ensureCapacity(4);
+        value ^= Integer.MIN_VALUE;
+        buf[size++] = (byte) (value >>> 24);
+        buf[size++] = (byte) (value >>> 16);
+        buf[size++] = (byte) (value >>> 8);
+        buf[size++] = (byte) value;
+        
+        return this;
+    }
+    
+    public KeyEncoder appendLong(long value) {
+        
+        ensureCapacity(8);
+        value ^= Long.MIN_VALUE;
+        for (int shift = 56; shift >= 0; shift -= 8)
+            buf[size++] = (byte) (value >>> shift);
+        
+        return this;
+    }
+    
+    public KeyEncoder appendString(String value) {
+        return appendBytes(toUTF8(value));
+    }
+    
+    public KeyEncoder appendBytes(byte[] value) {
+        
+        appendEscaped(value);
+        ensureCapacity(2);
+        buf[size++] = ZERO;
+        buf[size++] = TERMINATOR;
+        
+        return this;
+    }
+    
+    /**
+     * Appends a string without terminating it. The resulting key is a prefix
+     * of the keys of all tuples whose next component is a string that starts
+     * with the given string; it can thus be used for prefix lookups, but not
+     * be followed by further components.
+     * 
+     * @param prefix
+     *            the string prefix
+     * @return this encoder
+     */
+    public KeyEncoder appendStringPrefix(String prefix) {
+        appendEscaped(toUTF8(prefix));
+        return this;
+    }
+    
+    public byte[] toBytes() {
+        
+        byte[] key = new byte[size];
+        System.arraycopy(buf, 0, key, 0, size);
+        
+        return key;
+    }
+    
+    public void reset() {
+        size = 0;
+    }
+    
+    private void appendEscaped(byte[] value) {
+        
+        if (value == null)
+            throw new IllegalArgumentException("key components must not be null");
+        
+        int escapes = 0;
+        for (byte b : value)
+            if (b == ZERO)
+                escapes++;
+        
+        ensureCapacity(value.length + escapes);
+        for (byte b : value) {
+            buf[size++] = b;
+            if (b == ZERO)
+                buf[size++] = ESCAPE;
+        }
+    }
+    
+    private void ensureCapacity(int additional) {
+        
+        if (size + additional <= buf.length)
+            return;
+        
+        byte[] tmp = new byte[Math.max(buf.length * 2, size + additional)];
+        System.arraycopy(buf, 0, tmp, 0, size);
+        buf = tmp;
+    }
+    
+    private static byte[] toUTF8(String value) {
+        
+        if (value == null)
+            throw new IllegalArgumentException("key components must not be null");
+        
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+    
+}
+    
\ No newline at end of file
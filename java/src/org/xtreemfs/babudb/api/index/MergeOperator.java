@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+/**
+ * An operator combining the value of a key with an operand, which allows for
+ * read-modify-write updates like incrementing counters without a preceding
+ * lookup.
+ * <p>
+ * Merges are only supported by indices whose {@link ByteRangeComparator}
+ * implements this interface as well. Like the comparator itself, the operator
+ * is recorded with the database, so that the same operator is applied when
+ * the database log is replayed. Any implementation therefore has to be
+ * deterministic and must not depend on any state other than its arguments.
+ * Operands are not necessarily applied when a merge is executed; they may be
+ * recorded and applied when the key is read or the next checkpoint is
+ * written.
+ * </p>
+ * 
+ */
+public interface MergeOperator {
+    
+    /**
+     * Combines the current value of a key with an operand.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the current value of the key, or <code>null</code> if the key
+     *            does not exist
+     * @param operand
+     *            the operand
+     * @return the new value of the key, or <code>null</code> if the key is to
+     *         be deleted
+     */
+    public byte[] merge(byte[] key, byte[] value, byte[] operand);
+    
+}
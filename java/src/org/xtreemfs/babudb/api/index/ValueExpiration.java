@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Creates and parses values of indices with {@link ExpiringValues}. The header
+ * of such a value is an 8-byte big-endian expiration time in milliseconds
+ * since the epoch, followed by the payload. An expiration time of
+ * <code>0</code> indicates that the value never expires; the same applies to
+ * values shorter than the header.
+ * 
+ */
+public final class ValueExpiration {
+    
+    /**
+     * the size of the value header in bytes
+     */
+    public static final int HEADER_SIZE = Long.SIZE / 8;
+    
+    /**
+     * value of the header of entries that never expire
+     */
+    public static final long NEVER     = 0;
+    
+    private ValueExpiration() {
+    }
+    
+    /**
+     * Creates a value that expires at the given time.
+     * 
+     * @param expirationTime
+     *            the expiration time in milliseconds since the epoch, or
+     *            <code>NEVER</code>
+     * @param payload
+     *            the payload
+     * @return the value
+     */
+    public static byte[] createValue(long expirationTime, byte[] payload) {
+        
+        byte[] value = new byte[HEADER_SIZE + payload.length];
+        ByteBuffer.wrap(value).putLong(expirationTime).put(payload);
+        return value;
+    }
+    
+    /**
+     * Returns the expiration time of the given value.
+     * 
+     * @param value
+     *            the value
+     * @return the expiration time in milliseconds since the epoch, or
+     *         <code>NEVER</code>
+     */
+    public static long getExpirationTime(byte[] value) {
+        return value.length < HEADER_SIZE ? NEVER : ByteBuffer.wrap(value).getLong(0);
+    }
+    
+    /**
+     * Checks whether the given value has expired at the given time.
+     * 
+     * @param value
+     *            the value
+     * @param time
+     *            the time in milliseconds since the epoch
+     * @return <code>true</code>, if the value has expired
+     */
+    public static boolean isExpired(byte[] value, long time) {
+        long expirationTime = getExpirationTime(value);
+        return expirationTime != NEVER && expirationTime <= time;
+    }
+    
+    /**
+     * Returns the payload of the given value.
+     * 
+     * @param value
+     *            the value
+     * @return the payload
+     */
+    public static byte[] getPayload(byte[] value) {
+        
+        if (value.length < HEADER_SIZE)
+            return value;
+        
+        byte[] payload = new byte[value.length - HEADER_SIZE];
+        System.arraycopy(value, HEADER_SIZE, payload, 0, payload.length);
+        return payload;
+    }
+}
@@ -7,6 +7,7 @@
  */
 package org.xtreemfs.babudb.api.transaction;
 
+import static org.xtreemfs.babudb.log.LogEntry.PAYLOAD_TYPE_BULK_LOAD;
 import static org.xtreemfs.babudb.log.LogEntry.PAYLOAD_TYPE_COPY;
 import static org.xtreemfs.babudb.log.LogEntry.PAYLOAD_TYPE_CREATE;
 import static org.xtreemfs.babudb.log.LogEntry.PAYLOAD_TYPE_DELETE;
@@ -64,6 +65,11 @@ public interface Operation {
      */
     public static final byte TYPE_GROUP_INSERT = PAYLOAD_TYPE_INSERT;
     
+    /**
+     * Operation type for bulk loads of database indices.
+     */
+    public static final byte TYPE_BULK_LOAD    = PAYLOAD_TYPE_BULK_LOAD;
+    
     /**
      * Returns the operation type.
      * 
@@ -11,6 +11,7 @@ import java.util.List;
 
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 
 /**
@@ -27,7 +28,10 @@ import org.xtreemfs.babudb.snapshots.SnapshotConfig;
  * differences are:
  * </p>
  * <ul>
- * <li>BabuDB transactions may only contain modifications, no lookups.</li>
+ * <li>BabuDB transactions may only contain modifications, no lookups. However,
+ * records read before may be added to the read set of a transaction with
+ * {@link #expectRecord(String, int, byte[], byte[])}, so that the transaction
+ * is only executed if none of them has changed in the meantime.</li>
  * <li>
  * In the event of an error (which may e.g. be caused by an operation that
  * attempts to create or delete non-existing database or to insert a record in a
@@ -91,6 +95,23 @@ public interface Transaction {
      */
     public Transaction createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators);
     
+    /**
+     * Creates a new database with index-specific storage settings.
+     * 
+     * @param databaseName
+     *            the database name
+     * @param numIndices
+     *            the number of indices on the database
+     * @param comparators
+     *            an array of comparators for the indices
+     * @param indexConfigs
+     *            an array of storage settings for the indices
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators,
+        IndexConfig[] indexConfigs);
+    
     /**
      * Copies a database.
      * 
@@ -143,6 +164,125 @@ public interface Transaction {
      */
     public Transaction deleteRecord(String databaseName, int indexId, byte[] key);
     
+    /**
+     * Merges an operand with the value of a key, by means of the merge
+     * operator of the index.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key is located; its comparator has to
+     *            implement {@link org.xtreemfs.babudb.api.index.MergeOperator}
+     * @param key
+     *            the key
+     * @param operand
+     *            the operand
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction mergeRecord(String databaseName, int indexId, byte[] key, byte[] operand);
+    
+    /**
+     * Deletes all records with keys in the given range.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the records are located
+     * @param from
+     *            the first key of the range (inclusively); if
+     *            <code>null</code>, the range starts with the first key
+     * @param to
+     *            the last key of the range (exclusively); if <code>null</code>,
+     *            the range ends with the last key
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction deleteRange(String databaseName, int indexId, byte[] from, byte[] to);
+    
+    /**
+     * Inserts a key-value pair if the key does not exist yet. The condition is
+     * evaluated when the operation is executed; if it is not met, the
+     * operation fails with
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#CONDITION_FAILED}
+     * , and no further operations of the transaction are executed.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key-value pair is inserted
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction insertRecordIfAbsent(String databaseName, int indexId, byte[] key, byte[] value);
+    
+    /**
+     * Replaces the value of a key if the key is currently mapped to the
+     * expected value.
+     * 
+     * @see #insertRecordIfAbsent(String, int, byte[], byte[])
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key-value pair is located
+     * @param key
+     *            the key
+     * @param expected
+     *            the value the key is expected to be mapped to
+     * @param value
+     *            the new value
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction replaceRecord(String databaseName, int indexId, byte[] key, byte[] expected,
+        byte[] value);
+    
+    /**
+     * Deletes a key-value pair if the key is currently mapped to the expected
+     * value.
+     * 
+     * @see #insertRecordIfAbsent(String, int, byte[], byte[])
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key-value pair is located
+     * @param key
+     *            the key of the record to delete
+     * @param expected
+     *            the value the key is expected to be mapped to
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction deleteRecordIfEquals(String databaseName, int indexId, byte[] key, byte[] expected);
+    
+    /**
+     * Adds a record to the read set of the transaction. When the transaction
+     * is executed, the read set is validated before any of its operations is
+     * executed: if a key in the read set is no longer mapped to the expected
+     * value, the whole transaction is aborted with
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#TRANSACTION_CONFLICT}
+     * .
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key is located
+     * @param key
+     *            the key
+     * @param value
+     *            the value the key is expected to be mapped to, or
+     *            <code>null</code> if the key is expected not to exist
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction expectRecord(String databaseName, int indexId, byte[] key, byte[] value);
+    
     /**
      * Returns the list of operations contained in the transaction.
      * 
@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Properties;
 
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.LSMDBWorker.ReadMode;
 import org.xtreemfs.foundation.logging.Logging;
 
 /**
@@ -62,6 +63,22 @@ public class BabuDBConfig extends Config {
      */
     protected int      numThreads;
     
+    /**
+     * Determines how lookups are executed if there are worker threads.
+     */
+    protected ReadMode readMode    = ReadMode.WORKER;
+    
+    /**
+     * Number of threads executing lookups if readMode is POOL. 0 uses one
+     * thread per available processor.
+     */
+    protected int      numReadThreads;
+    
+    /**
+     * Number of threads notifying listeners of completed requests.
+     */
+    protected int      numResponseThreads;
+    
     /**
      * MaxLogfileSize a checkpoint is generated ,if maxLogfileSize is exceeded.
      */
@@ -109,6 +126,18 @@ public class BabuDBConfig extends Config {
      */
     protected int      mmapLimit;
     
+    /**
+     * Minimum payload size of log entries to be compressed before they are
+     * written to the log and shipped to replicas. 0 disables log compression.
+     */
+    protected int      logCompressionThreshold;
+    
+    /**
+     * Number of threads applying log entries to the databases when the log is
+     * replayed at startup. 1 replays the log sequentially.
+     */
+    protected int      logReplayThreads;
+    
     /**
      * Paths to plugins initialized on startup of BabuDB.
      */
@@ -201,6 +230,7 @@ public class BabuDBConfig extends Config {
         this.maxBlockFileSize = maxBlockFileSize;
         this.disableMMap = disableMMap;
         this.mmapLimit = mmapLimit;
+        this.numResponseThreads = 1;
     }
     
     /**
@@ -310,6 +340,12 @@ public class BabuDBConfig extends Config {
         
         this.maxQueueLength = this.readOptionalInt("babudb.worker.maxQueueLength", 0);
         
+        this.readMode = ReadMode.valueOf(this.readOptionalString("babudb.worker.readMode", "WORKER"));
+        
+        this.numReadThreads = this.readOptionalInt("babudb.worker.numReadThreads", 0);
+        
+        this.numResponseThreads = this.readOptionalInt("babudb.response.numThreads", 1);
+        
         this.maxLogfileSize = this.readOptionalInt("babudb.maxLogfileSize", 1);
         
         this.checkInterval = this.readOptionalInt("babudb.checkInterval", 0);
@@ -327,6 +363,10 @@ public class BabuDBConfig extends Config {
         
         this.mmapLimit = this.readOptionalInt("babudb.mmapLimit", -1);
         
+        this.logCompressionThreshold = this.readOptionalInt("babudb.log.compressionThreshold", 0);
+        
+        this.logReplayThreads = this.readOptionalInt("babudb.log.replayThreads", 1);
+        
         int count = 0;
         String pluginConfigPath = null;
         while ((pluginConfigPath = readOptionalString("babudb.plugin." + count, null)) != null) {
@@ -337,6 +377,18 @@ public class BabuDBConfig extends Config {
         checkArgs(this.baseDir, this.dbLogDir, numThreads, maxLogfileSize, 
                 checkInterval, syncMode, pseudoSyncWait, maxQueueLength, 
                 compression, maxNumRecordsPerBlock, maxBlockFileSize, mmapLimit);
+        
+        if (logCompressionThreshold < 0)
+            throw new IllegalArgumentException("log compression threshold must be >= 0!");
+        
+        if (numReadThreads < 0)
+            throw new IllegalArgumentException("number of read threads must be >= 0!");
+        
+        if (numResponseThreads < 1)
+            throw new IllegalArgumentException("number of response threads must be > 0!");
+        
+        if (logReplayThreads < 1)
+            throw new IllegalArgumentException("number of log replay threads must be > 0!");
     }
     
     public int getDebugLevel() {
@@ -371,6 +423,18 @@ public class BabuDBConfig extends Config {
         return numThreads;
     }
     
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+    
+    public int getNumReadThreads() {
+        return numReadThreads;
+    }
+    
+    public int getNumResponseThreads() {
+        return numResponseThreads;
+    }
+    
     public long getMaxLogfileSize() {
         return maxLogfileSize;
     }
@@ -403,6 +467,14 @@ public class BabuDBConfig extends Config {
         return this.mmapLimit;
     }
     
+    public int getLogCompressionThreshold() {
+        return logCompressionThreshold;
+    }
+    
+    public int getLogReplayThreads() {
+        return logReplayThreads;
+    }
+    
     public List<String> getPlugins() {
         return plugins;
     }
@@ -417,6 +489,10 @@ public class BabuDBConfig extends Config {
             buf.append("#     pseudo sync interval: " + pseudoSyncWait + "\n");
         buf.append("#        max. queue length: " + maxQueueLength + "\n");
         buf.append("#             num. threads: " + numThreads + "\n");
+        buf.append("#                read mode: " + readMode + "\n");
+        if (readMode == ReadMode.POOL)
+            buf.append("#        num. read threads: " + numReadThreads + "\n");
+        buf.append("#    num. response threads: " + numResponseThreads + "\n");
         buf.append("#   checkpointing interval: " + checkInterval + "\n");
         buf.append("#       max. log file size: " + maxLogfileSize + "\n");
         buf.append("#   num. records per block: " + maxNumRecordsPerBlock + "\n");
@@ -425,6 +501,8 @@ public class BabuDBConfig extends Config {
         buf.append("#            mmap disabled: " + disableMMap + "\n");
         if (!disableMMap)
             buf.append("#               mmap limit: " + mmapLimit + "\n");
+        buf.append("# log compression threshold: " + logCompressionThreshold + "\n");
+        buf.append("#       log replay threads: " + logReplayThreads + "\n");
         for (int i = 0; i < plugins.size(); i++) {
             buf.append("#               plugin-" + i + ": " + plugins.get(i) + "\n");
         }
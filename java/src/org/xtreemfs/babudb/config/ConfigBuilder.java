@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Properties;
 
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.LSMDBWorker.ReadMode;
 import org.xtreemfs.foundation.logging.Logging;
 
 /**
@@ -94,6 +95,38 @@ public class ConfigBuilder {
         return this;
     }
     
+    /**
+     * Specifies how lookups are executed if request processing is
+     * multi-threaded.
+     * 
+     * @param readMode
+     *            the read mode
+     * @param numReadThreads
+     *            the number of threads executing lookups in read mode POOL; 0
+     *            uses one thread per available processor
+     * @return a reference to this object
+     */
+    public ConfigBuilder setReadMode(ReadMode readMode, int numReadThreads) {
+        
+        changes.put("babudb.worker.readMode", readMode.toString());
+        changes.put("babudb.worker.numReadThreads", numReadThreads + "");
+        return this;
+    }
+    
+    /**
+     * Specifies the number of threads notifying listeners of completed
+     * requests.
+     * 
+     * @param numThreads
+     *            the number of response threads
+     * @return a reference to this object
+     */
+    public ConfigBuilder setResponseThreads(int numThreads) {
+        
+        changes.put("babudb.response.numThreads", numThreads + "");
+        return this;
+    }
+    
     /**
      * Enables or disables compression of database contents.
      * 
@@ -108,6 +141,34 @@ public class ConfigBuilder {
         return this;
     }
     
+    /**
+     * Enables compression of large log entries.
+     * 
+     * @param threshold
+     *            the minimum payload size in bytes for log entries to be
+     *            compressed; 0 disables log compression
+     * @return a reference to this object
+     */
+    public ConfigBuilder setLogCompressionThreshold(int threshold) {
+        
+        changes.put("babudb.log.compressionThreshold", threshold + "");
+        return this;
+    }
+    
+    /**
+     * Specifies the number of threads applying log entries to the databases
+     * when the log is replayed at startup.
+     * 
+     * @param numThreads
+     *            the number of replay threads; 1 replays the log sequentially
+     * @return a reference to this object
+     */
+    public ConfigBuilder setLogReplayThreads(int numThreads) {
+        
+        changes.put("babudb.log.replayThreads", numThreads + "");
+        return this;
+    }
+    
     /**
      * Specifies the synchronization mode for log appends.
      * 
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.config;
+
+import java.io.Serializable;
+
+/**
+ * Storage settings of an individual index, which may be specified when a
+ * database is created. Any setting that has not been set explicitly is
+ * inherited from the global {@link BabuDBConfig}. Index configurations are
+ * stored persistently along with the database configuration.
+ * 
+ * <p>
+ * The same configuration may be used for several indices, e.g. for all indices
+ * of a database.
+ * </p>
+ */
+public class IndexConfig implements Serializable {
+    
+    private static final long serialVersionUID = -2391547384150981234L;
+    
+    private Boolean           compression;
+    
+    private Integer           maxNumRecordsPerBlock;
+    
+    private Integer           maxBlockFileSize;
+    
+    private Boolean           disableMMap;
+    
+    private Integer           mmapLimit;
+    
+    private Integer           valueLogThreshold;
+    
+    private Double            valueLogMinLiveRatio;
+    
+    /**
+     * Specifies whether the on-disk index is compressed.
+     * 
+     * @param compression
+     * @return a reference to this object
+     */
+    public IndexConfig setCompressed(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+    
+    /**
+     * Sets the maximum number of records per block of the on-disk index.
+     * 
+     * @param maxNumRecordsPerBlock
+     * @return a reference to this object
+     */
+    public IndexConfig setMaxNumRecordsPerBlock(int maxNumRecordsPerBlock) {
+        this.maxNumRecordsPerBlock = maxNumRecordsPerBlock;
+        return this;
+    }
+    
+    /**
+     * Sets the maximum size in bytes of a block file of the on-disk index.
+     * 
+     * @param maxBlockFileSize
+     * @return a reference to this object
+     */
+    public IndexConfig setMaxBlockFileSize(int maxBlockFileSize) {
+        this.maxBlockFileSize = maxBlockFileSize;
+        return this;
+    }
+    
+    /**
+     * Specifies whether block files of the on-disk index are memory-mapped.
+     * 
+     * @param mmap
+     * @param mmapLimit
+     *            the total size in MB of all databases up to which block files
+     *            are memory-mapped, or -1 for no limit
+     * @return a reference to this object
+     */
+    public IndexConfig setMMap(boolean mmap, int mmapLimit) {
+        this.disableMMap = !mmap;
+        this.mmapLimit = mmapLimit;
+        return this;
+    }
+    
+    /**
+     * Enables a value log for the index. Values larger than the given
+     * threshold are written to separate value segments when a checkpoint is
+     * created, and the on-disk index only stores pointers to them. Segments of
+     * which less than the given ratio of bytes are still referenced are
+     * compacted by subsequent checkpoints.
+     * 
+     * @param threshold
+     *            the size in bytes above which values are separated
+     * @param minLiveRatio
+     *            the ratio of referenced bytes in a segment below which its
+     *            values are relocated
+     * @return a reference to this object
+     */
+    public IndexConfig setValueLog(int threshold, double minLiveRatio) {
+        this.valueLogThreshold = threshold;
+        this.valueLogMinLiveRatio = minLiveRatio;
+        return this;
+    }
+    
+    /**
+     * @param inherited
+     *            the global setting
+     * @return true, if the on-disk index is compressed
+     */
+    public boolean getCompression(boolean inherited) {
+        return compression == null ? inherited : compression;
+    }
+    
+    /**
+     * @param inherited
+     *            the global setting
+     * @return the maximum number of records per block
+     */
+    public int getMaxNumRecordsPerBlock(int inherited) {
+        return maxNumRecordsPerBlock == null ? inherited : maxNumRecordsPerBlock;
+    }
+    
+    /**
+     * @param inherited
+     *            the global setting
+     * @return the maximum size of a block file
+     */
+    public int getMaxBlockFileSize(int inherited) {
+        return maxBlockFileSize == null ? inherited : maxBlockFileSize;
+    }
+    
+    /**
+     * @param inherited
+     *            the global setting
+     * @return true, if memory-mapping of block files is disabled
+     */
+    public boolean getDisableMMap(boolean inherited) {
+        return disableMMap == null ? inherited : disableMMap;
+    }
+    
+    /**
+     * @param inherited
+     *            the global setting
+     * @return the size limit for memory-mapping block files
+     */
+    public int getMMapLimit(int inherited) {
+        return mmapLimit == null ? inherited : mmapLimit;
+    }
+    
+    /**
+     * @return the size above which values are separated, or -1 if the index
+     *         does not have a value log
+     */
+    public int getValueLogThreshold() {
+        return valueLogThreshold == null ? -1 : valueLogThreshold;
+    }
+    
+    /**
+     * @return the ratio of referenced bytes below which the values of a segment
+     *         are relocated
+     */
+    public double getValueLogMinLiveRatio() {
+        return valueLogMinLiveRatio == null ? 0.5 : valueLogMinLiveRatio;
+    }
+    
+    @Override
+    public String toString() {
+        return "IndexConfig[compression=" + compression + ", maxNumRecordsPerBlock=" + maxNumRecordsPerBlock
+            + ", maxBlockFileSize=" + maxBlockFileSize + ", disableMMap=" + disableMMap + ", mmapLimit="
+            + mmapLimit + ", valueLogThreshold=" + valueLogThreshold + ", valueLogMinLiveRatio="
+            + valueLogMinLiveRatio + "]";
+    }
+}
@@ -40,7 +40,7 @@ public class ByteRange {
         this.size = endOffset - startOffset;
         this.prefix = null;
         
-        assert (endOffset < buf.limit()) : "buf.limit() == " + buf.limit() + ", endOffset == " + endOffset
+        assert (endOffset <= buf.limit()) : "buf.limit() == " + buf.limit() + ", endOffset == " + endOffset
             + ", startOffset == " + startOffset + ", buf.capacity == " + buf.capacity();
     }
     
@@ -64,6 +64,34 @@ public class ByteRange {
         this.prefix = prefix;
     }
     
+    /**
+     * Returns the number of bytes in the range. Unlike <code>getSize()</code>,
+     * which only covers the bytes in the buffer, the length includes a prefix
+     * that may have been added to the range.
+     * 
+     * @return the number of bytes in the range
+     */
+    public int getLength() {
+        return prefix == null ? size : prefix.length + size;
+    }
+    
+    /**
+     * Returns the byte at the given position of the range, including a prefix
+     * that may have been added to the range. The byte is read without copying
+     * the range.
+     * 
+     * @param index
+     *            the position in the range, less than <code>getLength()</code>
+     * @return the byte
+     */
+    public byte get(int index) {
+        
+        if (prefix == null)
+            return buf.get(startOffset + index);
+        
+        return index < prefix.length ? prefix[index] : buf.get(startOffset + index - prefix.length);
+    }
+    
     public byte[] toBuffer() {
         byte[] tmp;
         
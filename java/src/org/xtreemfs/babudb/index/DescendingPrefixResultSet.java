@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+
+/**
+ * Turns a descending range lookup over the range of a prefix into a
+ * descending prefix lookup. A descending range lookup includes its upper bound
+ * and excludes its lower bound, whereas the range of a prefix is the other way
+ * round: its upper bound is the first key that no longer matches the prefix,
+ * and its lower bound is the prefix itself. Hence, an entry with the upper
+ * bound is skipped, and the entry with the prefix, which has to be looked up
+ * separately, is returned last.
+ *
+ * @author stender
+ *
+ */
+public class DescendingPrefixResultSet implements ResultSet<byte[], byte[]> {
+    
+    private final ResultSet<byte[], byte[]> it;
+    
+    private final ByteRangeComparator       comp;
+    
+    private final byte[]                    upperBound;
+    
+    private Entry<byte[], byte[]>           prefixEntry;
+    
+    private Entry<byte[], byte[]>           next;
+    
+    /**
+     * Creates a new descending prefix result set.
+     * 
+     * @param it
+     *            the descending range lookup from <code>upperBound</code>
+     *            (inclusively) to <code>prefix</code> (exclusively)
+     * @param comp
+     *            the comparator
+     * @param upperBound
+     *            the upper bound of the prefix range, or <code>null</code> if
+     *            the range is unbounded
+     * @param prefix
+     *            the prefix
+     * @param prefixValue
+     *            the value associated with the prefix, or <code>null</code> if
+     *            there is none
+     */
+    public DescendingPrefixResultSet(ResultSet<byte[], byte[]> it, ByteRangeComparator comp,
+        byte[] upperBound, byte[] prefix, byte[] prefixValue) {
+        
+        this.it = it;
+        this.comp = comp;
+        this.upperBound = upperBound;
+        if (prefixValue != null)
+            prefixEntry = new SimpleEntry<byte[], byte[]>(prefix, prefixValue);
+    }
+    
+    public boolean hasNext() {
+        
+        while (next == null && it.hasNext()) {
+            Entry<byte[], byte[]> entry = it.next();
+            if (upperBound == null || comp.compare(entry.getKey(), upperBound) != 0)
+                next = entry;
+        }
+        
+        if (next == null && prefixEntry != null) {
+            next = prefixEntry;
+            prefixEntry = null;
+        }
+        
+        return next != null;
+    }
+    
+    public Entry<byte[], byte[]> next() {
+        
+        if (!hasNext())
+            throw new NoSuchElementException();
+        
+        Entry<byte[], byte[]> tmp = next;
+        next = null;
+        return tmp;
+    }
+    
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    public void free() {
+        it.free();
+    }
+
+}
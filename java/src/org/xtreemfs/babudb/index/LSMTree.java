@@ -10,15 +10,29 @@ package org.xtreemfs.babudb.index;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 
+import org.xtreemfs.babudb.api.database.EntryFilter;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.ExpiringValues;
+import org.xtreemfs.babudb.api.index.MergeOperator;
+import org.xtreemfs.babudb.api.index.ValueExpiration;
 import org.xtreemfs.babudb.index.overlay.MultiOverlayBufferTree;
+import org.xtreemfs.babudb.index.overlay.MultiOverlayTree.DeletedRanges;
 import org.xtreemfs.babudb.index.reader.DiskIndex;
 import org.xtreemfs.babudb.index.reader.InternalBufferUtil;
 import org.xtreemfs.babudb.index.reader.InternalDiskIndexIterator;
@@ -34,9 +48,24 @@ public class LSMTree {
     
     private static final byte[]       NULL_ELEMENT    = new byte[0];
     
-    private MultiOverlayBufferTree    overlay;
+    private static final byte[]       MERGE_ELEMENT   = new byte[0];
     
-    private DiskIndex                 index;
+    /**
+     * the maximum number of operands recorded for a key before they are
+     * applied to the value of the key
+     */
+    private static final int          MAX_OPERANDS    = 32;
+    
+    private volatile MultiOverlayBufferTree overlay;
+    
+    private volatile DiskIndex        index;
+    
+    /**
+     * snapshot ID -> on-disk index the snapshot was taken from, for snapshots
+     * the on-disk index of which has been replaced via
+     * {@link #linkToIndex(String)}
+     */
+    private final Map<Integer, DiskIndex> snapIndices;
     
     private final ByteRangeComparator comp;
     
@@ -52,6 +81,23 @@ public class LSMTree {
     
     private final int                 mmapLimitBytes;
     
+    /**
+     * indicates whether the values of the tree carry an expiration time
+     */
+    private final boolean             expiring;
+    
+    /**
+     * the log to which large values are separated, or <code>null</code> if
+     * all values are stored in the on-disk index
+     */
+    private final ValueLog            valueLog;
+    
+    /**
+     * the operator for merges, or <code>null</code> if the tree does not
+     * support merges
+     */
+    private final MergeOperator       mergeOperator;
+    
     /**
      * Creates a new LSM tree.
      * 
@@ -66,6 +112,26 @@ public class LSMTree {
      */
     public LSMTree(String indexFile, ByteRangeComparator comp, boolean compressed, int maxEntriesPerBlock,
         int maxBlockFileSize, boolean useMMap, int mmapLimit) throws IOException {
+        this(indexFile, comp, compressed, maxEntriesPerBlock, maxBlockFileSize, useMMap, mmapLimit, null);
+    }
+    
+    /**
+     * Creates a new LSM tree with a value log.
+     * 
+     * @param indexFile
+     *            the on-disk index file - may be <code>null</code>
+     * @param comp
+     *            a comparator for byte ranges
+     * @param compressed
+     *            Compression of disk-index
+     * @param valueLog
+     *            the log to which large values are separated when checkpoints
+     *            are written - may be <code>null</code>
+     * @throws IOException
+     *             if an I/O error occurs when accessing the on-disk index file
+     */
+    public LSMTree(String indexFile, ByteRangeComparator comp, boolean compressed, int maxEntriesPerBlock,
+        int maxBlockFileSize, boolean useMMap, int mmapLimit, ValueLog valueLog) throws IOException {
         
         this.comp = comp;
         this.compressed = compressed;
@@ -73,10 +139,14 @@ public class LSMTree {
         this.maxBlockFileSize = maxBlockFileSize;
         this.useMMap = useMMap;
         this.mmapLimitBytes = mmapLimit * 1024 * 1024;
+        this.expiring = comp instanceof ExpiringValues;
+        this.valueLog = valueLog;
+        this.mergeOperator = comp instanceof MergeOperator ? (MergeOperator) comp : null;
         
-        overlay = new MultiOverlayBufferTree(NULL_ELEMENT, comp);
+        overlay = new MultiOverlayBufferTree(NULL_ELEMENT, MERGE_ELEMENT, comp);
         totalOnDiskSize += indexFile == null ? 0 : getTotalDirSize(new File(indexFile));
         index = indexFile == null ? null : new DiskIndex(indexFile, comp, compressed, useMmap());
+        snapIndices = Collections.synchronizedMap(new HashMap<Integer, DiskIndex>());
         lock = new Object();
     }
     
@@ -94,10 +164,15 @@ public class LSMTree {
         if (result == NULL_ELEMENT)
             return null;
         
-        if (result != null)
-            return result;
+        if (result == MERGE_ELEMENT) {
+            List<List<byte[]>> operands = new ArrayList<List<byte[]>>();
+            return hideExpired(applyOperands(key, overlay.lookupOperands(key, operands), operands));
+        }
+        
+        if (result == null && index != null)
+            result = fromDisk(index.lookup(key));
         
-        return index == null ? null : index.lookup(key);
+        return hideExpired(result);
     }
     
     /**
@@ -116,10 +191,81 @@ public class LSMTree {
         if (result == NULL_ELEMENT)
             return null;
         
-        if (result != null)
-            return result;
+        if (result == MERGE_ELEMENT) {
+            List<List<byte[]>> operands = new ArrayList<List<byte[]>>();
+            return hideExpired(applyOperands(key, overlay.lookupOperands(key, snapId, operands), operands,
+                getIndex(snapId)));
+        }
         
-        return index == null ? null : index.lookup(key);
+        DiskIndex index = getIndex(snapId);
+        if (result == null && index != null)
+            result = fromDisk(index.lookup(key));
+        
+        return hideExpired(result);
+    }
+    
+    /**
+     * Performs a lookup for multiple keys. The keys are processed in sorted
+     * order, so that the on-disk index can be searched in a single pass.
+     * 
+     * @param keys
+     *            the keys to look up
+     * @return an array containing the value associated with each key at the
+     *         same position
+     */
+    public byte[][] lookup(final byte[][] keys) {
+        
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return comp.compare(keys[o1], keys[o2]);
+            }
+        });
+        
+        byte[][] results = new byte[keys.length][];
+        
+        // probe the overlay first, and collect all keys that have to be looked
+        // up in the on-disk index
+        int[] pending = new int[keys.length];
+        int numPending = 0;
+        for (int pos : order) {
+            
+            byte[] result = overlay.lookup(keys[pos]);
+            if (result == NULL_ELEMENT)
+                continue;
+            
+            if (result == MERGE_ELEMENT) {
+                List<List<byte[]>> operands = new ArrayList<List<byte[]>>();
+                result = applyOperands(keys[pos], overlay.lookupOperands(keys[pos], operands), operands);
+                if (result == null)
+                    continue;
+            }
+            
+            if (result != null)
+                results[pos] = result;
+            else
+                pending[numPending++] = pos;
+        }
+        
+        DiskIndex index = this.index;
+        if (index != null && numPending > 0) {
+            
+            byte[][] diskKeys = new byte[numPending][];
+            for (int i = 0; i < numPending; i++)
+                diskKeys[i] = keys[pending[i]];
+            
+            byte[][] diskResults = index.lookup(diskKeys);
+            for (int i = 0; i < numPending; i++)
+                results[pending[i]] = fromDisk(diskResults[i]);
+        }
+        
+        if (expiring)
+            for (int i = 0; i < results.length; i++)
+                results[i] = hideExpired(results[i]);
+        
+        return results;
     }
     
     /**
@@ -204,14 +350,19 @@ public class LSMTree {
         if (prefix != null && prefix.length == 0)
             prefix = null;
         
+        // look up the prefix key itself before the range, as the latter does
+        // not include it in descending order
+        byte[] prefixValue = ascending || prefix == null ? null : lookup(prefix);
+        
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
-        list.add(overlay.prefixLookup(prefix, true, ascending));
+        list.add(applyOperands(overlay.prefixLookup(prefix, true, ascending), -1));
         if (index != null) {
             byte[][] rng = comp.prefixToRange(prefix, ascending);
-            list.add(index.rangeLookup(rng[0], rng[1], ascending));
+            list.add(diskRangeLookup(index, rng[0], rng[1], ascending, overlay.getDeletedRanges()));
         }
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return descendingPrefix(hideExpired(new OverlayMergeIterator<byte[], byte[]>(list, comp,
+            NULL_ELEMENT, ascending)), prefix, prefixValue, ascending);
     }
     
     /**
@@ -248,14 +399,33 @@ public class LSMTree {
         if (prefix != null && prefix.length == 0)
             prefix = null;
         
+        byte[] prefixValue = ascending || prefix == null ? null : lookup(prefix, snapId);
+        
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
-        list.add(overlay.prefixLookup(prefix, snapId, true, ascending));
+        list.add(applyOperands(overlay.prefixLookup(prefix, snapId, true, ascending), snapId));
+        DiskIndex index = getIndex(snapId);
         if (index != null) {
             byte[][] rng = comp.prefixToRange(prefix, ascending);
-            list.add(index.rangeLookup(rng[0], rng[1], ascending));
+            list.add(diskRangeLookup(index, rng[0], rng[1], ascending,
+                overlay.getDeletedRanges(snapId)));
         }
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return descendingPrefix(hideExpired(new OverlayMergeIterator<byte[], byte[]>(list, comp,
+            NULL_ELEMENT, ascending)), prefix, prefixValue, ascending);
+    }
+    
+    /**
+     * Restricts the result of a descending lookup over the range of a prefix
+     * to the keys matching the prefix, see {@link DescendingPrefixResultSet}.
+     */
+    private ResultSet<byte[], byte[]> descendingPrefix(ResultSet<byte[], byte[]> it, byte[] prefix,
+        byte[] prefixValue, boolean ascending) {
+        
+        if (ascending || prefix == null)
+            return it;
+        
+        return new DescendingPrefixResultSet(it, comp, comp.prefixToRange(prefix, false)[0], prefix,
+            prefixValue);
     }
     
     /**
@@ -298,11 +468,84 @@ public class LSMTree {
             to = null;
         
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
-        list.add(overlay.rangeLookup(from, to, true, ascending));
+        list.add(applyOperands(overlay.rangeLookup(from, to, true, ascending), -1));
+        if (index != null)
+            list.add(diskRangeLookup(index, from, to, ascending, overlay.getDeletedRanges()));
+        
+        return hideExpired(new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending));
+    }
+    
+    /**
+     * Performs a range lookup that only returns entries accepted by the given
+     * filter, with their values reduced to the given projection. Entries of the
+     * on-disk index are filtered before they are copied out of their blocks,
+     * so that entries which are not accepted are never materialized.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @param ascending
+     *            if <code>true</code>, entries will be returned in ascending
+     *            order; otherwise, they will be returned in descending order
+     * @param filter
+     *            the filter for entries, or <code>null</code>
+     * @param projection
+     *            the projection of values, or <code>null</code>
+     * @return an iterator with the accepted key-value pairs
+     */
+    public ResultSet<byte[], byte[]> rangeLookup(byte[] from, byte[] to, boolean ascending,
+        EntryFilter filter, ValueProjection projection) {
+        
+        if (filter == null && projection == null)
+            return rangeLookup(from, to, ascending);
+        
+        if (from.length == 0)
+            from = null;
+        
+        if (to.length == 0)
+            to = null;
+        
+        // values of expiring trees carry their expiration time, so that they
+        // cannot be projected before expired entries have been hidden
+        ValueProjection earlyProjection = expiring ? null : projection;
+        
+        List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
+        list.add(filterOverlay(applyOperands(overlay.rangeLookup(from, to, true, ascending), -1), filter,
+            earlyProjection));
+        DiskIndex index = this.index;
         if (index != null)
-            list.add(index.rangeLookup(from, to, ascending));
+            list.add(diskRangeLookup(index, from, to, ascending, overlay.getDeletedRanges(), filter,
+                earlyProjection));
+        
+        ResultSet<byte[], byte[]> it = hideExpired(new OverlayMergeIterator<byte[], byte[]>(list, comp,
+            NULL_ELEMENT, ascending));
+        return earlyProjection == projection ? it : project(it, projection);
+    }
+    
+    /**
+     * Returns keys that split the given range into partitions which can be
+     * looked up independently of one another. Split keys are taken from the
+     * block boundaries of the current on-disk index, so that each partition
+     * spans roughly the same number of blocks. If no on-disk index exists, the
+     * range is not split.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @param maxPartitions
+     *            the maximum number of partitions
+     * @return the split keys in ascending order
+     */
+    public byte[][] getSplitKeys(byte[] from, byte[] to, int maxPartitions) {
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        DiskIndex index = this.index;
+        if (index == null)
+            return new byte[0][];
+        
+        return index.getSplitKeys(from == null || from.length == 0 ? null : from,
+            to == null || to.length == 0 ? null : to, maxPartitions);
     }
     
     /**
@@ -349,11 +592,12 @@ public class LSMTree {
             to = null;
         
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
-        list.add(overlay.rangeLookup(from, to, snapId, true, ascending));
+        list.add(applyOperands(overlay.rangeLookup(from, to, snapId, true, ascending), snapId));
+        DiskIndex index = getIndex(snapId);
         if (index != null)
-            list.add(index.rangeLookup(from, to, ascending));
+            list.add(diskRangeLookup(index, from, to, ascending, overlay.getDeletedRanges(snapId)));
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return hideExpired(new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending));
     }
     
     /**
@@ -383,6 +627,67 @@ public class LSMTree {
         }
     }
     
+    /**
+     * Merges an operand with the value of a key by means of the merge operator
+     * of the tree. If the value of the key is contained in the overlay, the
+     * operand is applied immediately. Otherwise, the operand is recorded in
+     * the overlay and applied to the value from the on-disk index when the key
+     * is looked up or the next snapshot is materialized, so that the on-disk
+     * index does not have to be read.
+     * 
+     * @param key
+     *            the key
+     * @param operand
+     *            the operand
+     */
+    public void merge(byte[] key, byte[] operand) {
+        
+        assert (mergeOperator != null);
+        
+        synchronized (lock) {
+            
+            List<List<byte[]>> operands = new ArrayList<List<byte[]>>();
+            byte[] value = overlay.lookupOperands(key, operands);
+            
+            int numOperands = 0;
+            for (List<byte[]> ops : operands)
+                numOperands += ops.size();
+            
+            if (value == null && numOperands < MAX_OPERANDS) {
+                overlay.addOperand(key, operand);
+                return;
+            }
+            
+            // the value does not depend on the on-disk index, or so many
+            // operands have been recorded that they are worth applying
+            overlay.insert(key, mergeOperator.merge(key, applyOperands(key, value, operands), operand));
+        }
+    }
+    
+    /**
+     * Deletes all key-value pairs with keys between <code>from</code>
+     * (inclusively) and <code>to</code> (exclusively). Instead of deleting
+     * each key separately, a single range tombstone is recorded, which masks
+     * all covered entries in lookups and is applied when the next snapshot is
+     * materialized.
+     * 
+     * @param from
+     *            the first key (inclusively); if <code>null</code>, the range
+     *            starts with the first key
+     * @param to
+     *            the last key (exclusively); if <code>null</code>, the range
+     *            ends with the last key (inclusively)
+     */
+    public void deleteRange(byte[] from, byte[] to) {
+        
+        if (from != null && from.length == 0)
+            from = null;
+        
+        synchronized (lock) {
+            overlay.deleteRange(from, to);
+        }
+    }
+    
     /**
      * Creates a new in-memory snapshot.
      * 
@@ -407,11 +712,58 @@ public class LSMTree {
         DiskIndexWriter writer = new DiskIndexWriter(targetFile, maxEntriesPerBlock, compressed,
             maxBlockFileSize);
         
-        InternalMergeIterator it = internalPrefixLookup(null, snapId, true);
+        // if the tree has a value log, all values are inlined, so that the
+        // snapshot does not depend on value segments
+        ResultSet<Object, Object> it = internalPrefixLookup(null, snapId, true);
+        if (valueLog != null)
+            it = valueLog.inline(it);
+        
         writer.writeIndex(it);
         it.free();
     }
     
+    /**
+     * Writes an in-memory snapshot to a file on disk, which will replace the
+     * current on-disk index when the checkpoint is linked. Unlike
+     * {@link #materializeSnapshot(String, int)}, large values are separated to
+     * a new segment of the value log, if the tree has a value log.
+     * 
+     * @param targetFile
+     *            the file to which to write the snapshot
+     * @param snapId
+     *            the snapshot ID
+     * @param viewId
+     *            the view ID of the checkpoint
+     * @param sequenceNo
+     *            the sequence number of the checkpoint
+     * @throws IOException
+     *             if an I/O error occurs while writing the snapshot
+     */
+    public void materializeCheckpoint(String targetFile, int snapId, int viewId, long sequenceNo)
+        throws IOException {
+        
+        if (valueLog == null) {
+            materializeSnapshot(targetFile, snapId);
+            return;
+        }
+        
+        DiskIndexWriter writer = new DiskIndexWriter(targetFile, maxEntriesPerBlock, compressed,
+            maxBlockFileSize);
+        
+        ResultSet<Object, Object> it = valueLog.separate(internalPrefixLookup(null, snapId, true), viewId,
+            sequenceNo);
+        try {
+            writer.writeIndex(it);
+            valueLog.completeSegment(it);
+        } catch (IllegalStateException exc) {
+            if (exc.getCause() instanceof IOException)
+                throw (IOException) exc.getCause();
+            throw exc;
+        } finally {
+            valueLog.closeSegment(it);
+        }
+    }
+    
     /**
      * Writes a certain part of an in-memory snapshot to a file on disk.
      * 
@@ -507,6 +859,12 @@ public class LSMTree {
                     if (snap.containsKey(indexId, tmp))
                         break;
                 }
+                
+                // resolve values of the on-disk index, as the snapshot does
+                // not have a value log
+                if (next != null && valueLog != null && next.getValue() instanceof ByteRange)
+                    next = new SimpleEntry<Object, Object>(next.getKey(), valueLog.decode(((ByteRange) next
+                            .getValue()).toBuffer()));
             }
             
         });
@@ -531,6 +889,48 @@ public class LSMTree {
             if (oldIndex != null)
                 oldIndex.destroy();
             overlay.cleanup();
+            destroySnapshotIndices();
+            
+            // value segments that are no longer referenced by the new index
+            // can be deleted now
+            if (valueLog != null)
+                valueLog.removeObsoleteSegments();
+        }
+    }
+    
+    /**
+     * Replaces the entire content of the LSM tree with the index stored in the
+     * given file. Unlike {@link #linkToSnapshot(String)}, all in-memory
+     * entries are discarded, including those that have not been written to a
+     * snapshot yet. Snapshots taken before remain valid and unaffected, as
+     * the replaced index is retained for them until the tree is linked to a
+     * new snapshot file.
+     * 
+     * @param indexFile
+     *            the index file
+     * @throws IOException
+     *             if an I/O error occurred while reading the index file
+     */
+    public void linkToIndex(String indexFile) throws IOException {
+        synchronized (lock) {
+            final DiskIndex oldIndex = index;
+            final DiskIndex newIndex = new DiskIndex(indexFile, comp, this.compressed, useMmap());
+            
+            // snapshots taken before keep reading the replaced index
+            boolean retained = false;
+            for (int snapId : overlay.getOverlayIds()) {
+                if (!snapIndices.containsKey(snapId)) {
+                    snapIndices.put(snapId, oldIndex);
+                    retained = true;
+                }
+            }
+            
+            totalOnDiskSize -= oldIndex == null || retained ? 0 : oldIndex.getSize();
+            index = newIndex;
+            totalOnDiskSize += index.getSize();
+            overlay.clear();
+            if (oldIndex != null && !retained)
+                oldIndex.destroy();
         }
     }
     
@@ -563,6 +963,9 @@ public class LSMTree {
                 index.destroy();
             }
             overlay.cleanup();
+            destroySnapshotIndices();
+            if (valueLog != null)
+                valueLog.close();
         }
     }
     
@@ -593,15 +996,324 @@ public class LSMTree {
         if (prefix != null && prefix.length == 0)
             prefix = null;
         
-        Iterator<Entry<byte[], byte[]>> overlayIterator = overlay.prefixLookup(prefix, snapId, true,
-            ascending);
+        Iterator<Entry<byte[], byte[]>> overlayIterator = applyOperands(overlay.prefixLookup(prefix, snapId,
+            true, ascending), snapId);
         InternalDiskIndexIterator diskIndexIterator = null;
+        DiskIndex index = getIndex(snapId);
         if (index != null) {
             byte[][] rng = comp.prefixToRange(prefix, ascending);
-            diskIndexIterator = index.internalRangeLookup(rng[0], rng[1], ascending);
+            diskIndexIterator = ascending ? index.internalRangeLookup(rng[0], rng[1], true) : index
+                    .internalRangeLookup(rng[1], rng[0], false);
         }
         
-        return new InternalMergeIterator(overlayIterator, diskIndexIterator, comp, NULL_ELEMENT, ascending);
+        return new InternalMergeIterator(overlayIterator, diskIndexIterator, overlay.getDeletedRanges(snapId),
+            comp, NULL_ELEMENT, ascending, expiring);
+    }
+    
+    /**
+     * Performs a range lookup on the disk index. Unlike the overlay, which
+     * expects the upper bound first for descending lookups, the disk index
+     * always expects the lower bound first.
+     * 
+     * @param index
+     *            the disk index
+     * @param from
+     *            the first key in the given key order
+     * @param to
+     *            the last key in the given key order
+     * @param ascending
+     *            the key order
+     * @param deletedRanges
+     *            ranges deleted in the overlay, the entries of which will be
+     *            skipped
+     * @return an iterator with key-value pairs
+     */
+    private ResultSet<byte[], byte[]> diskRangeLookup(DiskIndex index, byte[] from, byte[] to,
+        boolean ascending, final List<DeletedRanges<byte[]>> deletedRanges) {
+        return diskRangeLookup(index, from, to, ascending, deletedRanges, null, null);
+    }
+    
+    private ResultSet<byte[], byte[]> diskRangeLookup(DiskIndex index, byte[] from, byte[] to,
+        boolean ascending, final List<DeletedRanges<byte[]>> deletedRanges, final EntryFilter filter,
+        final ValueProjection projection) {
+        
+        // values in the blocks of trees with a value log may be pointers, so
+        // that these can only be filtered once they have been resolved
+        EntryFilter blockFilter = valueLog == null ? filter : null;
+        ValueProjection blockProjection = valueLog == null ? projection : null;
+        
+        ResultSet<byte[], byte[]> it = ascending ? index.rangeLookup(from, to, true, blockFilter,
+            blockProjection) : index.rangeLookup(to, from, false, blockFilter, blockProjection);
+        
+        if (!deletedRanges.isEmpty())
+            it = new FilteredResultSet(it) {
+                protected boolean accept(Entry<byte[], byte[]> entry) {
+                    for (DeletedRanges<byte[]> ranges : deletedRanges)
+                        if (ranges.contains(entry.getKey()))
+                            return false;
+                    return true;
+                }
+            };
+        
+        // values are resolved only for entries that have not been skipped
+        if (valueLog == null)
+            return it;
+        
+        it = valueLog.decode(it);
+        if (filter != null)
+            it = new FilteredResultSet(it) {
+                protected boolean accept(Entry<byte[], byte[]> entry) {
+                    return filter.accept(wrap(entry.getKey()), wrap(entry.getValue()));
+                }
+            };
+        
+        return projection == null ? it : project(it, projection);
+    }
+    
+    /**
+     * Applies a filter and a projection to the entries of the overlay. Entries
+     * that are not accepted are turned into deletions rather than being
+     * skipped, so that they still hide older entries of the on-disk index.
+     * 
+     * @param it
+     *            the overlay iterator
+     * @param filter
+     *            the filter, or <code>null</code>
+     * @param projection
+     *            the projection, or <code>null</code>
+     * @return the filtered iterator
+     */
+    private static Iterator<Entry<byte[], byte[]>> filterOverlay(final Iterator<Entry<byte[], byte[]>> it,
+        final EntryFilter filter, final ValueProjection projection) {
+        
+        return new Iterator<Entry<byte[], byte[]>>() {
+            
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            public Entry<byte[], byte[]> next() {
+                
+                Entry<byte[], byte[]> entry = it.next();
+                if (entry.getValue() == NULL_ELEMENT)
+                    return entry;
+                
+                if (filter != null && !filter.accept(wrap(entry.getKey()), wrap(entry.getValue())))
+                    return new SimpleEntry<byte[], byte[]>(entry.getKey(), NULL_ELEMENT);
+                
+                return projection == null ? entry : new SimpleEntry<byte[], byte[]>(entry.getKey(),
+                    projection.apply(entry.getValue()));
+            }
+            
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * Applies a projection to the values of the given iterator.
+     * 
+     * @param it
+     *            the iterator
+     * @param projection
+     *            the projection
+     * @return an iterator with projected values
+     */
+    private static ResultSet<byte[], byte[]> project(final ResultSet<byte[], byte[]> it,
+        final ValueProjection projection) {
+        
+        return new ResultSet<byte[], byte[]>() {
+            
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            public Entry<byte[], byte[]> next() {
+                Entry<byte[], byte[]> entry = it.next();
+                return new SimpleEntry<byte[], byte[]>(entry.getKey(), projection.apply(entry.getValue()));
+            }
+            
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+            public void free() {
+                it.free();
+            }
+        };
+    }
+    
+    private static ByteRange wrap(byte[] buf) {
+        return new ByteRange(ByteBuffer.wrap(buf), 0, buf.length);
+    }
+    
+    /**
+     * Returns the on-disk index underlying a snapshot. Unless it has been
+     * replaced via {@link #linkToIndex(String)} since the snapshot was taken,
+     * this is the current on-disk index.
+     * 
+     * @param snapId
+     *            the snapshot ID
+     * @return the on-disk index, or <code>null</code>
+     */
+    private DiskIndex getIndex(int snapId) {
+        synchronized (snapIndices) {
+            return snapIndices.containsKey(snapId) ? snapIndices.get(snapId) : index;
+        }
+    }
+    
+    /**
+     * Destroys all on-disk indices that have been retained for snapshots.
+     */
+    private void destroySnapshotIndices() throws IOException {
+        synchronized (snapIndices) {
+            for (DiskIndex snapIndex : new HashSet<DiskIndex>(snapIndices.values())) {
+                if (snapIndex != null) {
+                    totalOnDiskSize -= snapIndex.getSize();
+                    snapIndex.destroy();
+                }
+            }
+            snapIndices.clear();
+        }
+    }
+    
+    /**
+     * Converts a value from the on-disk index to the actual value, which may
+     * have to be read from the value log.
+     * 
+     * @param value
+     *            the value from the on-disk index
+     * @return the value
+     */
+    private byte[] fromDisk(byte[] value) {
+        return valueLog == null ? value : valueLog.decode(value);
+    }
+    
+    /**
+     * Applies the operands recorded for a key marked as merged.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value to which the operands have to be applied, as
+     *            returned by <code>lookupOperands()</code> on the overlay
+     * @param operands
+     *            the operands, from the newest overlay to the oldest one
+     * @return the resulting value, or <code>null</code> if the key does not
+     *         exist
+     */
+    private byte[] applyOperands(byte[] key, byte[] value, List<List<byte[]>> operands) {
+        return applyOperands(key, value, operands, index);
+    }
+    
+    /**
+     * Applies the operands recorded for a key marked as merged to the value
+     * of the key in a given on-disk index.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value to which the operands have to be applied, as
+     *            returned by <code>lookupOperands()</code> on the overlay
+     * @param operands
+     *            the operands, from the newest overlay to the oldest one
+     * @param index
+     *            the on-disk index, or <code>null</code>
+     * @return the resulting value, or <code>null</code> if the key does not
+     *         exist
+     */
+    private byte[] applyOperands(byte[] key, byte[] value, List<List<byte[]>> operands, DiskIndex index) {
+        
+        if (value == NULL_ELEMENT)
+            value = null;
+        else if (value == null && index != null)
+            value = fromDisk(index.lookup(key));
+        value = hideExpired(value);
+        
+        for (int i = operands.size() - 1; i >= 0; i--)
+            for (byte[] operand : operands.get(i))
+                value = mergeOperator.merge(key, value, operand);
+        
+        return value;
+    }
+    
+    /**
+     * Replaces the values of all entries of an overlay iterator that are marked
+     * as merged with the values resulting from their operands. Entries that do
+     * not exist after the operands have been applied are turned into
+     * deletions, so that they still hide older entries of the on-disk index.
+     * 
+     * @param it
+     *            the overlay iterator
+     * @param snapId
+     *            the snapshot ID of the overlay, or <code>-1</code> for the
+     *            current overlay
+     * @return an iterator without merged entries
+     */
+    private Iterator<Entry<byte[], byte[]>> applyOperands(final Iterator<Entry<byte[], byte[]>> it,
+        final int snapId) {
+        
+        if (mergeOperator == null)
+            return it;
+        
+        final MultiOverlayBufferTree overlay = this.overlay;
+        return new Iterator<Entry<byte[], byte[]>>() {
+            
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            public Entry<byte[], byte[]> next() {
+                
+                Entry<byte[], byte[]> entry = it.next();
+                if (entry.getValue() != MERGE_ELEMENT)
+                    return entry;
+                
+                List<List<byte[]>> operands = new ArrayList<List<byte[]>>();
+                byte[] value = applyOperands(entry.getKey(), snapId == -1 ? overlay.lookupOperands(entry
+                        .getKey(), operands) : overlay.lookupOperands(entry.getKey(), snapId, operands),
+                    operands, getIndex(snapId));
+                return new SimpleEntry<byte[], byte[]>(entry.getKey(), value == null ? NULL_ELEMENT : value);
+            }
+            
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * Hides the given value if it has expired.
+     * 
+     * @param value
+     *            the value
+     * @return the value, or <code>null</code> if it has expired
+     */
+    private byte[] hideExpired(byte[] value) {
+        return expiring && value != null && ValueExpiration.isExpired(value, System.currentTimeMillis()) ? null
+            : value;
+    }
+    
+    /**
+     * Hides all entries of the given iterator that have expired at the time
+     * the method is invoked.
+     * 
+     * @param it
+     *            the iterator
+     * @return an iterator without expired entries
+     */
+    private ResultSet<byte[], byte[]> hideExpired(ResultSet<byte[], byte[]> it) {
+        
+        if (!expiring)
+            return it;
+        
+        final long now = System.currentTimeMillis();
+        return new FilteredResultSet(it) {
+            protected boolean accept(Entry<byte[], byte[]> entry) {
+                return !ValueExpiration.isExpired(entry.getValue(), now);
+            }
+        };
     }
     
     private static long getTotalDirSize(File dir) {
@@ -619,4 +1331,51 @@ public class LSMTree {
         return size;
     }
     
+    /**
+     * An iterator that skips all entries of an underlying iterator that are
+     * not accepted.
+     */
+    private static abstract class FilteredResultSet implements ResultSet<byte[], byte[]> {
+        
+        private final ResultSet<byte[], byte[]> it;
+        
+        private Entry<byte[], byte[]>           next;
+        
+        public FilteredResultSet(ResultSet<byte[], byte[]> it) {
+            this.it = it;
+        }
+        
+        public boolean hasNext() {
+            
+            while (next == null && it.hasNext()) {
+                Entry<byte[], byte[]> entry = it.next();
+                if (accept(entry))
+                    next = entry;
+            }
+            
+            return next != null;
+        }
+        
+        public Entry<byte[], byte[]> next() {
+            
+            if (!hasNext())
+                throw new NoSuchElementException();
+            
+            Entry<byte[], byte[]> tmp = next;
+            next = null;
+            return tmp;
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        public void free() {
+            it.free();
+        }
+        
+        protected abstract boolean accept(Entry<byte[], byte[]> entry);
+    }
+    
 }
+    
\ No newline at end of file
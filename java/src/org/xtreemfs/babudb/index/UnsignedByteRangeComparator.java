@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.KeyEncoder;
+
+/**
+ * Compares keys as unsigned bytes in lexicographic order. Unlike the
+ * {@link DefaultByteRangeComparator}, which compares signed bytes, this order
+ * matches the order of keys encoded with a {@link KeyEncoder}. Ranges in big
+ * endian buffers are compared eight bytes at a time.
+ */
+public class UnsignedByteRangeComparator implements ByteRangeComparator {
+    
+    private static final long                  serialVersionUID = 6415920360739205471L;
+    
+    private static UnsignedByteRangeComparator instance;
+    
+    @Override
+    public byte[][] prefixToRange(byte[] prefix, boolean ascending) {
+        
+        if (prefix == null)
+            return new byte[][] { null, null };
+        
+        // the upper bound is the prefix without trailing 0xFF bytes, with the
+        // last byte incremented; if there is no such byte, the range is
+        // unbounded
+        int len = prefix.length;
+        while (len > 0 && prefix[len - 1] == (byte) 0xFF)
+            len--;
+        
+        byte[] bytes = null;
+        if (len > 0) {
+            bytes = new byte[len];
+            System.arraycopy(prefix, 0, bytes, 0, len);
+            bytes[len - 1]++;
+        }
+        
+        return ascending ? new byte[][] { prefix, bytes } : new byte[][] { bytes, prefix };
+    }
+    
+    @Override
+    public int compare(ByteRange rng, byte[] buf) {
+        
+        ByteBuffer rngBuf = rng.getBuf();
+        int offset = rng.getStartOffset();
+        int n = Math.min(rng.getSize(), buf.length);
+        int i = 0;
+        
+        if (rngBuf.order() == ByteOrder.BIG_ENDIAN) {
+            for (; i + 8 <= n; i += 8) {
+                long v1 = rngBuf.getLong(offset + i);
+                long v2 = getLong(buf, i);
+                if (v1 != v2)
+                    return (v1 ^ Long.MIN_VALUE) < (v2 ^ Long.MIN_VALUE) ? -1 : 1;
+            }
+        }
+        
+        for (; i < n; i++) {
+            int v1 = rngBuf.get(offset + i) & 0xFF;
+            int v2 = buf[i] & 0xFF;
+            if (v1 != v2)
+                return v1 < v2 ? -1 : 1;
+        }
+        
+        return rng.getSize() - buf.length;
+    }
+    
+    @Override
+    public int compare(byte[] buf1, byte[] buf2) {
+        
+        int n = Math.min(buf1.length, buf2.length);
+        for (int i = 0; i < n; i++) {
+            int v1 = buf1[i] & 0xFF;
+            int v2 = buf2[i] & 0xFF;
+            if (v1 != v2)
+                return v1 < v2 ? -1 : 1;
+        }
+        
+        return buf1.length - buf2.length;
+    }
+    
+    private static long getLong(byte[] buf, int offset) {
+        
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++)
+            value = (value << 8) | (buf[i] & 0xFF);
+        
+        return value;
+    }
+    
+    public static UnsignedByteRangeComparator getInstance() {
+        
+        if (instance == null)
+            instance = new UnsignedByteRangeComparator();
+        
+        return instance;
+    }
+}
+    
\ No newline at end of file
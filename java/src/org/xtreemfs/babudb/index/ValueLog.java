@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ValueExpiration;
+import org.xtreemfs.foundation.logging.Logging;
+
+/**
+ * A log for large values of an LSM tree, which are stored separately from the
+ * on-disk index. When a checkpoint is written, each value exceeding a given
+ * threshold is appended to a new value segment, and the on-disk index only
+ * stores a pointer to it. Values that have been separated before are not
+ * copied again, so that checkpoints of indices with large values mainly
+ * consist of keys and pointers.
+ * 
+ * <p>
+ * Each value stored in the on-disk index of an LSM tree with a value log
+ * carries a trailing tag byte, which indicates whether the value is stored
+ * inline or refers to a value segment. Segments are immutable once written and
+ * named after the LSN of the checkpoint that created them. While a checkpoint
+ * is written, the bytes of all values that are still referenced are counted
+ * per segment. Segments without any referenced values are deleted as soon as
+ * the checkpoint has been linked, and the values of segments with a live ratio
+ * below a given limit are relocated to the segment of the next checkpoint.
+ * </p>
+ */
+public class ValueLog {
+    
+    public static final String        SEGMENT_FILENAME_REGEXP = "VAL(\\d+)V(\\d+)SEQ(\\d+)\\.dat";
+    
+    private static final byte         TAG_INLINE              = 0;
+    
+    private static final byte         TAG_POINTER             = 1;
+    
+    /**
+     * the size of a pointer, consisting of view ID, sequence number, offset
+     * and length
+     */
+    private static final int          POINTER_SIZE            = 4 + 8 + 8 + 4;
+    
+    private final File                dir;
+    
+    private final int                 indexId;
+    
+    private final int                 threshold;
+    
+    private final double              minLiveRatio;
+    
+    /**
+     * the size of the expiration header that is kept in front of each pointer,
+     * so that expired entries can be identified without reading their values
+     */
+    private final int                 headerSize;
+    
+    /**
+     * all segments of the value log, by file name
+     */
+    private final Map<String, Segment> segments;
+    
+    /**
+     * the number of referenced bytes per segment, as counted while writing the
+     * last checkpoint that has not been linked yet
+     */
+    private Map<String, Long>         pendingLiveBytes;
+    
+    /**
+     * Opens the value log of an index. Segments created after the given
+     * checkpoint are left over from an incomplete checkpoint and thus deleted.
+     * 
+     * @param dir
+     *            the directory containing the segments
+     * @param indexId
+     *            the ID of the index
+     * @param threshold
+     *            the size in bytes above which values are separated
+     * @param minLiveRatio
+     *            the ratio of referenced bytes below which the values of a
+     *            segment are relocated
+     * @param expiring
+     *            specifies whether values carry an expiration header
+     * @param viewId
+     *            the view ID of the last checkpoint
+     * @param sequenceNo
+     *            the sequence number of the last checkpoint
+     */
+    public ValueLog(String dir, int indexId, int threshold, double minLiveRatio, boolean expiring,
+        int viewId, long sequenceNo) {
+        
+        this.dir = new File(dir);
+        this.indexId = indexId;
+        this.threshold = threshold;
+        this.minLiveRatio = minLiveRatio;
+        this.headerSize = expiring ? ValueExpiration.HEADER_SIZE : 0;
+        this.segments = new ConcurrentHashMap<String, Segment>();
+        
+        String[] files = this.dir.list();
+        if (files == null)
+            return;
+        
+        Pattern p = Pattern.compile(SEGMENT_FILENAME_REGEXP);
+        for (String fname : files) {
+            Matcher m = p.matcher(fname);
+            if (!m.matches() || Integer.valueOf(m.group(1)) != indexId)
+                continue;
+            
+            int view = Integer.valueOf(m.group(2));
+            long seq = Long.valueOf(m.group(3));
+            if (view > viewId || (view == viewId && seq > sequenceNo)) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, this, "deleting incomplete value segment %s", fname);
+                new File(this.dir, fname).delete();
+            } else
+                segments.put(fname, new Segment(new File(this.dir, fname)));
+        }
+    }
+    
+    /**
+     * Returns the name of the value segment written by a checkpoint.
+     * 
+     * @param indexId
+     *            the ID of the index
+     * @param viewId
+     *            the view ID of the checkpoint
+     * @param sequenceNo
+     *            the sequence number of the checkpoint
+     * @return the file name
+     */
+    public static String getSegmentFilename(int indexId, int viewId, long sequenceNo) {
+        return "VAL" + indexId + "V" + viewId + "SEQ" + sequenceNo + ".dat";
+    }
+    
+    /**
+     * Checks whether the given file is a value segment of the given index.
+     * 
+     * @param fileName
+     *            the file name
+     * @param indexId
+     *            the ID of the index
+     * @return <code>true</code>, if the file is a value segment of the index
+     */
+    public static boolean isSegmentFilename(String fileName, int indexId) {
+        Matcher m = Pattern.compile(SEGMENT_FILENAME_REGEXP).matcher(fileName);
+        return m.matches() && Integer.valueOf(m.group(1)) == indexId;
+    }
+    
+    /**
+     * Converts a value to the representation of an inlined value in an
+     * on-disk index.
+     * 
+     * @param value
+     *            the value
+     * @return the inlined value
+     */
+    public static byte[] inline(byte[] value) {
+        byte[] result = new byte[value.length + 1];
+        System.arraycopy(value, 0, result, 0, value.length);
+        result[value.length] = TAG_INLINE;
+        return result;
+    }
+    
+    /**
+     * Returns the value represented by a value from the on-disk index.
+     * Pointers are resolved by reading the value from its segment.
+     * 
+     * @param stored
+     *            the value from the on-disk index
+     * @return the value
+     */
+    public byte[] decode(byte[] stored) {
+        
+        if (stored == null)
+            return null;
+        
+        if (stored[stored.length - 1] == TAG_INLINE) {
+            byte[] result = new byte[stored.length - 1];
+            System.arraycopy(stored, 0, result, 0, result.length);
+            return result;
+        }
+        
+        ByteBuffer ptr = ByteBuffer.wrap(stored, headerSize, POINTER_SIZE);
+        return read(ptr.getInt(), ptr.getLong(), ptr.getLong(), ptr.getInt());
+    }
+    
+    /**
+     * Returns an iterator that resolves all values of the given on-disk index
+     * iterator.
+     * 
+     * @param it
+     *            the on-disk index iterator
+     * @return an iterator with key-value pairs
+     */
+    public ResultSet<byte[], byte[]> decode(final ResultSet<byte[], byte[]> it) {
+        
+        return new ResultSet<byte[], byte[]>() {
+            
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            public Entry<byte[], byte[]> next() {
+                Entry<byte[], byte[]> entry = it.next();
+                return new SimpleEntry<byte[], byte[]>(entry.getKey(), decode(entry.getValue()));
+            }
+            
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+            public void free() {
+                it.free();
+            }
+        };
+    }
+    
+    /**
+     * Returns an iterator that converts the entries of an internal iterator to
+     * a self-contained on-disk index, i.e. all values are inlined. Such an
+     * index may be moved to another location along with the value log
+     * settings, but not the value segments.
+     * 
+     * @param it
+     *            the internal iterator, which returns on-disk entries as
+     *            <code>ByteRange</code>s and overlay entries as byte arrays
+     * @return an iterator with inlined values
+     */
+    public ResultSet<Object, Object> inline(final ResultSet<Object, Object> it) {
+        
+        return new ResultSet<Object, Object>() {
+            
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            public Entry<Object, Object> next() {
+                
+                Entry<Object, Object> entry = it.next();
+                Object value = entry.getValue();
+                
+                if (value instanceof byte[])
+                    value = inline((byte[]) value);
+                else if (getTag((ByteRange) value) == TAG_POINTER)
+                    value = inline(decode(((ByteRange) value).toBuffer()));
+                else
+                    return entry;
+                
+                return new SimpleEntry<Object, Object>(entry.getKey(), value);
+            }
+            
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+            public void free() {
+                it.free();
+            }
+        };
+    }
+    
+    /**
+     * Returns an iterator that separates the values of an internal iterator,
+     * so that the resulting entries can be written to the on-disk index of a
+     * checkpoint. Large values are appended to the segment of the checkpoint,
+     * along with all values of segments that are to be relocated. After the
+     * iterator has been exhausted, the segment has to be completed by
+     * invoking {@link #completeSegment(ResultSet)}, and closed by invoking
+     * {@link #closeSegment(ResultSet)}.
+     * 
+     * @param it
+     *            the internal iterator, which returns on-disk entries as
+     *            <code>ByteRange</code>s and overlay entries as byte arrays
+     * @param viewId
+     *            the view ID of the checkpoint
+     * @param sequenceNo
+     *            the sequence number of the checkpoint
+     * @return an iterator with separated values
+     * @throws IOException
+     *             if the segment cannot be created
+     */
+    public ResultSet<Object, Object> separate(ResultSet<Object, Object> it, int viewId, long sequenceNo)
+        throws IOException {
+        
+        // relocate the values of all segments with a live ratio below the
+        // limit, as counted by the last checkpoint
+        Map<String, Boolean> relocated = new HashMap<String, Boolean>();
+        for (Entry<String, Segment> seg : segments.entrySet()) {
+            long size = seg.getValue().file.length();
+            long live = seg.getValue().liveBytes;
+            relocated.put(seg.getKey(), live >= 0 && size > 0 && live < size * minLiveRatio);
+        }
+        
+        return new SeparatingIterator(it, viewId, sequenceNo, relocated);
+    }
+    
+    /**
+     * Completes the segment written by a separating iterator. The segment is
+     * synced to disk, or deleted if no values were appended.
+     * 
+     * @param it
+     *            the iterator returned by
+     *            {@link #separate(ResultSet, int, long)}
+     * @throws IOException
+     *             if the segment cannot be written
+     */
+    public void completeSegment(ResultSet<Object, Object> it) throws IOException {
+        
+        SeparatingIterator sep = (SeparatingIterator) it;
+        sep.out.flush();
+        sep.fos.getFD().sync();
+        sep.out.close();
+        sep.completed = true;
+        
+        if (sep.offset == 0)
+            sep.file.delete();
+        else {
+            segments.put(sep.file.getName(), new Segment(sep.file));
+            sep.liveBytes.put(sep.file.getName(), sep.offset);
+        }
+        
+        pendingLiveBytes = sep.liveBytes;
+    }
+    
+    /**
+     * Closes the segment written by a separating iterator. The segment is
+     * discarded unless it has been completed before.
+     * 
+     * @param it
+     *            the iterator returned by
+     *            {@link #separate(ResultSet, int, long)}
+     */
+    public void closeSegment(ResultSet<Object, Object> it) {
+        
+        SeparatingIterator sep = (SeparatingIterator) it;
+        if (sep.completed)
+            return;
+        
+        try {
+            sep.out.close();
+        } catch (IOException exc) {
+            Logging.logError(Logging.LEVEL_WARN, this, exc);
+        }
+        sep.file.delete();
+    }
+    
+    /**
+     * Deletes all segments that are no longer referenced by the last
+     * checkpoint. This method has to be invoked after the checkpoint has been
+     * linked.
+     */
+    public void removeObsoleteSegments() {
+        
+        Map<String, Long> live = pendingLiveBytes;
+        if (live == null)
+            return;
+        pendingLiveBytes = null;
+        
+        Iterator<Entry<String, Segment>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Segment> seg = it.next();
+            Long liveBytes = live.get(seg.getKey());
+            if (liveBytes == null) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, this, "deleting obsolete value segment %s", seg
+                        .getKey());
+                it.remove();
+                seg.getValue().close();
+                seg.getValue().file.delete();
+            } else
+                seg.getValue().liveBytes = liveBytes;
+        }
+    }
+    
+    /**
+     * Closes all segments.
+     */
+    public void close() {
+        for (Segment seg : segments.values())
+            seg.close();
+    }
+    
+    private byte[] read(int viewId, long sequenceNo, long offset, int length) {
+        
+        String fname = getSegmentFilename(indexId, viewId, sequenceNo);
+        Segment seg = segments.get(fname);
+        if (seg == null)
+            throw new IllegalStateException("value segment " + fname + " does not exist");
+        
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            FileChannel channel = seg.getChannel();
+            while (buf.hasRemaining())
+                if (channel.read(buf, offset + buf.position()) < 0)
+                    throw new EOFException();
+            return buf.array();
+        
+        } catch (IOException exc) {
+            Logging.logError(Logging.LEVEL_ERROR, this, exc);
+            throw new IllegalStateException("cannot read value from segment " + fname, exc);
+        }
+    }
+    
+    private static byte getTag(ByteRange range) {
+        return range.getBuf().get(range.getStartOffset() + range.getSize() - 1);
+    }
+    
+    /**
+     * An iterator that separates values while a checkpoint is written.
+     */
+    private class SeparatingIterator implements ResultSet<Object, Object> {
+        
+        private final ResultSet<Object, Object> it;
+        
+        private final int                       viewId;
+        
+        private final long                      sequenceNo;
+        
+        private final Map<String, Boolean>      relocated;
+        
+        private final Map<String, Long>         liveBytes;
+        
+        private final File                      file;
+        
+        private final FileOutputStream          fos;
+        
+        private final BufferedOutputStream      out;
+        
+        private long                            offset;
+        
+        private boolean                         completed;
+        
+        public SeparatingIterator(ResultSet<Object, Object> it, int viewId, long sequenceNo,
+            Map<String, Boolean> relocated) throws IOException {
+            
+            this.it = it;
+            this.viewId = viewId;
+            this.sequenceNo = sequenceNo;
+            this.relocated = relocated;
+            this.liveBytes = new HashMap<String, Long>();
+            this.file = new File(dir, getSegmentFilename(indexId, viewId, sequenceNo));
+            this.fos = new FileOutputStream(file);
+            this.out = new BufferedOutputStream(fos);
+        }
+        
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+        
+        public Entry<Object, Object> next() {
+            
+            Entry<Object, Object> entry = it.next();
+            Object value = entry.getValue();
+            
+            try {
+                
+                // values from the overlay
+                if (value instanceof byte[]) {
+                    byte[] val = (byte[]) value;
+                    value = val.length > threshold ? append(val) : inline(val);
+                }
+                
+                // inlined values from the on-disk index
+                else if (getTag((ByteRange) value) == TAG_INLINE) {
+                    if (((ByteRange) value).getSize() - 1 <= threshold)
+                        return entry;
+                    value = append(decode(((ByteRange) value).toBuffer()));
+                }
+                
+                // pointers from the on-disk index
+                else {
+                    byte[] stored = ((ByteRange) value).toBuffer();
+                    ByteBuffer ptr = ByteBuffer.wrap(stored, headerSize, POINTER_SIZE);
+                    String fname = getSegmentFilename(indexId, ptr.getInt(), ptr.getLong());
+                    ptr.getLong();
+                    int length = ptr.getInt();
+                    
+                    if (!Boolean.TRUE.equals(relocated.get(fname))) {
+                        Long live = liveBytes.get(fname);
+                        liveBytes.put(fname, (live == null ? 0 : live) + length);
+                        return entry;
+                    }
+                    
+                    value = append(decode(stored));
+                }
+            
+            } catch (IOException exc) {
+                throw new IllegalStateException("cannot write value segment " + file, exc);
+            }
+            
+            return new SimpleEntry<Object, Object>(entry.getKey(), value);
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        public void free() {
+            it.free();
+        }
+        
+        private byte[] append(byte[] value) throws IOException {
+            
+            ByteBuffer ptr = ByteBuffer.allocate(headerSize + POINTER_SIZE + 1);
+            if (headerSize > 0)
+                ptr.putLong(ValueExpiration.getExpirationTime(value));
+            ptr.putInt(viewId).putLong(sequenceNo).putLong(offset).putInt(value.length).put(TAG_POINTER);
+            
+            out.write(value);
+            offset += value.length;
+            
+            return ptr.array();
+        }
+    }
+    
+    /**
+     * A segment of the value log.
+     */
+    private static final class Segment {
+        
+        private final File       file;
+        
+        private RandomAccessFile raf;
+        
+        /**
+         * the number of referenced bytes as counted by the last linked
+         * checkpoint, or -1 if unknown
+         */
+        private volatile long    liveBytes = -1;
+        
+        public Segment(File file) {
+            this.file = file;
+        }
+        
+        public synchronized FileChannel getChannel() throws IOException {
+            if (raf == null)
+                raf = new RandomAccessFile(file, "r");
+            return raf.getChannel();
+        }
+        
+        public synchronized void close() {
+            if (raf != null)
+                try {
+                    raf.close();
+                } catch (IOException exc) {
+                    Logging.logError(Logging.LEVEL_WARN, this, exc);
+                }
+            raf = null;
+        }
+    }
+    
+}
+    
\ No newline at end of file
@@ -20,6 +20,11 @@ public class MultiOverlayBufferTree extends MultiOverlayTree<byte[], byte[]> {
         this.comp = comp;
     }
     
+    public MultiOverlayBufferTree(byte[] markerElement, byte[] mergeElement, ByteRangeComparator comp) {
+        super(markerElement, mergeElement, comp);
+        this.comp = comp;
+    }
+    
     public ResultSet<byte[], byte[]> prefixLookup(byte[] prefix, boolean includeDeletedEntries,
         boolean ascending) {
         
@@ -12,17 +12,22 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.index.OverlayMergeIterator;
 
 /**
- * A layered in-memory tree structure.
+ * A layered in-memory tree structure. Lookups may be performed concurrently
+ * with insertions; iterators reflect the state of the tree at some point at or
+ * since their creation.
  * 
  * @author stender
  * 
@@ -31,13 +36,186 @@ public class MultiOverlayTree<K, V> {
     
     static class OverlayTreeList<K, V> {
         
-        public TreeMap<K, V>         tree;
+        public ConcurrentSkipListMap<K, V>    tree;
         
-        public OverlayTreeList<K, V> next;
+        public volatile OverlayTreeList<K, V> next;
         
-        public OverlayTreeList(TreeMap<K, V> tree, OverlayTreeList<K, V> next) {
+        /**
+         * ranges deleted in this overlay; they mask all entries of older
+         * overlays and the on-disk index
+         */
+        public final DeletedRanges<K>         deletedRanges;
+        
+        /**
+         * operands recorded for keys that are marked as merged in this
+         * overlay, in the order in which they have to be applied
+         */
+        public final ConcurrentSkipListMap<K, List<V>> operands;
+        
+        public OverlayTreeList(ConcurrentSkipListMap<K, V> tree, OverlayTreeList<K, V> next) {
             this.tree = tree;
             this.next = next;
+            this.operands = new ConcurrentSkipListMap<K, List<V>>(tree.comparator());
+            this.deletedRanges = new DeletedRanges<K>(tree.comparator());
+        }
+    }
+    
+    /**
+     * A range of keys that has been deleted, from <code>from</code>
+     * (inclusively) to <code>to</code> (exclusively). A <code>null</code>
+     * boundary leaves the range open at the respective end.
+     */
+    public static class DeletedRange<K> {
+        
+        private final K from;
+        
+        private final K to;
+        
+        public DeletedRange(K from, K to) {
+            this.from = from;
+            this.to = to;
+        }
+        
+        public K getFrom() {
+            return from;
+        }
+        
+        public K getTo() {
+            return to;
+        }
+        
+        /**
+         * Checks whether the range contains the given key.
+         * 
+         * @param key
+         *            the key
+         * @param comparator
+         *            the key comparator
+         * @return <code>true</code>, if the key is in the range
+         */
+        public boolean contains(K key, Comparator<? super K> comparator) {
+            return (from == null || comparator.compare(key, from) >= 0)
+                && (to == null || comparator.compare(key, to) < 0);
+        }
+        
+        public String toString() {
+            return "[" + from + ", " + to + ")";
+        }
+    }
+    
+    /**
+     * The ranges deleted in an overlay. Ranges are sorted by their first keys,
+     * and overlapping or adjacent ranges are coalesced when they are added, so
+     * that a key is checked against the only range that may contain it.
+     * Ranges may be added concurrently with lookups, which never miss a key
+     * that has been covered before.
+     */
+    public static class DeletedRanges<K> {
+        
+        private final Comparator<? super K>                   comparator;
+        
+        /**
+         * first key -> range, for all ranges with a first key
+         */
+        private final ConcurrentSkipListMap<K, DeletedRange<K>> ranges;
+        
+        /**
+         * the range that starts with the first key, or <code>null</code>
+         */
+        private volatile DeletedRange<K>                      openRange;
+        
+        public DeletedRanges(Comparator<? super K> comparator) {
+            this.comparator = comparator;
+            this.ranges = new ConcurrentSkipListMap<K, DeletedRange<K>>(comparator);
+        }
+        
+        /**
+         * Adds a range, which is coalesced with all ranges it overlaps or
+         * adjoins.
+         * 
+         * @param range
+         *            the range
+         */
+        public synchronized void add(DeletedRange<K> range) {
+            
+            K from = range.getFrom();
+            K to = range.getTo();
+            
+            // extend the range to the start of a range it overlaps or adjoins
+            DeletedRange<K> open = openRange;
+            if (from != null && open != null && (open.getTo() == null || compare(open.getTo(), from) >= 0)) {
+                from = null;
+                to = max(to, open.getTo());
+            } else if (from != null) {
+                Entry<K, DeletedRange<K>> floor = ranges.floorEntry(from);
+                if (floor != null && (floor.getValue().getTo() == null
+                    || compare(floor.getValue().getTo(), from) >= 0)) {
+                    from = floor.getKey();
+                    to = max(to, floor.getValue().getTo());
+                }
+            } else if (open != null)
+                to = max(to, open.getTo());
+            
+            // extend the range to the end of all ranges starting in it
+            Map<K, DeletedRange<K>> covered = from == null ? (to == null ? ranges : ranges.headMap(to, true))
+                : (to == null ? ranges.tailMap(from, true) : ranges.subMap(from, true, to, true));
+            List<K> coveredKeys = new ArrayList<K>();
+            for (Entry<K, DeletedRange<K>> entry : covered.entrySet()) {
+                to = max(to, entry.getValue().getTo());
+                coveredKeys.add(entry.getKey());
+            }
+            
+            // add the coalesced range before removing the ranges it covers
+            DeletedRange<K> coalesced = new DeletedRange<K>(from, to);
+            if (from == null)
+                openRange = coalesced;
+            else
+                ranges.put(from, coalesced);
+            
+            for (K key : coveredKeys)
+                if (from == null || compare(key, from) != 0)
+                    ranges.remove(key);
+        }
+        
+        /**
+         * Checks whether a key is contained in one of the ranges.
+         * 
+         * @param key
+         *            the key
+         * @return <code>true</code>, if the key has been deleted
+         */
+        public boolean contains(K key) {
+            
+            DeletedRange<K> open = openRange;
+            if (open != null && (open.getTo() == null || compare(key, open.getTo()) < 0))
+                return true;
+            
+            Entry<K, DeletedRange<K>> floor = ranges.floorEntry(key);
+            return floor != null && (floor.getValue().getTo() == null
+                || compare(key, floor.getValue().getTo()) < 0);
+        }
+        
+        public boolean isEmpty() {
+            return openRange == null && ranges.isEmpty();
+        }
+        
+        public String toString() {
+            DeletedRange<K> open = openRange;
+            return (open == null ? "" : open + " ") + ranges.values();
+        }
+        
+        /**
+         * Returns the larger of two upper bounds, where <code>null</code>
+         * denotes an open bound.
+         */
+        private K max(K to1, K to2) {
+            return to1 == null || to2 == null ? null : compare(to1, to2) >= 0 ? to1 : to2;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private int compare(K key1, K key2) {
+            return comparator == null ? ((Comparable<K>) key1).compareTo(key2) : comparator.compare(key1,
+                key2);
         }
     }
     
@@ -46,6 +224,13 @@ public class MultiOverlayTree<K, V> {
      */
     private final V                             nullValue;
     
+    /**
+     * value that marks an entry as merged, i.e. its value results from
+     * applying the operands recorded in the same overlay to the value of the
+     * key in older overlays and the on-disk index
+     */
+    private final V                             mergeValue;
+    
     /**
      * Comparator for keys
      */
@@ -64,7 +249,7 @@ public class MultiOverlayTree<K, V> {
     /**
      * the list of overlay trees
      */
-    private OverlayTreeList<K, V>               treeList;
+    private volatile OverlayTreeList<K, V>      treeList;
     
     /**
      * Creates a new multi-overlay tree. This call is equivalent to
@@ -90,6 +275,25 @@ public class MultiOverlayTree<K, V> {
      *            defined.
      */
     public MultiOverlayTree(V nullValue, Comparator<K> comparator) {
+        this(nullValue, null, comparator);
+    }
+    
+    /**
+     * Creates a new multi-overlay tree that supports merges.
+     * 
+     * @param nullValue
+     *            A value that will never be inserted in the tree. This value
+     *            will be used to mark entries as deleted.
+     * @param mergeValue
+     *            Another value that will never be inserted in the tree. This
+     *            value will be used to mark entries as merged; if
+     *            <code>null</code>, merges are not supported.
+     * @param comparator
+     *            The comparator for the keys. If a <code>null</code> comparator
+     *            is provided, the natural ordering of the keys will be used if
+     *            defined.
+     */
+    public MultiOverlayTree(V nullValue, V mergeValue, Comparator<K> comparator) {
         
         if (comparator == null) {
             this.comparator = new Comparator<K>() {
@@ -101,10 +305,11 @@ public class MultiOverlayTree<K, V> {
         } else
             this.comparator = comparator;
         
-        treeList = new OverlayTreeList<K, V>(new TreeMap<K, V>(comparator), null);
+        treeList = new OverlayTreeList<K, V>(new ConcurrentSkipListMap<K, V>(comparator), null);
         overlayMap = Collections.synchronizedMap(new HashMap<Integer, OverlayTreeList<K, V>>());
         
         this.nullValue = nullValue;
+        this.mergeValue = mergeValue;
     }
     
     /**
@@ -114,7 +319,7 @@ public class MultiOverlayTree<K, V> {
      */
     public int newOverlay() {
         overlayMap.put(overlayId, treeList);
-        treeList = new OverlayTreeList<K, V>(new TreeMap<K, V>(comparator), treeList);
+        treeList = new OverlayTreeList<K, V>(new ConcurrentSkipListMap<K, V>(comparator), treeList);
         return overlayId++;
     }
     
@@ -128,6 +333,27 @@ public class MultiOverlayTree<K, V> {
         overlayId = 0;
     }
     
+    /**
+     * Replaces the current read-write tree with an empty one that does not
+     * overlay any read-only trees. Unlike {@link #cleanup()}, the read-only
+     * overlay trees are retained, so that their IDs remain valid; their
+     * entries are merely no longer visible in the current tree.
+     */
+    public void clear() {
+        treeList = new OverlayTreeList<K, V>(new ConcurrentSkipListMap<K, V>(comparator), null);
+    }
+    
+    /**
+     * Returns the IDs of all read-only overlays.
+     * 
+     * @return the overlay IDs
+     */
+    public Set<Integer> getOverlayIds() {
+        synchronized (overlayMap) {
+            return new HashSet<Integer>(overlayMap.keySet());
+        }
+    }
+    
     /**
      * Inserts a key-value pair in the LSM tree. If the value is
      * <code>null</code>, the key will be removed.
@@ -139,13 +365,116 @@ public class MultiOverlayTree<K, V> {
      */
     public void insert(K key, V value) {
         
+        OverlayTreeList<K, V> list = treeList;
+        
         // delete ...
         if (value == null)
-            treeList.tree.put(key, nullValue);
+            list.tree.put(key, nullValue);
         
         // insert ...
         else
-            treeList.tree.put(key, value);
+            list.tree.put(key, value);
+        
+        // the value replaces any operands recorded for the key
+        if (!list.operands.isEmpty())
+            list.operands.remove(key);
+    }
+    
+    /**
+     * Records an operand for a key in the current overlay, which marks the key
+     * as merged. Operands are recorded in the order in which they are to be
+     * applied to the value of the key in older overlays and the on-disk index.
+     * The caller has to ensure that the current overlay does not contain a
+     * value or deletion for the key.
+     * 
+     * @param key
+     *            the key
+     * @param operand
+     *            the operand
+     */
+    public void addOperand(K key, V operand) {
+        
+        assert (mergeValue != null);
+        
+        OverlayTreeList<K, V> list = treeList;
+        
+        // operand lists are replaced rather than modified, so that concurrent
+        // lookups never see a partially updated list
+        List<V> operands = list.tree.get(key) == mergeValue ? list.operands.get(key) : null;
+        List<V> newOperands = new ArrayList<V>(operands == null ? 1 : operands.size() + 1);
+        if (operands != null)
+            newOperands.addAll(operands);
+        newOperands.add(operand);
+        
+        // record the operands before marking the key, so that lookups always
+        // find the operands of marked keys
+        list.operands.put(key, Collections.unmodifiableList(newOperands));
+        list.tree.put(key, mergeValue);
+    }
+    
+    /**
+     * Deletes all keys between <code>from</code> (inclusively) and
+     * <code>to</code> (exclusively). Entries in the current overlay are
+     * removed, whereas entries in older overlays and in the on-disk index are
+     * masked by a range tombstone, which is reported by
+     * <code>getDeletedRanges()</code> until the overlay is discarded.
+     * Tombstones of overlapping or adjacent ranges are coalesced.
+     * 
+     * @param from
+     *            the first key (inclusively); if <code>null</code>, the range
+     *            starts with the first key
+     * @param to
+     *            the last key (exclusively); if <code>null</code>, the range
+     *            ends with the last key (inclusively)
+     */
+    public void deleteRange(K from, K to) {
+        
+        if (from != null && to != null && comparator.compare(from, to) >= 0)
+            return;
+        
+        OverlayTreeList<K, V> list = treeList;
+        
+        // add the tombstone before removing the entries, so that concurrent
+        // lookups never see entries of older overlays shining through
+        list.deletedRanges.add(new DeletedRange<K>(from, to));
+        
+        if (from != null && to != null) {
+            list.tree.subMap(from, to).clear();
+            list.operands.subMap(from, to).clear();
+        } else if (from != null) {
+            list.tree.tailMap(from).clear();
+            list.operands.tailMap(from).clear();
+        } else if (to != null) {
+            list.tree.headMap(to).clear();
+            list.operands.headMap(to).clear();
+        } else {
+            list.tree.clear();
+            list.operands.clear();
+        }
+    }
+    
+    /**
+     * Returns all ranges that have been deleted in the current overlay and
+     * all older overlays.
+     * 
+     * @return the deleted ranges of each overlay in which ranges have been
+     *         deleted, which is empty if no range has been deleted
+     */
+    public List<DeletedRanges<K>> getDeletedRanges() {
+        return getDeletedRanges(treeList);
+    }
+    
+    /**
+     * Returns all ranges that have been deleted in the given overlay and all
+     * older overlays.
+     * 
+     * @param overlayId
+     *            the overlay ID
+     * @return the deleted ranges of each overlay in which ranges have been
+     *         deleted, which is empty if no range has been deleted
+     */
+    public List<DeletedRanges<K>> getDeletedRanges(int overlayId) {
+        return getDeletedRanges(overlayMap.get(overlayId));
     }
     
     /**
@@ -173,6 +502,47 @@ public class MultiOverlayTree<K, V> {
         return lookup(key, overlayMap.get(overlayId));
     }
     
+    /**
+     * Retrieves the value for the given key in the current overlay, like
+     * <code>lookup(key)</code>, but continues with older overlays as long as
+     * the key is marked as merged, and collects the operands recorded for the
+     * key on the way.
+     * 
+     * @param key
+     *            the key
+     * @param operands
+     *            a list to which the operands of each overlay are added, from
+     *            the newest overlay to the oldest one
+     * @return the value or the <code>nullValue</code> to which the operands
+     *         have to be applied, or <code>null</code> if the key is not
+     *         contained in any overlay, so that they have to be applied to the
+     *         value in the on-disk index
+     */
+    public V lookupOperands(K key, List<List<V>> operands) {
+        return lookupOperands(key, treeList, operands);
+    }
+    
+    /**
+     * Retrieves the value for the given key in the given overlay, like
+     * <code>lookup(key, overlayId)</code>, but continues with older overlays
+     * as long as the key is marked as merged, and collects the operands
+     * recorded for the key on the way.
+     * 
+     * @param key
+     *            the key
+     * @param overlayId
+     *            the overlay ID
+     * @param operands
+     *            a list to which the operands of each overlay are added, from
+     *            the newest overlay to the oldest one
+     * @return the value or the <code>nullValue</code> to which the operands
+     *         have to be applied, or <code>null</code> if they have to be
+     *         applied to the value in the on-disk index
+     */
+    public V lookupOperands(K key, int overlayId, List<List<V>> operands) {
+        return lookupOperands(key, overlayMap.get(overlayId), operands);
+    }
+    
     /**
      * Returns an iterator with all values assocaited with keys between
      * <code>from</code> (inclusively) and <code>to</code> (exclusively).
@@ -233,17 +603,77 @@ public class MultiOverlayTree<K, V> {
             
             if (value != null)
                 return value;
+            
+            if (list.deletedRanges.contains(key))
+                return nullValue;
         }
         
         return null;
     }
     
+    private V lookupOperands(K key, OverlayTreeList<K, V> list, List<List<V>> operands) {
+        
+        for (; list != null; list = list.next) {
+            
+            V value;
+            List<V> ops;
+            do {
+                value = list.tree.get(key);
+                ops = mergeValue != null && value == mergeValue ? list.operands.get(key) : null;
+                
+                // retry if the operands have been replaced by a value
+                // meanwhile
+            } while (ops == null && mergeValue != null && value == mergeValue);
+            
+            if (ops != null) {
+                operands.add(ops);
+                continue;
+            }
+            
+            if (value != null)
+                return value;
+            
+            if (list.deletedRanges.contains(key))
+                return nullValue;
+        }
+        
+        return null;
+    }
+    
+    private List<DeletedRanges<K>> getDeletedRanges(OverlayTreeList<K, V> list) {
+        
+        List<DeletedRanges<K>> result = null;
+        for (; list != null; list = list.next) {
+            if (!list.deletedRanges.isEmpty()) {
+                if (result == null)
+                    result = new ArrayList<DeletedRanges<K>>();
+                result.add(list.deletedRanges);
+            }
+        }
+        
+        return result == null ? Collections.<DeletedRanges<K>> emptyList() : result;
+    }
+    
+    private static <K> boolean isDeleted(K key, List<DeletedRanges<K>> ranges) {
+        for (DeletedRanges<K> range : ranges)
+            if (range.contains(key))
+                return true;
+        return false;
+    }
+    
     private ResultSet<K, V> rangeLookup(K from, K to, OverlayTreeList<K, V> treeList,
         boolean includeDeletedEntries, boolean ascending) {
         
         // initialize a final list w/ submap iterators of all overlays
         final List<Iterator<Entry<K, V>>> itList = new ArrayList<Iterator<Entry<K, V>>>();
+        
+        // ranges deleted in newer overlays, which have to be masked in older
+        // ones
+        List<DeletedRanges<K>> deletedRanges = new ArrayList<DeletedRanges<K>>();
+        
         for (OverlayTreeList<K, V> list = treeList; list != null; list = list.next) {
+            
+            int numIterators = itList.size();
             if (from != null && to != null) {
                 // both boundaries are provided
                 if (ascending)
@@ -269,9 +699,64 @@ public class MultiOverlayTree<K, V> {
                 else
                     itList.add(list.tree.descendingMap().headMap(to).entrySet().iterator());
             }
+            
+            if (!deletedRanges.isEmpty())
+                itList.set(numIterators, new RangeFilterIterator(itList.get(numIterators),
+                    new ArrayList<DeletedRanges<K>>(deletedRanges)));
+            
+            if (!list.deletedRanges.isEmpty())
+                deletedRanges.add(list.deletedRanges);
         }
         
         return new OverlayMergeIterator<K, V>(itList, comparator, includeDeletedEntries ? null : nullValue,
             ascending);
     }
+    
+    /**
+     * Skips all entries of an overlay iterator with keys in one of the given
+     * deleted ranges.
+     */
+    private class RangeFilterIterator implements Iterator<Entry<K, V>> {
+        
+        private final Iterator<Entry<K, V>> it;
+        
+        private final List<DeletedRanges<K>> ranges;
+        
+        private Entry<K, V>                 next;
+        
+        public RangeFilterIterator(Iterator<Entry<K, V>> it, List<DeletedRanges<K>> ranges) {
+            this.it = it;
+            this.ranges = ranges;
+            getNext();
+        }
+        
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        public Entry<K, V> next() {
+            
+            if (next == null)
+                throw new NoSuchElementException();
+            
+            Entry<K, V> tmp = next;
+            getNext();
+            return tmp;
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        private void getNext() {
+            
+            while (it.hasNext()) {
+                next = it.next();
+                if (!isDeleted(next.getKey(), ranges))
+                    return;
+            }
+            
+            next = null;
+        }
+    }
 }
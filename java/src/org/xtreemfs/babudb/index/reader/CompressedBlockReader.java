@@ -148,6 +148,34 @@ public class CompressedBlockReader extends BlockReader {
         return suffixKey;
     }
     
+    /**
+     * Compares a key to the block prefix.
+     * 
+     * @param key
+     * @return 0 if the key starts with the prefix, a negative value if the key
+     *         is smaller than all keys starting with the prefix, and a positive
+     *         value if it is greater.
+     */
+    private int comparePrefix(byte[] key) {
+        
+        int n = Math.min(prefix.length, key.length);
+        if (n > 0) {
+            byte[] keyPart = new byte[n];
+            System.arraycopy(key, 0, keyPart, 0, n);
+            byte[] prefixPart = prefix;
+            if (n < prefix.length) {
+                prefixPart = new byte[n];
+                System.arraycopy(prefix, 0, prefixPart, 0, n);
+            }
+            
+            int cmp = comp.compare(keyPart, prefixPart);
+            if (cmp != 0)
+                return cmp;
+        }
+        
+        return key.length < prefix.length ? -1 : 0;
+    }
+    
     public ByteRange lookup(byte[] key) {
         // if the key contains prefix check if the block
         // contains what remains after removing the prefix
@@ -170,7 +198,14 @@ public class CompressedBlockReader extends BlockReader {
         final int startIndex;
         final int endIndex;
         
-        {
+        if ((from != null && comparePrefix(from) > 0) || (to != null && comparePrefix(to) < 0)) {
+            // bounds that do not share the block prefix lie before or after all
+            // entries of the block; thus, the block does not overlap with the
+            // range if its lower bound is greater or its upper bound is
+            // smaller than the prefix
+            startIndex = 0;
+            endIndex = -1;
+        } else {
             byte[] suffixFrom = usableSuffix(from);
             startIndex = ascending ? keys.getInclTopPosition(suffixFrom) : keys.getExclTopPosition(suffixFrom);
             assert (startIndex >= -1) : "invalid block start offset: " + startIndex;
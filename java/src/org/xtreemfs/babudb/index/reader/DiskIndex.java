@@ -18,7 +18,9 @@ import java.nio.channels.FileChannel.MapMode;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.xtreemfs.babudb.api.database.EntryFilter;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.index.ByteRange;
 import org.xtreemfs.foundation.logging.Logging;
@@ -114,34 +116,8 @@ public class DiskIndex {
         if (indexPosition == -1)
             return null;
         
-        int startBlockOffset = getBlockOffset(indexPosition, blockIndex);
-        int fileId = getBlockFileId(indexPosition, blockIndex);
-        
-        int endBlockOffset;
-        if (indexPosition == blockIndex.getNumEntries() - 1)
-            // the last block in the block index
-            endBlockOffset = -1;
-        else {
-            ByteRange indexPos = getBlockEntry(indexPosition + 1, blockIndex);
-            ByteBuffer indexPosBuf = indexPos.getBuf();
-            endBlockOffset = getBlockIndexOffset(indexPosBuf, indexPos.getStartOffset());
-            
-            // is this the last block of the current block file?
-            // then the endBlockOffset should be set to the end of the file
-            if (getBlockIndexFileId(indexPosBuf, indexPos.getStartOffset()) > fileId)
-                endBlockOffset = -1;
-            
-            // endBlockOffset = getBlockOffset(indexPosition + 1, blockIndex);
-        }
-        
         // create a view buffer on the target block
-        BlockReader targetBlock = null;
-        try {
-            targetBlock = mmaped ? getBlock(startBlockOffset, endBlockOffset, dbFiles[fileId]) : getBlock(
-                startBlockOffset, endBlockOffset, dbFileChannels[fileId]);
-        } catch (IOException e) {
-            Logging.logError(Logging.LEVEL_ERROR, this, e);
-        }
+        BlockReader targetBlock = getBlock(indexPosition);
         
         // search for the key in the target block and return the result
         ByteRange val = targetBlock.lookup(key);
@@ -151,6 +127,50 @@ public class DiskIndex {
         return result;
     }
     
+    /**
+     * Looks up multiple keys at once. Keys located in the same block share a
+     * single block reader, so that each block is only read once.
+     * 
+     * @param keys
+     *            the keys to look up, sorted in ascending order according to
+     *            the comparator of the index
+     * @return an array containing the value for each key at the same
+     *         position, or <code>null</code> if the key is not contained in
+     *         the index
+     */
+    public byte[][] lookup(byte[][] keys) {
+        
+        byte[][] results = new byte[keys.length][];
+        
+        int currentPosition = -1;
+        BlockReader currentBlock = null;
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                
+                int indexPosition = getBlockIndexPosition(keys[i], blockIndex);
+                if (indexPosition == -1)
+                    continue;
+                
+                // switch to the next block only if the key is not contained in
+                // the current one
+                if (indexPosition != currentPosition) {
+                    if (currentBlock != null)
+                        currentBlock.free();
+                    currentBlock = getBlock(indexPosition);
+                    currentPosition = indexPosition;
+                }
+                
+                ByteRange val = currentBlock.lookup(keys[i]);
+                results[i] = val == null ? null : val.toBuffer();
+            }
+        } finally {
+            if (currentBlock != null)
+                currentBlock.free();
+        }
+        
+        return results;
+    }
+    
     public long numKeys() {
         
         int numBlocks = blockIndex.getNumEntries();
@@ -198,6 +218,28 @@ public class DiskIndex {
     
     public ResultSet<byte[], byte[]> rangeLookup(final byte[] from, final byte[] to,
         final boolean ascending) {
+        return rangeLookup(from, to, ascending, null, null);
+    }
+    
+    /**
+     * Performs a range lookup that only returns entries accepted by the given
+     * filter. The filter is applied to the entries in the blocks, so that only
+     * accepted entries are copied.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @param ascending
+     *            the iteration order
+     * @param filter
+     *            the filter for entries, or <code>null</code>
+     * @param projection
+     *            the projection of values, or <code>null</code>
+     * @return an iterator with the accepted entries
+     */
+    public ResultSet<byte[], byte[]> rangeLookup(final byte[] from, final byte[] to,
+        final boolean ascending, final EntryFilter filter, final ValueProjection projection) {
         
         // return iterator for mmap'ed indices
         if (mmaped) {
@@ -207,12 +249,13 @@ public class DiskIndex {
                 map[i] = dbFiles[i].slice();
             }
             
-            return new DiskIndexIterator(this, blockIndex, from, to, ascending, map);
+            return new DiskIndexIterator(this, blockIndex, from, to, ascending, map, filter, projection);
         }
         
         // return iterator for non-mmap'ed indices
         else
-            return new DiskIndexIterator(this, blockIndex, from, to, ascending, dbFileChannels);
+            return new DiskIndexIterator(this, blockIndex, from, to, ascending, dbFileChannels, filter,
+                projection);
     }
     
     public InternalDiskIndexIterator internalRangeLookup(final byte[] from, final byte[] to,
@@ -258,6 +301,44 @@ public class DiskIndex {
         super.finalize();
     }
     
+    /**
+     * Returns a reader for the block at the given position in the block index.
+     * 
+     * @param indexPosition
+     *            the position in the block index
+     * @return the block reader
+     */
+    private BlockReader getBlock(int indexPosition) {
+        
+        int startBlockOffset = getBlockOffset(indexPosition, blockIndex);
+        int fileId = getBlockFileId(indexPosition, blockIndex);
+        
+        int endBlockOffset;
+        if (indexPosition == blockIndex.getNumEntries() - 1)
+            // the last block in the block index
+            endBlockOffset = -1;
+        else {
+            ByteRange indexPos = getBlockEntry(indexPosition + 1, blockIndex);
+            ByteBuffer indexPosBuf = indexPos.getBuf();
+            endBlockOffset = getBlockIndexOffset(indexPosBuf, indexPos.getStartOffset());
+            
+            // is this the last block of the current block file?
+            // then the endBlockOffset should be set to the end of the file
+            if (getBlockIndexFileId(indexPosBuf, indexPos.getStartOffset()) > fileId)
+                endBlockOffset = -1;
+        }
+        
+        BlockReader targetBlock = null;
+        try {
+            targetBlock = mmaped ? getBlock(startBlockOffset, endBlockOffset, dbFiles[fileId]) : getBlock(
+                startBlockOffset, endBlockOffset, dbFileChannels[fileId]);
+        } catch (IOException e) {
+            Logging.logError(Logging.LEVEL_ERROR, this, e);
+        }
+        
+        return targetBlock;
+    }
+    
     protected BlockReader getBlock(int startBlockOffset, int endBlockOffset, ByteBuffer map) {
         
         if (startBlockOffset > map.limit())
@@ -297,6 +378,47 @@ public class DiskIndex {
         return targetBlock;
     }
     
+    /**
+     * Returns keys that split the given range into partitions spanning roughly
+     * the same number of blocks. Split keys are the first keys of blocks, so
+     * that the range cannot be split into more partitions than it spans
+     * blocks.
+     * 
+     * @param from
+     *            the first key of the range (inclusively), or
+     *            <code>null</code>
+     * @param to
+     *            the last key of the range (exclusively), or <code>null</code>
+     * @param maxPartitions
+     *            the maximum number of partitions
+     * @return the split keys in ascending order, all of which are strictly
+     *         between <code>from</code> and <code>to</code>
+     */
+    public byte[][] getSplitKeys(byte[] from, byte[] to, int maxPartitions) {
+        
+        MiniPage keys = blockIndex.getKeys();
+        if (keys.getNumEntries() == 0 || maxPartitions < 2)
+            return new byte[0][];
+        
+        // the first key of the first block is never a split key, as no
+        // smaller keys exist on disk
+        int first = Math.max(keys.getExclTopPosition(from), 1);
+        int last = keys.getExclBottomPosition(to);
+        int numCandidates = last - first + 1;
+        if (numCandidates <= 0)
+            return new byte[0][];
+        
+        // pick evenly spaced block boundaries among the candidates
+        int numSplits = Math.min(maxPartitions - 1, numCandidates);
+        byte[][] splitKeys = new byte[numSplits][];
+        for (int i = 0; i < numSplits; i++) {
+            int pos = (int) ((long) (i + 1) * (numCandidates + 1) / (numSplits + 1)) - 1;
+            splitKeys[i] = keys.getEntry(first + pos).toBuffer();
+        }
+        
+        return splitKeys;
+    }
+    
     /**
      * Returns the index of the block potentially contains the given key.
      * 
@@ -356,3 +478,4 @@ public class DiskIndex {
         return buf.getShort(startOffset + (Integer.SIZE / 8));
     }
 }
+    
\ No newline at end of file
@@ -13,12 +13,20 @@ import java.nio.channels.FileChannel;
 import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 
+import org.xtreemfs.babudb.api.database.EntryFilter;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.index.ByteRange;
 import org.xtreemfs.foundation.buffer.BufferPool;
 
 public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSet<byte[], byte[]> {
     
+    private final EntryFilter     filter;
+    
+    private final ValueProjection projection;
+    
+    private Entry<byte[], byte[]> next;
+    
     /**
      * Disk index iterator for mmap'ed index files.
      * 
@@ -37,7 +45,35 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
      */
     public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
         boolean ascending, ByteBuffer[] maps) {
+        this(index, blockIndexReader, from, to, ascending, maps, null, null);
+    }
+    
+    /**
+     * Disk index iterator for mmap'ed index files, which only returns entries
+     * accepted by the given filter.
+     * 
+     * @param index
+     *            reference to the index
+     * @param blockIndexReader
+     *            reference to the block index reader
+     * @param from
+     *            smallest key (inclusively)
+     * @param to
+     *            largest key (exclusively)
+     * @param ascending
+     *            defines the iteration order
+     * @param maps
+     *            an array of mmap'ed buffers
+     * @param filter
+     *            the filter for entries, or <code>null</code>
+     * @param projection
+     *            the projection of values, or <code>null</code>
+     */
+    public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
+        boolean ascending, ByteBuffer[] maps, EntryFilter filter, ValueProjection projection) {
         super(index, blockIndexReader, from, to, ascending, maps, null);
+        this.filter = filter;
+        this.projection = projection;
     }
     
     /**
@@ -58,7 +94,54 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
      */
     public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
         boolean ascending, FileChannel[] dbFileChannels) {
+        this(index, blockIndexReader, from, to, ascending, dbFileChannels, null, null);
+    }
+    
+    /**
+     * Disk index iterator for streamed index files, which only returns entries
+     * accepted by the given filter.
+     * 
+     * @param index
+     *            reference to the index
+     * @param blockIndexReader
+     *            reference to the block index reader
+     * @param from
+     *            smallest key (inclusively)
+     * @param to
+     *            largest key (exclusively)
+     * @param ascending
+     *            defines the iteration order
+     * @param dbFileChannels
+     *            an array of file channels
+     * @param filter
+     *            the filter for entries, or <code>null</code>
+     * @param projection
+     *            the projection of values, or <code>null</code>
+     */
+    public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
+        boolean ascending, FileChannel[] dbFileChannels, EntryFilter filter, ValueProjection projection) {
         super(index, blockIndexReader, from, to, ascending, null, dbFileChannels);
+        this.filter = filter;
+        this.projection = projection;
+    }
+    
+    @Override
+    public boolean hasNext() {
+        
+        if (filter == null)
+            return super.hasNext();
+        
+        // skip all entries that are not accepted, without copying them
+        while (next == null && super.hasNext()) {
+            
+            Entry<ByteRange, ByteRange> entry = currentBlockIterator.next();
+            if (filter.accept(entry.getKey(), entry.getValue()))
+                next = copy(entry);
+            else if (entry.getValue().getReusableBuf() != null)
+                BufferPool.free(entry.getValue().getReusableBuf());
+        }
+        
+        return next != null;
     }
     
     @Override
@@ -67,7 +150,16 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
         if (!hasNext())
             throw new NoSuchElementException();
         
-        final Entry<ByteRange, ByteRange> entry = currentBlockIterator.next();
+        if (filter == null)
+            return copy(currentBlockIterator.next());
+        
+        Entry<byte[], byte[]> entry = next;
+        next = null;
+        return entry;
+    }
+    
+    private Entry<byte[], byte[]> copy(final Entry<ByteRange, ByteRange> entry) {
+        
         return new Entry<byte[], byte[]>() {
             
             private byte[] key;
@@ -76,7 +168,8 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
             
             {
                 key = entry.getKey().toBuffer();
-                value = entry.getValue().toBuffer();
+                value = projection == null ? entry.getValue().toBuffer() : projection.apply(entry
+                        .getValue());
                 
                 if(entry.getValue().getReusableBuf() != null)
                     BufferPool.free(entry.getValue().getReusableBuf());
@@ -46,7 +46,7 @@ public class InternalBufferUtil {
         else {
             ByteRange range = (ByteRange) buf;
             
-            assert (range.getSize() <= offset);
+            assert (offset < range.getSize());
             return range.getBuf().get(range.getStartOffset() + offset);
         }
     }
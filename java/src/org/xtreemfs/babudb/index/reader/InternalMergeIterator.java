@@ -8,14 +8,20 @@
 
 package org.xtreemfs.babudb.index.reader;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 
 import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.ValueExpiration;
 import org.xtreemfs.babudb.index.ByteRange;
+import org.xtreemfs.babudb.index.overlay.MultiOverlayTree.DeletedRanges;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
 
 /**
  * Merges an iterator for an in-memory overlay with an iterator for an on-disk
@@ -24,7 +30,9 @@ import org.xtreemfs.foundation.buffer.BufferPool;
  * The iterator either returns a byte array or a <code>ByteRange</code> object,
  * depending on whether the current element is part of the overlay trees or the
  * on-disk index. The returned keys and values are direct references to the
- * internally used key-value pairs and should hence not be modified.
+ * internally used key-value pairs and should hence not be modified. Entries
+ * of the on-disk index that are covered by a range deleted in the overlay are
+ * skipped, and so are expired entries if requested.
  * 
  * @author stenjan
  * 
@@ -35,6 +43,8 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
     
     private InternalDiskIndexIterator       diskIndexIterator;
     
+    private List<DeletedRanges<byte[]>>     deletedRanges;
+    
     private Entry<byte[], byte[]>           nextOverlayEntry;
     
     private Entry<ByteRange, ByteRange>     nextDiskIndexEntry;
@@ -47,17 +57,51 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
     
     private boolean                         ascending;
     
+    /**
+     * entries expiring at or before this time are skipped; if
+     * <code>ValueExpiration.NEVER</code>, no entries are skipped
+     */
+    private long                            expirationTime;
+    
+    /**
+     * indicates whether entries of the current on-disk block have been
+     * returned, which still refer to the block's buffer
+     */
+    private boolean                         blockReturned;
+    
+    /**
+     * buffers of skipped on-disk entries that are still referenced by
+     * returned entries, and which are freed with the iterator
+     */
+    private List<ReusableBuffer>            pendingBuffers;
+    
     public InternalMergeIterator(Iterator<Entry<byte[], byte[]>> overlayIterator,
         InternalDiskIndexIterator diskIndexIterator, ByteRangeComparator comp, byte[] nullValue,
         boolean ascending) {
+        this(overlayIterator, diskIndexIterator, Collections.<DeletedRanges<byte[]>> emptyList(), comp,
+            nullValue, ascending);
+    }
+    
+    public InternalMergeIterator(Iterator<Entry<byte[], byte[]>> overlayIterator,
+        InternalDiskIndexIterator diskIndexIterator, List<DeletedRanges<byte[]>> deletedRanges,
+        ByteRangeComparator comp, byte[] nullValue, boolean ascending) {
+        this(overlayIterator, diskIndexIterator, deletedRanges, comp, nullValue, ascending, false);
+    }
+    
+    public InternalMergeIterator(Iterator<Entry<byte[], byte[]>> overlayIterator,
+        InternalDiskIndexIterator diskIndexIterator, List<DeletedRanges<byte[]>> deletedRanges,
+        ByteRangeComparator comp, byte[] nullValue, boolean ascending, boolean hideExpired) {
         
         assert (overlayIterator != null);
+        assert (deletedRanges != null);
         
         this.overlayIterator = overlayIterator;
         this.diskIndexIterator = diskIndexIterator;
+        this.deletedRanges = deletedRanges;
         this.comp = comp;
         this.nullValue = nullValue;
         this.ascending = ascending;
+        this.expirationTime = hideExpired ? System.currentTimeMillis() : ValueExpiration.NEVER;
         
         nextElement();
     }
@@ -87,6 +131,11 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
     public void free() {
         if (diskIndexIterator != null)
             diskIndexIterator.free();
+        if (pendingBuffers != null) {
+            for (ReusableBuffer buf : pendingBuffers)
+                BufferPool.free(buf);
+            pendingBuffers = null;
+        }
     }
     
     private void nextElement() {
@@ -94,27 +143,23 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
         // find the smallest element in the 'rightmost' tree
         for (;;) {
             
+            nextEntry = null;
+            
             // find the next element in the overlay
             if (nextOverlayEntry == null && overlayIterator.hasNext())
                 nextOverlayEntry = overlayIterator.next();
             
             // find the next element in the disk index
-            if (nextDiskIndexEntry == null && diskIndexIterator != null && diskIndexIterator.hasNext())
-                nextDiskIndexEntry = diskIndexIterator.next();
+            if (nextDiskIndexEntry == null && diskIndexIterator != null)
+                nextDiskIndexEntry = nextDiskIndexEntry();
             
             // if the next overlay key is equal to the next disk index key,
             // shift disk index element
             if (nextOverlayEntry != null && nextDiskIndexEntry != null
                 && comp.compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) == 0) {
                 
-                // free the buffer if necessary
-                if(nextDiskIndexEntry.getValue().getReusableBuf() != null)
-                    BufferPool.free(nextDiskIndexEntry.getValue().getReusableBuf());
-                
-                if (diskIndexIterator.hasNext())
-                    nextDiskIndexEntry = diskIndexIterator.next();
-                else
-                    nextDiskIndexEntry = null;
+                skip(nextDiskIndexEntry);
+                nextDiskIndexEntry = nextDiskIndexEntry();
             }
             
             // if no more element exists, set 'next' to 'empty' and return
@@ -133,13 +178,11 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
                 }
 
                 else if (nextOverlayEntry == null) {
-                    nextEntry = InternalBufferUtil.cast(nextDiskIndexEntry);
-                    nextDiskIndexEntry = null;
+                    nextEntry = returnDiskIndexEntry();
                 }
 
                 else if (comp.compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) < 0) {
-                    nextEntry = InternalBufferUtil.cast(nextDiskIndexEntry);
-                    nextDiskIndexEntry = null;
+                    nextEntry = returnDiskIndexEntry();
                 }
 
                 else {
@@ -155,30 +198,118 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
                 }
 
                 else if (nextOverlayEntry == null) {
-                    nextEntry = InternalBufferUtil.cast(nextDiskIndexEntry);
-                    nextDiskIndexEntry = null;
+                    nextEntry = returnDiskIndexEntry();
                 }
 
                 else if (comp.compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) > 0) {
-                    nextEntry = InternalBufferUtil.cast(nextDiskIndexEntry);
-                    nextDiskIndexEntry = null;
+                    nextEntry = returnDiskIndexEntry();
                 }
 
                 else {
-                    InternalBufferUtil.cast(nextOverlayEntry);
+                    nextEntry = InternalBufferUtil.cast(nextOverlayEntry);
                     nextOverlayEntry = null;
                 }
                 
             }
             
-            assert (nextEntry != null);
+            // the on-disk entry has expired
+            if (nextEntry == null)
+                continue;
             
             // if no tombstone value was defined or the next entry's value is
-            // not a tombstone value, return; otherwise, restart
-            if (nullValue == null || nextEntry.getValue() != nullValue)
+            // not a tombstone value, return unless it has expired; otherwise,
+            // restart
+            if ((nullValue == null || nextEntry.getValue() != nullValue) && !isExpired(nextEntry.getValue()))
                 return;
         }
         
     }
     
+    /**
+     * Returns the next entry of the on-disk index that is not covered by a
+     * deleted range.
+     */
+    private Entry<ByteRange, ByteRange> nextDiskIndexEntry() {
+        
+        while (diskIndexIterator.hasNext()) {
+            
+            Entry<ByteRange, ByteRange> entry = diskIndexIterator.next();
+            if (!isDeleted(entry.getKey()))
+                return entry;
+            
+            skip(entry);
+        }
+        
+        return null;
+    }
+    
+    private Entry<Object, Object> returnDiskIndexEntry() {
+        
+        if (isExpired(nextDiskIndexEntry.getValue())) {
+            skip(nextDiskIndexEntry);
+            nextDiskIndexEntry = null;
+            return null;
+        }
+        
+        // the buffer is attached to the last entry of each block and freed
+        // together with it
+        blockReturned = nextDiskIndexEntry.getValue().getReusableBuf() == null;
+        
+        Entry<Object, Object> entry = InternalBufferUtil.cast(nextDiskIndexEntry);
+        nextDiskIndexEntry = null;
+        return entry;
+    }
+    
+    /**
+     * Frees the buffer of a skipped on-disk entry if necessary. If entries
+     * referring to the buffer have been returned before, it is freed with the
+     * iterator, as they might not have been processed yet.
+     */
+    private void skip(Entry<ByteRange, ByteRange> entry) {
+        
+        ReusableBuffer buf = entry.getValue().getReusableBuf();
+        if (buf == null)
+            return;
+        
+        if (blockReturned) {
+            if (pendingBuffers == null)
+                pendingBuffers = new ArrayList<ReusableBuffer>();
+            pendingBuffers.add(buf);
+        } else
+            BufferPool.free(buf);
+        
+        blockReturned = false;
+    }
+    
+    private boolean isExpired(Object value) {
+        
+        if (expirationTime == ValueExpiration.NEVER)
+            return false;
+        
+        // overlay values
+        if (value instanceof byte[])
+            return ValueExpiration.isExpired((byte[]) value, expirationTime);
+        
+        // on-disk values
+        ByteRange rng = (ByteRange) value;
+        if (rng.getSize() < ValueExpiration.HEADER_SIZE)
+            return false;
+        
+        long time = rng.getBuf().getLong(rng.getStartOffset());
+        return time != ValueExpiration.NEVER && time <= expirationTime;
+    }
+    
+    private boolean isDeleted(ByteRange key) {
+        
+        if (deletedRanges.isEmpty())
+            return false;
+        
+        byte[] buf = key.toBuffer();
+        for (DeletedRanges<byte[]> ranges : deletedRanges)
+            if (ranges.contains(buf))
+                return true;
+        
+        return false;
+    }
+    
 }
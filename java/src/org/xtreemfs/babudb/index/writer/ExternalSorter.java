@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.index.writer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+
+/**
+ * Sorts an arbitrary number of key-value pairs in the order of a
+ * {@link ByteRangeComparator}, e.g. in order to bulk-load them into an index.
+ * Pairs are collected in memory up to a given limit. Whenever the limit is
+ * exceeded, the collected pairs are sorted and spilled to a temporary run file,
+ * while further pairs are being collected. Finally, all runs are merged in
+ * parallel until their number does not exceed the fan-in of a single merge, and
+ * the remaining runs are merged while the sorted pairs are being retrieved.
+ * 
+ * <p>
+ * If a key is added more than once, the value that has been added last is
+ * retained.
+ * </p>
+ */
+public class ExternalSorter {
+    
+    /**
+     * estimated memory overhead per key-value pair
+     */
+    private static final int                 ENTRY_OVERHEAD = 64;
+    
+    private final Comparator<byte[]>         comp;
+    
+    private final File                       tmpDir;
+    
+    private final long                       maxBufferSize;
+    
+    private final int                        fanIn;
+    
+    private final ExecutorService            executor;
+    
+    /**
+     * all run files, in the order of their creation
+     */
+    private final List<Future<File>>         runs;
+    
+    /**
+     * all files created by this sorter, including intermediate runs
+     */
+    private final List<File>                 runFiles;
+    
+    private List<Entry<byte[], byte[]>>      buffer;
+    
+    private long                             bufferSize;
+    
+    private boolean                          sorted;
+    
+    /**
+     * Creates a new sorter.
+     * 
+     * @param comp
+     *            the comparator defining the order of keys
+     * @param tmpDir
+     *            the directory for temporary run files
+     * @param maxMemory
+     *            the approximate maximum number of bytes occupied by pairs
+     *            held in memory, including a run that is being spilled
+     * @param fanIn
+     *            the maximum number of runs merged at once
+     * @param numThreads
+     *            the number of threads that spill and merge runs
+     */
+    public ExternalSorter(final ByteRangeComparator comp, File tmpDir, long maxMemory, int fanIn, int numThreads) {
+        
+        assert (fanIn > 1);
+        assert (numThreads > 0);
+        
+        this.comp = new Comparator<byte[]>() {
+            public int compare(byte[] o1, byte[] o2) {
+                return comp.compare(o1, o2);
+            }
+        };
+        this.tmpDir = tmpDir;
+        this.maxBufferSize = maxMemory / 2;
+        this.fanIn = fanIn;
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            
+            private final AtomicInteger id = new AtomicInteger();
+            
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ExternalSorter#" + id.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.runs = new ArrayList<Future<File>>();
+        this.runFiles = new ArrayList<File>();
+        this.buffer = new ArrayList<Entry<byte[], byte[]>>();
+    }
+    
+    /**
+     * Adds a key-value pair.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @throws IOException
+     *             if a run could not be spilled
+     */
+    public void add(byte[] key, byte[] value) throws IOException {
+        
+        assert (!sorted);
+        if (key == null || value == null)
+            throw new NullPointerException();
+        
+        buffer.add(new SimpleEntry<byte[], byte[]>(key, value));
+        bufferSize += key.length + value.length + ENTRY_OVERHEAD;
+        
+        if (bufferSize >= maxBufferSize)
+            spill();
+    }
+    
+    /**
+     * Adds a sequence of key-value pairs.
+     * 
+     * @param entries
+     *            the key-value pairs
+     * @throws IOException
+     *             if a run could not be spilled
+     */
+    public void addAll(Iterator<Entry<byte[], byte[]>> entries) throws IOException {
+        while (entries.hasNext()) {
+            Entry<byte[], byte[]> entry = entries.next();
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Completes the sort. Once this method has been invoked, no more pairs can
+     * be added.
+     * 
+     * @return the sorted key-value pairs; freeing the result set deletes all
+     *         temporary files and releases all threads of the sorter
+     * @throws IOException
+     *             if a run could not be spilled or merged
+     */
+    public ResultSet<byte[], byte[]> sort() throws IOException {
+        
+        assert (!sorted);
+        sorted = true;
+        
+        try {
+            
+            // sort in memory if no run has been spilled so far
+            if (runs.isEmpty()) {
+                
+                List<Entry<byte[], byte[]>> entries = sortBuffer(buffer);
+                buffer = null;
+                executor.shutdown();
+                
+                final Iterator<Entry<byte[], byte[]>> it = entries.iterator();
+                return new ResultSet<byte[], byte[]>() {
+                    
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+                    
+                    public Entry<byte[], byte[]> next() {
+                        return it.next();
+                    }
+                    
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                    
+                    public void free() {
+                    }
+                };
+            }
+            
+            if (!buffer.isEmpty())
+                spill();
+            buffer = null;
+            
+            // reduce the number of runs by merging groups of runs in parallel
+            List<File> files = getRuns(runs);
+            while (files.size() > fanIn) {
+                
+                List<Future<File>> merged = new ArrayList<Future<File>>();
+                for (int i = 0; i < files.size(); i += fanIn) {
+                    
+                    final List<File> group = files.subList(i, Math.min(i + fanIn, files.size()));
+                    if (group.size() == 1) {
+                        merged.add(executor.submit(new Callable<File>() {
+                            public File call() {
+                                return group.get(0);
+                            }
+                        }));
+                        continue;
+                    }
+                    
+                    final File target = newRunFile();
+                    merged.add(executor.submit(new Callable<File>() {
+                        public File call() throws IOException {
+                            
+                            MergeIterator it = new MergeIterator(group);
+                            try {
+                                writeRun(target, it);
+                            } finally {
+                                it.free();
+                            }
+                            
+                            return target;
+                        }
+                    }));
+                }
+                
+                files = getRuns(merged);
+            }
+            
+            executor.shutdown();
+            return new MergeIterator(files);
+        
+        } catch (IOException exc) {
+            close();
+            throw exc;
+        }
+    }
+    
+    /**
+     * Discards all pairs and deletes all temporary files.
+     */
+    public void close() {
+        
+        executor.shutdownNow();
+        buffer = null;
+        
+        // wait for runs that are currently being written
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exc) {
+            // delete the files written so far
+        }
+        
+        // remove all files of this sorter, including intermediate runs
+        synchronized (runFiles) {
+            for (File file : runFiles)
+                file.delete();
+            runFiles.clear();
+        }
+    }
+    
+    /**
+     * Sorts the current buffer and writes it to a new run file. Spilling is
+     * performed in the background while the next buffer is being filled; in
+     * order to bound the memory usage, a spill waits for the previous spill to
+     * complete.
+     */
+    private void spill() throws IOException {
+        
+        if (!runs.isEmpty())
+            getRun(runs.get(runs.size() - 1));
+        
+        final List<Entry<byte[], byte[]>> entries = buffer;
+        final File target = newRunFile();
+        
+        runs.add(executor.submit(new Callable<File>() {
+            public File call() throws IOException {
+                writeRun(target, sortBuffer(entries).iterator());
+                return target;
+            }
+        }));
+        
+        buffer = new ArrayList<Entry<byte[], byte[]>>();
+        bufferSize = 0;
+    }
+    
+    /**
+     * Sorts a list of pairs and removes all but the last pair of each key.
+     */
+    private List<Entry<byte[], byte[]>> sortBuffer(List<Entry<byte[], byte[]>> entries) {
+        
+        // the sort is stable, i.e. pairs with equal keys retain their order
+        Collections.sort(entries, new Comparator<Entry<byte[], byte[]>>() {
+            public int compare(Entry<byte[], byte[]> o1, Entry<byte[], byte[]> o2) {
+                return comp.compare(o1.getKey(), o2.getKey());
+            }
+        });
+        
+        List<Entry<byte[], byte[]>> result = new ArrayList<Entry<byte[], byte[]>>(entries.size());
+        for (Entry<byte[], byte[]> entry : entries) {
+            if (!result.isEmpty() && comp.compare(result.get(result.size() - 1).getKey(), entry.getKey()) == 0)
+                result.set(result.size() - 1, entry);
+            else
+                result.add(entry);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Creates a new run file; its name is unique in the temporary directory,
+     * even if it is shared with other sorters.
+     */
+    private File newRunFile() throws IOException {
+        File file = File.createTempFile("sort", ".run", tmpDir);
+        synchronized (runFiles) {
+            runFiles.add(file);
+        }
+        return file;
+    }
+    
+    private static List<File> getRuns(List<Future<File>> runs) throws IOException {
+        List<File> files = new ArrayList<File>(runs.size());
+        for (Future<File> run : runs)
+            files.add(getRun(run));
+        return files;
+    }
+    
+    private static File getRun(Future<File> run) throws IOException {
+        try {
+            return run.get();
+        } catch (InterruptedException exc) {
+            throw new IOException("interrupted while waiting for a run to be written", exc);
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof IOException)
+                throw (IOException) exc.getCause();
+            throw new IOException("could not write run", exc.getCause());
+        }
+    }
+    
+    /**
+     * Writes a sequence of pairs to a run file. Each pair is stored as the
+     * length and content of its key, followed by the length and content of its
+     * value; the run is terminated by a negative length.
+     */
+    private static void writeRun(File target, Iterator<Entry<byte[], byte[]>> entries) throws IOException {
+        
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+        try {
+            while (entries.hasNext()) {
+                Entry<byte[], byte[]> entry = entries.next();
+                out.writeInt(entry.getKey().length);
+                out.write(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.writeInt(-1);
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Reader for the pairs of a run file.
+     */
+    private static final class Run {
+        
+        private final File            file;
+        
+        private final int             order;
+        
+        private final DataInputStream in;
+        
+        private Entry<byte[], byte[]> next;
+        
+        private Run(File file, int order) throws IOException {
+            this.file = file;
+            this.order = order;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            advance();
+        }
+        
+        private void advance() throws IOException {
+            
+            int keyLength = in.readInt();
+            if (keyLength < 0) {
+                next = null;
+                return;
+            }
+            
+            byte[] key = new byte[keyLength];
+            in.readFully(key);
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            
+            next = new SimpleEntry<byte[], byte[]>(key, value);
+        }
+        
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException exc) {
+                // ignore
+            }
+            file.delete();
+        }
+    }
+    
+    /**
+     * Iterator performing a k-way merge of a list of run files, which are
+     * deleted when the iterator is freed. Of all pairs with equal keys, the
+     * one from the run that has been created last is returned.
+     */
+    private final class MergeIterator implements ResultSet<byte[], byte[]> {
+        
+        private final List<Run>          runs;
+        
+        private final PriorityQueue<Run> queue;
+        
+        private MergeIterator(List<File> files) throws IOException {
+            
+            runs = new ArrayList<Run>(files.size());
+            queue = new PriorityQueue<Run>(Math.max(files.size(), 1), new Comparator<Run>() {
+                public int compare(Run o1, Run o2) {
+                    int result = comp.compare(o1.next.getKey(), o2.next.getKey());
+                    return result != 0 ? result : o2.order - o1.order;
+                }
+            });
+            
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    Run run = new Run(files.get(i), i);
+                    runs.add(run);
+                    if (run.next != null)
+                        queue.add(run);
+                }
+            } catch (IOException exc) {
+                free();
+                throw exc;
+            }
+        }
+        
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+        
+        public Entry<byte[], byte[]> next() {
+            
+            if (queue.isEmpty())
+                throw new NoSuchElementException();
+            
+            try {
+                Run run = queue.poll();
+                Entry<byte[], byte[]> result = run.next;
+                advance(run);
+                
+                // skip all pairs with the same key from older runs
+                while (!queue.isEmpty() && comp.compare(queue.peek().next.getKey(), result.getKey()) == 0)
+                    advance(queue.poll());
+                
+                return result;
+            
+            } catch (IOException exc) {
+                throw new RuntimeException("could not read run: " + exc.getMessage(), exc);
+            }
+        }
+        
+        private void advance(Run run) throws IOException {
+            run.advance();
+            if (run.next != null)
+                queue.add(run);
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        public void free() {
+            for (Run run : runs)
+                run.close();
+            queue.clear();
+        }
+    }
+}
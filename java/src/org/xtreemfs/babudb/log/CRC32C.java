@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum. If the runtime provides
+ * <code>java.util.zip.CRC32C</code>, which is intrinsified on CPUs with CRC
+ * instructions, the calculation is delegated to it. Otherwise, a table-driven
+ * implementation is used.
+ *
+ * In contrast to {@link java.util.zip.CRC32}, checksums can be calculated
+ * over direct {@link ByteBuffer}s without copying their content to the heap.
+ */
+public class CRC32C implements Checksum {
+    
+    private static final int[][] TABLE = new int[8][256];
+    
+    /**
+     * constructor and <code>update(ByteBuffer)</code> method of the platform
+     * implementation, which are looked up once
+     */
+    private static final Constructor<?> NATIVE_CONSTRUCTOR;
+    
+    private static final Method         NATIVE_UPDATE_BUFFER;
+    
+    static {
+        
+        // reflected Castagnoli polynomial
+        final int poly = 0x82F63B78;
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ poly : crc >>> 1;
+            }
+            TABLE[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            int crc = TABLE[0][n];
+            for (int k = 1; k < 8; k++) {
+                crc = TABLE[0][crc & 0xFF] ^ (crc >>> 8);
+                TABLE[k][n] = crc;
+            }
+        }
+        
+        // look up the platform implementation, if available
+        Constructor<?> constructor = null;
+        Method updateBuffer = null;
+        try {
+            Class<?> nativeClass = Class.forName("java.util.zip.CRC32C");
+            constructor = nativeClass.getConstructor();
+            updateBuffer = nativeClass.getMethod("update", ByteBuffer.class);
+        } catch (Exception exc) {
+            constructor = null;
+            updateBuffer = null;
+        }
+        NATIVE_CONSTRUCTOR = constructor;
+        NATIVE_UPDATE_BUFFER = updateBuffer;
+    }
+    
+    private final Checksum nativeImpl;
+    
+    private int            crc = 0xFFFFFFFF;
+    
+    public CRC32C() {
+        Checksum impl = null;
+        if (NATIVE_CONSTRUCTOR != null) {
+            try {
+                impl = (Checksum) NATIVE_CONSTRUCTOR.newInstance();
+            } catch (Exception exc) {
+                impl = null;
+            }
+        }
+        nativeImpl = impl;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.zip.Checksum#update(int)
+     */
+    @Override
+    public void update(int b) {
+        if (nativeImpl != null) {
+            nativeImpl.update(b);
+        } else {
+            crc = TABLE[0][(crc ^ b) & 0xFF] ^ (crc >>> 8);
+        }
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.zip.Checksum#update(byte[], int, int)
+     */
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (nativeImpl != null) {
+            nativeImpl.update(b, off, len);
+            return;
+        }
+        
+        int c = crc;
+        int i = off;
+        final int end = off + len;
+        
+        // process eight bytes at once
+        for (; i + 8 <= end; i += 8) {
+            c ^= (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+            c = TABLE[7][c & 0xFF] ^ TABLE[6][(c >>> 8) & 0xFF] ^ TABLE[5][(c >>> 16) & 0xFF]
+                ^ TABLE[4][c >>> 24] ^ TABLE[3][b[i + 4] & 0xFF] ^ TABLE[2][b[i + 5] & 0xFF]
+                ^ TABLE[1][b[i + 6] & 0xFF] ^ TABLE[0][b[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            c = TABLE[0][(c ^ b[i]) & 0xFF] ^ (c >>> 8);
+        }
+        
+        crc = c;
+    }
+    
+    /**
+     * Updates the checksum with the remaining bytes of the given buffer. Upon
+     * return, the buffer's position will be equal to its limit.
+     * 
+     * @param buffer
+     */
+    public void update(ByteBuffer buffer) {
+        
+        // heap buffers do not require a reflective call
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        
+        if (nativeImpl != null) {
+            try {
+                NATIVE_UPDATE_BUFFER.invoke(nativeImpl, buffer);
+                return;
+            } catch (Exception exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+        
+        ByteBuffer le = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int c = crc;
+        int i = buffer.position();
+        final int end = buffer.limit();
+        
+        // process eight bytes at once
+        for (; i + 8 <= end; i += 8) {
+            c ^= le.getInt(i);
+            int hi = le.getInt(i + 4);
+            c = TABLE[7][c & 0xFF] ^ TABLE[6][(c >>> 8) & 0xFF] ^ TABLE[5][(c >>> 16) & 0xFF]
+                ^ TABLE[4][c >>> 24] ^ TABLE[3][hi & 0xFF] ^ TABLE[2][(hi >>> 8) & 0xFF]
+                ^ TABLE[1][(hi >>> 16) & 0xFF] ^ TABLE[0][hi >>> 24];
+        }
+        for (; i < end; i++) {
+            c = TABLE[0][(c ^ buffer.get(i)) & 0xFF] ^ (c >>> 8);
+        }
+        buffer.position(end);
+        
+        crc = c;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.zip.Checksum#getValue()
+     */
+    @Override
+    public long getValue() {
+        if (nativeImpl != null) {
+            return nativeImpl.getValue();
+        }
+        return (~crc) & 0xFFFFFFFFL;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.zip.Checksum#reset()
+     */
+    @Override
+    public void reset() {
+        if (nativeImpl != null) {
+            nativeImpl.reset();
+        } else {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -14,21 +14,28 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
+import org.xtreemfs.babudb.log.LogIndex.FileIndex;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 
 /**
- * Interface for reading on-disk operation logs.
+ * Interface for reading on-disk operation logs. The log is read sequentially
+ * in large chunks, and log entries are parsed in place; the payloads of the
+ * returned entries are views of the chunk they have been read from.
  * 
  * @author bjko
  */
 public class DiskLogFile {
     
+    /**
+     * number of bytes read from the log file at once
+     */
+    public static final int  READ_AHEAD_SIZE = 512 * 1024;
+    
     protected File            file;
     
     protected FileChannel     channel;
@@ -37,29 +44,72 @@ public class DiskLogFile {
     
     protected Checksum        csumAlgo;
     
-    protected ByteBuffer      myInt;
+    /**
+     * the chunk of the log file currently parsed, positioned at the next frame
+     */
+    protected ReusableBuffer  readAhead;
+    
+    /**
+     * offset of the read-ahead buffer in the log file
+     */
+    protected long            readAheadOffset;
     
     protected LogEntry        next;
     
+    /**
+     * the index to record the offsets of the entries read in, or null
+     */
+    protected FileIndex       index;
+    
     public DiskLogFile(String baseDir, LSN logLSN) throws IOException, LogEntryException {
         this(baseDir + DiskLogger.createLogFileName(logLSN.getViewId(), logLSN.getSequenceNo()));
     }
     
     public DiskLogFile(String filename) throws IOException, LogEntryException {
+        this(filename, null, null);
+    }
+    
+    /**
+     * Opens a log file and skips all entries with an LSN less than
+     * <code>from</code>. The index is used to seek close to the first entry
+     * to return, and is updated with the offsets of the entries read.
+     * 
+     * @param baseDir
+     * @param logLSN
+     * @param from
+     *            - the LSN of the first entry to return, or null.
+     * @param index
+     *            - the index of the log file, or null.
+     * @throws IOException
+     * @throws LogEntryException
+     */
+    public DiskLogFile(String baseDir, LSN logLSN, LSN from, FileIndex index) throws IOException,
+        LogEntryException {
+        this(baseDir + DiskLogger.createLogFileName(logLSN.getViewId(), logLSN.getSequenceNo()), from, index);
+    }
+    
+    private DiskLogFile(String filename, LSN from, FileIndex index) throws IOException, LogEntryException {
         
         file = new File(filename);
         fis = new FileInputStream(file);
         channel = fis.getChannel();
-        myInt = ByteBuffer.allocate(Integer.SIZE / 8);
-        csumAlgo = new CRC32();
+        csumAlgo = new CRC32C();
+        this.index = index;
         
-        next = getNext();
+        int pos = (from != null && index != null) ? index.floor(from) : -1;
+        next = pos >= 0 ? seek(index.getOffset(pos), index.getLSN(pos)) : getNext();
+        
+        while (from != null && next != null && next.getLSN().compareTo(from) < 0) {
+            next.free();
+            next = getNext();
+        }
     }
     
     public void close() throws IOException {
         LogEntry tmp = next;
         next = null;
         if (tmp != null) tmp.free();
+        releaseReadAhead();
         channel.close();
         fis.close();
     }
@@ -77,30 +127,13 @@ public class DiskLogFile {
     protected LogEntry getNext() throws LogEntryException {
         
         long offset = -1;
-        ReusableBuffer item = null;
         try {
             
-            if (channel.position() == channel.size())
-                return null;
-            
-            int numRead = channel.read(myInt);
-            if (numRead < Integer.SIZE / 8)
-                return null;
-            
-            myInt.flip();
-            int entrySize = myInt.getInt();
-            myInt.flip();
-            offset = channel.position() - Integer.SIZE / 8;
-            channel.position(offset);
+            offset = readAhead == null ? channel.position() : readAheadOffset + readAhead.position();
             
-            if (entrySize < 0)
-                throw new LogEntryException("log entry with negative size detected: " + entrySize);
-            
-            item = BufferPool.allocate(entrySize);
-            channel.read(item.getBuffer());
-            item.flip();
-            LogEntry e = LogEntry.deserialize(item, csumAlgo);
-            csumAlgo.reset();
+            LogEntry e = readEntry();
+            if (e != null && index != null)
+                index.add(e.getLSN(), offset);
             return e;
             
         } catch (LogEntryException ex) {
@@ -117,6 +150,7 @@ public class DiskLogFile {
                 
                 // close the channel
                 channel.close();
+                releaseReadAhead();
                 
                 // truncate the file
                 FileOutputStream fout = new FileOutputStream(file, true);
@@ -139,12 +173,124 @@ public class DiskLogFile {
             
             Logging.logMessage(Logging.LEVEL_DEBUG, this, ex.getMessage());
             throw new LogEntryException("Cannot read log entry: " + ex);
+        }
+        
+    }
+    
+    /**
+     * Reads the entry at the given offset. If it is not the entry with the
+     * expected LSN, which may happen if the index is outdated, the file is
+     * read from the beginning instead. In contrast to an invalid entry found
+     * while reading sequentially, an invalid entry at the given offset does
+     * not cause the file to be truncated.
+     * 
+     * @param offset
+     * @param expected
+     * @return the first entry read.
+     * @throws IOException
+     * @throws LogEntryException
+     */
+    private LogEntry seek(long offset, LSN expected) throws IOException, LogEntryException {
+        
+        channel.position(offset);
+        
+        LogEntry e = null;
+        try {
+            e = readEntry();
+        } catch (LogEntryException exc) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, this, "outdated log index: %s", exc.getMessage());
+        }
+        
+        if (e != null && e.getLSN().equals(expected))
+            return e;
+        
+        if (e != null)
+            e.free();
+        
+        releaseReadAhead();
+        channel.position(0);
+        return getNext();
+    }
+    
+    /**
+     * Reads the next entry from the current position.
+     * 
+     * @return the entry, or null if the end of the file has been reached.
+     * @throws IOException
+     * @throws LogEntryException
+     *             if the entry is invalid or incomplete.
+     */
+    private LogEntry readEntry() throws IOException, LogEntryException {
+        
+        if (!fill(Integer.SIZE / 8))
+            return null;
+        
+        int entrySize = readAhead.getBuffer().getInt(readAhead.position());
+        
+        if (entrySize < 0)
+            throw new LogEntryException("log entry with negative size detected: " + entrySize);
+        if (entrySize > channel.size() - readAheadOffset - readAhead.position())
+            throw new LogEntryException("log entry exceeds the end of the log file: " + entrySize);
+        
+        fill(entrySize);
+        final int framePos = readAhead.position();
+        int frameSize = Math.min(entrySize, readAhead.remaining());
+        
+        ReusableBuffer item = readAhead.createViewBuffer();
+        try {
+            item.range(framePos, frameSize);
+            readAhead.position(framePos + frameSize);
             
+            return LogEntry.deserialize(item, csumAlgo);
         } finally {
-            if (item != null)
-                BufferPool.free(item);
+            csumAlgo.reset();
+            BufferPool.free(item);
         }
+    }
+    
+    /**
+     * Ensures that at least <code>size</code> bytes are available in the
+     * read-ahead buffer, unless the end of the file has been reached. If
+     * necessary, the remaining bytes are moved to a new buffer that is filled
+     * up with the subsequent content of the log file. The previous buffer is
+     * released; it will be reclaimed as soon as all entries referring to it
+     * have been freed.
+     * 
+     * @param size
+     * @return true, if at least <code>size</code> bytes are available.
+     * @throws IOException
+     */
+    private boolean fill(int size) throws IOException {
         
+        if (readAhead != null && readAhead.remaining() >= size)
+            return true;
+        
+        if (channel.position() == channel.size())
+            return readAhead != null && readAhead.remaining() >= size;
+        
+        ReusableBuffer buf = BufferPool.allocate(Math.max(READ_AHEAD_SIZE, size));
+        if (readAhead != null) {
+            readAheadOffset += readAhead.position();
+            buf.put(readAhead);
+            BufferPool.free(readAhead);
+        } else {
+            readAheadOffset = channel.position();
+        }
+        readAhead = buf;
+        
+        ByteBuffer target = readAhead.getBuffer();
+        while (target.hasRemaining() && channel.read(target) >= 0)
+            ;
+        readAhead.flip();
+        
+        return readAhead.remaining() >= size;
+    }
+    
+    private void releaseReadAhead() {
+        if (readAhead != null) {
+            BufferPool.free(readAhead);
+            readAhead = null;
+        }
     }
     
-}
+}
\ No newline at end of file
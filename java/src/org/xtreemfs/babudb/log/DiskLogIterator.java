@@ -39,6 +39,8 @@ public class DiskLogIterator implements Iterator<LogEntry> {
     
     private LogEntry      nextEntry;
     
+    private LogIndex      index;
+    
     /**
      * @param logFiles
      * @param from
@@ -48,8 +50,25 @@ public class DiskLogIterator implements Iterator<LogEntry> {
      * @throws IOException
      */
     public DiskLogIterator(File[] logFiles, LSN from) throws LogEntryException, IOException {
+        this(logFiles, from, new LogIndex());
+    }
+    
+    /**
+     * @param logFiles
+     * @param from
+     *            - inclusive, if everything went fine, next() will return the
+     *            log entry identified by LSN <code>from</code>.
+     * @param index
+     *            - the index of the log files, e.g. the one of the
+     *            {@link DiskLogger} writing them.
+     * @throws LogEntryException
+     * @throws IOException
+     */
+    public DiskLogIterator(File[] logFiles, LSN from, LogIndex index) throws LogEntryException, 
+            IOException {
         
         this.from = from;
+        this.index = index;
         
         if (logFiles != null && logFiles.length > 0) {
             
@@ -144,7 +163,9 @@ public class DiskLogIterator implements Iterator<LogEntry> {
             currentLog = logList.next();
             if(currentFile != null)
                 currentFile.close();
-            currentFile = new DiskLogFile(dbLogDir, currentLog);
+            
+            // seek to the first entry needed, if the file has been indexed
+            currentFile = new DiskLogFile(dbLogDir, currentLog, from, index.get(currentLog));
         } while (!currentFile.hasNext() && logList.hasNext());
         
         while (currentFile.hasNext()) {
@@ -176,7 +197,7 @@ public class DiskLogIterator implements Iterator<LogEntry> {
         // in any other case, switch to the next log file and repeat the
         // procedure
         currentLog = logList.next();
-        currentFile = new DiskLogFile(dbLogDir, currentLog);
+        currentFile = new DiskLogFile(dbLogDir, currentLog, null, index.get(currentLog));
         return findNextEntry();
     }
 }
\ No newline at end of file
@@ -22,7 +22,6 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.CRC32;
 
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
@@ -127,12 +126,46 @@ public class DiskLogger extends LifeCycleThread {
 
     private final Integer               pseudoSyncWait;
     
-    private final CRC32                 csumAlgo = new CRC32();
+    private final CRC32C                csumAlgo = new CRC32C();
         
     private final int                   maxQ;
     
+    /**
+     * minimum payload size for log entries to be compressed, 0 if compression
+     * is disabled
+     */
+    private final int                   compressionThreshold;
+    
     private AtomicInteger              _processedLogEntries  = new AtomicInteger();
     
+    /**
+     * number of entries appended to the queue so far, guarded by the logger
+     */
+    private long                        numAppended;
+    
+    /**
+     * number of entries taken from the queue that have been written or have
+     * failed so far, guarded by <code>completion</code>
+     */
+    private long                        numCompleted;
+    
+    private final Object                completion = new Object();
+    
+    /**
+     * the sparse LSN index of the log files
+     */
+    private final LogIndex              logIndex;
+    
+    /**
+     * the index of the current log-file
+     */
+    private LogIndex.FileIndex          currentLogFileIndex;
+    
+    /**
+     * the number of bytes written to the current log-file
+     */
+    private long                        currentLogFileSize;
+    
 
     /**
      * Creates a new instance of DiskLogger
@@ -147,6 +180,25 @@ public class DiskLogger extends LifeCycleThread {
      */
     public DiskLogger(String logfileDir, LSN initLSN, SyncMode syncMode, int pseudoSyncWait, 
             int maxQ) throws IOException {
+        
+        this(logfileDir, initLSN, syncMode, pseudoSyncWait, maxQ, 0);
+    }
+    
+    /**
+     * Creates a new instance of DiskLogger
+     * @param logfile Name and path of file to use for append log.
+     * @param initLSN
+     * @param syncMode
+     * @param pseudoSyncWait
+     * @param maxQ
+     * @param compressionThreshold - minimum payload size of entries to be compressed, 0 disables 
+     *                               compression.
+     * 
+     * @throws java.io.FileNotFoundException If that file cannot be created.
+     * @throws java.io.IOException If that file cannot be created.
+     */
+    public DiskLogger(String logfileDir, LSN initLSN, SyncMode syncMode, int pseudoSyncWait, 
+            int maxQ, int compressionThreshold) throws IOException {
 
         super("DiskLogger");
         
@@ -167,6 +219,8 @@ public class DiskLogger extends LifeCycleThread {
         this.pseudoSyncWait = pseudoSyncWait;
         this.syncMode = syncMode;
         this.maxQ = maxQ;
+        this.compressionThreshold = compressionThreshold;
+        this.logIndex = new LogIndex();
         
         loadLogFile(initLSN);
     }
@@ -237,6 +291,7 @@ public class DiskLogger extends LifeCycleThread {
             assert (maxQ == 0 || entries.size() < maxQ);
             
             entries.add(entry);
+            numAppended++;
             notifyAll();
         } else {
             throw new InterruptedException("Appending the LogEntry to the DiskLogger's " +
@@ -244,6 +299,29 @@ public class DiskLogger extends LifeCycleThread {
         }
     }
 
+    /**
+     * Blocks until all entries appended so far have been written to the log
+     * file, or the logger has been shut down. Must not be called while holding
+     * the lock.
+     * 
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        
+        assert (!hasLock());
+        
+        long appended;
+        synchronized (this) {
+            appended = numAppended;
+        }
+        
+        synchronized (completion) {
+            while (!quit && numCompleted < appended) {
+                completion.wait();
+            }
+        }
+    }
+
     public void lock() throws InterruptedException {
         sync.lockInterruptibly();
     }
@@ -303,6 +381,7 @@ public class DiskLogger extends LifeCycleThread {
         notifyStarted();
         
         while (!quit) {
+            int taken = 0;
             try {
                 
                 // wait for an entry
@@ -324,6 +403,7 @@ public class DiskLogger extends LifeCycleThread {
 
                             tmpE.add(tmp);
                         }
+                        taken = tmpE.size();
                         notifyAll();
                         lock();
                     }
@@ -352,6 +432,11 @@ public class DiskLogger extends LifeCycleThread {
                 }
             } finally {
                 if (hasLock()) unlock();
+                
+                synchronized (completion) {
+                    numCompleted += taken;
+                    completion.notifyAll();
+                }
             }
         }
         
@@ -396,6 +481,9 @@ public class DiskLogger extends LifeCycleThread {
         this.graceful = graceful;
         quit = true;
         notifyAll();
+        synchronized (completion) {
+            completion.notifyAll();
+        }
         
         // stop pseudoSyncWait, if shutdown is ungraceful
         if (!graceful && pseudoSyncWait > 0) {
@@ -423,6 +511,13 @@ public class DiskLogger extends LifeCycleThread {
         }
     }
     
+    /**
+     * @return the sparse index of the log files written and read by this logger.
+     */
+    public LogIndex getLogIndex() {
+        return logIndex;
+    }
+    
     /**
      * <p>Function is used by the Replication.</p>
      * 
@@ -504,7 +599,7 @@ public class DiskLogger extends LifeCycleThread {
             
             ReusableBuffer buffer = null;
             try {
-                buffer = le.serialize(csumAlgo);
+                buffer = le.serialize(csumAlgo, compressionThreshold);
                     
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, 
                         "Writing entry LSN(%d:%d) with %d bytes payload [%s] to log. " +
@@ -513,8 +608,12 @@ public class DiskLogger extends LifeCycleThread {
                         buffer.remaining());
                 
                 // write the LogEntry to the local disk
+                int size = buffer.remaining();
                 channel.write(buffer.getBuffer());
                 
+                currentLogFileIndex.add(le.getLSN(), currentLogFileSize);
+                currentLogFileSize += size;
+                
             } finally {
                 csumAlgo.reset();
                 if (buffer != null) BufferPool.free(buffer);
@@ -596,5 +695,11 @@ public class DiskLogger extends LifeCycleThread {
         fos.setLength(0);
         channel = fos.getChannel();
         fdes = fos.getFD();
+        
+        // discard the index of a previous file with the same name
+        LSN logLSN = new LSN(currentViewId.get(), nextLogSequenceNo.get());
+        logIndex.remove(logLSN);
+        currentLogFileIndex = logIndex.get(logLSN);
+        currentLogFileSize = 0;
     }
 }
@@ -8,7 +8,12 @@
 
 package org.xtreemfs.babudb.log;
 
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
 import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.babudb.lsmdb.LSMDBRequest;
@@ -44,6 +49,34 @@ public class LogEntry {
     
     public static final byte    PAYLOAD_TYPE_TRANSACTION = 6;
     
+    public static final byte    PAYLOAD_TYPE_BULK_LOAD = 7;
+    
+    /**
+     * flag that is set on the payload type of a serialized entry, if its
+     * payload has been compressed
+     */
+    public static final byte    PAYLOAD_FLAG_COMPRESSED = (byte) 0x80;
+    
+    /**
+     * bits of the payload type of a serialized entry that hold the version of
+     * the frame format
+     */
+    public static final byte    FRAME_VERSION_MASK = 0x60;
+    
+    /**
+     * legacy frame format, checksummed by CRC32 over the whole frame with the
+     * checksum field set to zero
+     */
+    public static final byte    FRAME_VERSION_CRC32 = 0x00;
+    
+    /**
+     * frame format checksummed by CRC32C over the whole frame except for the
+     * checksum field
+     */
+    public static final byte    FRAME_VERSION_CRC32C = 0x20;
+    
+    private static final byte[] ZERO_CHECKSUM = new byte[Integer.SIZE / 8];
+    
     /**
      * view ID of the log entry. The view ID is an epoch number which creates a
      * total order on the log entries (viewId.logSequenceNo).
@@ -79,34 +112,56 @@ public class LogEntry {
     }
     
     public ReusableBuffer serialize(Checksum csumAlgo) {
+        return serialize(csumAlgo, 0);
+    }
+    
+    /**
+     * Serializes the entry to a log frame. Payloads of at least
+     * <code>compressionThreshold</code> bytes are deflated and marked with
+     * {@link #PAYLOAD_FLAG_COMPRESSED}, if compression actually shrinks them.
+     * If <code>csumAlgo</code> is a {@link CRC32C}, the frame is written in the
+     * {@link #FRAME_VERSION_CRC32C} format, otherwise in the legacy format.
+     * 
+     * @param csumAlgo
+     * @param compressionThreshold
+     *            - minimum payload size for compression; 0 disables
+     *            compression.
+     * @return the serialized log frame.
+     */
+    public ReusableBuffer serialize(Checksum csumAlgo, int compressionThreshold) {
         assert (viewId > 0);
         assert (logSequenceNo > 0);
         
-        final int bufSize = headerLength + payload.remaining();
+        ReusableBuffer compressed = null;
+        if (compressionThreshold > 0 && payload.remaining() >= compressionThreshold) {
+            compressed = compress(payload);
+        }
+        
+        ReusableBuffer data = (compressed != null) ? compressed : payload;
+        final byte version = (csumAlgo instanceof CRC32C) ? FRAME_VERSION_CRC32C : FRAME_VERSION_CRC32;
+        byte type = (byte) (payloadType | version);
+        if (compressed != null) {
+            type |= PAYLOAD_FLAG_COMPRESSED;
+        }
+        
+        final int bufSize = headerLength + data.remaining();
         ReusableBuffer buf = BufferPool.allocate(bufSize);
         buf.putInt(bufSize);
-        buf.putInt(checksum);
+        buf.putInt(0);
         buf.putInt(viewId);
         buf.putLong(logSequenceNo);
-        buf.put(payloadType);
-        buf.put(payload);
-        payload.flip(); // otherwise payload is not reusable
+        buf.put(type);
+        buf.put(data);
+        data.flip(); // otherwise payload is not reusable
         buf.putInt(bufSize);
         buf.flip();
         
+        if (compressed != null) {
+            BufferPool.free(compressed);
+        }
+        
         if (USE_CHECKSUMS) {
-            // reset the old checksum to 0, before calculating a new one
-            buf.position(Integer.SIZE / 8);
-            buf.putInt(0);
-            buf.position(0);
-            
-            csumAlgo.update(buf.array(), 0, bufSize);
-            int cPos = buf.position();
-            
-            // write the checksum to the buffer
-            buf.position(Integer.SIZE / 8);
-            buf.putInt((int) csumAlgo.getValue());
-            buf.position(cPos);
+            buf.getBuffer().putInt(Integer.SIZE / 8, calculateChecksum(buf, 0, bufSize, version, csumAlgo));
         }
         
         return buf;
@@ -180,6 +235,12 @@ public class LogEntry {
         e.viewId = data.getInt();
         e.logSequenceNo = data.getLong();
         e.payloadType = data.get();
+        final byte version = (byte) (e.payloadType & FRAME_VERSION_MASK);
+        e.payloadType &= ~FRAME_VERSION_MASK;
+        if (version != FRAME_VERSION_CRC32 && version != FRAME_VERSION_CRC32C) {
+            data.position(startPos);
+            throw new LogEntryException("Unsupported frame version: " + (version >> 5));
+        }
         final int payloadSize = bufSize - headerLength;
         int payloadPosition = data.position();
         ReusableBuffer payload = data.createViewBuffer();
@@ -187,17 +248,7 @@ public class LogEntry {
         e.payload = payload;
         
         if (USE_CHECKSUMS) {
-            // reset the old checksum to 0, before calculating a new one
-            data.position(startPos + Integer.SIZE / 8);
-            data.putInt(0);
-            data.position(startPos);
-            
-            csumAlgo.update(data.array(), startPos, bufSize);
-            int csum = (int) csumAlgo.getValue();
-            
-            // write back the checksum to the buffer
-            data.position(startPos + Integer.SIZE / 8);
-            data.putInt((int) e.checksum);
+            int csum = calculateChecksum(data, startPos, bufSize, version, csumAlgo);
             
             if (csum != e.checksum) {
                 throw new LogEntryException(
@@ -208,9 +259,147 @@ public class LogEntry {
         
         data.position(startPos);
         
+        if ((e.payloadType & PAYLOAD_FLAG_COMPRESSED) != 0) {
+            e.payloadType &= ~PAYLOAD_FLAG_COMPRESSED;
+            e.payload = decompress(payload);
+        }
+        
         return e;
     }
     
+    /**
+     * Calculates the checksum of a serialized frame without modifying the
+     * buffer it resides in.
+     * 
+     * @param data
+     * @param startPos - position of the frame within <code>data</code>.
+     * @param frameSize
+     * @param version - the frame format version.
+     * @param csumAlgo - algorithm to use, if it matches the frame version.
+     * @return the checksum.
+     */
+    private static int calculateChecksum(ReusableBuffer data, int startPos, int frameSize, byte version,
+            Checksum csumAlgo) {
+        
+        final int csumPos = startPos + Integer.SIZE / 8;
+        final int csumEnd = csumPos + Integer.SIZE / 8;
+        
+        ByteBuffer frame = data.getBuffer().duplicate();
+        
+        if (version == FRAME_VERSION_CRC32C) {
+            
+            // checksum everything except for the checksum field directly
+            // from the buffer
+            CRC32C crc = (csumAlgo instanceof CRC32C) ? (CRC32C) csumAlgo : new CRC32C();
+            frame.limit(csumPos);
+            frame.position(startPos);
+            crc.update(frame);
+            frame.limit(startPos + frameSize);
+            frame.position(csumEnd);
+            crc.update(frame);
+            return (int) crc.getValue();
+            
+        } else {
+            
+            // legacy frames have been checksummed with a checksum field of 0
+            Checksum crc = (csumAlgo instanceof CRC32C) ? new CRC32() : csumAlgo;
+            byte[] array;
+            int offset;
+            if (frame.hasArray()) {
+                array = frame.array();
+                offset = frame.arrayOffset() + startPos;
+            } else {
+                array = new byte[frameSize];
+                frame.position(startPos);
+                frame.get(array);
+                offset = 0;
+            }
+            crc.update(array, offset, Integer.SIZE / 8);
+            crc.update(ZERO_CHECKSUM, 0, ZERO_CHECKSUM.length);
+            crc.update(array, offset + 2 * Integer.SIZE / 8, frameSize - 2 * Integer.SIZE / 8);
+            return (int) crc.getValue();
+        }
+    }
+    
+    /**
+     * Deflates the given payload. The result starts with the length of the
+     * uncompressed payload.
+     * 
+     * @param payload
+     * @return the compressed payload, or <code>null</code> if compression does
+     *         not reduce its size.
+     */
+    private static ReusableBuffer compress(ReusableBuffer payload) {
+        
+        if (payload.remaining() <= Integer.SIZE / 8) {
+            return null;
+        }
+        
+        final int pos = payload.position();
+        byte[] raw = new byte[payload.remaining()];
+        payload.get(raw);
+        payload.position(pos);
+        
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            
+            // compression is only worthwhile if the result is smaller
+            byte[] out = new byte[raw.length - Integer.SIZE / 8];
+            int length = deflater.deflate(out);
+            if (!deflater.finished()) {
+                return null;
+            }
+            
+            ReusableBuffer result = BufferPool.allocate(Integer.SIZE / 8 + length);
+            result.putInt(raw.length);
+            result.put(out, 0, length);
+            result.flip();
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Inflates a payload that has been compressed by
+     * {@link #compress(ReusableBuffer)}. The given buffer will be freed.
+     * 
+     * @param compressed
+     * @return the uncompressed payload.
+     * @throws LogEntryException
+     *             if the payload could not be inflated.
+     */
+    private static ReusableBuffer decompress(ReusableBuffer compressed) throws LogEntryException {
+        
+        Inflater inflater = new Inflater();
+        try {
+            final int length = compressed.getInt();
+            byte[] in = new byte[compressed.remaining()];
+            compressed.get(in);
+            
+            inflater.setInput(in);
+            byte[] out = new byte[length];
+            if (inflater.inflate(out) != length || !inflater.finished()) {
+                throw new LogEntryException("Invalid compressed payload. The " +
+                        "inflated payload does not match the announced length of " + length + 
+                        " bytes.");
+            }
+            
+            ReusableBuffer result = BufferPool.allocate(length);
+            result.put(out);
+            result.flip();
+            return result;
+            
+        } catch (DataFormatException ex) {
+            throw new LogEntryException("Invalid compressed payload: " + ex.getMessage());
+        } finally {
+            inflater.end();
+            BufferPool.free(compressed);
+        }
+    }
+    
     public void free() {
         BufferPool.free(payload);
         payload = null;
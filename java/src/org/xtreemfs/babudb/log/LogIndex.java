@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xtreemfs.babudb.lsmdb.LSN;
+
+/**
+ * A sparse in-memory index of the log files in a log directory, which maps the
+ * LSNs of some log entries to their byte offsets in the log file. Points are
+ * recorded about every {@link #INTERVAL} bytes, by the {@link DiskLogger} when
+ * it writes entries and by {@link DiskLogFile} when it reads entries from a
+ * file that has not been indexed yet, e.g. after a restart.
+ *
+ * The index is only a hint: readers seeking to an indexed offset verify that
+ * the entry found there has the expected LSN, and read the file from the
+ * beginning otherwise. Each {@link DiskLogger} maintains the index of the log
+ * files it manages; its life time is bound to the logger.
+ */
+public class LogIndex {
+    
+    /**
+     * minimum distance in bytes between two indexed log entries
+     */
+    public static final int               INTERVAL    = 64 * 1024;
+    
+    private final Map<LSN, FileIndex>     files       = new HashMap<LSN, FileIndex>();
+    
+    /**
+     * Returns the index of the log file starting with the given LSN.
+     * 
+     * @param logFile
+     * @return the index of the log file.
+     */
+    public synchronized FileIndex get(LSN logFile) {
+        
+        FileIndex index = files.get(logFile);
+        if (index == null) {
+            index = new FileIndex();
+            files.put(logFile, index);
+        }
+        return index;
+    }
+    
+    /**
+     * Discards the index of the log file starting with the given LSN, e.g.
+     * because the file has been deleted or truncated.
+     * 
+     * @param logFile
+     */
+    public synchronized void remove(LSN logFile) {
+        files.remove(logFile);
+    }
+    
+    /**
+     * The sparse index of a single log file.
+     */
+    public static final class FileIndex {
+        
+        private final List<LSN> lsns    = new ArrayList<LSN>();
+        
+        private long[]          offsets = new long[16];
+        
+        /**
+         * Records the offset of a log entry, if it follows the last indexed
+         * entry and is at least {@link LogIndex#INTERVAL} bytes away from it.
+         * The first entry of a file is not indexed, as it is always found at
+         * offset 0.
+         * 
+         * @param lsn
+         * @param offset
+         */
+        public synchronized void add(LSN lsn, long offset) {
+            
+            int size = lsns.size();
+            long last = size == 0 ? 0 : offsets[size - 1];
+            if (offset - last < INTERVAL || (size > 0 && lsn.compareTo(lsns.get(size - 1)) <= 0))
+                return;
+            
+            if (size == offsets.length)
+                offsets = Arrays.copyOf(offsets, size * 2);
+            offsets[size] = offset;
+            lsns.add(lsn);
+        }
+        
+        /**
+         * Returns the position of the last indexed entry with an LSN less or
+         * equal to the given one.
+         * 
+         * @param lsn
+         * @return the position, or -1 if there is no such entry.
+         */
+        public synchronized int floor(LSN lsn) {
+            
+            int low = 0;
+            int high = lsns.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = lsns.get(mid).compareTo(lsn);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return low - 1;
+        }
+        
+        /**
+         * @param pos
+         * @return the LSN of the entry indexed at the given position.
+         */
+        public synchronized LSN getLSN(int pos) {
+            return lsns.get(pos);
+        }
+        
+        /**
+         * @param pos
+         * @return the offset of the entry indexed at the given position.
+         */
+        public synchronized long getOffset(int pos) {
+            return offsets[pos];
+        }
+        
+        /**
+         * @return the number of indexed entries.
+         */
+        public synchronized int size() {
+            return lsns.size();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.log;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.xtreemfs.foundation.logging.Logging;
+
+/**
+ * An iterator that reads and decodes log entries from a
+ * {@link DiskLogIterator} in a background thread, ahead of their consumption.
+ * Reading and checksumming the log thus overlaps with the processing of the
+ * entries already read.
+ */
+public class PrefetchingLogIterator implements Iterator<LogEntry> {
+    
+    /**
+     * default maximum number of entries read ahead
+     */
+    public static final int       DEFAULT_CAPACITY = 1024;
+    
+    /**
+     * marks the end of the log in the queue
+     */
+    private static final Object   END              = new Object();
+    
+    private final DiskLogIterator source;
+    
+    private final BlockingQueue<Object> queue;
+    
+    private final Thread          reader;
+    
+    /**
+     * the next element taken from the queue, either a {@link LogEntry}, a
+     * {@link RuntimeException} that occurred while reading, or {@link #END}
+     */
+    private Object                next;
+    
+    private volatile boolean      destroyed;
+    
+    /**
+     * @param source
+     *            - the iterator to read entries from. It is destroyed when the
+     *            end of the log is reached or this iterator is destroyed.
+     * @param capacity
+     *            - the maximum number of entries to read ahead.
+     */
+    public PrefetchingLogIterator(DiskLogIterator source, int capacity) {
+        
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<Object>(capacity);
+        this.reader = new Thread("LogPrefetcher") {
+            
+            @Override
+            public void run() {
+                prefetch();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    public PrefetchingLogIterator(DiskLogIterator source) {
+        this(source, DEFAULT_CAPACITY);
+    }
+    
+    @Override
+    public boolean hasNext() {
+        return peek() != END;
+    }
+    
+    @Override
+    public LogEntry next() {
+        
+        Object tmp = peek();
+        if (tmp == END)
+            throw new NoSuchElementException();
+        if (tmp instanceof RuntimeException)
+            throw (RuntimeException) tmp;
+        
+        next = null;
+        return (LogEntry) tmp;
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Stops reading ahead and frees all entries that have not been consumed.
+     * 
+     * @throws InterruptedException
+     */
+    public void destroy() throws InterruptedException {
+        
+        destroyed = true;
+        reader.interrupt();
+        reader.join();
+        
+        if (next instanceof LogEntry)
+            ((LogEntry) next).free();
+        next = END;
+        
+        Object tmp;
+        while ((tmp = queue.poll()) != null) {
+            if (tmp instanceof LogEntry)
+                ((LogEntry) tmp).free();
+        }
+    }
+    
+    private Object peek() {
+        
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while waiting for the next log entry", exc);
+            }
+        }
+        return next;
+    }
+    
+    private void prefetch() {
+        
+        try {
+            while (!destroyed && source.hasNext()) {
+                LogEntry le = source.next();
+                try {
+                    queue.put(le);
+                } catch (InterruptedException exc) {
+                    le.free();
+                    return;
+                }
+            }
+            queue.put(END);
+        
+        } catch (RuntimeException exc) {
+            try {
+                queue.put(exc);
+            } catch (InterruptedException e) {
+                // destroyed
+            }
+        } catch (InterruptedException exc) {
+            // destroyed
+        } finally {
+            try {
+                source.destroy();
+            } catch (IOException exc) {
+                Logging.logError(Logging.LEVEL_WARN, this, exc);
+            }
+        }
+    }
+}
@@ -47,6 +47,50 @@ public class BabuDBInsertGroup implements DatabaseInsertGroup {
         rec.addInsert(indexId, key, null);
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addMerge(int, byte[], byte[])
+     */
+    @Override
+    public void addMerge(int indexId, byte[] key, byte[] operand) {
+        rec.addMerge(indexId, key, operand);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addDeleteRange(int, byte[], 
+     *          byte[])
+     */
+    @Override
+    public void addDeleteRange(int indexId, byte[] from, byte[] to) {
+        rec.addDeleteRange(indexId, from, to);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addInsertIfAbsent(int, byte[], 
+     *          byte[])
+     */
+    @Override
+    public void addInsertIfAbsent(int indexId, byte[] key, byte[] value) {
+        rec.addConditional(indexId, key, null, value);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addReplace(int, byte[], byte[], 
+     *          byte[])
+     */
+    @Override
+    public void addReplace(int indexId, byte[] key, byte[] expected, byte[] value) {
+        rec.addConditional(indexId, key, expected, value);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addDeleteIfEquals(int, byte[], 
+     *          byte[])
+     */
+    @Override
+    public void addDeleteIfEquals(int indexId, byte[] key, byte[] expected) {
+        rec.addConditional(indexId, key, expected, null);
+    }
+    
     public String toString() {
         return rec.toString();
     }
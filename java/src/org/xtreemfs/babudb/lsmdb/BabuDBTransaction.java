@@ -24,6 +24,7 @@ import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
 import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -41,6 +42,8 @@ public class BabuDBTransaction extends TransactionInternal {
     
     private BabuDBException error = null;
     
+    private final List<ReadRecord> readSet = new LinkedList<ReadRecord>();
+    
     @Override
     public TransactionInternal createSnapshot(String databaseName, SnapshotConfig config) {
         return addOperation(new BabuDBOperation(Operation.TYPE_CREATE_SNAP, databaseName, 
@@ -68,8 +71,18 @@ public class BabuDBTransaction extends TransactionInternal {
     public TransactionInternal createDatabase(String databaseName, int numIndices, 
             ByteRangeComparator[] comparators) {
         
+        return createDatabase(databaseName, numIndices, comparators, null);
+    }
+    
+    @Override
+    public TransactionInternal createDatabase(String databaseName, int numIndices, 
+            ByteRangeComparator[] comparators, IndexConfig[] indexConfigs) {
+        
+        // index settings are only recorded if present, which keeps log
+        // entries of databases without such settings unchanged
         return addOperation(new BabuDBOperation(Operation.TYPE_CREATE_DB, databaseName, 
-                new Object[] {numIndices, comparators }));
+                indexConfigs == null ? new Object[] {numIndices, comparators } 
+                                     : new Object[] {numIndices, comparators, indexConfigs }));
     }
     
     @Override
@@ -93,6 +106,51 @@ public class BabuDBTransaction extends TransactionInternal {
         return insertRecordGroup(databaseName, irg);
     }
     
+    @Override
+    public TransactionInternal mergeRecord(String databaseName, int indexId, byte[] key, 
+            byte[] operand) {
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addMerge(indexId, key, operand);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
+    @Override
+    public TransactionInternal deleteRange(String databaseName, int indexId, byte[] from, 
+            byte[] to) {
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addDeleteRange(indexId, from, to);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
+    @Override
+    public TransactionInternal insertRecordIfAbsent(String databaseName, int indexId, byte[] key, 
+            byte[] value) {
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addConditional(indexId, key, null, value);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
+    @Override
+    public TransactionInternal replaceRecord(String databaseName, int indexId, byte[] key, 
+            byte[] expected, byte[] value) {
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addConditional(indexId, key, expected, value);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
+    @Override
+    public TransactionInternal deleteRecordIfEquals(String databaseName, int indexId, byte[] key, 
+            byte[] expected) {
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addConditional(indexId, key, expected, null);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
     @Override
     public TransactionInternal insertRecordGroup(String databaseName, InsertRecordGroup irg) {
         return insertRecordGroup(databaseName, irg, null);
@@ -106,6 +164,24 @@ public class BabuDBTransaction extends TransactionInternal {
                 new Object[] { irg, db }));
     }
     
+    @Override
+    public TransactionInternal expectRecord(String databaseName, int indexId, byte[] key, 
+            byte[] value) {
+        
+        readSet.add(new ReadRecord(databaseName, indexId, key, value));
+        return this;
+    }
+    
+    @Override
+    public List<ReadRecord> getReadSet() {
+        return readSet;
+    }
+    
+    @Override
+    public void clearReadSet() {
+        readSet.clear();
+    }
+    
     @Override
     public List<Operation> getOperations() {
         return new LinkedList<Operation>(this);
@@ -126,6 +202,12 @@ public class BabuDBTransaction extends TransactionInternal {
         for (Operation op : this)
             sb.append(op + "\n");
         
+        if (!readSet.isEmpty()) {
+            sb.append("read set:\n");
+            for (ReadRecord rec : readSet)
+                sb.append(rec + "\n");
+        }
+        
         return sb.toString();
     }
     
@@ -149,6 +231,14 @@ public class BabuDBTransaction extends TransactionInternal {
             size += op.getSize();
         }
         
+        // #reads + reads
+        if (!readSet.isEmpty()) {
+            size += Integer.SIZE / 8;
+            for (ReadRecord rec : readSet) {
+                size += rec.getSize();
+            }
+        }
+        
         return size;
     }
     
@@ -174,6 +264,14 @@ public class BabuDBTransaction extends TransactionInternal {
             op.serialize(dbNames, buffer);
         }
         
+        // serialize the read set
+        if (!readSet.isEmpty()) {
+            buffer.putInt(readSet.size());
+            for (ReadRecord rec : readSet) {
+                rec.serialize(buffer);
+            }
+        }
+        
         return buffer;
     }
     
@@ -195,6 +293,9 @@ public class BabuDBTransaction extends TransactionInternal {
         while (size() > position) {
             removeLast();
         }
+        
+        // the read set has been validated before any operation was executed
+        readSet.clear();
     }
     
     /* (non-Javadoc)
@@ -213,6 +314,8 @@ public class BabuDBTransaction extends TransactionInternal {
         
         private String            dbName;
         
+        private boolean           rewritten;
+        
         /**
          * @param type
          * @param dbName
@@ -249,6 +352,16 @@ public class BabuDBTransaction extends TransactionInternal {
             this.dbName = dbName;
         }
         
+        @Override
+        public void markRewritten() {
+            rewritten = true;
+        }
+        
+        @Override
+        public boolean isRewritten() {
+            return rewritten;
+        }
+        
         @Override
         public int getSize() throws IOException {
             
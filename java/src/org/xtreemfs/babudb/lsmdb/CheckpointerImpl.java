@@ -12,15 +12,19 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -263,17 +267,40 @@ public class CheckpointerImpl extends CheckpointerInternal {
             int[][] snapIds = new int[databases.size()][];
             int i = 0;
             
+            // block transactions on all databases, so that each change applied
+            // in-memory has been appended to the log, and wait until the log
+            // entries have been written; otherwise, an entry could be written
+            // to the new log file after its change has been captured by the
+            // snapshots, and would be replayed on top of the checkpoint
+            SortedSet<String> names = new TreeSet<String>();
+            for (DatabaseInternal db : databases) {
+                names.add(db.getName());
+            }
+            List<Lock> locks = new ArrayList<Lock>(names.size());
             try {
-                // critical block...
-                logger.lock();
-                for (DatabaseInternal db : databases) {
-                    snapIds[i++] = db.proceedCreateSnapshot();
+                for (String name : names) {
+                    Lock lock = dbs.getTransactionManager().getDatabaseLock(name).writeLock();
+                    lock.lockInterruptibly();
+                    locks.add(lock);
+                }
+                logger.flush();
+                
+                try {
+                    // critical block...
+                    logger.lock();
+                    for (DatabaseInternal db : databases) {
+                        snapIds[i++] = db.proceedCreateSnapshot();
+                    }
+                    lastWrittenLSN = logger.switchLogFile(incrementViewId);
+                    incrementViewId = false;
+                } finally {
+                    if (logger.hasLock())
+                        logger.unlock();
                 }
-                lastWrittenLSN = logger.switchLogFile(incrementViewId);
-                incrementViewId = false;
             } finally {
-                if (logger.hasLock())
-                    logger.unlock();
+                for (Lock lock : locks) {
+                    lock.unlock();
+                }
             }
             
             i = 0;
@@ -306,6 +333,7 @@ public class CheckpointerImpl extends CheckpointerInternal {
                         if (!f.delete())
                             Logging.logMessage(Logging.LEVEL_WARN, this, "could not delete log file: %s",
                                     f.getAbsolutePath());
+                        logger.getLogIndex().remove(logLSN);
                     }
                 }
             }
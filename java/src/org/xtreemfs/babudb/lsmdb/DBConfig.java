@@ -23,6 +23,7 @@ import org.xtreemfs.babudb.api.dev.DatabaseManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.foundation.logging.Logging;
 
 import static org.xtreemfs.babudb.BabuDBFactory.*;
@@ -81,8 +82,9 @@ public class DBConfig {
                     final int dbId = ois.readInt();
                     final int numIndex = ois.readInt();
                     ByteRangeComparator[] comps = new ByteRangeComparator[numIndex];
+                    IndexConfig[] cfgs = new IndexConfig[numIndex];
                     for (int idx = 0; idx < numIndex; idx++) {
-                        final String className = (String) ois.readObject();
+                        final String className = readIndexEntry(ois.readObject(), cfgs, idx);
                         ByteRangeComparator comp = dbman.getComparatorInstances().get(className);
                         if (comp == null) {
                             Class<?> clazz = Class.forName(className);
@@ -106,7 +108,7 @@ public class DBConfig {
                                 dbs.getConfig().getMaxNumRecordsPerBlock(), 
                                 dbs.getConfig().getMaxBlockFileSize(), 
                                 dbs.getConfig().getDisableMMap(),
-                                dbs.getConfig().getMMapLimit()));
+                                dbs.getConfig().getMMapLimit(), cfgs));
                     } catch (BabuDBException e) {
                         db = new DatabaseImpl(dbs, new LSMDatabase(dbName, dbId, 
                                 dbs.getConfig().getBaseDir() + dbName + File.separatorChar, 
@@ -114,7 +116,7 @@ public class DBConfig {
                                 dbs.getConfig().getMaxNumRecordsPerBlock(), 
                                 dbs.getConfig().getMaxBlockFileSize(), 
                                 dbs.getConfig().getDisableMMap(),
-                                dbs.getConfig().getMMapLimit()));
+                                dbs.getConfig().getMMapLimit(), cfgs));
                         
                         dbman.putDatabase(db);
                     }
@@ -179,8 +181,9 @@ public class DBConfig {
                     final int dbId = ois.readInt();
                     final int numIndex = ois.readInt();
                     ByteRangeComparator[] comps = new ByteRangeComparator[numIndex];
+                    IndexConfig[] cfgs = new IndexConfig[numIndex];
                     for (int idx = 0; idx < numIndex; idx++) {
-                        final String className = (String) ois.readObject();
+                        final String className = readIndexEntry(ois.readObject(), cfgs, idx);
                         ByteRangeComparator comp = dbman.getComparatorInstances().get(className);
                         if (comp == null) {
                             Class<?> clazz = Class.forName(className);
@@ -198,7 +201,7 @@ public class DBConfig {
                             + dbName + File.separatorChar, numIndex, true, comps, dbs.getConfig()
                                 .getCompression(), this.dbs.getConfig().getMaxNumRecordsPerBlock(), 
                                 dbs.getConfig().getMaxBlockFileSize(), dbs.getConfig().getDisableMMap(),
-                                dbs.getConfig().getMMapLimit()));
+                                dbs.getConfig().getMMapLimit(), cfgs));
                         dbman.putDatabase(db);
                         Logging.logMessage(Logging.LEVEL_DEBUG, this, "loaded DB " + dbName
                             + "(" + dbId + ") successfully.");
@@ -253,8 +256,14 @@ public class DBConfig {
                     oos.writeInt(dbId);
                     oos.writeInt(db.getIndexCount());
                     String[] compClasses = db.getComparatorClassNames();
+                    IndexConfig[] cfgs = db.getIndexConfigs();
                     for (int i = 0; i < db.getIndexCount(); i++) {
-                        oos.writeObject(compClasses[i]);
+                        // indices with specific settings are stored as pairs of
+                        // comparator class name and settings
+                        if (cfgs[i] == null)
+                            oos.writeObject(compClasses[i]);
+                        else
+                            oos.writeObject(new Object[] { compClasses[i], cfgs[i] });
                     }
                 }
                 
@@ -282,6 +291,27 @@ public class DBConfig {
         }
     }
     
+    /**
+     * Parses an index entry of the config file, which is either a comparator
+     * class name or a pair of comparator class name and index settings.
+     * 
+     * @param entry
+     *            the entry
+     * @param cfgs
+     *            the array to which the index settings are added
+     * @param idx
+     *            the index
+     * @return the comparator class name
+     */
+    private static String readIndexEntry(Object entry, IndexConfig[] cfgs, int idx) {
+        if (entry instanceof Object[]) {
+            Object[] pair = (Object[]) entry;
+            cfgs[idx] = (IndexConfig) pair[1];
+            return (String) pair[0];
+        }
+        return (String) entry;
+    }
+    
     public void save() throws BabuDBException {
         save(dbs.getConfig().getBaseDir() + dbs.getConfig().getDbCfgFile());
     }
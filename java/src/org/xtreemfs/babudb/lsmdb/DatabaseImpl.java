@@ -10,17 +10,28 @@ package org.xtreemfs.babudb.lsmdb;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.EntryFilter;
+import org.xtreemfs.babudb.api.database.PartitionConsumer;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPublisher;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
@@ -154,6 +165,50 @@ public class DatabaseImpl implements DatabaseInternal {
         return result;
     }
     
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.database.Database#bulkLoad(int,
+     * java.util.Iterator, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Object> bulkLoad(int indexId, 
+            Iterator<Entry<byte[], byte[]>> entries, Object context) {
+        
+        BabuDBRequestResultImpl<Object> result = 
+            new BabuDBRequestResultImpl<Object>(context, dbs.getResponseManager());
+        
+        try {
+            if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0)) {
+                throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + indexId 
+                        + " does not exist");
+            }
+            
+            // fail early rather than writing the index in vain; the check is
+            // repeated when the index is linked
+            ResultSet<byte[], byte[]> it = lsmDB.getIndex(indexId).prefixLookup(null);
+            boolean empty = !it.hasNext();
+            it.free();
+            if (!empty) {
+                throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "index " + indexId 
+                        + " is not empty");
+            }
+            
+            // write the on-disk index first, it is linked to the index when the
+            // transaction is executed
+            String fileName = lsmDB.writeBulkIndex(indexId, entries);
+            
+            TransactionInternal txn = dbs.getDatabaseManager().createTransaction();
+            txn.addOperation(new BabuDBTransaction.BabuDBOperation(Operation.TYPE_BULK_LOAD, 
+                    getName(), new Object[] { indexId, fileName }));
+            dbs.getTransactionManager().makePersistent(txn, result);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
 /*
  * DB lookup operations
  */
@@ -164,13 +219,22 @@ public class DatabaseImpl implements DatabaseInternal {
      * java.lang.Object)
      */
     @Override
-    public DatabaseRequestResult<byte[]> lookup(int indexId, byte[] key, 
+    public DatabaseRequestResult<byte[]> lookup(final int indexId, final byte[] key, 
             Object context) {
         
-        BabuDBRequestResultImpl<byte[]> result = 
+        final BabuDBRequestResultImpl<byte[]> result = 
             new BabuDBRequestResultImpl<byte[]>(context, dbs.getResponseManager());
         LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
-        if (w != null) {
+        Executor readExecutor = dbs.getReadExecutor();
+        if (w != null && readExecutor != null) {
+            executeLookup(readExecutor, new Runnable() {
+                
+                @Override
+                public void run() {
+                    directLookup(indexId, key, result);
+                }
+            }, result);
+        } else if (w != null) {
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, "lookup request" 
                         + " is sent to worker #" 
@@ -208,6 +272,63 @@ public class DatabaseImpl implements DatabaseInternal {
             listener.finished(lsmDB.getIndex(indexId).lookup(key));
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#multiLookup(int, byte[][], java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(final int indexId, 
+            final byte[][] keys, Object context) {
+        
+        final BabuDBRequestResultImpl<byte[][]> result = 
+            new BabuDBRequestResultImpl<byte[][]>(context, dbs.getResponseManager());
+        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        Executor readExecutor = dbs.getReadExecutor();
+        if (w != null && readExecutor != null) {
+            executeLookup(readExecutor, new Runnable() {
+                
+                @Override
+                public void run() {
+                    directMultiLookup(indexId, keys, result);
+                }
+            }, result);
+        } else if (w != null) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, this, "multi-lookup request" 
+                        + " is sent to worker #" 
+                        + lsmDB.getDatabaseId() % dbs.getWorkerCount());
+            }
+            
+            try {
+                w.addRequest(new LSMDBRequest<byte[][]>(lsmDB, indexId, result, 
+                        keys));
+            } catch (InterruptedException ex) {
+                result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                        "operation was interrupted", ex));
+            }
+        } else
+            directMultiLookup(indexId, keys, result);
+        
+        return result;
+    }
+    
+    /**
+     * Looks up multiple keys in the database, without using a worker thread.
+     * 
+     * @param indexId
+     * @param keys
+     * @param listener
+     *            the result listener.
+     */
+    private void directMultiLookup(int indexId, byte[][] keys, 
+            BabuDBRequestResultImpl<byte[][]> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0)) {
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        } else
+            listener.finished(lsmDB.getIndex(indexId).lookup(keys));
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, byte[], java.lang.Object)
      */
@@ -236,16 +357,30 @@ public class DatabaseImpl implements DatabaseInternal {
      * @return the request result object.
      */
     private DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
-            int indexId, byte[] key, Object context, boolean ascending) {
+            final int indexId, final byte[] key, Object context, final boolean ascending) {
         
         final BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
             new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, 
                     dbs.getResponseManager());
         
+        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        Executor readExecutor = dbs.getReadExecutor();
+        
+        // if lookups bypass the worker threads, execute the prefix lookup
+        // with the read executor
+        if (w != null && readExecutor != null) {
+            executeLookup(readExecutor, new Runnable() {
+                
+                @Override
+                public void run() {
+                    directPrefixLookup(indexId, key, ascending, result);
+                }
+            }, result);
+        }
+        
         // if there are worker threads, delegate the prefix lookup to the
         // responsible worker thread
-        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
-        if (w != null) {
+        else if (w != null) {
             if (Logging.isDebug() && w != null) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, "lookup request" 
                         + " is sent to worker #"
@@ -262,19 +397,32 @@ public class DatabaseImpl implements DatabaseInternal {
         }
 
         // otherwise, perform a direct prefix lookup
-        else {
-            
-            if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
-                result.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
-                        "index does not exist"));
-            else
-                result.finished(lsmDB.getIndex(indexId).prefixLookup(key, 
-                        ascending));
-        }
+        else
+            directPrefixLookup(indexId, key, ascending, result);
         
         return result;
     }
     
+    /**
+     * Performs a prefix lookup, without using a worker thread.
+     * 
+     * @param indexId
+     * @param key
+     * @param ascending
+     * @param listener
+     *            the result listener.
+     */
+    private void directPrefixLookup(int indexId, byte[] key, boolean ascending, 
+            BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).prefixLookup(key, 
+                    ascending));
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#rangeLookup(int, byte[], byte[], 
      *          java.lang.Object)
@@ -296,6 +444,18 @@ public class DatabaseImpl implements DatabaseInternal {
         return rangeLookup(indexId, from, to, context, false);
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.Database#filteredRangeLookup(int, byte[], byte[], 
+     *          org.xtreemfs.babudb.api.database.EntryFilter, 
+     *          org.xtreemfs.babudb.api.database.ValueProjection, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> filteredRangeLookup(
+            int indexId, byte[] from, byte[] to, EntryFilter filter, 
+            ValueProjection projection, Object context) {
+        return rangeLookup(indexId, from, to, context, true, filter, projection);
+    }
+    
     /**
      * Performs a range lookup.
      * 
@@ -309,15 +469,52 @@ public class DatabaseImpl implements DatabaseInternal {
     private DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(
             int indexId, byte[] from, byte[] to, Object context, 
             boolean ascending) {
+        return rangeLookup(indexId, from, to, context, ascending, null, null);
+    }
+    
+    /**
+     * Performs a range lookup that only returns entries accepted by the given
+     * filter.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param context
+     * @param ascending
+     * @param filter
+     *            the filter, or <code>null</code>
+     * @param projection
+     *            the projection of values, or <code>null</code>
+     * @return the request result object.
+     */
+    private DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(
+            final int indexId, final byte[] from, final byte[] to, Object context, 
+            final boolean ascending, final EntryFilter filter, 
+            final ValueProjection projection) {
         
         final BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
             new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, 
                     dbs.getResponseManager());
         
+        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        Executor readExecutor = dbs.getReadExecutor();
+        
+        // if lookups bypass the worker threads, execute the range lookup with
+        // the read executor
+        if (w != null && readExecutor != null) {
+            executeLookup(readExecutor, new Runnable() {
+                
+                @Override
+                public void run() {
+                    directRangeLookup(indexId, from, to, ascending, filter, 
+                            projection, result);
+                }
+            }, result);
+        }
+        
         // if there are worker threads, delegate the range lookup to the
         // responsible worker thread
-        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
-        if (w != null) {
+        else if (w != null) {
             if (Logging.isDebug() && w != null) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, "lookup request" 
                         + " is sent to worker #"
@@ -326,7 +523,8 @@ public class DatabaseImpl implements DatabaseInternal {
             
             try {
                 w.addRequest(new LSMDBRequest<ResultSet<byte[], byte[]>>(
-                        lsmDB, indexId, result, from, to, ascending));
+                        lsmDB, indexId, result, from, to, ascending, filter, 
+                        projection));
             } catch (InterruptedException ex) {
                 result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
                         "operation was interrupted", ex));
@@ -334,15 +532,99 @@ public class DatabaseImpl implements DatabaseInternal {
         }
 
         // otherwise, perform a direct range lookup
-        else {
-            
-            if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
-                result.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
-                        "index does not exist"));
-            else
-                result.finished(lsmDB.getIndex(indexId).rangeLookup(from, to, 
-                        ascending));
-        }
+        else
+            directRangeLookup(indexId, from, to, ascending, filter, projection, 
+                    result);
+        
+        return result;
+    }
+    
+    /**
+     * Performs a range lookup, without using a worker thread.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param ascending
+     * @param filter
+     * @param projection
+     * @param listener
+     *            the result listener.
+     */
+    private void directRangeLookup(int indexId, byte[] from, byte[] to, boolean ascending, 
+            EntryFilter filter, ValueProjection projection, 
+            BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).rangeLookup(from, to, 
+                    ascending, filter, projection));
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.database.Database#prefixScan(int, byte[], boolean)
+     */
+    @Override
+    public ScanPublisher prefixScan(int indexId, byte[] prefix, boolean ascending) {
+        return new RangeScanPublisher(this, indexId, prefix, ascending);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.database.Database#rangeScan(int, byte[], byte[], boolean)
+     */
+    @Override
+    public ScanPublisher rangeScan(int indexId, byte[] from, byte[] to, boolean ascending) {
+        return new RangeScanPublisher(this, indexId, from, to, ascending);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.database.Database#parallelRangeLookup(int, byte[], byte[], int,
+     * org.xtreemfs.babudb.api.database.PartitionConsumer, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Object> parallelRangeLookup(int indexId, byte[] from, byte[] to,
+            int parallelism, PartitionConsumer consumer, Object context) {
+        
+        BabuDBRequestResultImpl<Object> result =
+            new BabuDBRequestResultImpl<Object>(context, dbs.getResponseManager());
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            result.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX,
+                    "index does not exist"));
+        else
+            new ParallelRangeScan(lsmDB.getIndex(indexId), from, to, parallelism).scan(consumer,
+                    result);
+        
+        return result;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.database.Database#parallelRangeLookup(int, byte[], byte[], int,
+     * java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> parallelRangeLookup(int indexId,
+            byte[] from, byte[] to, int parallelism, Object context) {
+        
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result =
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, dbs.getResponseManager());
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            result.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX,
+                    "index does not exist"));
+        else
+            result.finished(new ParallelRangeScan(lsmDB.getIndex(indexId), from, to, parallelism)
+                    .merge(parallelism));
         
         return result;
     }
@@ -356,13 +638,22 @@ public class DatabaseImpl implements DatabaseInternal {
      */
     @Override
     public DatabaseRequestResult<Object> userDefinedLookup(
-            UserDefinedLookup udl, Object context) {
+            final UserDefinedLookup udl, Object context) {
         
         final BabuDBRequestResultImpl<Object> result = 
             new BabuDBRequestResultImpl<Object>(context, dbs.getResponseManager());
         
         LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
-        if (w != null) {
+        Executor readExecutor = dbs.getReadExecutor();
+        if (w != null && readExecutor != null) {
+            executeLookup(readExecutor, new Runnable() {
+                
+                @Override
+                public void run() {
+                    directUserDefinedLookup(udl, result);
+                }
+            }, result);
+        } else if (w != null) {
             if (Logging.isNotice()) {
                 Logging.logMessage(Logging.LEVEL_NOTICE, this, "udl request is" 
                         + " sent to worker #"
@@ -381,6 +672,41 @@ public class DatabaseImpl implements DatabaseInternal {
         return result;
     }
     
+    /**
+     * Executes a lookup with the read executor, bypassing the worker thread
+     * responsible for the database. The lookup holds the read lock of the
+     * database, so that it does not observe transactions partially; result
+     * sets of prefix and range lookups are only consistent up to their
+     * creation, as with lookups executed by the workers.
+     * 
+     * @param readExecutor
+     * @param lookup
+     * @param listener
+     *            the result listener, which fails if the lookup is rejected.
+     */
+    private void executeLookup(Executor readExecutor, final Runnable lookup, 
+            BabuDBRequestResultImpl<?> listener) {
+        
+        final Lock lock = dbs.getTransactionManager().getDatabaseLock(getName()).readLock();
+        try {
+            readExecutor.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    lock.lock();
+                    try {
+                        lookup.run();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            listener.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                    "operation was interrupted", ex));
+        }
+    }
+    
     /**
      * Performs a user-defined lookup, without using a worker thread.
      * 
@@ -606,3 +932,4 @@ public class DatabaseImpl implements DatabaseInternal {
     }
     
 }
+    
\ No newline at end of file
@@ -10,31 +10,43 @@ package org.xtreemfs.babudb.lsmdb;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
 import org.xtreemfs.babudb.api.dev.DatabaseManagerInternal;
 import org.xtreemfs.babudb.api.dev.transaction.InMemoryProcessing;
 import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
+import org.xtreemfs.babudb.api.dev.transaction.ReadSetValidation;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal.ReadRecord;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.config.IndexConfig;
+import org.xtreemfs.babudb.api.index.DerivedKeys;
+import org.xtreemfs.babudb.api.index.IndexDerivation;
+import org.xtreemfs.babudb.api.index.MergeOperator;
 import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.config.BabuDBConfig;
 import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+import org.xtreemfs.babudb.index.UnsignedByteRangeComparator;
 import org.xtreemfs.babudb.index.LSMTree;
 import org.xtreemfs.babudb.lsmdb.InsertRecordGroup.InsertRecord;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -86,6 +98,7 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
         
         this.compInstances = new HashMap<String, ByteRangeComparator>();
         this.compInstances.put(DefaultByteRangeComparator.class.getName(), new DefaultByteRangeComparator());
+        this.compInstances.put(UnsignedByteRangeComparator.class.getName(), new UnsignedByteRangeComparator());
         
         this.nextDbId = 1;
         this.dbModificationLock = new Object();
@@ -104,6 +117,7 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
         
         compInstances.clear();
         compInstances.put(DefaultByteRangeComparator.class.getName(), new DefaultByteRangeComparator());
+        compInstances.put(UnsignedByteRangeComparator.class.getName(), new UnsignedByteRangeComparator());
         
         dbs.getDBConfigFile().reset();
     }
@@ -200,10 +214,24 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
     @Override
     public DatabaseInternal createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators)
             throws BabuDBException {
+        return createDatabase(databaseName, numIndices, comparators, null);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.xtreemfs.babudb.api.dev.DatabaseManagerInternal#createDatabase(java
+     * .lang.String, int, org.xtreemfs.babudb.api.index.ByteRangeComparator[],
+     * org.xtreemfs.babudb.config.IndexConfig[])
+     */
+    @Override
+    public DatabaseInternal createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators,
+            IndexConfig[] indexConfigs) throws BabuDBException {
         
         BabuDBRequestResultImpl<Object> result = new BabuDBRequestResultImpl<Object>(dbs.getResponseManager());
         dbs.getTransactionManager().makePersistent(
-                createTransaction().createDatabase(databaseName, numIndices, comparators), result);
+                createTransaction().createDatabase(databaseName, numIndices, comparators, indexConfigs), result);
         Object obj = ((Object[]) result.get())[0];
         
         _dbCreationCount.incrementAndGet();
@@ -322,9 +350,15 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                 Object[] args = operation.getParams();
                 int numIndices = (Integer) args[0];
                 
+                // null arguments are not serialized, hence comparators and
+                // index settings are distinguished by their types
                 ByteRangeComparator[] com = null;
-                if (args.length > 2) {
-                    com = (ByteRangeComparator[]) args[1];
+                IndexConfig[] cfgs = null;
+                for (int i = 1; i < args.length; i++) {
+                    if (args[i] instanceof ByteRangeComparator[])
+                        com = (ByteRangeComparator[]) args[i];
+                    else if (args[i] instanceof IndexConfig[])
+                        cfgs = (IndexConfig[]) args[i];
                 }
                 if (com == null) {
                     ByteRangeComparator[] comps = new ByteRangeComparator[numIndices];
@@ -349,7 +383,7 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                                 .getBaseDir() + operation.getDatabaseName() + File.separatorChar, numIndices, false,
                                 com, dbs.getConfig().getCompression(), dbs.getConfig().getMaxNumRecordsPerBlock(), dbs
                                         .getConfig().getMaxBlockFileSize(), dbs.getConfig().getDisableMMap(), dbs
-                                        .getConfig().getMMapLimit()));
+                                        .getConfig().getMMapLimit(), cfgs));
                         dbsById.put(dbId, db);
                         dbsByName.put(operation.getDatabaseName(), db);
                         dbs.getDBConfigFile().save();
@@ -464,7 +498,8 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                         .getBaseDir() + destDB + File.separatorChar, sDB.getLSMDB().getIndexCount(), true, sDB
                         .getComparators(), dbs.getConfig().getCompression(),
                         dbs.getConfig().getMaxNumRecordsPerBlock(), dbs.getConfig().getMaxBlockFileSize(), dbs
-                                .getConfig().getDisableMMap(), dbs.getConfig().getMMapLimit()));
+                                .getConfig().getDisableMMap(), dbs.getConfig().getMMapLimit(), sDB.getLSMDB()
+                                .getIndexConfigs()));
                 
                 // insert real database
                 synchronized (dbModificationLock) {
@@ -497,56 +532,313 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
             @Override
             public Object process(OperationInternal operation) throws BabuDBException {
                 
-                Object[] args = operation.getParams();
-                
                 // parse args
-                InsertRecordGroup irg = (InsertRecordGroup) args[0];
-                LSMDatabase lsmDB = null;
-                if (args.length > 1 && args[1] instanceof LSMDatabase) {
-                    lsmDB = (LSMDatabase) args[1];
+                InsertRecordGroup irg = (InsertRecordGroup) operation.getParams()[0];
+                LSMDatabase lsmDB = resolveDatabase(operation);
+                
+                checkInserts(lsmDB, irg);
+                
+                // the conditions have been evaluated by the validation of the
+                // transaction, before any of its operations has been applied
+                if (irg.resolveConditions()) {
+                    operation.markRewritten();
                 }
                 
-                // complete the arguments
-                if (lsmDB == null) {
+                // insert into the in-memory-tree
+                for (InsertRecord ir : irg.getInserts()) {
+                    LSMTree index = lsmDB.getIndex(ir.getIndexId());
+                    ByteRangeComparator comp = lsmDB.getComparators()[ir.getIndexId()];
+                    IndexDerivation derivation = (comp instanceof IndexDerivation) ? 
+                            (IndexDerivation) comp : null;
+                    
+                    if (ir.isDeleteRange()) {
+                        
+                        if (derivation != null) {
+                            // an empty upper bound denotes an open range
+                            ResultSet<byte[], byte[]> it = index.rangeLookup(ir.getKey(), 
+                                    ir.getValue() == null ? new byte[0] : ir.getValue());
+                            while (it.hasNext()) {
+                                Entry<byte[], byte[]> entry = it.next();
+                                updateDerivedIndex(lsmDB, derivation, entry.getKey(), entry.getValue(), 
+                                        null);
+                            }
+                            it.free();
+                        }
+                        index.deleteRange(ir.getKey(), ir.getValue());
+                        continue;
+                    }
                     
-                    // set the DB ID, if unknown
-                    if (irg.getDatabaseId() == InsertRecordGroup.DB_ID_UNKNOWN) {
-                        irg.setDatabaseId(getDatabase(operation.getDatabaseName()).getLSMDB().getDatabaseId());
+                    // merges are recorded in the overlay and applied lazily, unless the 
+                    // derived entries of the resulting value are needed
+                    if (ir.isMerge() && derivation == null) {
+                        index.merge(ir.getKey(), ir.getValue());
+                        continue;
+                    }
+                    
+                    // the current value is needed for derivations; the database is 
+                    // locked by the transaction manager meanwhile
+                    byte[] oldValue = derivation != null ? index.lookup(ir.getKey()) : null;
+                    
+                    byte[] value = ir.getValue();
+                    if (ir.isMerge()) {
+                        // combine the operand with the current value
+                        value = ((MergeOperator) comp).merge(ir.getKey(), oldValue, ir.getValue());
+                    }
+                    
+                    if (value != null) {
+                        index.insert(ir.getKey(), value);
+                    } else {
+                        index.delete(ir.getKey());
+                    }
+                    
+                    if (derivation != null) {
+                        updateDerivedIndex(lsmDB, derivation, ir.getKey(), oldValue, value);
                     }
-                    lsmDB = getDatabase(irg.getDatabaseId()).getLSMDB();
-                    operation.updateParams(new Object[] { irg, lsmDB });
                 }
-                if (operation.getDatabaseName() == null) {
-                    operation.updateDatabaseName(lsmDB.getDatabaseName());
+                
+                return null;
+            }
+        });
+        
+        dbs.getTransactionManager().registerInMemoryProcessing(Operation.TYPE_BULK_LOAD, new InMemoryProcessing() {
+            
+            @Override
+            public Object[] deserializeRequest(ReusableBuffer serialized) throws BabuDBException {
+                throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "bulk loads are only logged as part "
+                        + "of transactions");
+            }
+            
+            @Override
+            public OperationInternal convertToOperation(Object[] args) {
+                return new BabuDBTransaction.BabuDBOperation(Operation.TYPE_BULK_LOAD, (String) args[0],
+                        new Object[] { args[1], args[2] });
+            }
+            
+            @Override
+            public Object process(OperationInternal operation) throws BabuDBException {
+                
+                // parse args
+                int indexId = (Integer) operation.getParams()[0];
+                String fileName = (String) operation.getParams()[1];
+                
+                LSMDatabase lsmDB = getDatabase(operation.getDatabaseName()).getLSMDB();
+                if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0)) {
+                    throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + indexId + " does not exist");
                 }
                 
-                int numIndices = lsmDB.getIndexCount();
+                // the index has to be empty; it is checked again here, as it may
+                // have been modified since the request was issued, whereas the
+                // database is locked by the transaction manager now
+                ResultSet<byte[], byte[]> it = lsmDB.getIndex(indexId).prefixLookup(null);
+                boolean empty = !it.hasNext();
+                it.free();
+                if (!empty) {
+                    lsmDB.discardBulkIndex(fileName);
+                    throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "index " + indexId + " is not empty");
+                }
                 
-                // check for user errors
-                for (InsertRecord ir : irg.getInserts()) {
-                    if ((ir.getIndexId() >= numIndices) || (ir.getIndexId() < 0)) {
+                // the file is deleted by checkpoints once it has been linked
+                synchronized (getDBModificationLock()) {
+                    synchronized (dbs.getCheckpointer()) {
+                        if (!lsmDB.linkBulkIndex(indexId, fileName)) {
+                            
+                            // the bulk-loaded index is already contained in a
+                            // checkpoint, or it has not been transferred to this
+                            // replica
+                            Logging.logMessage(Logging.LEVEL_WARN, this, "bulk-loaded index file %s of "
+                                    + "database %s does not exist", fileName, operation.getDatabaseName());
+                        }
+                    }
+                }
+                
+                return null;
+            }
+        });
+        
+        dbs.getTransactionManager().registerReadSetValidation(new ReadSetValidation() {
+            
+            @Override
+            public void validate(TransactionInternal txn) throws BabuDBException {
+                
+                for (ReadRecord read : txn.getReadSet()) {
+                    
+                    LSMDatabase lsmDB = getDatabase(read.getDatabaseName()).getLSMDB();
+                    if ((read.getIndexId() >= lsmDB.getIndexCount()) || (read.getIndexId() < 0)) {
                         
-                        throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + ir.getIndexId()
+                        throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + read.getIndexId()
                                 + " does not exist");
                     }
+                    
+                    byte[] value = lsmDB.getIndex(read.getIndexId()).lookup(read.getKey());
+                    if (!Arrays.equals(value, read.getValue())) {
+                        
+                        throw new BabuDBException(ErrorCode.TRANSACTION_CONFLICT, "key '"
+                                + new String(read.getKey()) + "' of index " + read.getIndexId()
+                                + " in database " + read.getDatabaseName() + " has been changed");
+                    }
                 }
                 
-                // insert into the in-memory-tree
-                for (InsertRecord ir : irg.getInserts()) {
-                    LSMTree index = lsmDB.getIndex(ir.getIndexId());
-                    
-                    if (ir.getValue() != null) {
-                        index.insert(ir.getKey(), ir.getValue());
-                    } else {
-                        index.delete(ir.getKey());
+                boolean conditional = false;
+                for (OperationInternal operation : txn) {
+                    if (operation.getType() == Operation.TYPE_GROUP_INSERT) {
+                        for (InsertRecord ir : ((InsertRecordGroup) operation.getParams()[0]).getInserts()) {
+                            conditional |= ir.isConditional();
+                        }
                     }
                 }
+                if (!conditional) {
+                    return;
+                }
                 
-                return null;
+                // evaluate the conditions in the order of the records, each against the 
+                // state left by the preceding inserts of the transaction, so that the
+                // transaction is rejected as a whole if any condition is not met
+                Map<Integer, PendingValues> pendingValues = new HashMap<Integer, PendingValues>();
+                for (OperationInternal operation : txn) {
+                    if (operation.getType() != Operation.TYPE_GROUP_INSERT) {
+                        continue;
+                    }
+                    
+                    InsertRecordGroup irg = (InsertRecordGroup) operation.getParams()[0];
+                    conditional = false;
+                    for (InsertRecord ir : irg.getInserts()) {
+                        conditional |= ir.isConditional();
+                    }
+                    
+                    // an unconditional insert into a database created by the transaction 
+                    // itself cannot affect any condition
+                    LSMDatabase lsmDB;
+                    try {
+                        lsmDB = resolveDatabase(operation);
+                    } catch (BabuDBException be) {
+                        if (!conditional && be.getErrorCode() == ErrorCode.NO_SUCH_DB) {
+                            continue;
+                        }
+                        throw be;
+                    }
+                    checkInserts(lsmDB, irg);
+                    
+                    PendingValues pending = pendingValues.get(lsmDB.getDatabaseId());
+                    if (pending == null) {
+                        pending = new PendingValues(lsmDB);
+                        pendingValues.put(lsmDB.getDatabaseId(), pending);
+                    }
+                    for (InsertRecord ir : irg.getInserts()) {
+                        if (ir.isConditional()
+                            && !Arrays.equals(pending.lookup(ir.getIndexId(), ir.getKey()), 
+                                    ir.getExpected())) {
+                            
+                            throw new BabuDBException(ErrorCode.CONDITION_FAILED, "key '"
+                                    + new String(ir.getKey()) + "' of index " + ir.getIndexId() 
+                                    + " in database " + lsmDB.getDatabaseName() 
+                                    + (ir.getExpected() == null ? " already exists"
+                                            : " is not mapped to the expected value"));
+                        }
+                        pending.apply(ir);
+                    }
+                }
             }
         });
     }
     
+    /**
+     * Completes the arguments of a group insert with the database it is 
+     * executed on.
+     * 
+     * @param operation
+     * @throws BabuDBException if the database does not exist.
+     * 
+     * @return the database of the group insert.
+     */
+    private LSMDatabase resolveDatabase(OperationInternal operation) throws BabuDBException {
+        
+        Object[] args = operation.getParams();
+        InsertRecordGroup irg = (InsertRecordGroup) args[0];
+        LSMDatabase lsmDB = null;
+        if (args.length > 1 && args[1] instanceof LSMDatabase) {
+            lsmDB = (LSMDatabase) args[1];
+        }
+        
+        // complete the arguments
+        if (lsmDB == null) {
+            
+            // set the DB ID, if unknown
+            if (irg.getDatabaseId() == InsertRecordGroup.DB_ID_UNKNOWN) {
+                irg.setDatabaseId(getDatabase(operation.getDatabaseName()).getLSMDB().getDatabaseId());
+            }
+            lsmDB = getDatabase(irg.getDatabaseId()).getLSMDB();
+            operation.updateParams(new Object[] { irg, lsmDB });
+        }
+        if (operation.getDatabaseName() == null) {
+            operation.updateDatabaseName(lsmDB.getDatabaseName());
+        }
+        
+        return lsmDB;
+    }
+    
+    /**
+     * Checks the records of a group insert for user errors.
+     * 
+     * @param lsmDB
+     * @param irg
+     * @throws BabuDBException if a record refers to an invalid index, or merges
+     *                         into an index without a merge operator.
+     */
+    private static void checkInserts(LSMDatabase lsmDB, InsertRecordGroup irg) throws BabuDBException {
+        
+        int numIndices = lsmDB.getIndexCount();
+        for (InsertRecord ir : irg.getInserts()) {
+            if ((ir.getIndexId() >= numIndices) || (ir.getIndexId() < 0)) {
+                
+                throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + ir.getIndexId()
+                        + " does not exist");
+            }
+            if (ir.isMerge() && !(lsmDB.getComparators()[ir.getIndexId()] instanceof MergeOperator)) {
+                
+                throw new BabuDBException(ErrorCode.UNSUPPORTED_OPERATION, "index " 
+                        + ir.getIndexId() + " does not support merges");
+            }
+            if (lsmDB.getComparators()[ir.getIndexId()] instanceof IndexDerivation) {
+                
+                int derivedIndexId = ((IndexDerivation) lsmDB.getComparators()[ir.getIndexId()])
+                        .getDerivedIndexId();
+                if ((derivedIndexId >= numIndices) || (derivedIndexId < 0) 
+                        || (derivedIndexId == ir.getIndexId())) {
+                    
+                    throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + derivedIndexId
+                            + " derived from index " + ir.getIndexId() + " is invalid");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Replaces the entries derived from the old value of a key by the entries
+     * derived from its new value. Each entry is specific to the source key, so
+     * that the entries of other keys sharing a derived key are retained.
+     * 
+     * @param lsmDB
+     * @param derivation
+     * @param key
+     * @param oldValue - the old value, or null if the key did not exist.
+     * @param newValue - the new value, or null if the key has been deleted.
+     */
+    private static void updateDerivedIndex(LSMDatabase lsmDB, IndexDerivation derivation, 
+            byte[] key, byte[] oldValue, byte[] newValue) {
+        
+        LSMTree derivedIndex = lsmDB.getIndex(derivation.getDerivedIndexId());
+        if (oldValue != null) {
+            for (byte[] derivedKey : derivation.deriveKeys(key, oldValue)) {
+                derivedIndex.delete(DerivedKeys.createKey(derivedKey, key));
+            }
+        }
+        if (newValue != null) {
+            for (byte[] derivedKey : derivation.deriveKeys(key, newValue)) {
+                derivedIndex.insert(DerivedKeys.createKey(derivedKey, key), key);
+            }
+        }
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -633,7 +925,7 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
      * org.xtreemfs.babudb.api.dev.TransactionInternal)
      */
     @Override
-    public synchronized void executeTransaction(TransactionInternal txn) throws BabuDBException {
+    public void executeTransaction(TransactionInternal txn) throws BabuDBException {
         
         // acquire worker locks asynchronously if necessary
         if (dbs.getWorkerCount() > 0) {
@@ -736,4 +1028,91 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
         map.put(RUNTIME_STATE_DBDELETIONCOUNT, _dbDeletionCount.get());
         return map;
     }
+    
+    /**
+     * The values of the keys modified by the preceding records of a transaction
+     * in a database, against which the conditions of subsequent records are
+     * evaluated. Keys that have not been modified by the transaction are looked
+     * up in the index.
+     */
+    private static final class PendingValues {
+        
+        private final LSMDatabase                          lsmDB;
+        
+        private final Map<Integer, TreeMap<byte[], byte[]>> values = 
+            new HashMap<Integer, TreeMap<byte[], byte[]>>();
+        
+        /**
+         * ranges deleted by the transaction, as pairs of the first (inclusively) and 
+         * last key (exclusively, null for an open end)
+         */
+        private final Map<Integer, List<byte[][]>>          deletedRanges = 
+            new HashMap<Integer, List<byte[][]>>();
+        
+        PendingValues(LSMDatabase lsmDB) {
+            this.lsmDB = lsmDB;
+        }
+        
+        /**
+         * @param indexId
+         * @param key
+         * @return the value of the key after the records applied so far, or 
+         *         null if it does not exist.
+         */
+        byte[] lookup(int indexId, byte[] key) {
+            
+            TreeMap<byte[], byte[]> map = values.get(indexId);
+            if (map != null && map.containsKey(key)) {
+                return map.get(key);
+            }
+            
+            List<byte[][]> ranges = deletedRanges.get(indexId);
+            if (ranges != null) {
+                ByteRangeComparator comp = lsmDB.getComparators()[indexId];
+                for (byte[][] range : ranges) {
+                    if (comp.compare(key, range[0]) >= 0 
+                            && (range[1] == null || comp.compare(key, range[1]) < 0)) {
+                        return null;
+                    }
+                }
+            }
+            
+            return lsmDB.getIndex(indexId).lookup(key);
+        }
+        
+        /**
+         * Records the effect of a record whose condition, if any, has been met.
+         * 
+         * @param ir
+         */
+        void apply(InsertRecord ir) {
+            
+            int indexId = ir.getIndexId();
+            ByteRangeComparator comp = lsmDB.getComparators()[indexId];
+            TreeMap<byte[], byte[]> map = values.get(indexId);
+            if (map == null) {
+                map = new TreeMap<byte[], byte[]>(comp);
+                values.put(indexId, map);
+            }
+            
+            if (ir.isDeleteRange()) {
+                
+                (ir.getValue() == null ? map.tailMap(ir.getKey(), true) : map.subMap(ir.getKey(), 
+                        true, ir.getValue(), false)).clear();
+                
+                List<byte[][]> ranges = deletedRanges.get(indexId);
+                if (ranges == null) {
+                    ranges = new ArrayList<byte[][]>();
+                    deletedRanges.put(indexId, ranges);
+                }
+                ranges.add(new byte[][] { ir.getKey(), ir.getValue() });
+                
+            } else if (ir.isMerge()) {
+                byte[] value = lookup(indexId, ir.getKey());
+                map.put(ir.getKey(), ((MergeOperator) comp).merge(ir.getKey(), value, ir.getValue()));
+            } else {
+                map.put(ir.getKey(), ir.getValue());
+            }
+        }
+    }
 }
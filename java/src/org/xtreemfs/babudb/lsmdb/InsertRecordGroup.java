@@ -10,6 +10,7 @@ package org.xtreemfs.babudb.lsmdb;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 
@@ -35,6 +36,22 @@ public class InsertRecordGroup {
         records.add(new InsertRecord(indexId, key, value));
     }
     
+    public void addMerge(int indexId, byte[] key, byte[] operand) {
+        records.add(new InsertRecord(indexId, key, operand, InsertRecord.TYPE_MERGE));
+    }
+    
+    public void addConditional(int indexId, byte[] key, byte[] expected, byte[] value) {
+        records.add(new InsertRecord(indexId, key, value, expected));
+    }
+    
+    public void addDeleteRange(int indexId, byte[] from, byte[] to) {
+        // nothing precedes the empty key, hence the range is empty
+        if (to != null && to.length == 0)
+            return;
+        records.add(new InsertRecord(indexId, from == null ? new byte[0] : from, to,
+            InsertRecord.TYPE_DELETE_RANGE));
+    }
+    
     public List<InsertRecord> getInserts() {
         return records;
     }
@@ -47,6 +64,26 @@ public class InsertRecordGroup {
         return databaseId;
     }
     
+    /**
+     * Replaces all conditional records by unconditional inserts and deletes,
+     * once their conditions have been met. Only the resolved records are
+     * written to the log, so that conditions are not evaluated again when the
+     * log is replayed.
+     * 
+     * @return true, if any conditional record has been replaced.
+     */
+    public boolean resolveConditions() {
+        boolean resolved = false;
+        for (ListIterator<InsertRecord> it = records.listIterator(); it.hasNext();) {
+            InsertRecord ir = it.next();
+            if (ir.isConditional()) {
+                it.set(new InsertRecord(ir.getIndexId(), ir.getKey(), ir.getValue()));
+                resolved = true;
+            }
+        }
+        return resolved;
+    }
+    
     private void addInsertRecord(InsertRecord rec) {
         assert (rec != null);
         records.add(rec);
@@ -76,16 +113,72 @@ public class InsertRecordGroup {
     }
     
     public static class InsertRecord {
+        
+        public static final int TYPE_INSERT       = 0;
+        
+        public static final int TYPE_MERGE        = 1;
+        
+        public static final int TYPE_DELETE_RANGE = 2;
+        
+        public static final int TYPE_CONDITIONAL  = 3;
+        
+        /**
+         * key length marking a record whose type is given by the subsequent
+         * byte; plain inserts and deletes are serialized without a type, so
+         * that logs written before record types were introduced can still be
+         * replayed
+         */
+        private static final int TYPED_RECORD = Integer.MIN_VALUE;
+        
         private final byte   indexId;
         
         private final byte[] key;
         
         private final byte[] value;
         
+        private final byte[] expected;
+        
+        private final int    type;
+        
         public InsertRecord(int indexId, byte[] key, byte[] value) {
+            this(indexId, key, value, TYPE_INSERT);
+        }
+        
+        /**
+         * @param indexId
+         * @param key - the key, or the first key (inclusively) of a range delete.
+         * @param value - the value, the operand if the record is a merge, or the last key 
+         *                (exclusively) of a range delete; <code>null</code> stands for a delete, or
+         *                for an open end of the range.
+         * @param type - one of TYPE_INSERT, TYPE_MERGE and TYPE_DELETE_RANGE.
+         */
+        public InsertRecord(int indexId, byte[] key, byte[] value, int type) {
+            assert (type != TYPE_MERGE || value != null);
+            assert (type != TYPE_DELETE_RANGE || value == null || value.length > 0);
+            
             this.indexId = (byte) indexId;
             this.key = key;
             this.value = value;
+            this.expected = null;
+            this.type = type;
+        }
+        
+        /**
+         * Creates a conditional record, which is only applied if the key is
+         * currently mapped to the expected value.
+         * 
+         * @param indexId
+         * @param key - the key.
+         * @param value - the new value, or <code>null</code> to delete the key.
+         * @param expected - the expected value, or <code>null</code> if the key is expected not to 
+         *                   exist.
+         */
+        public InsertRecord(int indexId, byte[] key, byte[] value, byte[] expected) {
+            this.indexId = (byte) indexId;
+            this.key = key;
+            this.value = value;
+            this.expected = expected;
+            this.type = TYPE_CONDITIONAL;
         }
         
         public int getIndexId() {
@@ -100,7 +193,33 @@ public class InsertRecordGroup {
             return value;
         }
         
+        public boolean isMerge() {
+            return type == TYPE_MERGE;
+        }
+        
+        public boolean isDeleteRange() {
+            return type == TYPE_DELETE_RANGE;
+        }
+        
+        public boolean isConditional() {
+            return type == TYPE_CONDITIONAL;
+        }
+        
+        /**
+         * @return the value expected by a conditional record, or null if the key is expected not
+         *         to exist.
+         */
+        public byte[] getExpected() {
+            return expected;
+        }
+        
         public int getSize() {
+            if (type == TYPE_CONDITIONAL)
+                return Byte.SIZE / 8 * 2 + Integer.SIZE / 8 * 4 + key.length
+                    + (value == null ? 0 : value.length) + (expected == null ? 0 : expected.length);
+            if (type != TYPE_INSERT)
+                return Byte.SIZE / 8 * 2 + Integer.SIZE / 8 * 3 + key.length
+                    + (value == null ? 0 : value.length);
             if (value != null)
                 return Byte.SIZE / 8 + Integer.SIZE / 8 * 2 + key.length + value.length;
             else
@@ -109,6 +228,19 @@ public class InsertRecordGroup {
         
         public void serialize(ReusableBuffer buffer) {
             buffer.put(indexId);
+            if (type != TYPE_INSERT) {
+                // the type is followed by the key, the value (the operand or the
+                // end of the range) and the expected value of a conditional
+                // record; -1 stands for null
+                buffer.putInt(TYPED_RECORD);
+                buffer.put((byte) type);
+                buffer.putInt(key.length);
+                buffer.put(key);
+                serializeOptional(buffer, value);
+                if (type == TYPE_CONDITIONAL)
+                    serializeOptional(buffer, expected);
+                return;
+            }
             buffer.putInt(key.length);
             buffer.put(key);
             if (value != null) {
@@ -124,6 +256,22 @@ public class InsertRecordGroup {
             int indexId = 0x00FF & tmp;
             
             int size = buffer.getInt();
+            if (size == TYPED_RECORD) {
+                int type = buffer.get();
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                byte[] value = deserializeOptional(buffer);
+                switch (type) {
+                case TYPE_MERGE:
+                case TYPE_DELETE_RANGE:
+                    return new InsertRecord(indexId, key, value, type);
+                case TYPE_CONDITIONAL:
+                    return new InsertRecord(indexId, key, value, deserializeOptional(buffer));
+                default:
+                    throw new IllegalArgumentException("invalid record type: " + type);
+                }
+            }
+            
             byte[] key = new byte[size];
             buffer.get(key);
             
@@ -137,12 +285,37 @@ public class InsertRecordGroup {
             return new InsertRecord(indexId, key, value);
         }
         
+        private static void serializeOptional(ReusableBuffer buffer, byte[] bytes) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+        
+        private static byte[] deserializeOptional(ReusableBuffer buffer) {
+            int size = buffer.getInt();
+            if (size < 0)
+                return null;
+            byte[] bytes = new byte[size];
+            buffer.get(bytes);
+            return bytes;
+        }
+        
         public String toString() {
             
             StringBuilder sb = new StringBuilder();
             sb.append("index: " + indexId);
-            sb.append(", key: " + (key == null ? null : Arrays.toString(key)));
-            sb.append(", value: " + (value == null ? null : Arrays.toString(value)));
+            sb.append(type == TYPE_DELETE_RANGE ? ", from: " : ", key: ");
+            sb.append(key == null ? null : Arrays.toString(key));
+            sb.append(type == TYPE_MERGE ? ", operand: " : type == TYPE_DELETE_RANGE ? ", to: "
+                : ", value: ");
+            sb.append(value == null ? null : Arrays.toString(value));
+            if (type == TYPE_CONDITIONAL) {
+                sb.append(", expected: ");
+                sb.append(expected == null ? null : Arrays.toString(expected));
+            }
             
             return sb.toString();
         }
@@ -9,7 +9,9 @@
 package org.xtreemfs.babudb.lsmdb;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
+import org.xtreemfs.babudb.api.database.EntryFilter;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.lsmdb.LSMDBWorker.RequestOperation;
 
 /**
@@ -31,12 +33,18 @@ public class LSMDBRequest<T> {
     
     private final byte[]                        lookupKey;
     
+    private byte[][]                            lookupKeys;
+    
     private byte[]                              from;
     
     private byte[]                              to;
     
     private boolean                             ascending;
     
+    private EntryFilter                         filter;
+    
+    private ValueProjection                     projection;
+    
     private final UserDefinedLookup             udLookup;
     
     /**
@@ -76,6 +84,18 @@ public class LSMDBRequest<T> {
         this.udLookup = null;
     }
     
+    public LSMDBRequest(LSMDatabase database, int indexId, 
+            BabuDBRequestResultImpl<T> listener, byte[][] keys) {
+        this.operation = RequestOperation.MULTI_LOOKUP;
+        this.database = database;
+        this.indexId = indexId;
+        this.lookupKey = null;
+        this.lookupKeys = keys;
+        this.insertData = null;
+        this.listener = listener;
+        this.udLookup = null;
+    }
+    
     public LSMDBRequest(LSMDatabase database, int indexId, 
             BabuDBRequestResultImpl<T> listener, byte[] prefix, 
             boolean ascending) {
@@ -104,6 +124,14 @@ public class LSMDBRequest<T> {
         this.ascending = ascending;
     }
     
+    public LSMDBRequest(LSMDatabase database, int indexId, 
+            BabuDBRequestResultImpl<T> listener, byte[] from, byte[] to, 
+            boolean ascending, EntryFilter filter, ValueProjection projection) {
+        this(database, indexId, listener, from, to, ascending);
+        this.filter = filter;
+        this.projection = projection;
+    }
+    
     public LSMDBRequest(LSMDatabase database, 
             BabuDBRequestResultImpl<T> listener, UserDefinedLookup udLookup) {
         this.operation = RequestOperation.USER_DEFINED_LOOKUP;
@@ -135,6 +163,10 @@ public class LSMDBRequest<T> {
         return lookupKey;
     }
     
+    public byte[][] getLookupKeys() {
+        return lookupKeys;
+    }
+    
     public byte[] getFrom() {
         return from;
     }
@@ -147,6 +179,14 @@ public class LSMDBRequest<T> {
         return ascending;
     }
     
+    public EntryFilter getFilter() {
+        return filter;
+    }
+    
+    public ValueProjection getProjection() {
+        return projection;
+    }
+    
     public BabuDBRequestResultImpl<T> getListener() {
         return listener;
     }
@@ -9,10 +9,13 @@ package org.xtreemfs.babudb.lsmdb;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
@@ -23,58 +26,171 @@ import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.logging.Logging;
 
 /**
+ * A thread processing the requests for the databases assigned to it.
+ * 
+ * Requests are queued without locking and taken from the queue in batches.
+ * Insertions and lock requests, and lookups arriving while any of them is
+ * pending, are processed by the worker in the order of their arrival. Other
+ * lookups may be stolen by idle sibling workers. Since a worker completes
+ * all lookups queued before an insertion or lock request before processing
+ * it, no lookup ever overtakes a request for the same database that was
+ * queued before it.
+ * 
  * @author bjko
  */
 public class LSMDBWorker extends LifeCycleThread {
     
     public static enum RequestOperation {
-        INSERT, LOOKUP, PREFIX_LOOKUP, RANGE_LOOKUP, USER_DEFINED_LOOKUP, LOCK
+        INSERT, LOOKUP, MULTI_LOOKUP, PREFIX_LOOKUP, RANGE_LOOKUP, USER_DEFINED_LOOKUP, LOCK
     };
     
+    /**
+     * Determines how lookups are executed if there are worker threads.
+     */
+    public static enum ReadMode {
+        /**
+         * lookups are queued at the worker responsible for the database
+         */
+        WORKER,
+        /**
+         * lookups are executed by a pool of read threads
+         */
+        POOL,
+        /**
+         * lookups are executed by the calling thread
+         */
+        CALLER
+    };
+    
+    /**
+     * maximum number of requests taken from the queue at once
+     */
+    private static final int                     BATCH_SIZE = 64;
+    
     private final AtomicBoolean                  locked = new AtomicBoolean(false);
     
     private final BabuDBInternal                 dbs;
     
-    private final LinkedList<LSMDBRequest<?>>    requests = new LinkedList<LSMDBRequest<?>>();
+    /**
+     * requests that have to be processed by this worker in the order of their
+     * arrival
+     */
+    private final Queue<LSMDBRequest<?>>         requests = new ConcurrentLinkedQueue<LSMDBRequest<?>>();
+    
+    /**
+     * lookups that may be stolen by idle siblings, as no insertion or lock
+     * request had been pending when they arrived
+     */
+    private final Queue<LSMDBRequest<?>>         reads = new ConcurrentLinkedQueue<LSMDBRequest<?>>();
+    
+    /**
+     * number of requests in both queues
+     */
+    private final AtomicInteger                  queued = new AtomicInteger();
+    
+    /**
+     * number of insertion and lock requests that have been queued, but not
+     * been processed yet
+     */
+    private final AtomicInteger                  pendingWrites = new AtomicInteger();
+    
+    /**
+     * number of lookups that have been stolen from this worker, but not been
+     * processed yet
+     */
+    private final AtomicInteger                  stolen = new AtomicInteger();
+    
+    /**
+     * number of threads waiting for queue space to become available
+     */
+    private final AtomicInteger                  waiting = new AtomicInteger();
+    
+    private final LSMDBWorker[]                  siblings;
     
     private final int                            maxQ;
     
-    private boolean                              quit = true;
+    private volatile boolean                     idle;
+    
+    private volatile boolean                     quit = true;
     private boolean                              graceful;
     
-    public LSMDBWorker(BabuDBInternal babuDB, int id, int maxQ) {
+    /**
+     * @param babuDB
+     * @param id
+     * @param maxQ
+     * @param siblings
+     *            - all workers of the database system, including this one.
+     *            Lookups queued at one of them may be stolen by another one
+     *            that is idle.
+     */
+    public LSMDBWorker(BabuDBInternal babuDB, int id, int maxQ, LSMDBWorker[] siblings) {
         super("LSMDBWrkr#" + id);
         setLifeCycleListener(babuDB);
         this.maxQ = maxQ;
         this.dbs = babuDB;
+        this.siblings = siblings;
     }
     
-    public synchronized void addRequest(LSMDBRequest<?> request) throws InterruptedException {
+    public void addRequest(LSMDBRequest<?> request) throws InterruptedException {
         
         assert (request != null);
         
         // wait for queue space to become available
-        if (!quit && maxQ > 0 && requests.size() >= maxQ) {
-            wait();
+        if (!quit && maxQ > 0 && queued.get() >= maxQ) {
+            synchronized (waiting) {
+                waiting.incrementAndGet();
+                try {
+                    while (!quit && queued.get() >= maxQ) {
+                        waiting.wait();
+                    }
+                } finally {
+                    waiting.decrementAndGet();
+                }
+            }
         }
         
-        if (!quit) {
-
-            assert (maxQ == 0 || requests.size() < maxQ);
-            
-            requests.add(request);
-            notifyAll();
-        } else {
+        if (quit) {
             throw new InterruptedException("Appending a request to the queue of " + getName() +
-                        " was interrupted, due shutdown.");
+                    " was interrupted, due shutdown.");
+        }
+        
+        // lookups may be executed by any worker, unless they have to wait for
+        // an insertion or a lock to be processed first
+        boolean stealable = isLookup(request) && pendingWrites.get() == 0;
+        if (!isLookup(request)) {
+            pendingWrites.incrementAndGet();
+        }
+        
+        queued.incrementAndGet();
+        (stealable ? reads : requests).add(request);
+        
+        // the worker might have shut down in the meantime
+        if (quit && (stealable ? reads : requests).remove(request)) {
+            throw new InterruptedException("Appending a request to the queue of " + getName() +
+                    " was interrupted, due shutdown.");
+        }
+        
+        if (idle) {
+            LockSupport.unpark(this);
+        } else if (stealable && siblings != null) {
+            for (LSMDBWorker w : siblings) {
+                if (w.idle) {
+                    LockSupport.unpark(w);
+                    break;
+                }
+            }
         }
     }
     
-    public synchronized void shutdown(boolean graceful) {
-        this.graceful = graceful;
-        
-        quit = true;
-        notifyAll();
+    public void shutdown(boolean graceful) {
+        synchronized (this) {
+            this.graceful = graceful;
+            quit = true;
+        }
+        LockSupport.unpark(this);
+        synchronized (waiting) {
+            waiting.notifyAll();
+        }
     }
         
     @Override
@@ -98,27 +214,37 @@ public class LSMDBWorker extends LifeCycleThread {
 
         notifyStarted();
         
+        final LSMDBRequest<?>[] batch = new LSMDBRequest<?>[BATCH_SIZE];
+        
         while (!quit) {
             try {
-                final LSMDBRequest<?> r;
                 
-                // wait for a request
-                synchronized (this) {
-                    if (requests.isEmpty()) {
-                        wait();
-                    }
-                    
-                    if (quit) {
-                        break;
-                        
-                    // get a request
-                    } else {
-                        r = requests.poll();
-                        notify();
+                // drain a batch of requests
+                int n = drain(requests, batch);
+                if (n > 0) {
+                    dequeued(n);
+                    for (int i = 0; i < n; i++) {
+                        processOrdered(batch[i]);
+                        batch[i] = null;
                     }
+                    continue;
+                }
+                
+                // process stealable lookups, own ones first
+                if (processReads(this) || steal()) {
+                    continue;
+                }
+                
+                // wait for a request
+                idle = true;
+                if (!quit && !hasWork()) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                
+                if (interrupted() && !quit) {
+                    throw new InterruptedException();
                 }
-                                
-                processRequest(r);
             } catch (InterruptedException ex) {
                 if (!quit) {
                     cleanUp();
@@ -129,13 +255,19 @@ public class LSMDBWorker extends LifeCycleThread {
         }
         
         // process pending requests on shutdown if graceful flag has not been reset
+        boolean graceful;
+        synchronized (this) {
+            graceful = this.graceful;
+        }
         if (graceful) {
-            synchronized (requests) {
-                for (LSMDBRequest<?> rq : requests) {
-                    processRequest(rq);
-                }
+            LSMDBRequest<?> rq;
+            while ((rq = requests.poll()) != null) {
+                dequeued(1);
+                processOrdered(rq);
             }
+            while (processReads(this));
         }
+        cleanUp();
         Logging.logMessage(Logging.LEVEL_DEBUG, this, "worker shutdown complete");
         notifyStopped();
     }
@@ -145,17 +277,148 @@ public class LSMDBWorker extends LifeCycleThread {
      * 
      * @throws IOException
      */
-    private synchronized void cleanUp() {    
-            
-        assert (graceful || requests.size() == 0);
+    private void cleanUp() {    
         
         // clear pending requests, if available
-        for (LSMDBRequest<?> rq : requests) {
+        LSMDBRequest<?> rq;
+        while ((rq = requests.poll()) != null || (rq = reads.poll()) != null) {
+            dequeued(1);
             rq.getListener().failed(new BabuDBException(ErrorCode.INTERRUPTED, 
                 "Worker was shut down, before the request could be proceeded."));
         }
     }
     
+    /**
+     * Processes a request from the ordered queue. Lookups that arrived before
+     * the request and may have been stolen are completed first. As no lookup
+     * becomes stealable while the request is pending, draining the stealable
+     * lookups terminates.
+     * 
+     * @param r
+     */
+    private void processOrdered(LSMDBRequest<?> r) {
+        
+        while (processReads(this));
+        while (stolen.get() > 0) {
+            Thread.yield();
+        }
+        
+        try {
+            processRequest(r);
+        } finally {
+            if (!isLookup(r)) {
+                pendingWrites.decrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Processes the stealable lookups queued at the given worker.
+     * 
+     * @param w
+     * @return true, if at least one lookup has been processed.
+     */
+    private boolean processReads(LSMDBWorker w) {
+        
+        boolean processed = false;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            
+            // announce the lookup before taking it, so that the owner can wait
+            // for it before processing a subsequent insertion
+            w.stolen.incrementAndGet();
+            try {
+                LSMDBRequest<?> r = w.reads.poll();
+                if (r == null) {
+                    break;
+                }
+                w.dequeued(1);
+                processRequest(r);
+                processed = true;
+            } finally {
+                w.stolen.decrementAndGet();
+            }
+        }
+        return processed;
+    }
+    
+    /**
+     * Processes lookups stolen from sibling workers.
+     * 
+     * @return true, if at least one lookup has been processed.
+     */
+    private boolean steal() {
+        
+        if (siblings == null) {
+            return false;
+        }
+        
+        for (LSMDBWorker w : siblings) {
+            if (w != this && w != null && !w.reads.isEmpty() && processReads(w)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return true, if there are requests that may be processed by this
+     *         worker.
+     */
+    private boolean hasWork() {
+        
+        if (!requests.isEmpty() || !reads.isEmpty()) {
+            return true;
+        }
+        
+        if (siblings != null) {
+            for (LSMDBWorker w : siblings) {
+                if (w != null && !w.reads.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Releases queue space taken by the given number of requests.
+     * 
+     * @param n
+     */
+    private void dequeued(int n) {
+        
+        queued.addAndGet(-n);
+        if (waiting.get() > 0) {
+            synchronized (waiting) {
+                waiting.notifyAll();
+            }
+        }
+    }
+    
+    private static int drain(Queue<LSMDBRequest<?>> queue, LSMDBRequest<?>[] batch) {
+        
+        int n = 0;
+        LSMDBRequest<?> r;
+        while (n < batch.length && (r = queue.poll()) != null) {
+            batch[n++] = r;
+        }
+        return n;
+    }
+    
+    private static boolean isLookup(LSMDBRequest<?> r) {
+        
+        switch (r.getOperation()) {
+        case LOOKUP:
+        case MULTI_LOOKUP:
+        case PREFIX_LOOKUP:
+        case RANGE_LOOKUP:
+        case USER_DEFINED_LOOKUP:
+            return true;
+        default:
+            return false;
+        }
+    }
+    
     @SuppressWarnings("unchecked")
     private void processRequest(LSMDBRequest<?> r) {
         switch (r.getOperation()) {
@@ -165,6 +428,9 @@ public class LSMDBWorker extends LifeCycleThread {
         case LOOKUP:
             doLookup((LSMDBRequest<byte[]>) r);
             break;
+        case MULTI_LOOKUP:
+            doMultiLookup((LSMDBRequest<byte[][]>) r);
+            break;
         case PREFIX_LOOKUP:
             doPrefixLookup((LSMDBRequest<Iterator<Entry<byte[], byte[]>>>) r);
             break;
@@ -221,6 +487,19 @@ public class LSMDBWorker extends LifeCycleThread {
         }
     }
     
+    private void doMultiLookup(final LSMDBRequest<byte[][]> r) {
+        final LSMDatabase db = r.getDatabase();
+        final int numIndices = db.getIndexCount();
+        
+        if ((r.getIndexId() >= numIndices) || (r.getIndexId() < 0)) {
+            r.getListener().failed(
+                new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
+                        " does not exist"));
+        } else {
+            r.getListener().finished(db.getIndex(r.getIndexId()).lookup(r.getLookupKeys()));
+        }
+    }
+    
     private void doPrefixLookup(final LSMDBRequest<Iterator<Map.Entry<byte[], byte[]>>> r) {
         final LSMDatabase db = r.getDatabase();
         final int numIndices = db.getIndexCount();
@@ -230,7 +509,8 @@ public class LSMDBWorker extends LifeCycleThread {
                 new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
                         " does not exist"));
         } else {
-            r.getListener().finished(db.getIndex(r.getIndexId()).prefixLookup(r.getLookupKey()));
+            r.getListener().finished(db.getIndex(r.getIndexId()).prefixLookup(r.getLookupKey(), 
+                    r.isAscending()));
         }
     }
     
@@ -244,7 +524,8 @@ public class LSMDBWorker extends LifeCycleThread {
                         " does not exist"));
         } else {
             r.getListener().finished(
-                    db.getIndex(r.getIndexId()).rangeLookup(r.getFrom(), r.getTo()));
+                    db.getIndex(r.getIndexId()).rangeLookup(r.getFrom(), r.getTo(), r.isAscending(),
+                            r.getFilter(), r.getProjection()));
         }
     }
     
@@ -12,15 +12,24 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.ExpiringValues;
+import org.xtreemfs.babudb.config.IndexConfig;
 import org.xtreemfs.babudb.index.LSMTree;
+import org.xtreemfs.babudb.index.ValueLog;
+import org.xtreemfs.babudb.index.writer.DiskIndexWriter;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -41,6 +50,13 @@ public class LSMDatabase {
     
     private static final String         SNAPSHOT_FILENAME_REGEXP = "IX(\\d+)V(\\d+)SEQ(\\d+)\\.idx";
     
+    private static final String         BULK_FILENAME_REGEXP     = "BULK(\\d+)N(\\d+)\\.idx";
+    
+    /**
+     * Counter to generate unique names for bulk-loaded index files.
+     */
+    private static final AtomicLong     bulkFileCounter          = new AtomicLong(System.currentTimeMillis());
+    
     /**
      * The actual indices stores in LSMTrees.
      */
@@ -99,6 +115,12 @@ public class LSMDatabase {
      */
     private final int                   mmapLimit;
     
+    /**
+     * index-specific settings overriding the ones above, may be
+     * <code>null</code>
+     */
+    private final IndexConfig[]         indexConfigs;
+    
     /**
      * Creates a new database and loads data from disk if requested.
      * 
@@ -133,6 +155,50 @@ public class LSMDatabase {
         boolean readFromDisk, ByteRangeComparator[] comparators, boolean compression, int maxEntriesPerBlock,
         int maxBlockFileSize, boolean disableMMap, int mmapLimit) throws BabuDBException {
         
+        this(databaseName, databaseId, databaseDir, numIndices, readFromDisk, comparators, compression,
+            maxEntriesPerBlock, maxBlockFileSize, disableMMap, mmapLimit, null);
+    }
+    
+    /**
+     * Creates a new database with index-specific storage settings and loads
+     * data from disk if requested.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param databaseId
+     *            the numeric database ID
+     * @param databaseDir
+     *            the directory in which the DB stores the checkpoints
+     * @param numIndices
+     *            number of indices (cannot be changed)
+     * @param readFromDisk
+     *            true if data should be read from disk
+     * @param comparators
+     *            an array containing the comparators of all indices
+     * @param compression
+     *            specified if compression is enabled
+     * @param maxEntriesPerBlock
+     *            the maximum entry count for each database block
+     * @param maxBlockFileSize
+     *            the maximum file size for each block file
+     * @param disableMMap
+     *            specified whether memory-mapping of block files is disabled
+     * @param mmapLimit
+     *            defines the maximum size of all databases in MB after which
+     *            block files will no longer be memory-mapped
+     * @param indexConfigs
+     *            an array containing settings of all indices which override
+     *            the settings above; the array as well as its elements may be
+     *            <code>null</code>
+     * @throws BabuDBException
+     *             if on-disk data cannot be read or DB directory cannot be
+     *             created
+     */
+    public LSMDatabase(String databaseName, int databaseId, String databaseDir, int numIndices,
+        boolean readFromDisk, ByteRangeComparator[] comparators, boolean compression, int maxEntriesPerBlock,
+        int maxBlockFileSize, boolean disableMMap, int mmapLimit, IndexConfig[] indexConfigs)
+        throws BabuDBException {
+        
         this.numIndices = numIndices;
         this.databaseId = databaseId;
         File f = new File(databaseDir);
@@ -148,6 +214,9 @@ public class LSMDatabase {
         this.maxBlockFileSize = maxBlockFileSize;
         this.disableMMap = disableMMap;
         this.mmapLimit = mmapLimit;
+        this.indexConfigs = new IndexConfig[numIndices];
+        if (indexConfigs != null)
+            System.arraycopy(indexConfigs, 0, this.indexConfigs, 0, Math.min(numIndices, indexConfigs.length));
         
         if (readFromDisk) {
             loadFromDisk(numIndices);
@@ -155,8 +224,7 @@ public class LSMDatabase {
             try {
                 for (int i = 0; i < numIndices; i++) {
                     assert (comparators[i] != null);
-                    trees.add(new LSMTree(null, comparators[i], this.compression, maxEntriesPerBlock,
-                        maxBlockFileSize, !disableMMap, mmapLimit));
+                    trees.add(createTree(null, i));
                 }
                 ondiskLSN = NO_DB_LSN;
             } catch (IOException ex) {
@@ -177,6 +245,45 @@ public class LSMDatabase {
         return comparators;
     }
     
+    /**
+     * Returns the index-specific settings of all indices. Elements are
+     * <code>null</code> for indices that only use the global settings.
+     * 
+     * @return an array containing the settings of all indices
+     */
+    public IndexConfig[] getIndexConfigs() {
+        return indexConfigs;
+    }
+    
+    /**
+     * Creates the LSM tree of an index according to its settings.
+     */
+    private LSMTree createTree(String indexFile, int index) throws IOException {
+        
+        IndexConfig cfg = getIndexConfig(index);
+        
+        // segments of the value log that are newer than the index file stem
+        // from an incomplete checkpoint
+        ValueLog valueLog = null;
+        if (cfg.getValueLogThreshold() >= 0) {
+            LSN lsn = indexFile == null ? NO_DB_LSN : getSnapshotLSNbyFilename(indexFile);
+            valueLog = new ValueLog(databaseDir, index, cfg.getValueLogThreshold(), cfg
+                    .getValueLogMinLiveRatio(), comparators[index] instanceof ExpiringValues, lsn.getViewId(),
+                lsn.getSequenceNo());
+        }
+        
+        return new LSMTree(indexFile, comparators[index], cfg.getCompression(compression), cfg
+                .getMaxNumRecordsPerBlock(maxEntriesPerBlock), cfg.getMaxBlockFileSize(maxBlockFileSize), !cfg
+                .getDisableMMap(disableMMap), cfg.getMMapLimit(mmapLimit), valueLog);
+    }
+    
+    /**
+     * @return the settings of an index, where all unset settings are inherited
+     */
+    private IndexConfig getIndexConfig(int index) {
+        return indexConfigs[index] == null ? new IndexConfig() : indexConfigs[index];
+    }
+    
     /**
      * Load the most recent snapshots of each tree.
      * 
@@ -191,6 +298,18 @@ public class LSMDatabase {
         for (int index = 0; index < numIndices; index++) {
             trees.add(null);
         }
+        
+        // remove bulk-loaded index files that have never been linked
+        String[] tmpFiles = new File(databaseDir).list(new FilenameFilter() {
+            
+            public boolean accept(File dir, String name) {
+                return name.startsWith(".BULK");
+            }
+        });
+        if (tmpFiles != null) {
+            for (String fname : tmpFiles)
+                FSUtils.delTree(new File(databaseDir, fname));
+        }
         for (int index = 0; index < numIndices; index++) {
             final int idx = index;
             File f = new File(databaseDir);
@@ -229,17 +348,15 @@ public class LSMDatabase {
                         + " from latest snapshot:" + databaseDir + File.separator + "IX" + index + "V"
                         + maxView + "SEQ" + maxSeq);
                     assert (comparators[index] != null);
-                    trees.set(index, new LSMTree(databaseDir + File.separator
-                        + getSnapshotFilename(index, maxView, maxSeq), comparators[index], this.compression,
-                        this.maxEntriesPerBlock, this.maxBlockFileSize, !this.disableMMap, this.mmapLimit));
+                    trees.set(index, createTree(databaseDir + File.separator
+                        + getSnapshotFilename(index, maxView, maxSeq), index));
                     ondiskLSN = new LSN(maxView, maxSeq);
                 } else {
                     ondiskLSN = NO_DB_LSN;
                     Logging.logMessage(Logging.LEVEL_DEBUG, this, "no snapshot for database "
                         + this.databaseName);
                     assert (comparators[index] != null);
-                    trees.set(index, new LSMTree(null, comparators[index], this.compression,
-                        this.maxEntriesPerBlock, this.maxBlockFileSize, !this.disableMMap, this.mmapLimit));
+                    trees.set(index, createTree(null, index));
                 }
             } catch (IOException ex) {
                 Logging.logError(Logging.LEVEL_ERROR, this, ex);
@@ -343,7 +460,7 @@ public class LSMDatabase {
             if (tmpDir.exists())
                 FSUtils.delTree(tmpDir);
             
-            tree.materializeSnapshot(tmpDir.getAbsolutePath(), snapIds[index]);
+            tree.materializeCheckpoint(tmpDir.getAbsolutePath(), snapIds[index], viewId, sequenceNo);
             
             if (!tmpDir.renameTo(targetDir))
                 throw new IOException("could not rename '" + tmpDir + "' to " + targetDir);
@@ -441,6 +558,12 @@ public class LSMDatabase {
                     }
                     
                 }
+                
+                // bulk-loaded indices are contained in the snapshot now
+                Matcher b = Pattern.compile(BULK_FILENAME_REGEXP).matcher(fname);
+                if (b.matches() && Integer.valueOf(b.group(1)) == index) {
+                    FSUtils.delTree(new File(databaseDir + File.separator + fname));
+                }
             }
             
             // throw any I/O exception that has occurred before
@@ -449,6 +572,137 @@ public class LSMDatabase {
         }
     }
     
+    /**
+     * Writes a new on-disk index from a sequence of key-value pairs. The index
+     * is written to a temporary file, which is neither linked to the index nor
+     * affected by checkpoints before it has been linked by means of
+     * {@link #linkBulkIndex(int, String)}.
+     * 
+     * @param indexId
+     *            the id of the index the file is written for
+     * @param entries
+     *            the key-value pairs in strictly ascending key order
+     * @return the name of the file the index has been written to
+     * @throws BabuDBException
+     *             if the keys are not in ascending order, the pairs cannot be
+     *             retrieved, or the file cannot be written
+     */
+    public String writeBulkIndex(int indexId, final Iterator<Entry<byte[], byte[]>> entries)
+        throws BabuDBException {
+        
+        final ByteRangeComparator comp = comparators[indexId];
+        final String fileName = getBulkFilename(indexId, bulkFileCounter.incrementAndGet());
+        
+        File tmpDir = new File(databaseDir, "." + fileName);
+        
+        try {
+            
+            if (tmpDir.exists())
+                FSUtils.delTree(tmpDir);
+            
+            IndexConfig cfg = getIndexConfig(indexId);
+            final boolean inline = cfg.getValueLogThreshold() >= 0;
+            DiskIndexWriter writer = new DiskIndexWriter(tmpDir.getAbsolutePath(), cfg
+                    .getMaxNumRecordsPerBlock(maxEntriesPerBlock), cfg.getCompression(compression), cfg
+                    .getMaxBlockFileSize(maxBlockFileSize));
+            
+            writer.writeIndex(new ResultSet<Object, Object>() {
+                
+                private byte[] lastKey;
+                
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+                
+                @SuppressWarnings("unchecked")
+                public Entry<Object, Object> next() {
+                    
+                    Entry<byte[], byte[]> next = entries.next();
+                    if (lastKey != null && comp.compare(lastKey, next.getKey()) >= 0)
+                        throw new IllegalArgumentException("key '" + new String(next.getKey())
+                            + "' is not greater than its predecessor");
+                    
+                    lastKey = next.getKey();
+                    
+                    // values are separated by the next checkpoint
+                    if (inline)
+                        return new SimpleEntry<Object, Object>(next.getKey(), ValueLog.inline(next
+                                .getValue()));
+                    
+                    return (Entry<Object, Object>) (Entry<?, ?>) next;
+                }
+                
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+                
+                public void free() {
+                }
+            });
+            
+        } catch (RuntimeException exc) {
+            // the keys are out of order, or the pairs could not be retrieved
+            FSUtils.delTree(tmpDir);
+            throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "cannot bulk-load index " + indexId + ": "
+                + exc.getMessage(), exc);
+        } catch (IOException exc) {
+            FSUtils.delTree(tmpDir);
+            throw new BabuDBException(ErrorCode.IO_ERROR, "cannot write index file for bulk load", exc);
+        }
+        
+        return fileName;
+    }
+    
+    /**
+     * Replaces the content of an index with a file written by
+     * {@link #writeBulkIndex(int, Iterator)}. The file is deleted as soon as
+     * the next checkpoint has been taken. Hence, this method must not be
+     * invoked concurrently to a checkpoint.
+     * 
+     * @param indexId
+     *            the id of the index
+     * @param fileName
+     *            the name of the bulk-loaded index file
+     * @return <code>false</code>, if the file does not exist (anymore),
+     *         <code>true</code> otherwise
+     * @throws BabuDBException
+     *             if the file cannot be read
+     */
+    public boolean linkBulkIndex(int indexId, String fileName) throws BabuDBException {
+        
+        File file = new File(databaseDir, fileName);
+        File tmpFile = new File(databaseDir, "." + fileName);
+        
+        if (!file.exists()) {
+            if (!tmpFile.exists())
+                return false;
+            if (!tmpFile.renameTo(file))
+                throw new BabuDBException(ErrorCode.IO_ERROR, "could not rename '" + tmpFile + "' to " + file);
+        }
+        
+        Logging.logMessage(Logging.LEVEL_INFO, this, "linking to bulk-loaded index " + file + ", dbName="
+            + databaseName + ", index=" + indexId);
+        
+        try {
+            trees.get(indexId).linkToIndex(file.getAbsolutePath());
+        } catch (IOException exc) {
+            throw new BabuDBException(ErrorCode.IO_ERROR, "cannot load bulk-loaded index " + file, exc);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Deletes a file written by {@link #writeBulkIndex(int, Iterator)} that
+     * will not be linked to its index.
+     * 
+     * @param fileName
+     *            the name of the bulk-loaded index file
+     */
+    public void discardBulkIndex(String fileName) {
+        FSUtils.delTree(new File(databaseDir, "." + fileName));
+    }
+    
     /**
      * Get the database's name.
      * 
@@ -462,6 +716,10 @@ public class LSMDatabase {
         return "IX" + indexId + "V" + viewId + "SEQ" + sequenceNo + ".idx";
     }
     
+    private static String getBulkFilename(int indexId, long number) {
+        return "BULK" + indexId + "N" + number + ".idx";
+    }
+    
     /**
      * 
      * @param fname
@@ -534,6 +792,13 @@ public class LSMDatabase {
                     }
                 }
             }
+            
+            // value segments referenced by the snapshot
+            for (String fname : f.list()) {
+                if (ValueLog.isSegmentFilename(fname, idx))
+                    result.add(new DBFileMetaData(databaseDir + File.separator + fname, new File(f, fname)
+                            .length()));
+            }
         }
         
         return result;
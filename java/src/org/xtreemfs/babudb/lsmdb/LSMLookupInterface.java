@@ -8,6 +8,8 @@ package org.xtreemfs.babudb.lsmdb;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
+import org.xtreemfs.babudb.api.database.EntryFilter;
+import org.xtreemfs.babudb.api.database.ValueProjection;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.index.LSMTree;
 
@@ -51,4 +53,23 @@ public class LSMLookupInterface {
         return tree.prefixLookup(startKey,snapId);
     }
     
+    public Iterator<Entry<byte[],byte[]>> rangeLookup(int indexId, byte[] from, byte[] to) throws BabuDBException {
+        return rangeLookup(indexId, from, to, null, null);
+    }
+    
+    /**
+     * Performs a range lookup that only returns entries accepted by the given
+     * filter, with their values reduced to the given projection.
+     * 
+     * @see org.xtreemfs.babudb.api.database.Database#filteredRangeLookup(int,
+     *      byte[], byte[], EntryFilter, ValueProjection, Object)
+     */
+    public Iterator<Entry<byte[],byte[]>> rangeLookup(int indexId, byte[] from, byte[] to, EntryFilter filter,
+            ValueProjection projection) throws BabuDBException {
+        LSMTree tree = database.getIndex(indexId);
+        if (tree == null)
+            throw new BabuDBException(BabuDBException.ErrorCode.NO_SUCH_INDEX, "index does not exist");
+        return tree.rangeLookup(from, to, true, filter, projection);
+    }
+    
 }
@@ -79,7 +79,16 @@ public class LSN implements Comparable<LSN> {
         else    
             return false;
     }
-    
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * viewId + (int) (sequenceNo ^ (sequenceNo >>> 32));
+    }
+
     /*
      * (non-Javadoc)
      * @see java.lang.Object#toString()
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.lsmdb;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xtreemfs.babudb.BabuDBRequestResultImpl;
+import org.xtreemfs.babudb.api.database.PartitionConsumer;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.index.LSMTree;
+
+/**
+ * A range lookup that is split into partitions at block boundaries of the
+ * on-disk index, so that the partitions can be scanned concurrently. Each
+ * partition is scanned with a regular range lookup on the LSM tree, which
+ * covers the overlay as well as the on-disk index.
+ * 
+ * Each scan has its own pool of daemon threads, which terminate once all
+ * partitions have been scanned. Thus, parallel scans neither occupy the worker
+ * threads nor the read pool, and they never wait for each other: a thread may
+ * consume several merged scans at once, and a consumer may issue further
+ * parallel scans.
+ */
+public class ParallelRangeScan {
+    
+    /**
+     * maximum number of entries buffered per partition when partitions are
+     * merged into a single result set
+     */
+    public static final int                    BUFFER_SIZE = 1024;
+    
+    /**
+     * marks the end of a partition in a merge buffer
+     */
+    private static final Entry<byte[], byte[]> END         = new SimpleEntry<byte[], byte[]>(null, null);
+    
+    private final LSMTree                      tree;
+    
+    /**
+     * the bounds of all partitions; partition i ranges from bounds[i]
+     * (inclusively) to bounds[i + 1] (exclusively)
+     */
+    private final byte[][]                     bounds;
+    
+    /**
+     * Splits a range lookup into partitions.
+     * 
+     * @param tree
+     *            the tree to scan
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param maxPartitions
+     *            the maximum number of partitions
+     */
+    public ParallelRangeScan(LSMTree tree, byte[] from, byte[] to, int maxPartitions) {
+        
+        this.tree = tree;
+        
+        byte[][] splitKeys = tree.getSplitKeys(from, to, maxPartitions);
+        bounds = new byte[splitKeys.length + 2][];
+        bounds[0] = from == null ? new byte[0] : from;
+        System.arraycopy(splitKeys, 0, bounds, 1, splitKeys.length);
+        bounds[bounds.length - 1] = to == null ? new byte[0] : to;
+    }
+    
+    /**
+     * @return the number of partitions
+     */
+    public int getNumPartitions() {
+        return bounds.length - 1;
+    }
+    
+    /**
+     * Scans all partitions concurrently and passes them to the given consumer.
+     * The listener is notified once all partitions have been consumed; it fails
+     * with the first error that occurred, in which case partitions that have
+     * not been started yet are skipped.
+     * 
+     * @param consumer
+     * @param listener
+     */
+    public void scan(final PartitionConsumer consumer, final BabuDBRequestResultImpl<Object> listener) {
+        
+        final AtomicInteger remaining = new AtomicInteger(getNumPartitions());
+        final AtomicReference<BabuDBException> error = new AtomicReference<BabuDBException>();
+        
+        ExecutorService pool = newScanPool(getNumPartitions());
+        for (int i = 0; i < getNumPartitions(); i++) {
+            final int partition = i;
+            pool.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    if (error.get() == null) {
+                        ResultSet<byte[], byte[]> entries = null;
+                        try {
+                            entries = tree.rangeLookup(bounds[partition], bounds[partition + 1]);
+                            consumer.consume(partition, entries);
+                        } catch (BabuDBException exc) {
+                            error.compareAndSet(null, exc);
+                        } catch (Throwable exc) {
+                            error.compareAndSet(null, new BabuDBException(ErrorCode.INTERNAL_ERROR,
+                                "partition " + partition + " could not be scanned", exc));
+                        } finally {
+                            if (entries != null)
+                                entries.free();
+                        }
+                    }
+                    
+                    if (remaining.decrementAndGet() == 0) {
+                        if (error.get() == null)
+                            listener.finished(null);
+                        else
+                            listener.failed(error.get());
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+    }
+    
+    /**
+     * Returns a result set that merges all partitions in ascending key order.
+     * Partitions are scanned ahead of the consumer of the result set, up to
+     * the given number of partitions at a time. The threads of the scan are
+     * blocked while the buffers of their partitions are full, until the
+     * result set has been consumed or freed.
+     * 
+     * @param parallelism
+     *            the maximum number of partitions scanned concurrently
+     * @return the merged result set
+     */
+    public ResultSet<byte[], byte[]> merge(int parallelism) {
+        return new MergedResultSet(Math.max(parallelism, 1));
+    }
+    
+    /**
+     * The buffered entries of a partition that is being merged.
+     */
+    private static final class Partition {
+        
+        final BlockingQueue<Entry<byte[], byte[]>> buffer =
+            new ArrayBlockingQueue<Entry<byte[], byte[]>>(BUFFER_SIZE);
+        
+        volatile Throwable                         error;
+    }
+    
+    /**
+     * A result set that consumes the partitions in order, while scans of
+     * subsequent partitions fill their buffers in the background. Partitions
+     * are scanned in ascending order, so the partition being consumed is
+     * always scanned before any partition that is waiting for a thread.
+     */
+    private final class MergedResultSet implements ResultSet<byte[], byte[]> {
+        
+        private final Partition[]           partitions;
+        
+        private volatile boolean            freed;
+        
+        private int                         current;
+        
+        private Entry<byte[], byte[]>       next;
+        
+        MergedResultSet(int parallelism) {
+            
+            this.partitions = new Partition[getNumPartitions()];
+            for (int i = 0; i < partitions.length; i++)
+                partitions[i] = new Partition();
+            
+            ExecutorService pool = newScanPool(Math.min(parallelism, partitions.length));
+            for (int i = 0; i < partitions.length; i++)
+                start(pool, i);
+            pool.shutdown();
+        }
+        
+        /**
+         * Starts the scan of a partition, which fills the partition's buffer
+         * until the partition has been scanned completely or the result set
+         * has been freed.
+         */
+        private void start(ExecutorService pool, final int partition) {
+            
+            pool.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    Partition p = partitions[partition];
+                    if (freed)
+                        return;
+                    
+                    ResultSet<byte[], byte[]> entries = null;
+                    try {
+                        entries = tree.rangeLookup(bounds[partition], bounds[partition + 1]);
+                        while (entries.hasNext())
+                            if (!put(p, entries.next()))
+                                return;
+                    } catch (Throwable exc) {
+                        p.error = exc;
+                    } finally {
+                        if (entries != null)
+                            entries.free();
+                    }
+                    
+                    put(p, END);
+                }
+            });
+        }
+        
+        /**
+         * Adds an entry to the buffer of a partition, waiting for space to
+         * become available.
+         * 
+         * @return <code>false</code>, if the result set has been freed
+         */
+        private boolean put(Partition p, Entry<byte[], byte[]> entry) {
+            
+            try {
+                while (!p.buffer.offer(entry, 100, TimeUnit.MILLISECONDS))
+                    if (freed)
+                        return false;
+                return true;
+            } catch (InterruptedException exc) {
+                // make room for the end marker, so that the consumer does not
+                // wait for the partition forever
+                p.error = exc;
+                p.buffer.clear();
+                p.buffer.offer(END);
+                return false;
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            
+            while (next == null && current < partitions.length && !freed) {
+                
+                Partition p = partitions[current];
+                Entry<byte[], byte[]> entry;
+                try {
+                    entry = p.buffer.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for partition " + current);
+                }
+                
+                // the result set may be freed meanwhile
+                if (entry == null)
+                    continue;
+                
+                if (entry != END) {
+                    next = entry;
+                    break;
+                }
+                
+                if (p.error != null)
+                    throw new IllegalStateException("partition " + current + " could not be scanned",
+                        p.error);
+                
+                // proceed with the next partition
+                partitions[current++] = null;
+            }
+            
+            return next != null;
+        }
+        
+        @Override
+        public Entry<byte[], byte[]> next() {
+            
+            if (!hasNext())
+                throw new NoSuchElementException();
+            
+            Entry<byte[], byte[]> entry = next;
+            next = null;
+            return entry;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void free() {
+            freed = true;
+        }
+    }
+    
+    /**
+     * Creates a pool for the threads of a single scan. The pool is expected to
+     * be shut down once all partitions have been submitted, so that its
+     * threads terminate when they are done.
+     */
+    private static ExecutorService newScanPool(int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, new ScanThreadFactory());
+    }
+    
+    /**
+     * Creates the daemon threads of the scan pools.
+     */
+    private static final class ScanThreadFactory implements ThreadFactory {
+        
+        private static final AtomicInteger threadNo = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BabuDBScan#" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
+    
\ No newline at end of file
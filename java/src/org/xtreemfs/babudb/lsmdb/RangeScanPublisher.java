@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+package org.xtreemfs.babudb.lsmdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPublisher;
+import org.xtreemfs.babudb.api.database.ScanSubscriber;
+import org.xtreemfs.babudb.api.database.ScanSubscription;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+
+/**
+ * A {@link ScanPublisher} for prefix and range scans on a database.
+ * 
+ * Each batch of entries is retrieved with a regular prefix or range lookup on
+ * the database, so that it is processed by the worker thread or the read pool
+ * like any other lookup. The result set is freed as soon as the batch has been
+ * copied out of it. Subsequent batches continue the scan at the last key
+ * delivered.
+ */
+public class RangeScanPublisher implements ScanPublisher {
+    
+    /**
+     * maximum number of entries retrieved with a single lookup
+     */
+    public static final int MAX_BATCH_SIZE = 1024;
+    
+    private final Database  database;
+    
+    private final int       indexId;
+    
+    private final boolean   prefixScan;
+    
+    private final byte[]    from;
+    
+    private final byte[]    to;
+    
+    private final boolean   ascending;
+    
+    /**
+     * Creates a publisher for a prefix scan.
+     * 
+     * @param database
+     * @param indexId
+     * @param prefix
+     * @param ascending
+     */
+    public RangeScanPublisher(Database database, int indexId, byte[] prefix, boolean ascending) {
+        this.database = database;
+        this.indexId = indexId;
+        this.prefixScan = true;
+        this.from = prefix;
+        this.to = null;
+        this.ascending = ascending;
+    }
+    
+    /**
+     * Creates a publisher for a range scan.
+     * 
+     * @param database
+     * @param indexId
+     * @param from
+     *            the key to start the scan at (inclusively)
+     * @param to
+     *            the key to end the scan at (exclusively)
+     * @param ascending
+     */
+    public RangeScanPublisher(Database database, int indexId, byte[] from, byte[] to, boolean ascending) {
+        this.database = database;
+        this.indexId = indexId;
+        this.prefixScan = false;
+        this.from = from;
+        this.to = to;
+        this.ascending = ascending;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.ScanPublisher#subscribe(org.xtreemfs.babudb.api.database.ScanSubscriber)
+     */
+    @Override
+    public void subscribe(ScanSubscriber subscriber) {
+        new Subscription(subscriber).start();
+    }
+    
+    /**
+     * Issues the lookup for the next batch.
+     * 
+     * @param lastKey
+     *            the last key delivered, or <code>null</code> for the first
+     *            batch
+     * @return a future for the result set
+     */
+    private DatabaseRequestResult<ResultSet<byte[], byte[]>> lookup(byte[] lastKey) {
+        
+        if (lastKey == null) {
+            if (prefixScan)
+                return ascending ? database.prefixLookup(indexId, from, null) : database.reversePrefixLookup(
+                        indexId, from, null);
+            else
+                return ascending ? database.rangeLookup(indexId, from, to, null) : database.reverseRangeLookup(
+                        indexId, from, to, null);
+        }
+        
+        // continue at the last key delivered; the end of an ascending prefix
+        // scan is the end of the range the prefix translates to, whereas a
+        // descending one has to include the prefix itself, which the lower
+        // bound of a range lookup excludes, so that it is continued without a
+        // lower bound until the first key below the prefix
+        byte[] end = to;
+        if (prefixScan && ascending && from != null && from.length > 0) {
+            byte[][] range = database.getComparators()[indexId].prefixToRange(from, ascending);
+            end = range == null ? null : range[1];
+        }
+        if (end == null || prefixScan && !ascending)
+            end = new byte[0];
+        
+        return ascending ? database.rangeLookup(indexId, lastKey, end, null) : database.reverseRangeLookup(
+                indexId, lastKey, end, null);
+    }
+    
+    /**
+     * Checks whether a key returned by the lookup continuing a descending
+     * prefix scan is below the prefix, and thus ends the scan.
+     * 
+     * @param key
+     *            the key
+     * @return <code>true</code>, if the key is below the prefix
+     */
+    private boolean belowPrefix(byte[] key) {
+        return prefixScan && !ascending && from != null && from.length > 0
+            && database.getComparators()[indexId].compare(key, from) < 0;
+    }
+    
+    /**
+     * The state of a single scan.
+     * 
+     * All calls to the subscriber are made from the drain loop, which is
+     * entered by whichever thread signals a change (a request, a cancellation
+     * or the completion of a lookup) while no other thread is inside it. Fields
+     * that are not volatile are only accessed from within the drain loop.
+     */
+    private final class Subscription implements ScanSubscription,
+            DatabaseRequestListener<ResultSet<byte[], byte[]>> {
+        
+        private final ScanSubscriber                subscriber;
+        
+        private final AtomicLong                    demand = new AtomicLong();
+        
+        private final AtomicInteger                 wip    = new AtomicInteger();
+        
+        private volatile boolean                    cancelled;
+        
+        private volatile ResultSet<byte[], byte[]>  result;
+        
+        private volatile BabuDBException            error;
+        
+        private boolean                             fetching;
+        
+        private boolean                             done;
+        
+        private int                                 batchSize;
+        
+        private byte[]                              lastKey;
+        
+        Subscription(ScanSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+        
+        void start() {
+            
+            // keep the drain loop from being entered before the subscriber has
+            // been set up
+            wip.incrementAndGet();
+            subscriber.onSubscribe(this);
+            if (wip.decrementAndGet() != 0)
+                drainLoop();
+        }
+        
+        @Override
+        public void request(long n) {
+            
+            if (n <= 0) {
+                error = new BabuDBException(ErrorCode.INTERNAL_ERROR, "invalid demand: " + n,
+                        new IllegalArgumentException());
+            } else {
+                long current, updated;
+                do {
+                    current = demand.get();
+                    updated = current + n;
+                    if (updated < 0)
+                        updated = Long.MAX_VALUE;
+                } while (!demand.compareAndSet(current, updated));
+            }
+            
+            drain();
+        }
+        
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+        
+        @Override
+        public void finished(ResultSet<byte[], byte[]> rs, Object context) {
+            result = rs;
+            drain();
+        }
+        
+        @Override
+        public void failed(BabuDBException exc, Object context) {
+            error = exc;
+            drain();
+        }
+        
+        private void drain() {
+            if (wip.getAndIncrement() == 0)
+                drainLoop();
+        }
+        
+        private void drainLoop() {
+            do {
+                step();
+            } while (wip.decrementAndGet() != 0);
+        }
+        
+        private void step() {
+            
+            ResultSet<byte[], byte[]> rs = result;
+            
+            // release the result of a lookup that is no longer needed
+            if (done || cancelled) {
+                if (rs != null) {
+                    result = null;
+                    rs.free();
+                }
+                return;
+            }
+            
+            BabuDBException exc = error;
+            if (exc != null) {
+                done = true;
+                subscriber.onError(exc);
+                return;
+            }
+            
+            if (rs != null) {
+                result = null;
+                fetching = false;
+                deliver(rs);
+                if (done || cancelled)
+                    return;
+            }
+            
+            // retrieve the next batch if there is demand for it
+            if (!fetching && demand.get() > 0) {
+                fetching = true;
+                batchSize = (int) Math.min(demand.get(), MAX_BATCH_SIZE);
+                lookup(lastKey).registerListener(this);
+            }
+        }
+        
+        private void deliver(ResultSet<byte[], byte[]> rs) {
+            
+            // copy the batch out of the result set, and free it before any
+            // entry is delivered
+            List<Entry<byte[], byte[]>> batch = new ArrayList<Entry<byte[], byte[]>>(batchSize);
+            boolean exhausted = false;
+            try {
+                boolean first = true;
+                while (batch.size() < batchSize && rs.hasNext()) {
+                    Entry<byte[], byte[]> next = rs.next();
+                    
+                    // the last key delivered is contained in the range of the
+                    // lookup continuing the scan
+                    if (first && lastKey != null && Arrays.equals(lastKey, next.getKey())) {
+                        first = false;
+                        continue;
+                    }
+                    first = false;
+                    
+                    if (lastKey != null && belowPrefix(next.getKey())) {
+                        exhausted = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                exhausted = exhausted || !rs.hasNext();
+            } finally {
+                rs.free();
+            }
+            
+            for (Entry<byte[], byte[]> entry : batch) {
+                if (cancelled)
+                    return;
+                
+                if (demand.get() != Long.MAX_VALUE)
+                    demand.decrementAndGet();
+                lastKey = entry.getKey();
+                subscriber.onNext(entry.getKey(), entry.getValue());
+            }
+            
+            if (exhausted) {
+                done = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
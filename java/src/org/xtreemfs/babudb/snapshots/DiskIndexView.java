@@ -17,6 +17,7 @@ import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.index.DescendingPrefixResultSet;
 import org.xtreemfs.babudb.index.reader.DiskIndex;
 
 /**
@@ -86,7 +87,11 @@ public class DiskIndexView implements BabuDBView {
             throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + indexId + " does not exist");
         
         byte[][] range = index.getComparator().prefixToRange(key, true);
-        return index.rangeLookup(range[0], range[1], ascending);
+        ResultSet<byte[], byte[]> it = index.rangeLookup(range[0], range[1], ascending);
+        if (ascending || key == null || key.length == 0)
+            return it;
+        
+        return new DescendingPrefixResultSet(it, index.getComparator(), range[1], key, index.lookup(key));
     }
     
     @Override
@@ -62,6 +62,26 @@ public class Snapshot implements DatabaseRO {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.lsmdb.DatabaseRO#multiLookup(int, byte[][], java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(int indexId, byte[][] keys, Object context) {
+        BabuDBRequestResultImpl<byte[][]> result = 
+            new BabuDBRequestResultImpl<byte[][]>(context, dbs.getResponseManager());
+        byte[][] r = new byte[keys.length][];
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                r[i] = view.directLookup(indexId, keys[i]);
+            }
+            result.finished(r);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.lsmdb.DatabaseRO#prefixLookup(int, byte[], java.lang.Object)
      */
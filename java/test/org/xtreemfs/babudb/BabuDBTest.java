@@ -9,8 +9,19 @@
 package org.xtreemfs.babudb;
 
 import java.io.File;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -24,11 +35,38 @@ import org.xtreemfs.babudb.api.SnapshotManager;
 import org.xtreemfs.babudb.api.StaticInitialization;
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.EntryFilter;
+import org.xtreemfs.babudb.api.database.PartitionConsumer;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPublisher;
+import org.xtreemfs.babudb.api.database.ScanSubscriber;
+import org.xtreemfs.babudb.api.database.ScanSubscription;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
+import org.xtreemfs.babudb.api.database.ValueProjection;
+import org.xtreemfs.babudb.api.dev.BabuDBInternal;
+import org.xtreemfs.babudb.api.dev.DatabaseInternal;
+import org.xtreemfs.babudb.api.dev.ResponseManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.DerivedKeys;
+import org.xtreemfs.babudb.api.index.IndexDerivation;
+import org.xtreemfs.babudb.api.index.KeyDecoder;
+import org.xtreemfs.babudb.api.index.KeyEncoder;
+import org.xtreemfs.babudb.api.index.MergeOperator;
+import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.config.ConfigBuilder;
+import org.xtreemfs.babudb.config.IndexConfig;
+import org.xtreemfs.babudb.index.ByteRange;
+import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+import org.xtreemfs.babudb.index.UnsignedByteRangeComparator;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.LSMDBWorker.ReadMode;
 import org.xtreemfs.babudb.lsmdb.LSMLookupInterface;
+import org.xtreemfs.babudb.lsmdb.ParallelRangeScan;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -160,6 +198,1386 @@ public class BabuDBTest extends TestCase {
         database.shutdown();
     }
     
+    @Test
+    public void testParallelReplay() throws Exception {
+        
+        final int numDBs = 5;
+        final int numKeys = 200;
+        
+        BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setLogReplayThreads(3).build();
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        DatabaseManager dbMan = database.getDatabaseManager();
+        for (int i = 0; i < numDBs; i++) {
+            dbMan.createDatabase("db" + i, 2);
+        }
+        
+        // overwrite and delete keys, partly in transactions spanning multiple
+        // databases; in the middle of the log, one database is replaced by a
+        // new one
+        for (int k = 0; k < numKeys; k++) {
+            
+            if (k == numKeys / 2) {
+                dbMan.deleteDatabase("db0");
+                dbMan.createDatabase("db" + numDBs, 2);
+            }
+            int first = k < numKeys / 2 ? 0 : 1;
+            int last = k < numKeys / 2 ? numDBs - 1 : numDBs;
+            
+            for (int i = first; i <= last; i++) {
+                Database db = dbMan.getDatabase("db" + i);
+                db.singleInsert(k % 2, ("key" + k).getBytes(), ("v1-" + i).getBytes(), null).get();
+            }
+            
+            Transaction txn = dbMan.createTransaction();
+            for (int i = first; i <= last; i++) {
+                if (k % 3 == 0) {
+                    txn.deleteRecord("db" + i, k % 2, ("key" + k).getBytes());
+                } else {
+                    txn.insertRecord("db" + i, k % 2, ("key" + k).getBytes(), ("v2-" + i).getBytes());
+                }
+            }
+            dbMan.executeTransaction(txn);
+        }
+        
+        database.shutdown();
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        dbMan = database.getDatabaseManager();
+        assertFalse(dbMan.getDatabases().containsKey("db0"));
+        for (int i = 1; i <= numDBs; i++) {
+            Database db = dbMan.getDatabase("db" + i);
+            for (int k = 0; k < numKeys; k++) {
+                byte[] result = db.lookup(k % 2, ("key" + k).getBytes(), null).get();
+                if (k % 3 == 0 || (i == numDBs && k < numKeys / 2)) {
+                    assertNull(result);
+                } else {
+                    assertNotNull(result);
+                    assertEquals("v2-" + i, new String(result));
+                }
+            }
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testConcurrentReads() throws Exception {
+        
+        for (ReadMode mode : new ReadMode[] { ReadMode.POOL, ReadMode.CALLER }) {
+            
+            FSUtils.delTree(new File(baseDir));
+            
+            final int numKeys = 2000;
+            
+            database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+                    SyncMode.ASYNC).setMultiThreaded(2).setReadMode(mode, 4).build());
+            final Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            // keys are inserted one after another, so that a reader that sees
+            // a key must also see all keys inserted before it
+            Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        for (int k = 0; k < numKeys; k++) {
+                            db.singleInsert(0, key(k), ("v" + k).getBytes(), null).get();
+                        }
+                    } catch (BabuDBException exc) {
+                        throw new RuntimeException(exc);
+                    }
+                }
+            };
+            
+            final Throwable[] errors = new Throwable[4];
+            Thread[] readers = new Thread[errors.length];
+            for (int i = 0; i < readers.length; i++) {
+                final int id = i;
+                readers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            int seen = 0;
+                            while (seen < numKeys) {
+                                
+                                byte[] value = db.lookup(0, key(seen), null).get();
+                                if (value == null) {
+                                    continue;
+                                }
+                                assertEquals("v" + seen, new String(value));
+                                
+                                int count = 0;
+                                Iterator<Entry<byte[], byte[]>> it = db.rangeLookup(0, key(0), key(seen + 1),
+                                        null).get();
+                                while (it.hasNext()) {
+                                    it.next();
+                                    count++;
+                                }
+                                assertEquals(seen + 1, count);
+                                
+                                seen++;
+                            }
+                        } catch (Throwable exc) {
+                            errors[id] = exc;
+                        }
+                    }
+                };
+            }
+            
+            writer.start();
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            for (Throwable error : errors) {
+                if (error != null) {
+                    throw new Exception(mode + ": concurrent lookup failed", error);
+                }
+            }
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testConcurrentReadsOfGroups() throws Exception {
+        
+        for (ReadMode mode : new ReadMode[] { ReadMode.POOL, ReadMode.CALLER }) {
+            
+            FSUtils.delTree(new File(baseDir));
+            
+            final int numGroups = 2000;
+            
+            database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+                    SyncMode.ASYNC).setMultiThreaded(2).setReadMode(mode, 4).build());
+            final Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            // each group overwrites both keys with the same value, so that a
+            // reader must never see two different values
+            final byte[][] keys = new byte[][] { "a".getBytes(), "b".getBytes() };
+            final AtomicBoolean done = new AtomicBoolean(false);
+            Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < numGroups; i++) {
+                            DatabaseInsertGroup ig = db.createInsertGroup();
+                            ig.addInsert(0, keys[0], ("v" + i).getBytes());
+                            ig.addInsert(0, keys[1], ("v" + i).getBytes());
+                            db.insert(ig, null).get();
+                        }
+                    } catch (BabuDBException exc) {
+                        throw new RuntimeException(exc);
+                    } finally {
+                        done.set(true);
+                    }
+                }
+            };
+            
+            final Throwable[] errors = new Throwable[4];
+            Thread[] readers = new Thread[errors.length];
+            for (int i = 0; i < readers.length; i++) {
+                final int id = i;
+                readers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            while (!done.get()) {
+                                byte[][] values = db.multiLookup(0, keys, null).get();
+                                if (values[0] == null || values[1] == null) {
+                                    assertNull(values[0]);
+                                    assertNull(values[1]);
+                                } else {
+                                    assertEquals(new String(values[0]), new String(values[1]));
+                                }
+                            }
+                        } catch (Throwable exc) {
+                            errors[id] = exc;
+                        }
+                    }
+                };
+            }
+            
+            writer.start();
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            for (Throwable error : errors) {
+                if (error != null) {
+                    throw new Exception(mode + ": group observed partially", error);
+                }
+            }
+            
+            database.shutdown();
+        }
+    }
+    
+    private static byte[] key(int k) {
+        return String.format("key%05d", k).getBytes();
+    }
+    
+    @Test
+    public void testScans() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(2).build());
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        // keys are partly on disk and partly in the overlay; the prefix itself
+        // is a key, too
+        db.singleInsert(0, "k1".getBytes(), "v".getBytes(), null).get();
+        for (int i = 0; i < 3000; i += 2) {
+            db.singleInsert(0, String.format("k%04d", i).getBytes(), ("v" + i).getBytes(), null).get();
+        }
+        database.getCheckpointer().checkpoint();
+        for (int i = 1; i < 3000; i += 2) {
+            db.singleInsert(0, String.format("k%04d", i).getBytes(), ("v" + i).getBytes(), null).get();
+        }
+        for (int i = 0; i < 3000; i += 10) {
+            db.singleInsert(0, String.format("k%04d", i).getBytes(), null, null).get();
+        }
+        
+        // compare scans with the corresponding lookups, using different
+        // demands to enforce different batch sizes
+        for (int demand : new int[] { 1, 7, 5000 }) {
+            assertScan(db.prefixLookup(0, "k1".getBytes(), null).get(), db.prefixScan(0, "k1".getBytes(), true),
+                demand);
+            assertScan(db.reversePrefixLookup(0, "k1".getBytes(), null).get(), db.prefixScan(0, "k1".getBytes(),
+                false), demand);
+            assertScan(db.prefixLookup(0, new byte[0], null).get(), db.prefixScan(0, new byte[0], true), demand);
+            assertScan(db.rangeLookup(0, "k0100".getBytes(), "k0200".getBytes(), null).get(), db.rangeScan(0,
+                "k0100".getBytes(), "k0200".getBytes(), true), demand);
+            assertScan(db.reverseRangeLookup(0, "k0200".getBytes(), "k0100".getBytes(), null).get(), db.rangeScan(0,
+                "k0200".getBytes(), "k0100".getBytes(), false), demand);
+        }
+        
+        // descending prefix scans that span more than one batch end with the
+        // prefix itself, and do not include the key following the prefix
+        db.singleInsert(0, "p".getBytes(), "v".getBytes(), null).get();
+        db.singleInsert(0, "q".getBytes(), "v".getBytes(), null).get();
+        for (int i = 0; i < 1500; i++) {
+            db.singleInsert(0, String.format("p%04d", i).getBytes(), ("v" + i).getBytes(), null).get();
+        }
+        for (int demand : new int[] { 7, 5000 }) {
+            ScanCollector collector = new ScanCollector(demand);
+            db.prefixScan(0, "p".getBytes(), false).subscribe(collector);
+            collector.await();
+            assertNull(collector.error);
+            assertEquals(1501, collector.entries.size());
+            assertEquals("p1499", new String(collector.entries.get(0)[0]));
+            assertEquals("p", new String(collector.entries.get(1500)[0]));
+            assertScan(db.reversePrefixLookup(0, "p".getBytes(), null).get(), db.prefixScan(0, "p".getBytes(),
+                false), demand);
+        }
+        
+        // cancel a scan after some entries
+        final List<String> keys = new ArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        db.prefixScan(0, new byte[0], true).subscribe(new ScanSubscriber() {
+            
+            private ScanSubscription subscription;
+            
+            public void onSubscribe(ScanSubscription subscription) {
+                this.subscription = subscription;
+                subscription.request(3);
+            }
+            
+            public void onNext(byte[] key, byte[] value) {
+                keys.add(new String(key));
+                if (keys.size() == 10) {
+                    subscription.cancel();
+                    latch.countDown();
+                } else if (keys.size() % 3 == 0) {
+                    subscription.request(3);
+                }
+            }
+            
+            public void onError(BabuDBException error) {
+                fail(error.getMessage());
+            }
+            
+            public void onComplete() {
+                fail("cancelled scan completed");
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(10, keys.size());
+        
+        // scans of non-existing indices fail
+        ScanCollector collector = new ScanCollector(1);
+        db.prefixScan(1, new byte[0], true).subscribe(collector);
+        collector.await();
+        assertNotNull(collector.error);
+        
+        database.shutdown();
+    }
+    
+    private static void assertScan(ResultSet<byte[], byte[]> expected, ScanPublisher publisher, int demand)
+        throws Exception {
+        
+        ScanCollector collector = new ScanCollector(demand);
+        publisher.subscribe(collector);
+        collector.await();
+        
+        assertNull(collector.error);
+        int count = 0;
+        while (expected.hasNext()) {
+            Entry<byte[], byte[]> next = expected.next();
+            assertTrue(count < collector.entries.size());
+            assertEquals(new String(next.getKey()), new String(collector.entries.get(count)[0]));
+            assertEquals(new String(next.getValue()), new String(collector.entries.get(count)[1]));
+            count++;
+        }
+        expected.free();
+        assertEquals(count, collector.entries.size());
+    }
+    
+    /**
+     * Collects all entries of a scan, requesting them in chunks of a fixed
+     * size.
+     */
+    private static class ScanCollector implements ScanSubscriber {
+        
+        final List<byte[][]>     entries = new ArrayList<byte[][]>();
+        
+        final CountDownLatch     done    = new CountDownLatch(1);
+        
+        final int                demand;
+        
+        volatile BabuDBException error;
+        
+        private ScanSubscription subscription;
+        
+        private int              outstanding;
+        
+        ScanCollector(int demand) {
+            this.demand = demand;
+        }
+        
+        void await() throws InterruptedException {
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        }
+        
+        public void onSubscribe(ScanSubscription subscription) {
+            this.subscription = subscription;
+            outstanding = demand;
+            subscription.request(demand);
+        }
+        
+        public void onNext(byte[] key, byte[] value) {
+            entries.add(new byte[][] { key, value });
+            if (--outstanding == 0) {
+                outstanding = demand;
+                subscription.request(demand);
+            }
+        }
+        
+        public void onError(BabuDBException error) {
+            this.error = error;
+            done.countDown();
+        }
+        
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+    
+    @Test
+    public void testListenersWithExecutors() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(2).build());
+        Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ListenerExecutor");
+            }
+        });
+        
+        // listeners notified directly by the completing thread
+        ThreadListener<Object> insertListener = new ThreadListener<Object>();
+        db.singleInsert(0, "Yagga".getBytes(), "Brabbel".getBytes(), null).registerListener(insertListener, null);
+        insertListener.await();
+        assertNull(insertListener.error);
+        assertFalse("RspMan".equals(insertListener.thread));
+        
+        ThreadListener<byte[]> lookupListener = new ThreadListener<byte[]>();
+        db.lookup(0, "Yagga".getBytes(), null).registerListener(lookupListener, null);
+        lookupListener.await();
+        assertEquals("Brabbel", new String(lookupListener.result));
+        assertFalse("RspMan".equals(lookupListener.thread));
+        
+        // listeners notified through an executor, including failures and
+        // requests that have completed before the listener was registered
+        lookupListener = new ThreadListener<byte[]>();
+        db.lookup(0, "Yagga".getBytes(), null).registerListener(lookupListener, executor);
+        lookupListener.await();
+        assertEquals("Brabbel", new String(lookupListener.result));
+        assertEquals("ListenerExecutor", lookupListener.thread);
+        
+        DatabaseRequestResult<byte[]> completed = db.lookup(1, "Yagga".getBytes(), null);
+        assertNull(completed.get());
+        lookupListener = new ThreadListener<byte[]>();
+        completed.registerListener(lookupListener, executor);
+        lookupListener.await();
+        assertNull(lookupListener.result);
+        assertEquals("ListenerExecutor", lookupListener.thread);
+        
+        lookupListener = new ThreadListener<byte[]>();
+        db.lookup(2, "Yagga".getBytes(), null).registerListener(lookupListener, executor);
+        lookupListener.await();
+        assertNotNull(lookupListener.error);
+        assertEquals("ListenerExecutor", lookupListener.thread);
+        
+        // rejected notifications are delivered directly
+        executor.shutdown();
+        lookupListener = new ThreadListener<byte[]>();
+        db.lookup(0, "Yagga".getBytes(), null).registerListener(lookupListener, executor);
+        lookupListener.await();
+        assertEquals("Brabbel", new String(lookupListener.result));
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testParallelResponses() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(1).setResponseThreads(4).build());
+        ResponseManagerInternal responseManager = ((BabuDBInternal) database).getResponseManager();
+        
+        // block the lane of one context
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        responseManager.enqueueResponse(new DatabaseRequestListener<Object>() {
+            public void finished(Object result, Object context) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            
+            public void failed(BabuDBException error, Object context) {
+                blocked.countDown();
+            }
+        }, null, null, 0);
+        assertTrue(blocked.await(30, TimeUnit.SECONDS));
+        
+        // responses with other contexts are still delivered in order
+        final List<Integer> delivered = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int seq = i;
+            responseManager.enqueueResponse(new DatabaseRequestListener<Object>() {
+                public void finished(Object result, Object context) {
+                    synchronized (delivered) {
+                        delivered.add(seq);
+                    }
+                    done.countDown();
+                }
+                
+                public void failed(BabuDBException error, Object context) {
+                    done.countDown();
+                }
+            }, null, null, 1);
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, delivered.get(i).intValue());
+        
+        // the previous responses of a context have been accounted for when
+        // the next one is delivered
+        final CountDownLatch accounted = new CountDownLatch(1);
+        responseManager.enqueueResponse(new DatabaseRequestListener<Object>() {
+            public void finished(Object result, Object context) {
+                accounted.countDown();
+            }
+            
+            public void failed(BabuDBException error, Object context) {
+                accounted.countDown();
+            }
+        }, null, null, 1);
+        assertTrue(accounted.await(30, TimeUnit.SECONDS));
+        
+        release.countDown();
+        
+        // a failing listener does not stop the delivery of responses on any
+        // lane, including the main one
+        final CountDownLatch delivering = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            responseManager.enqueueResponse(new DatabaseRequestListener<Object>() {
+                public void finished(Object result, Object context) {
+                    throw new RuntimeException("listener failed");
+                }
+                
+                public void failed(BabuDBException error, Object context) {
+                }
+            }, null, null, i);
+            responseManager.enqueueResponse(new DatabaseRequestListener<Object>() {
+                public void finished(Object result, Object context) {
+                    delivering.countDown();
+                }
+                
+                public void failed(BabuDBException error, Object context) {
+                }
+            }, null, null, i);
+        }
+        assertTrue(delivering.await(30, TimeUnit.SECONDS));
+        
+        assertNotNull(database.getRuntimeState("responseManager.queueLength"));
+        assertNotNull(database.getRuntimeState("responseManager.avgLatencyMicros"));
+        assertTrue((Long) database.getRuntimeState("responseManager.responseCount") >= 100);
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testMerge() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2,
+            new ByteRangeComparator[] { new CounterComparator(), new DefaultByteRangeComparator() });
+        
+        // merge operands with absent and existing values
+        for (int i = 0; i < 100; i++) {
+            DatabaseInsertGroup ig = db.createInsertGroup();
+            ig.addMerge(0, "counter".getBytes(), "1".getBytes());
+            ig.addMerge(0, ("counter" + (i % 2)).getBytes(), "2".getBytes());
+            db.insert(ig, null).get();
+        }
+        Transaction txn = database.getDatabaseManager().createTransaction();
+        txn.mergeRecord("test", 0, "counter".getBytes(), "-10".getBytes());
+        database.getDatabaseManager().executeTransaction(txn);
+        
+        assertEquals("90", new String(db.lookup(0, "counter".getBytes(), null).get()));
+        assertEquals("100", new String(db.lookup(0, "counter0".getBytes(), null).get()));
+        assertEquals("100", new String(db.lookup(0, "counter1".getBytes(), null).get()));
+        
+        // indices without a merge operator do not accept merges
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addInsert(0, "counter".getBytes(), "0".getBytes());
+        ig.addMerge(1, "counter".getBytes(), "1".getBytes());
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.UNSUPPORTED_OPERATION, exc.getErrorCode());
+        }
+        assertEquals("90", new String(db.lookup(0, "counter".getBytes(), null).get()));
+        
+        // merges are replayed from the log ...
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals("90", new String(db.lookup(0, "counter".getBytes(), null).get()));
+        
+        // ... and applied to checkpointed values after a restart
+        database.getCheckpointer().checkpoint();
+        db.singleInsert(0, "counter0".getBytes(), "5".getBytes(), null).get();
+        ig = db.createInsertGroup();
+        ig.addMerge(0, "counter".getBytes(), "10".getBytes());
+        ig.addMerge(0, "counter0".getBytes(), "-5".getBytes());
+        db.insert(ig, null).get();
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals("100", new String(db.lookup(0, "counter".getBytes(), null).get()));
+        assertNull(db.lookup(0, "counter0".getBytes(), null).get());
+        assertEquals("100", new String(db.lookup(0, "counter1".getBytes(), null).get()));
+        
+        // operands recorded for checkpointed values are applied by prefix
+        // lookups and by the next checkpoint
+        ig = db.createInsertGroup();
+        ig.addMerge(0, "counter".getBytes(), "5".getBytes());
+        ig.addMerge(0, "counter1".getBytes(), "-100".getBytes());
+        db.insert(ig, null).get();
+        assertPrefix(db, "counter", "counter=105");
+        database.getCheckpointer().checkpoint();
+        ig = db.createInsertGroup();
+        ig.addMerge(0, "counter".getBytes(), "5".getBytes());
+        db.insert(ig, null).get();
+        assertPrefix(db, "counter", "counter=110");
+        database.getCheckpointer().checkpoint();
+        assertPrefix(db, "counter", "counter=110");
+        
+        // merges that are still waiting to be logged while a checkpoint is
+        // taken are not replayed on top of the checkpoint after a restart
+        List<DatabaseRequestResult<Object>> results = new ArrayList<DatabaseRequestResult<Object>>();
+        for (int i = 0; i < 2000; i++) {
+            ig = db.createInsertGroup();
+            ig.addMerge(0, "counter".getBytes(), "1".getBytes());
+            results.add(db.insert(ig, null));
+            if (i == 1000)
+                database.getCheckpointer().checkpoint();
+        }
+        for (DatabaseRequestResult<Object> result : results)
+            result.get();
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertPrefix(db, "counter", "counter=2110");
+        
+        database.shutdown();
+    }
+    
+    private static void assertPrefix(Database db, String prefix, String... expected) throws Exception {
+        
+        List<String> entries = new ArrayList<String>();
+        ResultSet<byte[], byte[]> it = db.prefixLookup(0, prefix.getBytes(), null).get();
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> next = it.next();
+            entries.add(new String(next.getKey()) + "=" + new String(next.getValue()));
+        }
+        it.free();
+        assertEquals(Arrays.asList(expected), entries);
+    }
+    
+    @Test
+    public void testConditionalInserts() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        db.singleInsert(0, "dir".getBytes(), "1".getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        
+        // create a file if it does not exist yet, and update its directory
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addInsertIfAbsent(1, "dir/file".getBytes(), "a".getBytes());
+        ig.addReplace(0, "dir".getBytes(), "1".getBytes(), "2".getBytes());
+        db.insert(ig, null).get();
+        assertEquals("a", new String(db.lookup(1, "dir/file".getBytes(), null).get()));
+        assertEquals("2", new String(db.lookup(0, "dir".getBytes(), null).get()));
+        
+        // if any condition is not met, no record of the group is applied
+        ig = db.createInsertGroup();
+        ig.addReplace(0, "dir".getBytes(), "2".getBytes(), "3".getBytes());
+        ig.addInsertIfAbsent(1, "dir/file".getBytes(), "b".getBytes());
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        assertEquals("a", new String(db.lookup(1, "dir/file".getBytes(), null).get()));
+        assertEquals("2", new String(db.lookup(0, "dir".getBytes(), null).get()));
+        
+        // conditions are evaluated against the state before the group, which
+        // also covers the on-disk index
+        ig = db.createInsertGroup();
+        ig.addDeleteIfEquals(1, "dir/file".getBytes(), "a".getBytes());
+        ig.addInsertIfAbsent(1, "dir/file2".getBytes(), "c".getBytes());
+        ig.addReplace(0, "dir".getBytes(), "2".getBytes(), "3".getBytes());
+        db.insert(ig, null).get();
+        assertNull(db.lookup(1, "dir/file".getBytes(), null).get());
+        
+        ig = db.createInsertGroup();
+        ig.addDeleteIfEquals(0, "dir".getBytes(), "2".getBytes());
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        
+        // conditions also take the preceding records of the group into account
+        ig = db.createInsertGroup();
+        ig.addInsertIfAbsent(1, "dir/file3".getBytes(), "d".getBytes());
+        ig.addInsertIfAbsent(1, "dir/file3".getBytes(), "e".getBytes());
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        
+        ig = db.createInsertGroup();
+        ig.addInsert(1, "dir/file3".getBytes(), "d".getBytes());
+        ig.addInsertIfAbsent(1, "dir/file3".getBytes(), "e".getBytes());
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        assertNull(db.lookup(1, "dir/file3".getBytes(), null).get());
+        
+        ig = db.createInsertGroup();
+        ig.addDeleteRange(1, "dir/file2".getBytes(), null);
+        ig.addInsertIfAbsent(1, "dir/file2".getBytes(), "d".getBytes());
+        ig.addReplace(0, "dir".getBytes(), "3".getBytes(), "4".getBytes());
+        ig.addReplace(0, "dir".getBytes(), "4".getBytes(), "5".getBytes());
+        db.insert(ig, null).get();
+        assertEquals("d", new String(db.lookup(1, "dir/file2".getBytes(), null).get()));
+        assertEquals("5", new String(db.lookup(0, "dir".getBytes(), null).get()));
+        
+        // the resolved records are replayed from the log
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertNull(db.lookup(1, "dir/file".getBytes(), null).get());
+        assertEquals("d", new String(db.lookup(1, "dir/file2".getBytes(), null).get()));
+        assertEquals("5", new String(db.lookup(0, "dir".getBytes(), null).get()));
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testDeleteRange() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        // insert keys on disk and in the overlay
+        for (int i = 0; i < 100; i++) {
+            DatabaseInsertGroup ig = db.createInsertGroup();
+            ig.addInsert(0, String.format("%03d", i).getBytes(), "v".getBytes());
+            ig.addInsert(1, String.format("%03d", i).getBytes(), "v".getBytes());
+            db.insert(ig, null).get();
+            if (i == 49)
+                database.getCheckpointer().checkpoint();
+        }
+        
+        // delete ranges spanning both, and re-insert a deleted key
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addDeleteRange(0, "020".getBytes(), "080".getBytes());
+        ig.addInsert(0, "030".getBytes(), "w".getBytes());
+        ig.addDeleteRange(1, null, "010".getBytes());
+        db.insert(ig, null).get();
+        
+        Transaction txn = database.getDatabaseManager().createTransaction();
+        txn.deleteRange("test", 1, "090".getBytes(), null);
+        database.getDatabaseManager().executeTransaction(txn);
+        
+        assertDeletedRanges(db);
+        
+        // range deletes are replayed from the log ...
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertDeletedRanges(db);
+        
+        // ... and applied to the on-disk index by checkpoints
+        database.getCheckpointer().checkpoint();
+        assertDeletedRanges(db);
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertDeletedRanges(db);
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testIndexDerivation() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2,
+            new ByteRangeComparator[] { new AttributeDerivation(), new DefaultByteRangeComparator() });
+        
+        // inserts and updates of the source index maintain the derived index
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addInsert(0, "k1".getBytes(), "red,blue".getBytes());
+        ig.addInsert(0, "k2".getBytes(), "red".getBytes());
+        ig.addInsert(0, "k3".getBytes(), "blue".getBytes());
+        db.insert(ig, null).get();
+        
+        assertDerivedKeys(db, "red", "red/k1", "red/k2");
+        assertDerivedKeys(db, "blue", "blue/k1", "blue/k3");
+        
+        // updates of a key retain the entries of other keys sharing a derived key
+        db.singleInsert(0, "k1".getBytes(), "green".getBytes(), null).get();
+        assertDerivedKeys(db, "red", "red/k2");
+        assertDerivedKeys(db, "blue", "blue/k3");
+        
+        Transaction txn = database.getDatabaseManager().createTransaction();
+        txn.deleteRecord("test", 0, "k2".getBytes());
+        txn.insertRecord("test", 0, "k4".getBytes(), "red,green".getBytes());
+        database.getDatabaseManager().executeTransaction(txn);
+        
+        assertDerivedKeys(db, "red", "red/k4");
+        assertDerivedKeys(db, "blue", "blue/k3");
+        assertDerivedKeys(db, "green", "green/k1", "green/k4");
+        assertEquals("k4", new String(db.lookup(1, DerivedKeys.createKey("red".getBytes(), "k4".getBytes()),
+            null).get()));
+        
+        // range deletes remove the derived entries of all deleted keys
+        database.getCheckpointer().checkpoint();
+        ig = db.createInsertGroup();
+        ig.addDeleteRange(0, "k3".getBytes(), null);
+        db.insert(ig, null).get();
+        
+        assertDerivedKeys(db, "red");
+        assertDerivedKeys(db, "blue");
+        assertDerivedKeys(db, "green", "green/k1");
+        
+        // the derived index is restored when the log is replayed
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        
+        assertDerivedKeys(db, null, "green/k1");
+        db.singleInsert(0, "k1".getBytes(), "blue".getBytes(), null).get();
+        assertDerivedKeys(db, null, "blue/k1");
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testBulkLoad() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        // leave a deleted key in the overlay of the index to load
+        db.singleInsert(0, "0010".getBytes(), "x".getBytes(), null).get();
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addDelete(0, "0010".getBytes());
+        ig.addInsert(1, "key".getBytes(), "v".getBytes());
+        db.insert(ig, null).get();
+        
+        List<Entry<byte[], byte[]>> entries = new ArrayList<Entry<byte[], byte[]>>();
+        for (int i = 0; i < 1000; i += 2)
+            entries.add(new SimpleEntry<byte[], byte[]>(String.format("%04d", i).getBytes(), "b".getBytes()));
+        
+        db.bulkLoad(0, entries.iterator(), null).get();
+        db.singleInsert(0, "0001".getBytes(), "i".getBytes(), null).get();
+        assertBulkLoaded(db);
+        
+        // only empty indices can be loaded
+        try {
+            db.bulkLoad(1, entries.iterator(), null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            // expected
+        }
+        
+        // keys have to be in ascending order
+        Database db2 = database.getDatabaseManager().createDatabase("test2", 1);
+        List<Entry<byte[], byte[]>> unsorted = new ArrayList<Entry<byte[], byte[]>>(entries);
+        unsorted.add(entries.get(0));
+        try {
+            db2.bulkLoad(0, unsorted.iterator(), null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            // expected
+        }
+        assertNull(db2.lookup(0, "0000".getBytes(), null).get());
+        
+        // ... and the index must still be empty when the loaded index is linked
+        final Database db3 = database.getDatabaseManager().createDatabase("test3", 1);
+        final Iterator<Entry<byte[], byte[]>> sorted = entries.iterator();
+        try {
+            db3.bulkLoad(0, new Iterator<Entry<byte[], byte[]>>() {
+                
+                public boolean hasNext() {
+                    return sorted.hasNext();
+                }
+                
+                public Entry<byte[], byte[]> next() {
+                    Entry<byte[], byte[]> next = sorted.next();
+                    try {
+                        if (!sorted.hasNext())
+                            db3.singleInsert(0, "0000".getBytes(), "x".getBytes(), null).get();
+                    } catch (BabuDBException exc) {
+                        throw new RuntimeException(exc);
+                    }
+                    return next;
+                }
+                
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            // expected
+        }
+        assertEquals("x", new String(db3.lookup(0, "0000".getBytes(), null).get()));
+        assertNull(db3.lookup(0, "0002".getBytes(), null).get());
+        for (String file : new File(baseDir, "test3").list())
+            assertFalse(file, file.contains("BULK"));
+        
+        // the bulk load is replayed from the log ...
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertBulkLoaded(db);
+        
+        // ... and replaced by the next checkpoint
+        database.getCheckpointer().checkpoint();
+        assertBulkLoaded(db);
+        for (String file : new File(baseDir, "test").list())
+            assertFalse(file, file.contains("BULK"));
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertBulkLoaded(db);
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testValueLog() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 1, null,
+            new IndexConfig[] { new IndexConfig().setValueLog(100, 0.5) });
+        
+        byte[] large = new byte[1000];
+        for (int i = 0; i < 100; i++) {
+            byte[] value = i % 2 == 0 ? large : "small".getBytes();
+            db.singleInsert(0, String.format("%04d", i).getBytes(), value, null).get();
+        }
+        database.getCheckpointer().checkpoint();
+        
+        // large values are stored in a value segment, and the index only
+        // contains pointers
+        long segmentSize = 0;
+        for (File file : new File(baseDir, "test").listFiles())
+            if (file.getName().startsWith("VAL"))
+                segmentSize += file.length();
+        assertEquals(50 * large.length, segmentSize);
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        for (int i = 0; i < 100; i++) {
+            byte[] value = db.lookup(0, String.format("%04d", i).getBytes(), null).get();
+            assertEquals(i % 2 == 0 ? new String(large) : "small", new String(value));
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testParallelRangeLookup() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        for (int i = 0; i < 1000; i++)
+            db.singleInsert(0, String.format("%04d", i).getBytes(), "v".getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        
+        // partitions cover the overlay as well as the on-disk index
+        db.singleInsert(0, "0500".getBytes(), "w".getBytes(), null).get();
+        db.singleInsert(0, "0500a".getBytes(), "x".getBytes(), null).get();
+        db.singleInsert(0, "0700".getBytes(), null, null).get();
+        
+        List<String> expected = new ArrayList<String>();
+        ResultSet<byte[], byte[]> it = db.rangeLookup(0, "0100".getBytes(), "0900".getBytes(), null).get();
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> next = it.next();
+            expected.add(new String(next.getKey()) + "=" + new String(next.getValue()));
+        }
+        it.free();
+        assertEquals(800, expected.size());
+        
+        final List<List<String>> partitions = new ArrayList<List<String>>();
+        for (int i = 0; i < 4; i++)
+            partitions.add(new ArrayList<String>());
+        db.parallelRangeLookup(0, "0100".getBytes(), "0900".getBytes(), 4, new PartitionConsumer() {
+            
+            @Override
+            public void consume(int partition, ResultSet<byte[], byte[]> entries) {
+                List<String> list = partitions.get(partition);
+                synchronized (list) {
+                    while (entries.hasNext()) {
+                        Entry<byte[], byte[]> next = entries.next();
+                        list.add(new String(next.getKey()) + "=" + new String(next.getValue()));
+                    }
+                }
+            }
+        }, null).get();
+        
+        List<String> consumed = new ArrayList<String>();
+        for (List<String> list : partitions) {
+            synchronized (list) {
+                assertFalse(list.isEmpty());
+                consumed.addAll(list);
+            }
+        }
+        assertEquals(expected, consumed);
+        
+        List<String> merged = new ArrayList<String>();
+        it = db.parallelRangeLookup(0, "0100".getBytes(), "0900".getBytes(), 4, null).get();
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> next = it.next();
+            merged.add(new String(next.getKey()) + "=" + new String(next.getValue()));
+        }
+        it.free();
+        assertEquals(expected, merged);
+        
+        // freeing a merged result set stops the remaining scans
+        it = db.parallelRangeLookup(0, new byte[0], new byte[0], 2, null).get();
+        assertEquals("0000", new String(it.next().getKey()));
+        it.free();
+        
+        // errors of the consumer are passed to the listener
+        try {
+            db.parallelRangeLookup(0, new byte[0], new byte[0], 4, new PartitionConsumer() {
+                
+                @Override
+                public void consume(int partition, ResultSet<byte[], byte[]> entries)
+                    throws BabuDBException {
+                    throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "failed");
+                }
+            }, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.INTERNAL_ERROR, exc.getErrorCode());
+        }
+        
+        // consumers may issue parallel scans themselves
+        final Database fdb = db;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger nested = new AtomicInteger();
+        db.parallelRangeLookup(0, new byte[0], new byte[0], 4, new PartitionConsumer() {
+            
+            @Override
+            public void consume(int partition, ResultSet<byte[], byte[]> entries) throws BabuDBException {
+                calls.incrementAndGet();
+                ResultSet<byte[], byte[]> it = fdb.parallelRangeLookup(0, new byte[0], new byte[0], 4, null)
+                        .get();
+                while (it.hasNext()) {
+                    it.next();
+                    nested.incrementAndGet();
+                }
+                it.free();
+            }
+        }, null).get();
+        assertEquals(calls.get() * 1000, nested.get());
+        
+        // a thread may consume more merged scans than there are processors,
+        // even if their partitions exceed the buffers
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        for (int i = 0; i < 8 * ParallelRangeScan.BUFFER_SIZE; i++)
+            ig.addInsert(0, String.format("1%06d", i).getBytes(), "v".getBytes());
+        db.insert(ig, null).get();
+        database.getCheckpointer().checkpoint();
+        
+        List<ResultSet<byte[], byte[]>> scans = new ArrayList<ResultSet<byte[], byte[]>>();
+        for (int i = 0; i <= Runtime.getRuntime().availableProcessors(); i++) {
+            it = db.parallelRangeLookup(0, new byte[0], new byte[0], 4, null).get();
+            assertEquals("0000", new String(it.next().getKey()));
+            scans.add(it);
+        }
+        for (ResultSet<byte[], byte[]> scan : scans) {
+            int count = 1;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.free();
+            assertEquals(1000 + 8 * ParallelRangeScan.BUFFER_SIZE, count);
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testFilteredRangeLookup() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        for (int i = 0; i < 100; i++)
+            db.singleInsert(0, String.format("%03d", i).getBytes(),
+                ((i % 3 == 0 ? "x" : "y") + "-value" + i).getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        
+        // overlay entries hide on-disk entries, whether accepted or not
+        db.singleInsert(0, "003".getBytes(), "y-value3".getBytes(), null).get();
+        db.singleInsert(0, "004".getBytes(), "x-value4".getBytes(), null).get();
+        
+        final EntryFilter filter = new EntryFilter() {
+            public boolean accept(ByteRange key, ByteRange value) {
+                return value.get(0) == 'x';
+            }
+        };
+        final ValueProjection projection = new ValueProjection(2, -1);
+        
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 30; i++)
+            if ((i % 3 == 0 && i != 3) || i == 4)
+                expected.add(String.format("%03d", i) + "=value" + i);
+        
+        List<String> result = new ArrayList<String>();
+        ResultSet<byte[], byte[]> it = db.filteredRangeLookup(0, new byte[0], "030".getBytes(), filter,
+            projection, null).get();
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> next = it.next();
+            result.add(new String(next.getKey()) + "=" + new String(next.getValue()));
+        }
+        it.free();
+        assertEquals(expected, result);
+        
+        // user-defined lookups may perform filtered range lookups as well
+        Integer count = (Integer) db.userDefinedLookup(new UserDefinedLookup() {
+            
+            public Object execute(LSMLookupInterface database) throws BabuDBException {
+                int count = 0;
+                Iterator<Entry<byte[], byte[]>> it = database.rangeLookup(0, new byte[0], "030".getBytes(),
+                    filter, projection);
+                while (it.hasNext()) {
+                    assertTrue(new String(it.next().getValue()).startsWith("value"));
+                    count++;
+                }
+                return count;
+            }
+        }, null).get();
+        assertEquals(expected.size(), count.intValue());
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testTypedKeys() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 1,
+            new ByteRangeComparator[] { UnsignedByteRangeComparator.getInstance() });
+        
+        // composite keys of parent IDs and names, with negative IDs sorting
+        // before positive ones
+        for (int parent = -5; parent < 5; parent++)
+            for (String name : new String[] { "b", "a", "ab" })
+                db.singleInsert(0, KeyEncoder.encode(parent, name), (parent + "/" + name).getBytes(), null)
+                        .get();
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        
+        // the comparator is restored by its class name
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        
+        List<String> result = new ArrayList<String>();
+        ResultSet<byte[], byte[]> it = db.rangeLookup(0, KeyEncoder.encode(-1), KeyEncoder.encode(1), null)
+                .get();
+        while (it.hasNext())
+            result.add(new String(it.next().getValue()));
+        it.free();
+        assertEquals(Arrays.asList("-1/a", "-1/ab", "-1/b", "0/a", "0/ab", "0/b"), result);
+        
+        it = db.prefixLookup(0, KeyEncoder.encode(-5), null).get();
+        KeyDecoder decoder = new KeyDecoder(it.next().getKey());
+        assertEquals(-5, decoder.readInt());
+        assertEquals("a", decoder.readString());
+        it.free();
+        
+        database.shutdown();
+    }
+    
+    private void assertBulkLoaded(Database db) throws Exception {
+        
+        for (int i = 0; i < 1000; i++) {
+            byte[] value = db.lookup(0, String.format("%04d", i).getBytes(), null).get();
+            if (i == 1)
+                assertEquals("i", new String(value));
+            else if (i % 2 == 0)
+                assertEquals("b", new String(value));
+            else
+                assertNull(value);
+        }
+        assertEquals("v", new String(db.lookup(1, "key".getBytes(), null).get()));
+        
+        int count = 0;
+        ResultSet<byte[], byte[]> it = db.prefixLookup(0, new byte[0], null).get();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.free();
+        assertEquals(501, count);
+    }
+    
+    @Test
+    public void testIndexConfigs() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        IndexConfig[] cfgs = new IndexConfig[] { null,
+            new IndexConfig().setCompressed(true).setMaxNumRecordsPerBlock(4) };
+        Database db = database.getDatabaseManager().createDatabase("test", 2, null, cfgs);
+        
+        for (int i = 0; i < 100; i++) {
+            DatabaseInsertGroup ig = db.createInsertGroup();
+            ig.addInsert(0, String.format("%04d", i).getBytes(), "a".getBytes());
+            ig.addInsert(1, String.format("%04d", i).getBytes(), "b".getBytes());
+            db.insert(ig, null).get();
+        }
+        database.getCheckpointer().checkpoint();
+        database.getDatabaseManager().copyDatabase("test", "copy");
+        
+        // the settings are restored after a restart, also for copies
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        for (String name : new String[] { "test", "copy" }) {
+            db = database.getDatabaseManager().getDatabase(name);
+            assertFalse(((DatabaseInternal) db).getLSMDB().getIndex(0).isCompressed());
+            assertTrue(((DatabaseInternal) db).getLSMDB().getIndex(1).isCompressed());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("a", new String(db.lookup(0, String.format("%04d", i).getBytes(), null).get()));
+                assertEquals("b", new String(db.lookup(1, String.format("%04d", i).getBytes(), null).get()));
+            }
+        }
+        
+        database.shutdown();
+    }
+    
+    /**
+     * Asserts the entries derived from the given attribute, or all entries if
+     * it is null, as "attribute/source key" pairs.
+     */
+    private void assertDerivedKeys(Database db, String attr, String... expected) throws Exception {
+        
+        byte[] prefix = attr == null ? new byte[0] : DerivedKeys.createPrefix(attr.getBytes());
+        ResultSet<byte[], byte[]> it = db.prefixLookup(1, prefix, null).get();
+        for (String key : expected) {
+            assertTrue(it.hasNext());
+            Entry<byte[], byte[]> entry = it.next();
+            assertEquals(key, new String(DerivedKeys.getDerivedKey(entry.getKey())) + "/"
+                + new String(DerivedKeys.getSourceKey(entry.getKey())));
+            assertEquals(key.substring(key.indexOf('/') + 1), new String(entry.getValue()));
+        }
+        assertFalse(it.hasNext());
+        it.free();
+    }
+    
+    private void assertDeletedRanges(Database db) throws Exception {
+        
+        for (int i = 0; i < 100; i++) {
+            byte[] key = String.format("%03d", i).getBytes();
+            
+            byte[] value = db.lookup(0, key, null).get();
+            if (i == 30)
+                assertEquals("w", new String(value));
+            else if (i >= 20 && i < 80)
+                assertNull(value);
+            else
+                assertEquals("v", new String(value));
+            
+            value = db.lookup(1, key, null).get();
+            if (i < 10 || i >= 90)
+                assertNull(value);
+            else
+                assertEquals("v", new String(value));
+        }
+        
+        int count = 0;
+        ResultSet<byte[], byte[]> it = db.prefixLookup(0, new byte[0], null).get();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.free();
+        assertEquals(41, count);
+        
+        count = 0;
+        it = db.reversePrefixLookup(1, new byte[0], null).get();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.free();
+        assertEquals(80, count);
+    }
+    
+    /**
+     * Derives a key for each of the comma-separated attributes of a value.
+     */
+    public static class AttributeDerivation extends DefaultByteRangeComparator implements IndexDerivation {
+        
+        private static final long serialVersionUID = 1L;
+        
+        public int getDerivedIndexId() {
+            return 1;
+        }
+        
+        public byte[][] deriveKeys(byte[] key, byte[] value) {
+            String[] attrs = new String(value).split(",");
+            byte[][] keys = new byte[attrs.length][];
+            for (int i = 0; i < attrs.length; i++)
+                keys[i] = attrs[i].getBytes();
+            return keys;
+        }
+    }
+    
+    public static class CounterComparator extends DefaultByteRangeComparator implements MergeOperator {
+        
+        private static final long serialVersionUID = 1L;
+        
+        public byte[] merge(byte[] key, byte[] value, byte[] operand) {
+            long sum = (value == null ? 0 : Long.parseLong(new String(value)))
+                + Long.parseLong(new String(operand));
+            return sum == 0 ? null : Long.toString(sum).getBytes();
+        }
+    }
+    
+    /**
+     * Records the outcome of a request and the thread it was delivered by.
+     */
+    private static class ThreadListener<T> implements DatabaseRequestListener<T> {
+        
+        final CountDownLatch     done = new CountDownLatch(1);
+        
+        volatile T               result;
+        
+        volatile BabuDBException error;
+        
+        volatile String          thread;
+        
+        void await() throws InterruptedException {
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        }
+        
+        public void finished(T result, Object context) {
+            this.result = result;
+            this.thread = Thread.currentThread().getName();
+            done.countDown();
+        }
+        
+        public void failed(BabuDBException error, Object context) {
+            this.error = error;
+            this.thread = Thread.currentThread().getName();
+            done.countDown();
+        }
+    }
+    
     @Test
     public void testShutdownAfterCheckpoint() throws Exception {
         database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
@@ -425,6 +1843,50 @@ public class BabuDBTest extends TestCase {
         database.shutdown();
     }
     
+    @Test
+    public void testMultiLookup() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(1).build());
+        Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        for (int i = 0; i < 500; i++) {
+            db.singleInsert(0, (i + "").getBytes(), ("v" + i).getBytes(), null).get();
+        }
+        database.getCheckpointer().checkpoint();
+        for (int i = 0; i < 500; i += 5) {
+            db.singleInsert(0, (i + "").getBytes(), ("w" + i).getBytes(), null).get();
+            db.singleInsert(0, ((i + 1) + "").getBytes(), null, null).get();
+        }
+        
+        byte[][] keys = new byte[][] { "499".getBytes(), "0".getBytes(), "1".getBytes(), "250".getBytes(),
+            "foo".getBytes(), "37".getBytes(), "499".getBytes() };
+        byte[][] values = db.multiLookup(0, keys, null).get();
+        
+        assertEquals(keys.length, values.length);
+        assertEquals("v499", new String(values[0]));
+        assertEquals("w0", new String(values[1]));
+        assertNull(values[2]);
+        assertEquals("w250", new String(values[3]));
+        assertNull(values[4]);
+        assertEquals("v37", new String(values[5]));
+        assertEquals("v499", new String(values[6]));
+        
+        values = db.multiLookup(1, keys, null).get();
+        for (byte[] value : values) {
+            assertNull(value);
+        }
+        
+        try {
+            db.multiLookup(2, keys, null).get();
+            fail("lookup in non-existing index should fail");
+        } catch (BabuDBException exc) {
+            // ok
+        }
+        
+        database.shutdown();
+    }
+    
     @Test
     public void testInsPrefLookup() throws Exception {
         
@@ -10,8 +10,11 @@ package org.xtreemfs.babudb;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -21,9 +24,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.config.ConfigBuilder;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.LSMLookupInterface;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -138,6 +146,112 @@ public class ConcurrencyTest extends TestCase {
         
     }
     
+    @Test
+    public void testPipelinedRequestsWithWorkStealing() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(3).build());
+        
+        // there are more databases than workers, so that idle workers steal
+        // lookups from busier ones
+        final Database[] dbs = new Database[4];
+        for (int i = 0; i < dbs.length; i++) {
+            dbs[i] = database.getDatabaseManager().createDatabase("test" + i, 1);
+        }
+        
+        final int numKeys = 5000;
+        final Throwable[] errors = new Throwable[dbs.length];
+        Thread[] clients = new Thread[dbs.length];
+        for (int i = 0; i < clients.length; i++) {
+            final int id = i;
+            clients[i] = new Thread() {
+                public void run() {
+                    try {
+                        Database db = dbs[id];
+                        
+                        // lookups issued right after an insertion of the same
+                        // key, without waiting for it, have to see it
+                        List<DatabaseRequestResult<byte[]>> lookups = new ArrayList<DatabaseRequestResult<byte[]>>();
+                        for (int k = 0; k < numKeys; k++) {
+                            byte[] key = ByteBuffer.allocate(4).putInt(k).array();
+                            db.singleInsert(0, key, ("v" + k).getBytes(), null);
+                            lookups.add(db.lookup(0, key, null));
+                            if (k % 10 == 0) {
+                                db.prefixLookup(0, new byte[0], null);
+                            }
+                        }
+                        
+                        for (int k = 0; k < numKeys; k++) {
+                            byte[] val = lookups.get(k).get();
+                            assertNotNull(val);
+                            assertEquals("v" + k, new String(val));
+                        }
+                    } catch (Throwable exc) {
+                        errors[id] = exc;
+                    }
+                }
+            };
+        }
+        
+        for (Thread client : clients) {
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        for (Throwable error : errors) {
+            if (error != null) {
+                throw new Exception(error);
+            }
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testLookupsQueuedBeforeInsertion() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(1).build());
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        // block the worker, so that the following lookups are queued
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DatabaseRequestResult<Object> blocker = db.userDefinedLookup(new UserDefinedLookup() {
+            public Object execute(LSMLookupInterface database) throws BabuDBException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    throw new BabuDBException(ErrorCode.INTERRUPTED, exc.getMessage(), exc);
+                }
+                return null;
+            }
+        }, null);
+        started.await();
+        
+        // lookups queued before an insertion of the same key must not see it,
+        // even if there are more of them than the worker takes at once
+        byte[] key = "key".getBytes();
+        List<DatabaseRequestResult<byte[]>> lookups = new ArrayList<DatabaseRequestResult<byte[]>>();
+        for (int i = 0; i < 500; i++) {
+            lookups.add(db.lookup(0, key, null));
+        }
+        DatabaseRequestResult<Object> insert = db.singleInsert(0, key, "value".getBytes(), null);
+        DatabaseRequestResult<byte[]> after = db.lookup(0, key, null);
+        
+        release.countDown();
+        blocker.get();
+        insert.get();
+        for (DatabaseRequestResult<byte[]> lookup : lookups) {
+            assertNull(lookup.get());
+        }
+        assertEquals("value", new String(after.get()));
+        
+        database.shutdown();
+    }
+    
     private void assertEquals(byte[] b1, byte[] b2) {
         assertEquals(b1.length, b2.length);
         for (int i = 0; i < b1.length; i++)
@@ -6,6 +6,7 @@
 package org.xtreemfs.babudb;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.text.DecimalFormat;
 import java.util.LinkedList;
 import java.util.List;
@@ -24,14 +25,20 @@ import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.config.BabuDBConfig;
 import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+import org.xtreemfs.babudb.log.DiskLogIterator;
+import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.babudb.lsmdb.BabuDBTransaction;
+import org.xtreemfs.babudb.lsmdb.InsertRecordGroup;
+import org.xtreemfs.babudb.lsmdb.InsertRecordGroup.InsertRecord;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -435,6 +442,268 @@ public class TransactionTest extends TestCase {
         
     }
     
+    @Test
+    public void testConcurrentTransactions() throws Throwable {
+        
+        final int numThreads = 8;
+        final int numTxns = 50;
+        
+        final DatabaseManager dbMan = database.getDatabaseManager();
+        dbMan.createDatabase("shared0", 1);
+        dbMan.createDatabase("shared1", 1);
+        for (int i = 0; i < numThreads; i++)
+            dbMan.createDatabase("private" + i, 1);
+        
+        // each transaction updates the same key in both shared databases and
+        // inserts a record in a private database
+        final List<Throwable> errors = new LinkedList<Throwable>();
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < numTxns; j++) {
+                            byte[] value = (id + ":" + j).getBytes();
+                            
+                            Transaction txn = dbMan.createTransaction();
+                            txn.insertRecord("shared1", 0, "key".getBytes(), value);
+                            txn.insertRecord("private" + id, 0, (j + "").getBytes(), value);
+                            txn.insertRecord("shared0", 0, "key".getBytes(), value);
+                            dbMan.executeTransaction(txn);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        if (errors.size() > 0)
+            throw errors.get(0);
+        
+        // both shared databases have to reflect the same transaction last
+        String last = new String(dbMan.getDatabase("shared0").lookup(0, "key".getBytes(), null).get());
+        assertEquals(last, new String(dbMan.getDatabase("shared1").lookup(0, "key".getBytes(), null)
+                .get()));
+        for (int i = 0; i < numThreads; i++)
+            assertEquals(i + ":" + (numTxns - 1), new String(dbMan.getDatabase("private" + i).lookup(0,
+                (numTxns - 1 + "").getBytes(), null).get()));
+        
+        // the log has to contain the transactions in the same order
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.ASYNC, 0,
+            0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        
+        Database db = database.getDatabaseManager().getDatabase("shared0");
+        assertEquals(last, new String(db.lookup(0, "key".getBytes(), null).get()));
+        db = database.getDatabaseManager().getDatabase("shared1");
+        assertEquals(last, new String(db.lookup(0, "key".getBytes(), null).get()));
+    }
+    
+    @Test
+    public void testReadSetValidation() throws Throwable {
+        
+        final DatabaseManager dbMan = database.getDatabaseManager();
+        final Database db = dbMan.createDatabase("test", 1);
+        
+        // a transaction with a valid read set is executed
+        Transaction txn = dbMan.createTransaction();
+        txn.expectRecord("test", 0, "counter".getBytes(), null);
+        txn.insertRecord("test", 0, "counter".getBytes(), "0".getBytes());
+        dbMan.executeTransaction(txn);
+        assertEquals("0", new String(db.lookup(0, "counter".getBytes(), null).get()));
+        
+        // a transaction with an outdated read set is aborted entirely
+        txn = dbMan.createTransaction();
+        txn.insertRecord("test", 0, "other".getBytes(), "x".getBytes());
+        txn.expectRecord("test", 0, "counter".getBytes(), null);
+        txn.insertRecord("test", 0, "counter".getBytes(), "1".getBytes());
+        try {
+            dbMan.executeTransaction(txn);
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.TRANSACTION_CONFLICT, exc.getErrorCode());
+        }
+        assertEquals("0", new String(db.lookup(0, "counter".getBytes(), null).get()));
+        assertNull(db.lookup(0, "other".getBytes(), null).get());
+        
+        // the read set survives the serialization
+        BabuDBTransaction ser = new BabuDBTransaction();
+        ser.insertRecord("test", 0, "counter".getBytes(), "1".getBytes());
+        ser.expectRecord("test", 0, "counter".getBytes(), "0".getBytes());
+        ser.expectRecord("test", 0, "other".getBytes(), null);
+        ReusableBuffer buf = BufferPool.allocate(ser.getSize());
+        ser.serialize(buf);
+        buf.flip();
+        TransactionInternal deser = TransactionInternal.deserialize(buf);
+        BufferPool.free(buf);
+        assertEquals(1, deser.size());
+        assertEquals(2, deser.getReadSet().size());
+        assertEquals("counter", new String(deser.getReadSet().get(0).getKey()));
+        assertEquals("0", new String(deser.getReadSet().get(0).getValue()));
+        assertEquals("other", new String(deser.getReadSet().get(1).getKey()));
+        assertNull(deser.getReadSet().get(1).getValue());
+        
+        // concurrent read-modify-write transactions do not lose any update
+        final int numThreads = 4;
+        final int numIncrements = 25;
+        final List<Throwable> errors = new LinkedList<Throwable>();
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < numIncrements;) {
+                            byte[] value = db.lookup(0, "counter".getBytes(), null).get();
+                            int next = Integer.parseInt(new String(value)) + 1;
+                            
+                            Transaction txn = dbMan.createTransaction();
+                            txn.expectRecord("test", 0, "counter".getBytes(), value);
+                            txn.insertRecord("test", 0, "counter".getBytes(), (next + "").getBytes());
+                            try {
+                                dbMan.executeTransaction(txn);
+                                j++;
+                            } catch (BabuDBException exc) {
+                                if (exc.getErrorCode() != ErrorCode.TRANSACTION_CONFLICT)
+                                    throw exc;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        if (errors.size() > 0)
+            throw errors.get(0);
+        
+        assertEquals(numThreads * numIncrements + "", new String(db.lookup(0, "counter".getBytes(), null)
+                .get()));
+        
+        // the read sets are not logged
+        database.shutdown();
+        File[] logFiles = new File(baseDir).listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".dbl");
+            }
+        });
+        DiskLogIterator it = new DiskLogIterator(logFiles, null);
+        while (it.hasNext()) {
+            LogEntry le = it.next();
+            if (le.getPayloadType() == LogEntry.PAYLOAD_TYPE_TRANSACTION)
+                assertTrue(TransactionInternal.deserialize(le.getPayload()).getReadSet().isEmpty());
+            le.free();
+        }
+        it.destroy();
+        
+        // the log entries of transactions with read sets can be replayed
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.ASYNC, 0,
+            0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        assertEquals(numThreads * numIncrements + "", new String(database.getDatabaseManager().getDatabase(
+            "test").lookup(0, "counter".getBytes(), null).get()));
+    }
+    
+    @Test
+    public void testConditionalOperations() throws Throwable {
+        
+        DatabaseManager dbMan = database.getDatabaseManager();
+        Database db = dbMan.createDatabase("test", 1);
+        
+        // conditions that are met are executed
+        dbMan.executeTransaction(dbMan.createTransaction().insertRecordIfAbsent("test", 0,
+            "file".getBytes(), "v1".getBytes()));
+        dbMan.executeTransaction(dbMan.createTransaction().replaceRecord("test", 0, "file".getBytes(),
+            "v1".getBytes(), "v2".getBytes()));
+        assertEquals("v2", new String(db.lookup(0, "file".getBytes(), null).get()));
+        
+        // conditions that are not met fail the operation
+        try {
+            dbMan.executeTransaction(dbMan.createTransaction().insertRecordIfAbsent("test", 0,
+                "file".getBytes(), "v3".getBytes()));
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        try {
+            dbMan.executeTransaction(dbMan.createTransaction().deleteRecordIfEquals("test", 0,
+                "file".getBytes(), "v1".getBytes()));
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        assertEquals("v2", new String(db.lookup(0, "file".getBytes(), null).get()));
+        
+        // a failed condition rejects the whole transaction, including the
+        // operations preceding it
+        Transaction txn = dbMan.createTransaction();
+        txn.insertRecord("test", 0, "other".getBytes(), "x".getBytes());
+        txn.replaceRecord("test", 0, "file".getBytes(), "v1".getBytes(), "v3".getBytes());
+        try {
+            dbMan.executeTransaction(txn);
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        assertNull(db.lookup(0, "other".getBytes(), null).get());
+        assertEquals("v2", new String(db.lookup(0, "file".getBytes(), null).get()));
+        
+        // conditions are evaluated against the preceding operations of the
+        // transaction
+        txn = dbMan.createTransaction();
+        txn.insertRecord("test", 0, "other".getBytes(), "x".getBytes());
+        txn.insertRecordIfAbsent("test", 0, "other".getBytes(), "y".getBytes());
+        try {
+            dbMan.executeTransaction(txn);
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        assertNull(db.lookup(0, "other".getBytes(), null).get());
+        
+        txn = dbMan.createTransaction();
+        txn.insertRecord("test", 0, "other".getBytes(), "x".getBytes());
+        txn.replaceRecord("test", 0, "other".getBytes(), "x".getBytes(), "y".getBytes());
+        dbMan.executeTransaction(txn);
+        assertEquals("y", new String(db.lookup(0, "other".getBytes(), null).get()));
+        
+        dbMan.executeTransaction(dbMan.createTransaction().deleteRecordIfEquals("test", 0,
+            "other".getBytes(), "y".getBytes()));
+        assertNull(db.lookup(0, "other".getBytes(), null).get());
+        
+        // conditions survive the serialization
+        BabuDBTransaction ser = new BabuDBTransaction();
+        ser.replaceRecord("test", 0, "file".getBytes(), "v2".getBytes(), null);
+        ReusableBuffer buf = BufferPool.allocate(ser.getSize());
+        ser.serialize(buf);
+        buf.flip();
+        TransactionInternal deser = TransactionInternal.deserialize(buf);
+        BufferPool.free(buf);
+        InsertRecord rec = ((InsertRecordGroup) deser.get(0).getParams()[0]).getInserts().get(0);
+        assertTrue(rec.isConditional());
+        assertEquals("v2", new String(rec.getExpected()));
+        assertNull(rec.getValue());
+        
+        // only the resolved operations are logged, which can be replayed
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.ASYNC, 0,
+            0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals("v2", new String(db.lookup(0, "file".getBytes(), null).get()));
+        assertNull(db.lookup(0, "other".getBytes(), null).get());
+    }
+    
     private void checkDBContent(DatabaseManager dbMan, String dbName, int numIndices, int numKVPairs)
         throws Throwable {
         
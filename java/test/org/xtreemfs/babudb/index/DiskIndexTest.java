@@ -173,6 +173,41 @@ public class DiskIndexTest extends TestCase {
         diskIndex.destroy();
     }
     
+    public void testSplitKeys() throws Exception {
+        
+        // write 100 blocks with keys 0000 to 1599
+        SortedMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(COMP);
+        for (int i = 0; i < 100 * MAX_BLOCK_ENTRIES; i++)
+            map.put(String.format("%04d", i).getBytes(), "v".getBytes());
+        
+        FSUtils.delTree(new File(PATH1));
+        DiskIndexWriter index = new DiskIndexWriter(PATH1, MAX_BLOCK_ENTRIES, COMPRESSED, MAX_BLOCK_FILE_SIZE);
+        index.writeIndex(getBufferIterator(map.entrySet().iterator()));
+        DiskIndex diskIndex = new DiskIndex(PATH1, DefaultByteRangeComparator.getInstance(), COMPRESSED,
+            MMAPED);
+        
+        assertEquals(0, diskIndex.getSplitKeys(null, null, 1).length);
+        
+        // split keys are evenly spaced block boundaries
+        byte[][] splitKeys = diskIndex.getSplitKeys(null, null, 4);
+        assertEquals(3, splitKeys.length);
+        assertEquals("0400", new String(splitKeys[0]));
+        assertEquals("0800", new String(splitKeys[1]));
+        assertEquals("1200", new String(splitKeys[2]));
+        
+        // a range cannot be split into more partitions than it spans blocks
+        splitKeys = diskIndex.getSplitKeys("0100".getBytes(), "0208".getBytes(), 100);
+        assertEquals(6, splitKeys.length);
+        for (int i = 0; i < splitKeys.length; i++)
+            assertEquals(String.format("%04d", 112 + i * MAX_BLOCK_ENTRIES), new String(splitKeys[i]));
+        
+        // split keys are strictly inside the range
+        assertEquals(0, diskIndex.getSplitKeys("0016".getBytes(), "0032".getBytes(), 4).length);
+        assertEquals(0, diskIndex.getSplitKeys("1590".getBytes(), null, 4).length);
+        
+        diskIndex.destroy();
+    }
+    
     public void testPrefixLookup() throws Exception {
         
         final String[] keys = { "bla", "brabbel", "foo", "kfdkdkdf", "ouuou", "yagga", "yyy", "z" };
@@ -501,6 +536,66 @@ public class DiskIndexTest extends TestCase {
         
     }
     
+    @SuppressWarnings("unchecked")
+    public void testCompressedRewrite() throws Exception {
+        
+        final String[] keys = { "key00", "key01", "key02", "key03", "key04", "key05", "key06", "key07" };
+        final String[] vals = { "v0", "v1", "v2", "v3", "v4", "v5", "v6", "v7" };
+        
+        SortedMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(COMP);
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i].getBytes(), vals[i].getBytes());
+        
+        // write a compressed index
+        FSUtils.delTree(new File(PATH1));
+        DiskIndexWriter index = new DiskIndexWriter(PATH1, 4, true, MAX_BLOCK_FILE_SIZE);
+        index.writeIndex(getBufferIterator(map.entrySet().iterator()));
+        DiskIndex diskIndex = new DiskIndex(PATH1, COMP, true, MMAPED);
+        
+        // write a second compressed index from the on-disk entries of the
+        // first one, which requires the common prefixes of the blocks to be
+        // computed from byte ranges
+        FSUtils.delTree(new File(PATH2));
+        index = new DiskIndexWriter(PATH2, 4, true, MAX_BLOCK_FILE_SIZE);
+        ResultSet<?, ?> it = diskIndex.internalRangeLookup(null, null, true);
+        index.writeIndex((ResultSet<Object, Object>) it);
+        it.free();
+        diskIndex.destroy();
+        
+        diskIndex = new DiskIndex(PATH2, COMP, true, MMAPED);
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(vals[i], new String(diskIndex.lookup(keys[i].getBytes())));
+        assertIterator(diskIndex.rangeLookup(null, null, true), keys, vals, 0, keys.length - 1);
+        
+        diskIndex.destroy();
+    }
+    
+    public void testCompressedRangeLookup() throws Exception {
+        
+        // two blocks with the common prefixes 'a' and 'c'
+        final String[] keys = { "a0", "a1", "a2", "a3", "c0", "c1", "c2", "c3" };
+        final String[] vals = { "v0", "v1", "v2", "v3", "v4", "v5", "v6", "v7" };
+        
+        SortedMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(COMP);
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i].getBytes(), vals[i].getBytes());
+        
+        FSUtils.delTree(new File(PATH1));
+        DiskIndexWriter index = new DiskIndexWriter(PATH1, 4, true, MAX_BLOCK_FILE_SIZE);
+        index.writeIndex(getBufferIterator(map.entrySet().iterator()));
+        DiskIndex diskIndex = new DiskIndex(PATH1, COMP, true, MMAPED);
+        
+        // bounds that do not share the prefix of a block
+        assertIterator(diskIndex.rangeLookup("b".getBytes(), "d".getBytes(), true), keys, vals, 4, 7);
+        assertIterator(diskIndex.rangeLookup("b".getBytes(), "d".getBytes(), false), keys, vals, 7, 4);
+        assertIterator(diskIndex.rangeLookup("a".getBytes(), "b".getBytes(), true), keys, vals, 0, 3);
+        assertIterator(diskIndex.rangeLookup("a".getBytes(), "b".getBytes(), false), keys, vals, 3, 0);
+        assertFalse(diskIndex.rangeLookup("b".getBytes(), "c".getBytes(), true).hasNext());
+        assertFalse(diskIndex.rangeLookup("b".getBytes(), "c".getBytes(), false).hasNext());
+        
+        diskIndex.destroy();
+    }
+    
     private static String createRandomString(int minLength, int maxLength) {
         
         char[] chars = new char[(int) (rnd.nextDouble() * (maxLength + 1)) + minLength];
@@ -613,3 +708,4 @@ public class DiskIndexTest extends TestCase {
     }
     
 }
+    
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.io.File;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.index.writer.ExternalSorter;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.util.FSUtils;
+
+public class ExternalSorterTest extends TestCase {
+    
+    private static final File                TMP_DIR = new File("/tmp/babudb-sort");
+    
+    private static final ByteRangeComparator COMP    = DefaultByteRangeComparator.getInstance();
+    
+    public void setUp() throws Exception {
+        Logging.start(Logging.LEVEL_ERROR);
+        FSUtils.delTree(TMP_DIR);
+        TMP_DIR.mkdirs();
+    }
+    
+    public void tearDown() throws Exception {
+        FSUtils.delTree(TMP_DIR);
+    }
+    
+    public void testInMemorySort() throws Exception {
+        
+        ExternalSorter sorter = new ExternalSorter(COMP, TMP_DIR, 1024 * 1024, 4, 2);
+        SortedMap<String, String> expected = addRandomEntries(sorter, 1000);
+        
+        assertSorted(expected, sorter.sort());
+        assertEquals(0, TMP_DIR.list().length);
+    }
+    
+    public void testExternalSort() throws Exception {
+        
+        // a small memory limit and fan-in enforce many runs and merge passes
+        ExternalSorter sorter = new ExternalSorter(COMP, TMP_DIR, 16 * 1024, 3, 4);
+        SortedMap<String, String> expected = addRandomEntries(sorter, 20000);
+        assertTrue(TMP_DIR.list().length > 3);
+        
+        assertSorted(expected, sorter.sort());
+        assertEquals(0, TMP_DIR.list().length);
+    }
+    
+    public void testSharedDirectory() throws Exception {
+        
+        // sorters sharing a directory neither overwrite nor delete each
+        // other's runs
+        ExternalSorter sorter1 = new ExternalSorter(COMP, TMP_DIR, 16 * 1024, 3, 4);
+        ExternalSorter sorter2 = new ExternalSorter(COMP, TMP_DIR, 16 * 1024, 3, 4);
+        SortedMap<String, String> expected1 = addRandomEntries(sorter1, 5000);
+        SortedMap<String, String> expected2 = addRandomEntries(sorter2, 5000);
+        
+        ResultSet<byte[], byte[]> it = sorter1.sort();
+        ExternalSorter sorter3 = new ExternalSorter(COMP, TMP_DIR, 16 * 1024, 3, 4);
+        addRandomEntries(sorter3, 5000);
+        sorter3.close();
+        
+        assertSorted(expected1, it);
+        assertSorted(expected2, sorter2.sort());
+        assertEquals(0, TMP_DIR.list().length);
+    }
+    
+    public void testClose() throws Exception {
+        
+        ExternalSorter sorter = new ExternalSorter(COMP, TMP_DIR, 16 * 1024, 3, 4);
+        addRandomEntries(sorter, 5000);
+        
+        sorter.close();
+        assertEquals(0, TMP_DIR.list().length);
+    }
+    
+    private static SortedMap<String, String> addRandomEntries(ExternalSorter sorter, int count)
+        throws Exception {
+        
+        Random rnd = new Random();
+        
+        // keys are drawn from a small range in order to produce duplicates,
+        // of which the last one has to be retained
+        SortedMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            String key = String.format("%06d", rnd.nextInt(count));
+            String value = "v" + i;
+            sorter.add(key.getBytes(), value.getBytes());
+            expected.put(key, value);
+        }
+        
+        return expected;
+    }
+    
+    private static void assertSorted(SortedMap<String, String> expected, ResultSet<byte[], byte[]> it) {
+        
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Entry<byte[], byte[]> next = it.next();
+            assertEquals(entry.getKey(), new String(next.getKey()));
+            assertEquals(entry.getValue(), new String(next.getValue()));
+        }
+        assertFalse(it.hasNext());
+        it.free();
+    }
+    
+    public static void main(String[] args) {
+        TestRunner.run(ExternalSorterTest.class);
+    }
+    
+}
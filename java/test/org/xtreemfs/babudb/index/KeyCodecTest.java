@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.KeyDecoder;
+import org.xtreemfs.babudb.api.index.KeyEncoder;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.util.FSUtils;
+
+public class KeyCodecTest extends TestCase {
+    
+    private static final File                INDEX_FILE = new File("/tmp/babudb-keys.idx");
+    
+    private static final ByteRangeComparator COMP       = UnsignedByteRangeComparator.getInstance();
+    
+    private static final String[]            NAMES      = { "", "a", "a\u0000", "a\u0000b", "ab", "b",
+        "\u00e4", "\u20ac", "\ud83d\ude00", "\uffff" };
+    
+    public void setUp() throws Exception {
+        Logging.start(Logging.LEVEL_ERROR);
+        FSUtils.delTree(INDEX_FILE);
+    }
+    
+    public void tearDown() throws Exception {
+        FSUtils.delTree(INDEX_FILE);
+    }
+    
+    public void testOrder() throws Exception {
+        
+        Random rnd = new Random(1);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        long[] longs = { Long.MIN_VALUE, -256, -1, 0, 1, 255, 256, Long.MAX_VALUE };
+        for (int i = 0; i < 2000; i++) {
+            int id = i % 10 == 0 ? (rnd.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE) : rnd
+                    .nextInt(200) - 100;
+            tuples.add(new Tuple(id, NAMES[rnd.nextInt(NAMES.length)], longs[rnd.nextInt(longs.length)]));
+        }
+        Collections.sort(tuples);
+        
+        // encoded keys are in the same order as the tuples, for byte arrays
+        // as well as for ranges of big and little endian buffers
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (Tuple t : tuples)
+            keys.add(KeyEncoder.encode(t.id, t.name, t.version));
+        
+        for (int i = 1; i < keys.size(); i++) {
+            int expected = Integer.signum(tuples.get(i - 1).compareTo(tuples.get(i)));
+            byte[] k1 = keys.get(i - 1);
+            byte[] k2 = keys.get(i);
+            assertEquals(expected, Integer.signum(COMP.compare(k1, k2)));
+            assertEquals(-expected, Integer.signum(COMP.compare(k2, k1)));
+            assertEquals(expected, Integer.signum(COMP.compare(range(k1, false), k2)));
+            assertEquals(expected, Integer.signum(COMP.compare(range(k1, true), k2)));
+            assertEquals(-expected, Integer.signum(COMP.compare(range(k2, true), k1)));
+        }
+    }
+    
+    public void testDecode() throws Exception {
+        
+        for (String name : NAMES) {
+            byte[] value = new byte[] { 0, (byte) 0xFF, 0, 0 };
+            KeyDecoder decoder = new KeyDecoder(new KeyEncoder().appendInt(-5).appendString(name).appendBytes(
+                value).appendLong(Long.MIN_VALUE).toBytes());
+            
+            assertEquals(-5, decoder.readInt());
+            assertEquals(name, decoder.readString());
+            assertTrue(Arrays.equals(value, decoder.readBytes()));
+            assertEquals(Long.MIN_VALUE, decoder.readLong());
+            assertFalse(decoder.hasRemaining());
+        }
+        
+        try {
+            new KeyDecoder(new byte[3]).readInt();
+            fail();
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+        
+        try {
+            new KeyDecoder(new byte[] { 'a', 0, 2 }).readString();
+            fail();
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+        
+        try {
+            KeyEncoder.encode(1.0);
+            fail();
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+    }
+    
+    public void testPrefixLookups() throws Exception {
+        
+        LSMTree tree = new LSMTree(null, COMP, true, 4, 1024 * 1024 * 512, false, -1);
+        
+        // composite keys of parent IDs and names
+        int[] parents = { Integer.MIN_VALUE, -1, 0, 1, 255, -256, Integer.MAX_VALUE };
+        for (int parent : parents)
+            for (String name : NAMES)
+                tree.insert(KeyEncoder.encode(parent, name), ("v" + name).getBytes("UTF-8"));
+        
+        tree.materializeSnapshot(INDEX_FILE.getAbsolutePath(), tree.createSnapshot());
+        tree.linkToSnapshot(INDEX_FILE.getAbsolutePath());
+        tree.insert(KeyEncoder.encode(0, "ac"), "vac".getBytes("UTF-8"));
+        
+        for (int parent : parents) {
+            Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(KeyEncoder.encode(parent));
+            int count = 0;
+            while (it.hasNext()) {
+                KeyDecoder decoder = new KeyDecoder(it.next().getKey());
+                assertEquals(parent, decoder.readInt());
+                decoder.readString();
+                count++;
+            }
+            assertEquals(parent == 0 ? NAMES.length + 1 : NAMES.length, count);
+        }
+        
+        // names starting with "a", in ascending and descending order
+        byte[] prefix = new KeyEncoder().appendInt(0).appendStringPrefix("a").toBytes();
+        String[] expected = { "a", "a\u0000", "a\u0000b", "ab", "ac" };
+        for (boolean ascending : new boolean[] { true, false }) {
+            Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(prefix, ascending);
+            for (int i = 0; i < expected.length; i++) {
+                String name = expected[ascending ? i : expected.length - 1 - i];
+                assertEquals("v" + name, new String(it.next().getValue(), "UTF-8"));
+            }
+            assertFalse(it.hasNext());
+        }
+        
+        // a prefix without an upper bound includes all remaining keys
+        assertNull(COMP.prefixToRange(new byte[] { (byte) 0xFF, (byte) 0xFF }, true)[1]);
+        assertTrue(Arrays.equals(new byte[] { 2 }, COMP.prefixToRange(new byte[] { 1, (byte) 0xFF }, true)[1]));
+        
+        tree.destroy();
+    }
+    
+    private static ByteRange range(byte[] key, boolean littleEndian) {
+        
+        ByteBuffer buf = ByteBuffer.allocate(key.length + 6);
+        if (littleEndian)
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(3);
+        buf.put(key);
+        
+        return new ByteRange(buf, 3, 3 + key.length);
+    }
+    
+    private static class Tuple implements Comparable<Tuple> {
+        
+        private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+            public int compare(String s1, String s2) {
+                int i = 0;
+                int j = 0;
+                while (i < s1.length() && j < s2.length()) {
+                    int c1 = s1.codePointAt(i);
+                    int c2 = s2.codePointAt(j);
+                    if (c1 != c2)
+                        return c1 < c2 ? -1 : 1;
+                    i += Character.charCount(c1);
+                    j += Character.charCount(c2);
+                }
+                return (s1.length() - i) - (s2.length() - j);
+            }
+        };
+        
+        final int                               id;
+        
+        final String                            name;
+        
+        final long                              version;
+        
+        Tuple(int id, String name, long version) {
+            this.id = id;
+            this.name = name;
+            this.version = version;
+        }
+        
+        public int compareTo(Tuple o) {
+            if (id != o.id)
+                return id < o.id ? -1 : 1;
+            int cmp = CODE_POINT_ORDER.compare(name, o.name);
+            if (cmp != 0)
+                return cmp;
+            return version == o.version ? 0 : version < o.version ? -1 : 1;
+        }
+    }
+    
+    public static void main(String[] args) {
+        TestRunner.run(KeyCodecTest.class);
+    }
+    
+}
+    
\ No newline at end of file
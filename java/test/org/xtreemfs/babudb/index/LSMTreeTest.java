@@ -9,15 +9,25 @@
 package org.xtreemfs.babudb.index;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.Map.Entry;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
 
+import org.xtreemfs.babudb.api.database.EntryFilter;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ValueProjection;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.ExpiringValues;
+import org.xtreemfs.babudb.api.index.MergeOperator;
+import org.xtreemfs.babudb.api.index.ValueExpiration;
 import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
 import org.xtreemfs.babudb.index.LSMTree;
+import org.xtreemfs.babudb.index.reader.DiskIndex;
 import org.xtreemfs.babudb.snapshots.DefaultSnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -36,6 +46,8 @@ public class LSMTreeTest extends TestCase {
     
     private static final String SNAP_FILE4 = "/tmp/snap4.bin";
     
+    private static final String VLOG_DIR   = "/tmp/vlog";
+    
     static {
         //ReusableBuffer.enableAutoFree(true);
         //BufferPool.enableStacktraceRecording(false);
@@ -50,6 +62,7 @@ public class LSMTreeTest extends TestCase {
         FSUtils.delTree(new File(SNAP_FILE2));
         FSUtils.delTree(new File(SNAP_FILE3));
         FSUtils.delTree(new File(SNAP_FILE4));
+        FSUtils.delTree(new File(VLOG_DIR));
     }
     
     public void tearDown() throws Exception {
@@ -57,6 +70,7 @@ public class LSMTreeTest extends TestCase {
         FSUtils.delTree(new File(SNAP_FILE2));
         FSUtils.delTree(new File(SNAP_FILE3));
         FSUtils.delTree(new File(SNAP_FILE4));
+        FSUtils.delTree(new File(VLOG_DIR));
     }
     
     public void testSnapshots() throws Exception {
@@ -482,6 +496,617 @@ public class LSMTreeTest extends TestCase {
         assertEquals(4, i);
     }
     
+    public void testMultiLookup() throws Exception {
+        
+        final DefaultByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        TreeMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(comp);
+        
+        // insert keys spanning multiple blocks, and write them to disk
+        for (int i = 0; i < 1000; i += 2) {
+            byte[] key = String.format("%05d", i).getBytes();
+            tree.insert(key, ("v" + i).getBytes());
+            map.put(key, ("v" + i).getBytes());
+        }
+        
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        // overwrite and delete some of the keys in the overlay
+        for (int i = 0; i < 1000; i += 6) {
+            byte[] key = String.format("%05d", i).getBytes();
+            if (i % 12 == 0) {
+                tree.delete(key);
+                map.remove(key);
+            } else {
+                tree.insert(key, ("w" + i).getBytes());
+                map.put(key, ("w" + i).getBytes());
+            }
+        }
+        
+        // look up existing and missing keys in random order, including
+        // duplicates and keys beyond the bounds of the index
+        Random rnd = new Random(1);
+        byte[][] keys = new byte[500][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = String.format("%05d", rnd.nextInt(1100)).getBytes();
+        keys[0] = new byte[0];
+        keys[1] = keys[2];
+        
+        byte[][] values = tree.lookup(keys);
+        assertEquals(keys.length, values.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(map.get(keys[i]), values[i]);
+            assertEquals(tree.lookup(keys[i]), values[i]);
+        }
+        
+        assertEquals(0, tree.lookup(new byte[0][]).length);
+        
+        tree.destroy();
+    }
+    
+    public void testDescendingLookupsOnDisk() throws Exception {
+        
+        final DefaultByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        TreeMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(comp);
+        
+        // insert even keys spanning multiple blocks on disk, and odd keys in
+        // the overlay
+        for (int i = 0; i < 1000; i += 2) {
+            byte[] key = String.format("%05d", i).getBytes();
+            tree.insert(key, ("v" + i).getBytes());
+            map.put(key, ("v" + i).getBytes());
+        }
+        
+        // the prefix of the prefix lookup below is a key on disk, and the
+        // first key following its range is a key in the overlay
+        tree.insert("004".getBytes(), "v".getBytes());
+        map.put("004".getBytes(), "v".getBytes());
+        
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        for (int i = 1; i < 1000; i += 2) {
+            byte[] key = String.format("%05d", i).getBytes();
+            tree.insert(key, ("v" + i).getBytes());
+            map.put(key, ("v" + i).getBytes());
+        }
+        tree.insert("005".getBytes(), "v".getBytes());
+        map.put("005".getBytes(), "v".getBytes());
+        
+        // range lookup
+        Iterator<Entry<byte[], byte[]>> it = tree.rangeLookup("00600".getBytes(), "00300".getBytes(), false);
+        Iterator<Entry<byte[], byte[]>> itExpected = map.descendingMap().subMap("00600".getBytes(),
+            "00300".getBytes()).entrySet().iterator();
+        while (it.hasNext())
+            assertEquals(itExpected.next().getKey(), it.next().getKey());
+        assertFalse(itExpected.hasNext());
+        
+        // prefix lookup
+        it = tree.prefixLookup("004".getBytes(), false);
+        itExpected = map.descendingMap().subMap("005".getBytes(), false, "004".getBytes(), true).entrySet()
+                .iterator();
+        while (it.hasNext())
+            assertEquals(itExpected.next().getKey(), it.next().getKey());
+        assertFalse(itExpected.hasNext());
+        
+        tree.destroy();
+    }
+    
+    public void testRangeDeletes() throws Exception {
+        
+        final DefaultByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        TreeMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(comp);
+        
+        // insert even keys on disk, and odd keys in an older overlay
+        for (int i = 0; i < 1000; i += 2) {
+            byte[] key = String.format("%05d", i).getBytes();
+            tree.insert(key, ("v" + i).getBytes());
+            map.put(key, ("v" + i).getBytes());
+        }
+        
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        for (int i = 1; i < 1000; i += 2) {
+            byte[] key = String.format("%05d", i).getBytes();
+            tree.insert(key, ("v" + i).getBytes());
+            map.put(key, ("v" + i).getBytes());
+        }
+        TreeMap<byte[], byte[]> snapMap = new TreeMap<byte[], byte[]>(map);
+        int snap1 = tree.createSnapshot();
+        
+        // delete ranges in the current overlay, and re-insert a deleted key
+        tree.insert("00101".getBytes(), "w101".getBytes());
+        tree.deleteRange("00100".getBytes(), "00300".getBytes());
+        map.subMap("00100".getBytes(), "00300".getBytes()).clear();
+        tree.insert("00150".getBytes(), "w150".getBytes());
+        map.put("00150".getBytes(), "w150".getBytes());
+        tree.deleteRange(null, "00010".getBytes());
+        map.headMap("00010".getBytes()).clear();
+        tree.deleteRange("00990".getBytes(), null);
+        map.tailMap("00990".getBytes()).clear();
+        
+        // empty ranges do not delete anything
+        tree.deleteRange("00500".getBytes(), "00500".getBytes());
+        tree.deleteRange("00600".getBytes(), "00500".getBytes());
+        
+        assertRangeDeletes(tree, map);
+        
+        // the snapshot taken before the deletes is not affected
+        assertEquals("v200".getBytes(), tree.lookup("00200".getBytes(), snap1));
+        Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0], snap1, true);
+        Iterator<Entry<byte[], byte[]>> itExpected = snapMap.entrySet().iterator();
+        while (it.hasNext())
+            assertEquals(itExpected.next().getKey(), it.next().getKey());
+        assertFalse(itExpected.hasNext());
+        
+        // the covered entries are dropped when the overlays are written to disk
+        int snap2 = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE2, snap2);
+        tree.linkToSnapshot(SNAP_FILE2);
+        assertRangeDeletes(tree, map);
+        
+        // ranges deleted after the snapshot are still masked after linking
+        snapId = tree.createSnapshot();
+        tree.deleteRange("00500".getBytes(), "00600".getBytes());
+        map.subMap("00500".getBytes(), "00600".getBytes()).clear();
+        tree.materializeSnapshot(SNAP_FILE3, snapId);
+        tree.linkToSnapshot(SNAP_FILE3);
+        assertRangeDeletes(tree, map);
+        
+        snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE4, snapId);
+        tree.linkToSnapshot(SNAP_FILE4);
+        assertRangeDeletes(tree, map);
+        
+        tree.destroy();
+    }
+    
+    public void testExpiringValues() throws Exception {
+        
+        final ExpiringComparator comp = new ExpiringComparator();
+        final long now = System.currentTimeMillis();
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        
+        // insert expired and valid entries on disk, where some of the valid
+        // ones expire in the overlay
+        for (int i = 0; i < 100; i++) {
+            byte[] key = String.format("%03d", i).getBytes();
+            long expirationTime = i % 3 == 0 ? now - 1000 : i % 3 == 1 ? ValueExpiration.NEVER : now + 3600000;
+            tree.insert(key, ValueExpiration.createValue(expirationTime, ("v" + i).getBytes()));
+        }
+        
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        for (int i = 0; i < 100; i += 5)
+            tree.insert(String.format("%03d", i).getBytes(), ValueExpiration.createValue(now - 1, "w".getBytes()));
+        tree.insert("100".getBytes(), "short".getBytes());
+        tree.insert("101".getBytes(), ValueExpiration.createValue(System.currentTimeMillis() + 200, "soon"
+                .getBytes()));
+        
+        TreeMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(comp);
+        for (int i = 0; i < 100; i++)
+            if (i % 3 != 0 && i % 5 != 0)
+                map.put(String.format("%03d", i).getBytes(), ("v" + i).getBytes());
+        map.put("100".getBytes(), "short".getBytes());
+        map.put("101".getBytes(), "soon".getBytes());
+        assertExpiringValues(tree, map);
+        
+        // entries become invisible once they have expired ...
+        Thread.sleep(300);
+        map.remove("101".getBytes());
+        assertExpiringValues(tree, map);
+        
+        // ... and are dropped when the overlays are written to disk
+        snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE2, snapId);
+        tree.linkToSnapshot(SNAP_FILE2);
+        assertExpiringValues(tree, map);
+        
+        DiskIndex index = new DiskIndex(SNAP_FILE2, comp, COMPRESSION, MMAP);
+        Iterator<Entry<byte[], byte[]>> it = index.rangeLookup(null, null, true);
+        int count = 0;
+        for (; it.hasNext(); count++)
+            it.next();
+        assertEquals(map.size(), count);
+        index.destroy();
+        
+        tree.destroy();
+    }
+    
+    public void testValueLog() throws Exception {
+        
+        new File(VLOG_DIR).mkdirs();
+        ByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1, new ValueLog(
+            VLOG_DIR, 0, 64, 0.5, false, 0, 0));
+        
+        // insert large values for even keys and small values for odd keys
+        TreeMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(comp);
+        for (int i = 0; i < 100; i++)
+            map.put(String.format("%03d", i).getBytes(), createValue(i % 2 == 0 ? 200 : 10, i));
+        for (Entry<byte[], byte[]> entry : map.entrySet())
+            tree.insert(entry.getKey(), entry.getValue());
+        
+        // large values are separated by the checkpoint
+        checkpoint(tree, 1);
+        assertEquals(50 * 200, segment(1).length());
+        assertValueLog(tree, map);
+        
+        // overwritten values are written to a new segment
+        for (int i = 0; i < 80; i += 2) {
+            map.put(String.format("%03d", i).getBytes(), createValue(200, -i));
+            tree.insert(String.format("%03d", i).getBytes(), createValue(200, -i));
+        }
+        checkpoint(tree, 2);
+        assertEquals(50 * 200, segment(1).length());
+        assertEquals(40 * 200, segment(2).length());
+        assertValueLog(tree, map);
+        
+        // the remaining values of the first segment are relocated, as less
+        // than half of its values are still referenced
+        checkpoint(tree, 3);
+        assertFalse(segment(1).exists());
+        assertEquals(40 * 200, segment(2).length());
+        assertEquals(10 * 200, segment(3).length());
+        assertValueLog(tree, map);
+        
+        // value segments are independent of snapshots that are not linked
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.destroy();
+        
+        LSMTree copy = new LSMTree(SNAP_FILE, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1,
+            new ValueLog(SNAP_FILE2, 0, 64, 0.5, false, 0, 0));
+        assertValueLog(copy, map);
+        copy.destroy();
+        
+        // segments of incomplete checkpoints are deleted when the index is
+        // reopened
+        assertTrue(segment(9).createNewFile());
+        tree = new LSMTree(VLOG_DIR + "/IX0V1SEQ3.idx", comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1,
+            new ValueLog(VLOG_DIR, 0, 64, 0.5, false, 1, 3));
+        assertFalse(segment(9).exists());
+        assertValueLog(tree, map);
+        
+        // segments are deleted once no longer referenced
+        for (int i = 0; i < 100; i += 2) {
+            map.remove(String.format("%03d", i).getBytes());
+            tree.delete(String.format("%03d", i).getBytes());
+        }
+        checkpoint(tree, 4);
+        assertFalse(segment(2).exists());
+        assertFalse(segment(3).exists());
+        assertValueLog(tree, map);
+        
+        tree.destroy();
+    }
+    
+    public void testFilteredRangeLookups() throws Exception {
+        
+        ByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        LSMTree vlogTree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1,
+            new ValueLog(VLOG_DIR, 0, 64, 0.5, false, 0, 0));
+        
+        // even values start with 'a', odd values with 'b'
+        for (int i = 0; i < 100; i++) {
+            byte[] key = String.format("%03d", i).getBytes();
+            byte[] value = createValue(i < 50 ? 10 : 200, i % 2 == 0 ? 'a' : 'b');
+            value[value.length - 1] = (byte) i;
+            tree.insert(key, value);
+            vlogTree.insert(key, value);
+        }
+        
+        tree.materializeSnapshot(SNAP_FILE, tree.createSnapshot());
+        tree.linkToSnapshot(SNAP_FILE);
+        checkpoint(vlogTree, 1);
+        
+        // newer overlay entries that are not accepted hide accepted entries on
+        // disk, while newer accepted entries hide entries that are not
+        // accepted
+        for (LSMTree t : new LSMTree[] { tree, vlogTree }) {
+            t.insert("010".getBytes(), createValue(10, 'b'));
+            t.insert("011".getBytes(), createValue(10, 'a'));
+            t.delete("012".getBytes());
+        }
+        
+        EntryFilter filter = new EntryFilter() {
+            public boolean accept(ByteRange key, ByteRange value) {
+                return value.getLength() > 0 && value.get(0) == 'a';
+            }
+        };
+        ValueProjection projection = new ValueProjection(1, 1);
+        
+        for (LSMTree t : new LSMTree[] { tree, vlogTree }) {
+            
+            // ascending lookup
+            Iterator<Entry<byte[], byte[]>> it = t.rangeLookup("005".getBytes(), "060".getBytes(), true,
+                filter, projection);
+            for (int i = 5; i < 60; i++) {
+                if (i == 10 || i == 12 || (i % 2 == 1 && i != 11))
+                    continue;
+                Entry<byte[], byte[]> entry = it.next();
+                assertEquals(String.format("%03d", i), new String(entry.getKey()));
+                assertEquals(1, entry.getValue().length);
+                assertEquals('a', entry.getValue()[0]);
+            }
+            assertFalse(it.hasNext());
+            
+            // descending lookup without a projection
+            it = t.rangeLookup("099".getBytes(), "089".getBytes(), false, filter, null);
+            for (int i = 98; i > 89; i -= 2) {
+                Entry<byte[], byte[]> entry = it.next();
+                assertEquals(String.format("%03d", i), new String(entry.getKey()));
+                assertEquals(200, entry.getValue().length);
+                assertEquals(i, entry.getValue()[199]);
+            }
+            assertFalse(it.hasNext());
+        }
+        
+        tree.destroy();
+        vlogTree.destroy();
+    }
+    
+    private static byte[] createValue(int size, int i) {
+        byte[] value = new byte[size];
+        Arrays.fill(value, (byte) i);
+        return value;
+    }
+    
+    private static File segment(long seq) {
+        return new File(VLOG_DIR, ValueLog.getSegmentFilename(0, 1, seq));
+    }
+    
+    private static void checkpoint(LSMTree tree, long seq) throws Exception {
+        String file = VLOG_DIR + "/IX0V1SEQ" + seq + ".idx";
+        tree.materializeCheckpoint(file, tree.createSnapshot(), 1, seq);
+        tree.linkToSnapshot(file);
+    }
+    
+    private void assertValueLog(LSMTree tree, TreeMap<byte[], byte[]> map) {
+        
+        for (int i = 0; i < 100; i++) {
+            byte[] key = String.format("%03d", i).getBytes();
+            byte[] value = tree.lookup(key);
+            if (map.containsKey(key))
+                assertTrue(Arrays.equals(map.get(key), value));
+            else
+                assertNull(value);
+        }
+        
+        Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0]);
+        for (Entry<byte[], byte[]> expected : map.entrySet()) {
+            Entry<byte[], byte[]> entry = it.next();
+            assertEquals(new String(expected.getKey()), new String(entry.getKey()));
+            assertTrue(Arrays.equals(expected.getValue(), entry.getValue()));
+        }
+        assertFalse(it.hasNext());
+    }
+    
+    private void assertExpiringValues(LSMTree tree, TreeMap<byte[], byte[]> map) {
+        
+        for (int i = 0; i < 110; i++) {
+            byte[] key = String.format("%03d", i).getBytes();
+            byte[] value = tree.lookup(key);
+            assertEquals(map.get(key), value == null ? null : ValueExpiration.getPayload(value));
+        }
+        
+        Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0], false);
+        Iterator<Entry<byte[], byte[]>> itExpected = map.descendingMap().entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> entry = it.next();
+            Entry<byte[], byte[]> expected = itExpected.next();
+            assertEquals(expected.getKey(), entry.getKey());
+            assertEquals(expected.getValue(), ValueExpiration.getPayload(entry.getValue()));
+        }
+        assertFalse(itExpected.hasNext());
+    }
+    
+    public static class ExpiringComparator extends DefaultByteRangeComparator implements ExpiringValues {
+    }
+    
+    private void assertRangeDeletes(LSMTree tree, TreeMap<byte[], byte[]> map) {
+        
+        // single and multi lookups
+        byte[][] keys = new byte[1000][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = String.format("%05d", i).getBytes();
+            assertEquals(map.get(keys[i]), tree.lookup(keys[i]));
+        }
+        byte[][] values = tree.lookup(keys);
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(map.get(keys[i]), values[i]);
+        
+        // ascending and descending lookups
+        Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0], true);
+        Iterator<Entry<byte[], byte[]>> itExpected = map.entrySet().iterator();
+        while (it.hasNext())
+            assertEquals(itExpected.next().getKey(), it.next().getKey());
+        assertFalse(itExpected.hasNext());
+        
+        it = tree.rangeLookup("00600".getBytes(), "00050".getBytes(), false);
+        itExpected = map.descendingMap().subMap("00600".getBytes(), "00050".getBytes()).entrySet()
+                .iterator();
+        while (it.hasNext())
+            assertEquals(itExpected.next().getKey(), it.next().getKey());
+        assertFalse(itExpected.hasNext());
+    }
+    
+    public void testInternalDescendingLookup() throws Exception {
+        
+        final DefaultByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        for (int i = 0; i < 10; i += 2)
+            tree.insert(("k" + i).getBytes(), "disk".getBytes());
+        tree.materializeSnapshot(SNAP_FILE, tree.createSnapshot());
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        // newer overlay keys lie in between and on top of on-disk keys
+        tree.insert("k1".getBytes(), "mem".getBytes());
+        tree.insert("k4".getBytes(), "mem".getBytes());
+        tree.insert("k9".getBytes(), "mem".getBytes());
+        int snapId = tree.createSnapshot();
+        
+        StringBuilder sb = new StringBuilder();
+        ResultSet<Object, Object> it = tree.internalPrefixLookup(null, snapId, false);
+        while (it.hasNext()) {
+            Entry<Object, Object> next = it.next();
+            sb.append(sb.length() == 0 ? "" : " ").append(new String(toBytes(next.getKey()))).append("=")
+                    .append(new String(toBytes(next.getValue())));
+        }
+        it.free();
+        assertEquals("k9=mem k8=disk k6=disk k4=mem k2=disk k1=mem k0=disk", sb.toString());
+        
+        tree.destroy();
+    }
+    
+    public void testLinkToIndex() throws Exception {
+        
+        final DefaultByteRangeComparator comp = DefaultByteRangeComparator.getInstance();
+        
+        LSMTree src = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        src.insert("a".getBytes(), "1".getBytes());
+        src.insert("b".getBytes(), "2".getBytes());
+        src.materializeSnapshot(SNAP_FILE, src.createSnapshot());
+        
+        LSMTree tree = new LSMTree(null, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        tree.insert("x".getBytes(), "0".getBytes());
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE3, snapId);
+        tree.linkToSnapshot(SNAP_FILE3);
+        
+        // tombstones and deleted ranges in the overlay do not mask the
+        // linked index
+        tree.delete("a".getBytes());
+        tree.insert("y".getBytes(), "0".getBytes());
+        snapId = tree.createSnapshot();
+        tree.deleteRange("b".getBytes(), null);
+        tree.linkToIndex(SNAP_FILE);
+        
+        assertEquals("1", new String(tree.lookup("a".getBytes())));
+        assertEquals("2", new String(tree.lookup("b".getBytes())));
+        assertNull(tree.lookup("x".getBytes()));
+        assertNull(tree.lookup("y".getBytes()));
+        assertEquals("a=1 b=2", toString(tree.prefixLookup(new byte[0], true)));
+        
+        // snapshots taken before still read the replaced index
+        assertNull(tree.lookup("a".getBytes(), snapId));
+        assertEquals("0", new String(tree.lookup("x".getBytes(), snapId)));
+        assertEquals("x=0 y=0", toString(tree.prefixLookup(new byte[0], snapId, true)));
+        assertEquals("y=0 x=0", toString(tree.prefixLookup(new byte[0], snapId, false)));
+        tree.materializeSnapshot(SNAP_FILE4, snapId);
+        LSMTree snap = new LSMTree(SNAP_FILE4, comp, COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        assertEquals("x=0 y=0", toString(snap.prefixLookup(new byte[0], true)));
+        snap.destroy();
+        
+        tree.insert("c".getBytes(), "3".getBytes());
+        snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE2, snapId);
+        tree.linkToSnapshot(SNAP_FILE2);
+        assertEquals("a=1 b=2 c=3", toString(tree.prefixLookup(new byte[0], true)));
+        
+        src.destroy();
+        tree.destroy();
+    }
+    
+    public void testMerges() throws Exception {
+        
+        LSMTree tree = new LSMTree(null, new CounterComparator(), COMPRESSION, 16, 1024 * 1024 * 512, MMAP, -1);
+        
+        tree.insert("a".getBytes(), "1".getBytes());
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        // operands for keys on disk are recorded in the current overlay, and
+        // operands recorded in a newer overlay apply to the older one
+        tree.merge("a".getBytes(), "1".getBytes());
+        tree.merge("b".getBytes(), "2".getBytes());
+        snapId = tree.createSnapshot();
+        tree.merge("a".getBytes(), "10".getBytes());
+        tree.merge("b".getBytes(), "1".getBytes());
+        
+        assertEquals("12", new String(tree.lookup("a".getBytes())));
+        assertEquals("2", new String(tree.lookup("a".getBytes(), snapId)));
+        assertEquals("a=12 b=3", toString(tree.prefixLookup(new byte[0])));
+        assertEquals("b=3 a=12", toString(tree.prefixLookup(new byte[0], false)));
+        assertEquals("a=2 b=2", toString(tree.prefixLookup(new byte[0], snapId, true)));
+        assertEquals("b=3", toString(tree.rangeLookup("b".getBytes(), new byte[0])));
+        byte[][] values = tree.lookup(new byte[][] { "a".getBytes(), "b".getBytes(), "c".getBytes() });
+        assertEquals("12", new String(values[0]));
+        assertEquals("3", new String(values[1]));
+        assertNull(values[2]);
+        
+        // the operands of the materialized snapshot are not applied again
+        // once the snapshot has been linked
+        tree.materializeSnapshot(SNAP_FILE2, snapId);
+        tree.linkToSnapshot(SNAP_FILE2);
+        assertEquals("a=12 b=3", toString(tree.prefixLookup(new byte[0])));
+        
+        // operands are applied to values in the overlay and to deleted keys
+        // right away, and to values on disk once too many have been recorded
+        tree.insert("c".getBytes(), "5".getBytes());
+        tree.merge("c".getBytes(), "1".getBytes());
+        tree.deleteRange("a".getBytes(), "b".getBytes());
+        tree.merge("a".getBytes(), "1".getBytes());
+        for (int i = 0; i < 100; i++)
+            tree.merge("b".getBytes(), "1".getBytes());
+        assertEquals("a=1 b=103 c=6", toString(tree.prefixLookup(new byte[0])));
+        
+        // operands may delete keys
+        tree.merge("b".getBytes(), "-103".getBytes());
+        assertNull(tree.lookup("b".getBytes()));
+        assertEquals("a=1 c=6", toString(tree.prefixLookup(new byte[0])));
+        
+        snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE3, snapId);
+        tree.linkToSnapshot(SNAP_FILE3);
+        assertEquals("a=1 c=6", toString(tree.prefixLookup(new byte[0])));
+        
+        tree.destroy();
+    }
+    
+    private static byte[] toBytes(Object o) {
+        return o instanceof ByteRange ? ((ByteRange) o).toBuffer() : (byte[]) o;
+    }
+    
+    private static String toString(Iterator<Entry<byte[], byte[]>> it) {
+        
+        StringBuilder sb = new StringBuilder();
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> next = it.next();
+            sb.append(sb.length() == 0 ? "" : " ").append(new String(next.getKey())).append("=").append(
+                new String(next.getValue()));
+        }
+        return sb.toString();
+    }
+    
+    public static class CounterComparator extends DefaultByteRangeComparator implements MergeOperator {
+        
+        private static final long serialVersionUID = 1L;
+        
+        public byte[] merge(byte[] key, byte[] value, byte[] operand) {
+            long sum = (value == null ? 0 : Long.parseLong(new String(value)))
+                + Long.parseLong(new String(operand));
+            return sum == 0 ? null : Long.toString(sum).getBytes();
+        }
+    }
+    
     private void assertEquals(byte[] expected, byte[] result) {
         
         if (expected == null && result == null)
@@ -9,6 +9,7 @@
 package org.xtreemfs.babudb.index;
 
 import java.util.Iterator;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Map.Entry;
@@ -20,6 +21,8 @@ import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
 import org.xtreemfs.babudb.index.overlay.MultiOverlayBufferTree;
 import org.xtreemfs.babudb.index.overlay.MultiOverlayStringTree;
 import org.xtreemfs.babudb.index.overlay.MultiOverlayTree;
+import org.xtreemfs.babudb.index.overlay.MultiOverlayTree.DeletedRange;
+import org.xtreemfs.babudb.index.overlay.MultiOverlayTree.DeletedRanges;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 
@@ -266,6 +269,41 @@ public class MultiOverlayTreeTest extends TestCase {
         assertFalse(itExpected.hasNext());
     }
     
+    public void testDeletedRanges() {
+        
+        // overlapping and adjacent ranges are coalesced
+        DeletedRanges<Integer> ranges = new DeletedRanges<Integer>(null);
+        assertTrue(ranges.isEmpty());
+        ranges.add(new DeletedRange<Integer>(1, 3));
+        ranges.add(new DeletedRange<Integer>(5, 7));
+        ranges.add(new DeletedRange<Integer>(10, 12));
+        ranges.add(new DeletedRange<Integer>(3, 6));
+        assertEquals("[[1, 7), [10, 12)]", ranges.toString());
+        ranges.add(new DeletedRange<Integer>(null, 2));
+        assertEquals("[null, 7) [[10, 12)]", ranges.toString());
+        ranges.add(new DeletedRange<Integer>(11, null));
+        assertEquals("[null, 7) [[10, null)]", ranges.toString());
+        assertTrue(ranges.contains(-5));
+        assertFalse(ranges.contains(7));
+        assertTrue(ranges.contains(1000));
+        
+        // compare random ranges with the keys they cover
+        Random rnd = new Random(1);
+        ranges = new DeletedRanges<Integer>(null);
+        boolean[] deleted = new boolean[1000];
+        for (int i = 0; i < 200; i++) {
+            
+            int from = rnd.nextInt(1000);
+            int to = Math.min(from + 1 + rnd.nextInt(20), 1000);
+            ranges.add(new DeletedRange<Integer>(from, to));
+            for (int key = from; key < to; key++)
+                deleted[key] = true;
+            
+            for (int key = 0; key < deleted.length; key++)
+                assertEquals(deleted[key], ranges.contains(key));
+        }
+    }
+    
     public void testOverlayBufferTree() {
         
         MultiOverlayBufferTree tree = new MultiOverlayBufferTree(new byte[0], DefaultByteRangeComparator
@@ -13,6 +13,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -25,6 +26,7 @@ import org.junit.Test;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
 import org.xtreemfs.babudb.lsmdb.LSN;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -334,6 +336,185 @@ public class DiskLoggerTest extends TestCase {
         
     }
     
+    @Test
+    public void testCompressedEntries() throws Exception {
+        
+        // restart the disk logger with log compression enabled
+        l.shutdown();
+        l.waitForShutdown();
+        FSUtils.delTree(new File(testdir));
+        l = new DiskLogger(testdir, new LSN(1, 1L), SyncMode.FSYNC, 0, 0, 64);
+        l.start();
+        l.waitForStartup();
+        
+        final AtomicInteger count = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                fail("this should not happen");
+            }
+        };
+        
+        // alternate between small entries, which remain uncompressed, and
+        // large entries with highly redundant payloads
+        StringBuffer padding = new StringBuffer();
+        for (int i = 0; i < 100; i++)
+            padding.append("-metadata-");
+        
+        int uncompressedSize = 0;
+        for (int i = 0; i < 100; i++) {
+            String pl = "Entry " + (i + 1) + (i % 2 == 0 ? padding.toString() : "");
+            ReusableBuffer plb = ReusableBuffer.wrap(pl.getBytes());
+            uncompressedSize += LogEntry.headerLength + plb.remaining();
+            l.append(new LogEntry(plb, sl, LogEntry.PAYLOAD_TYPE_INSERT));
+        }
+        synchronized (count) {
+            while (count.get() < 100)
+                count.wait(1000);
+        }
+        
+        try {
+            l.lock();
+            l.switchLogFile(false);
+        } finally {
+            l.unlock();
+        }
+        
+        File logFile = new File(testdir + "1.1.dbl");
+        assertTrue(logFile.length() < uncompressedSize);
+        
+        DiskLogFile f = new DiskLogFile(logFile.getAbsolutePath());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(f.hasNext());
+            LogEntry next = f.next();
+            assertEquals(LogEntry.PAYLOAD_TYPE_INSERT, next.getPayloadType());
+            assertEquals("Entry " + (i + 1) + (i % 2 == 0 ? padding.toString() : ""), new String(next
+                    .getPayload().array()));
+            next.free();
+        }
+        assertFalse(f.hasNext());
+        f.close();
+    }
+    
+    @Test
+    public void testFrameVersions() throws Exception {
+        
+        // CRC32C check value
+        CRC32C crc = new CRC32C();
+        crc.update("123456789".getBytes(), 0, 9);
+        assertEquals(0xE3069283L, crc.getValue());
+        crc.reset();
+        
+        LogEntry e = new LogEntry(ReusableBuffer.wrap("payload".getBytes()), null,
+            LogEntry.PAYLOAD_TYPE_TRANSACTION);
+        e.assignId(1, 1L);
+        
+        // legacy frames have to remain readable
+        ReusableBuffer legacy = e.serialize(new CRC32());
+        LogEntry legacyEntry = LogEntry.deserialize(legacy, crc);
+        crc.reset();
+        assertEquals(LogEntry.PAYLOAD_TYPE_TRANSACTION, legacyEntry.getPayloadType());
+        assertEquals("payload", new String(legacyEntry.getPayload().array()));
+        legacyEntry.free();
+        
+        ReusableBuffer current = e.serialize(crc);
+        crc.reset();
+        LogEntry currentEntry = LogEntry.deserialize(current, crc);
+        crc.reset();
+        assertEquals(LogEntry.PAYLOAD_TYPE_TRANSACTION, currentEntry.getPayloadType());
+        assertEquals("payload", new String(currentEntry.getPayload().array()));
+        currentEntry.free();
+        
+        // deserialization must not modify the frame
+        assertEquals(legacy.remaining(), current.remaining());
+        ReusableBuffer copy = ReusableBuffer.wrap(current.array());
+        LogEntry.deserialize(current, crc).free();
+        crc.reset();
+        assertEquals(copy.getBuffer(), current.getBuffer());
+        
+        // a corrupted payload has to be detected
+        current.getBuffer().put(LogEntry.headerLength - Integer.SIZE / 8, (byte) 'P');
+        try {
+            LogEntry.deserialize(current, crc);
+            fail("corrupted frame was accepted");
+        } catch (LogEntryException exc) {
+            // expected
+        }
+        
+        BufferPool.free(legacy);
+        BufferPool.free(current);
+        e.free();
+    }
+    
+    @Test
+    public void testReadAhead() throws Exception {
+        
+        final AtomicInteger count = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                fail("this should not happen");
+            }
+        };
+        
+        // write entries of varying sizes, some of which exceed the read-ahead
+        // buffer and many of which span read-ahead chunk boundaries
+        final int numEntries = 60;
+        for (int i = 0; i < numEntries; i++) {
+            byte[] pl = new byte[(i % 3 == 0) ? DiskLogFile.READ_AHEAD_SIZE + i : 7919 * i + 1];
+            pl[0] = (byte) i;
+            pl[pl.length - 1] = (byte) i;
+            l.append(new LogEntry(ReusableBuffer.wrap(pl), sl, LogEntry.PAYLOAD_TYPE_INSERT));
+        }
+        synchronized (count) {
+            while (count.get() < numEntries)
+                count.wait(1000);
+        }
+        
+        try {
+            l.lock();
+            l.switchLogFile(false);
+        } finally {
+            l.unlock();
+        }
+        
+        File[] logFiles = new File(testdir).listFiles();
+        PrefetchingLogIterator it = new PrefetchingLogIterator(new DiskLogIterator(logFiles, null), 4);
+        for (int i = 0; i < numEntries; i++) {
+            assertTrue(it.hasNext());
+            LogEntry next = it.next();
+            ReusableBuffer pl = next.getPayload();
+            assertEquals((i % 3 == 0) ? DiskLogFile.READ_AHEAD_SIZE + i : 7919 * i + 1, pl.remaining());
+            assertEquals((byte) i, pl.get(0));
+            assertEquals((byte) i, pl.get(pl.remaining() - 1));
+            assertEquals(new LSN(1, i + 1), next.getLSN());
+            next.free();
+        }
+        assertFalse(it.hasNext());
+        it.destroy();
+        
+        // destroying an iterator before the end of the log has been reached
+        it = new PrefetchingLogIterator(new DiskLogIterator(logFiles, null), 4);
+        it.next().free();
+        it.destroy();
+    }
+    
     @Test
     public void testLogIterator() throws Exception {
         
@@ -417,6 +598,88 @@ public class DiskLoggerTest extends TestCase {
         
     }
     
+    @Test
+    public void testLogIndex() throws Exception {
+        
+        final AtomicInteger count = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                fail("this should not happen");
+            }
+        };
+        
+        final int numEntries = 2000;
+        for (int i = 0; i < numEntries; i++) {
+            byte[] pl = new byte[500];
+            pl[0] = (byte) i;
+            l.append(new LogEntry(ReusableBuffer.wrap(pl), sl, LogEntry.PAYLOAD_TYPE_INSERT));
+        }
+        synchronized (count) {
+            while (count.get() < numEntries)
+                count.wait(1000);
+        }
+        
+        try {
+            l.lock();
+            l.switchLogFile(false);
+        } finally {
+            l.unlock();
+        }
+        
+        // the logger has indexed the file while writing it
+        LSN logLSN = new LSN(1, 1);
+        LogIndex index = l.getLogIndex();
+        assertTrue(index.get(logLSN).size() > 0);
+        
+        File[] logFiles = new File(testdir).listFiles();
+        File logFile = new File(testdir + DiskLogger.createLogFileName(1, 1));
+        long length = logFile.length();
+        
+        int[] starts = new int[] { 1, 2, 130, 131, 999, 1000, 1999, 2000 };
+        for (int k : starts) {
+            assertIteration(logFiles, index, k, numEntries);
+        }
+        
+        // the index is rebuilt when the file is read
+        index.remove(logLSN);
+        assertIteration(logFiles, index, 1, numEntries);
+        assertTrue(index.get(logLSN).size() > 0);
+        
+        // an outdated index must neither lead to wrong results nor cause the
+        // file to be truncated
+        index.remove(logLSN);
+        index.get(logLSN).add(new LSN(1, 500), 100 * 1000 + 3);
+        index.get(logLSN).add(new LSN(1, 1500), 200 * 1000);
+        for (int k : starts) {
+            assertIteration(logFiles, index, k, numEntries);
+        }
+        assertEquals(length, logFile.length());
+    }
+    
+    private static void assertIteration(File[] logFiles, LogIndex index, int from, int numEntries)
+        throws Exception {
+        
+        DiskLogIterator it = new DiskLogIterator(logFiles, new LSN(1, from), index);
+        for (int i = from; i <= numEntries; i++) {
+            assertTrue(it.hasNext());
+            LogEntry next = it.next();
+            assertEquals(new LSN(1, i), next.getLSN());
+            assertEquals((byte) (i - 1), next.getPayload().get(0));
+            next.free();
+        }
+        assertFalse(it.hasNext());
+        it.destroy();
+    }
+    
     @Test
     public void testSyncListener() throws Exception {
         